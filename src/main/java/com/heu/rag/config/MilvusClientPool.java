@@ -0,0 +1,294 @@
+package com.heu.rag.config;
+
+import io.milvus.client.MilvusServiceClient;
+import io.milvus.grpc.CheckHealthResponse;
+import io.milvus.param.ConnectParam;
+import io.milvus.param.R;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded pool of long-lived Milvus clients.
+ *
+ * Each MilvusServiceClient owns a gRPC channel, so creating one per call pays a
+ * full connection handshake. The pool keeps clients open between calls and:
+ * - bounds concurrent Milvus calls with a semaphore (callers wait up to maxWait)
+ * - health-checks idle clients before reuse and in the background
+ * - evicts clients idle longer than idleTimeout, and opens new ones in the
+ *   background (at startup and after each eviction run) to keep minIdle warm
+ * - drops broken clients so the next borrow reconnects
+ */
+@Slf4j
+public class MilvusClientPool implements AutoCloseable {
+
+    private final ConnectParam connectParam;
+    private final int maxTotal;
+    private final int minIdle;
+    private final long maxWaitMs;
+    private final long idleTimeoutMs;
+    private final long validationIntervalMs;
+
+    private final LinkedBlockingDeque<PooledClient> idleClients = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final ScheduledExecutorService evictor;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    // Metrics
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public MilvusClientPool(ConnectParam connectParam, int maxTotal, int minIdle, long maxWaitMs,
+            long idleTimeoutMs, long validationIntervalMs, long evictionIntervalMs) {
+        if (maxTotal <= 0) {
+            throw new IllegalArgumentException("Milvus pool max-total must be positive");
+        }
+        this.connectParam = connectParam;
+        this.maxTotal = maxTotal;
+        this.minIdle = Math.max(0, Math.min(minIdle, maxTotal));
+        this.maxWaitMs = maxWaitMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.validationIntervalMs = validationIntervalMs;
+        this.permits = new Semaphore(maxTotal, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "milvus-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // First run right away, so the minIdle clients are connected before the first call
+        this.evictor.scheduleWithFixedDelay(this::evictAndValidate,
+                0, evictionIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a client, run the action and return the client to the pool.
+     * A client is discarded (and later recreated) if the action fails with a
+     * connection-level error.
+     */
+    public <T> T execute(Function<MilvusServiceClient, T> action) {
+        PooledClient pooled = borrow();
+        boolean broken = false;
+        try {
+            T result = action.apply(pooled.client);
+            if (result instanceof R<?> r && r.getStatus() != R.Status.Success.getCode()) {
+                broken = isConnectionFailure(r) || !pooled.client.clientIsReady();
+            }
+            return result;
+        } catch (RuntimeException e) {
+            broken = !pooled.client.clientIsReady();
+            throw e;
+        } finally {
+            release(pooled, broken);
+        }
+    }
+
+    private PooledClient borrow() {
+        if (closed.get()) {
+            throw new IllegalStateException("Milvus client pool is closed");
+        }
+
+        long waitStart = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                throw new IllegalStateException(
+                        "Timed out after " + maxWaitMs + "ms waiting for a Milvus client (maxTotal=" + maxTotal + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a Milvus client", e);
+        }
+        recordWait(System.nanoTime() - waitStart);
+
+        try {
+            PooledClient pooled;
+            while ((pooled = idleClients.pollFirst()) != null) {
+                if (validateIfStale(pooled)) {
+                    break;
+                }
+                destroy(pooled);
+            }
+            if (pooled == null) {
+                pooled = create();
+            }
+            activeCount.incrementAndGet();
+            borrowCount.increment();
+            return pooled;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void release(PooledClient pooled, boolean broken) {
+        activeCount.decrementAndGet();
+        try {
+            if (broken || closed.get()) {
+                if (broken) {
+                    log.warn("Discarding broken Milvus client, a new connection will be created on next use");
+                }
+                destroy(pooled);
+            } else {
+                pooled.lastUsedAt = System.currentTimeMillis();
+                idleClients.offerFirst(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private PooledClient create() {
+        MilvusServiceClient client = new MilvusServiceClient(connectParam);
+        createdCount.incrementAndGet();
+        log.debug("Created pooled Milvus client (created={}, destroyed={})", createdCount.get(), destroyedCount.get());
+        return new PooledClient(client);
+    }
+
+    private void destroy(PooledClient pooled) {
+        destroyedCount.incrementAndGet();
+        try {
+            pooled.client.close();
+        } catch (Exception e) {
+            log.warn("Error closing Milvus client", e);
+        }
+    }
+
+    /**
+     * Validate a client that has been idle longer than validationInterval.
+     */
+    private boolean validateIfStale(PooledClient pooled) {
+        long idleFor = System.currentTimeMillis() - pooled.lastUsedAt;
+        if (idleFor < validationIntervalMs) {
+            return pooled.client.clientIsReady();
+        }
+        return isHealthy(pooled);
+    }
+
+    private boolean isHealthy(PooledClient pooled) {
+        try {
+            if (!pooled.client.clientIsReady()) {
+                return false;
+            }
+            R<CheckHealthResponse> health = pooled.client.checkHealth();
+            boolean healthy = health.getStatus() == R.Status.Success.getCode()
+                    && health.getData() != null
+                    && health.getData().getIsHealthy();
+            if (!healthy) {
+                log.warn("Milvus health check failed: {}", health.getMessage());
+            }
+            return healthy;
+        } catch (Exception e) {
+            log.warn("Milvus health check threw: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean isConnectionFailure(R<?> result) {
+        Integer status = result.getStatus();
+        return status != null && (status == R.Status.RpcError.getCode()
+                || status == R.Status.ConnectFailed.getCode()
+                || status == R.Status.ClientNotConnected.getCode());
+    }
+
+    /**
+     * Background maintenance: close clients idle beyond idleTimeout while keeping
+     * minIdle, drop idle clients that fail a health check, then top the idle
+     * clients back up to minIdle.
+     */
+    private void evictAndValidate() {
+        if (closed.get()) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            Iterator<PooledClient> it = idleClients.descendingIterator();
+            while (it.hasNext()) {
+                PooledClient pooled = it.next();
+                boolean expired = now - pooled.lastUsedAt > idleTimeoutMs && idleClients.size() > minIdle;
+                if ((expired || !isHealthy(pooled)) && idleClients.remove(pooled)) {
+                    destroy(pooled);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Milvus pool eviction run failed", e);
+        }
+        ensureMinIdle();
+    }
+
+    /**
+     * Open clients until minIdle are idle (without exceeding maxTotal
+     * clients); a connection failure is retried on the next run
+     */
+    private void ensureMinIdle() {
+        try {
+            while (!closed.get() && idleClients.size() < minIdle
+                    && idleClients.size() + activeCount.get() < maxTotal) {
+                idleClients.offerLast(create());
+            }
+        } catch (Exception e) {
+            log.warn("Failed to open idle Milvus clients: {}", e.getMessage());
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    public PoolStats stats() {
+        long borrows = borrowCount.sum();
+        double avgWaitMs = borrows == 0 ? 0.0 : totalWaitNanos.sum() / (double) borrows / 1_000_000.0;
+        return new PoolStats(
+                activeCount.get(),
+                idleClients.size(),
+                maxTotal,
+                borrows,
+                avgWaitMs,
+                maxWaitNanos.get() / 1_000_000.0,
+                timeoutCount.get(),
+                createdCount.get(),
+                destroyedCount.get());
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        evictor.shutdownNow();
+        PooledClient pooled;
+        while ((pooled = idleClients.pollFirst()) != null) {
+            destroy(pooled);
+        }
+        log.info("Milvus client pool closed: {}", stats());
+    }
+
+    private static final class PooledClient {
+        private final MilvusServiceClient client;
+        private volatile long lastUsedAt = System.currentTimeMillis();
+
+        private PooledClient(MilvusServiceClient client) {
+            this.client = client;
+        }
+    }
+
+    public record PoolStats(int active, int idle, int maxTotal, long borrowCount, double avgWaitMs,
+            double maxWaitMs, long waitTimeouts, long created, long destroyed) {
+    }
+}
@@ -1,35 +1,51 @@
 package com.heu.rag.config;
 
+import com.google.gson.JsonParser;
 import io.milvus.client.MilvusServiceClient;
 import io.milvus.grpc.DataType;
+import io.milvus.grpc.DescribeCollectionResponse;
+import io.milvus.grpc.DescribeIndexResponse;
+import io.milvus.grpc.IndexDescription;
+import io.milvus.grpc.KeyValuePair;
 import io.milvus.param.ConnectParam;
 import io.milvus.param.IndexType;
 import io.milvus.param.MetricType;
 import io.milvus.param.R;
+import io.milvus.param.collection.CollectionSchemaParam;
 import io.milvus.param.collection.CreateCollectionParam;
 import io.milvus.param.collection.DescribeCollectionParam;
 import io.milvus.param.collection.DropCollectionParam;
 import io.milvus.param.collection.FieldType;
 import io.milvus.param.collection.HasCollectionParam;
+import io.milvus.param.collection.ReleaseCollectionParam;
+import io.milvus.param.index.AlterIndexParam;
 import io.milvus.param.index.CreateIndexParam;
+import io.milvus.param.index.DescribeIndexParam;
+import io.milvus.param.index.DropIndexParam;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.annotation.Order;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Milvus Configuration
- * Ensures the vector_store collection is created on application startup
+ * Ensures the collection of the configured schema version (see MilvusSchema)
+ * is created on application startup
  */
 @Configuration
+@RequiredArgsConstructor
 @Slf4j
 @Order(1) // Run early to ensure collection exists before VectorStore is used
 public class MilvusConfig implements CommandLineRunner {
 
+    private final VectorIndexSettings vectorIndexSettings;
+
     @Value("${spring.ai.vectorstore.milvus.client.host:localhost}")
     private String milvusHost;
 
@@ -39,11 +55,25 @@ public class MilvusConfig implements CommandLineRunner {
     @Value("${spring.ai.vectorstore.milvus.embedding-dimension:4096}")
     private int embeddingDimension;
 
-    private static final String COLLECTION_NAME = "vector_store";
-    private static final String ID_FIELD = "id";
-    private static final String CONTENT_FIELD = "content";
-    private static final String VECTOR_FIELD = "embedding";
-    private static final String METADATA_FIELD = "metadata_json";
+    @Value("${rag.milvus.schema-version:v1}")
+    private String schemaVersion;
+
+    @Value("${rag.milvus.migration.enabled:false}")
+    private boolean migrationEnabled;
+
+    @Value("${rag.milvus.v2.partitions:64}")
+    private int v2Partitions;
+
+    @Value("${rag.milvus.reduction.enabled:false}")
+    private boolean reductionEnabled;
+
+    @Value("${rag.milvus.reduction.dimension:512}")
+    private int reducedDimension;
+
+    @Value("${rag.vector.backend:milvus}")
+    private String vectorBackend;
+
+    private static final String VECTOR_FIELD = MilvusSchema.VECTOR_FIELD;
     
     private enum DimensionValidationResult {
         MATCHED,
@@ -53,7 +83,13 @@ public class MilvusConfig implements CommandLineRunner {
 
     @Override
     public void run(String... args) {
-        log.info("Initializing Milvus collection '{}'...", COLLECTION_NAME);
+        if ("embedded".equalsIgnoreCase(vectorBackend.trim())) {
+            log.info("Embedded vector backend selected, skipping Milvus collection initialization");
+            return;
+        }
+        MilvusSchema schema = MilvusSchema.fromProperty(schemaVersion);
+        log.info("Initializing Milvus collection '{}' (schema {})...", schema.collectionName(), schema);
+        vectorIndexSettings.validate(reductionEnabled ? reducedDimension : embeddingDimension);
 
         MilvusServiceClient client = null;
         try {
@@ -65,9 +101,14 @@ public class MilvusConfig implements CommandLineRunner {
                             .build());
 
             // Ensure collection exists
-            ensureCollectionExists(client);
+            ensureCollectionExists(client, schema);
+            log.info("Milvus collection '{}' is ready", schema.collectionName());
 
-            log.info("Milvus collection '{}' is ready", COLLECTION_NAME);
+            // The v1 -> v2 migration copies into the v2 collection while v1 is still active
+            if (migrationEnabled && schema != MilvusSchema.V2) {
+                ensureCollectionExists(client, MilvusSchema.V2);
+                log.info("Milvus migration target collection '{}' is ready", MilvusSchema.V2.collectionName());
+            }
         } catch (Exception e) {
             log.error("Failed to initialize Milvus collection", e);
             throw new RuntimeException("Failed to initialize Milvus collection", e);
@@ -83,92 +124,84 @@ public class MilvusConfig implements CommandLineRunner {
     }
 
     /**
-     * Ensure the vector_store collection exists, create if not
+     * Ensure the collection of the schema exists, create if not
      * Also validates and rebuilds collection if embedding dimension mismatch
      */
-    private void ensureCollectionExists(MilvusServiceClient client) {
+    private void ensureCollectionExists(MilvusServiceClient client, MilvusSchema schema) {
+        String collectionName = schema.collectionName();
         try {
             // Check if collection exists
             R<Boolean> hasCollection = client.hasCollection(
                     HasCollectionParam.newBuilder()
-                            .withCollectionName(COLLECTION_NAME)
+                            .withCollectionName(collectionName)
                             .build());
 
             if (hasCollection.getData() != null && hasCollection.getData()) {
-                log.info("Collection '{}' already exists, validating dimension...", COLLECTION_NAME);
+                log.info("Collection '{}' already exists, validating dimension...", collectionName);
 
-                DimensionValidationResult validationResult = validateCollectionDimension(client);
+                DimensionValidationResult validationResult = validateCollectionDimension(client, collectionName);
                 if (validationResult == DimensionValidationResult.MATCHED) {
-                    log.info("Collection '{}' dimension validation passed (dim={})", COLLECTION_NAME,
+                    log.info("Collection '{}' dimension validation passed (dim={})", collectionName,
                             embeddingDimension);
+                    ensureIndexProfile(client, collectionName, annField(client, schema));
                     return;
                 }
 
                 // Only allow destructive rebuild when mismatch is explicitly confirmed.
                 if (validationResult == DimensionValidationResult.MISMATCHED) {
                     log.warn("Collection '{}' has mismatched embedding dimension. Dropping and recreating...",
-                            COLLECTION_NAME);
-                    dropCollection(client);
+                            collectionName);
+                    dropCollection(client, collectionName);
                     // Continue to create new collection below
                 } else {
                     log.warn(
                             "Collection '{}' dimension validation is UNKNOWN, skip drop/recreate to protect existing vectors",
-                            COLLECTION_NAME);
+                            collectionName);
                     return;
                 }
             }
 
-            log.info("Collection '{}' does not exist or was dropped, creating with dimension {}...", COLLECTION_NAME,
+            log.info("Collection '{}' does not exist or was dropped, creating with dimension {}...", collectionName,
                     embeddingDimension);
 
-            // Define field types
-            List<FieldType> fields = new ArrayList<>();
-
-            // ID field (VARCHAR)
-            fields.add(FieldType.newBuilder()
-                    .withName(ID_FIELD)
-                    .withDataType(DataType.VarChar)
-                    .withMaxLength(65535)
-                    .withPrimaryKey(true)
-                    .withAutoID(false)
-                    .build());
-
-            // Content field (VARCHAR)
-            fields.add(FieldType.newBuilder()
-                    .withName(CONTENT_FIELD)
-                    .withDataType(DataType.VarChar)
-                    .withMaxLength(65535)
-                    .build());
-
-            // Vector field (FLOAT_VECTOR)
-            fields.add(FieldType.newBuilder()
-                    .withName(VECTOR_FIELD)
-                    .withDataType(DataType.FloatVector)
-                    .withDimension(embeddingDimension)
-                    .build());
-
-            // Metadata field (JSON)
-            fields.add(FieldType.newBuilder()
-                    .withName(METADATA_FIELD)
-                    .withDataType(DataType.JSON)
-                    .build());
+            // Define field types (see MilvusSchema); with dimension reduction the v2
+            // collection also gets the reduced vector field (see VectorReductionService)
+            boolean reduced = reductionEnabled && schema == MilvusSchema.V2;
+            List<FieldType> fields = schema.fieldTypes(embeddingDimension, reduced ? reducedDimension : 0);
 
             // Create collection
-            CreateCollectionParam createParam = CreateCollectionParam.newBuilder()
-                    .withCollectionName(COLLECTION_NAME)
-                    .withFieldTypes(fields)
-                    .withDescription("Vector store for RAG documents")
-                    .build();
+            CreateCollectionParam.Builder createBuilder = CreateCollectionParam.newBuilder()
+                    .withCollectionName(collectionName)
+                    .withSchema(CollectionSchemaParam.newBuilder()
+                            .withFieldTypes(fields)
+                            .build())
+                    .withDescription("Vector store for RAG documents");
+            if (schema == MilvusSchema.V2) {
+                // base_id is the partition key: chunks are hashed into this many partitions
+                createBuilder.withPartitionsNum(v2Partitions);
+            }
+            CreateCollectionParam createParam = createBuilder.build();
 
             R<?> createResult = client.createCollection(createParam);
 
             if (createResult.getStatus() == R.Status.Success.getCode()) {
-                log.info("Successfully created collection '{}'", COLLECTION_NAME);
+                log.info("Successfully created collection '{}'", collectionName);
 
                 // Create index on vector field for similarity search
-                createIndex(client);
+                if (reduced) {
+                    // ANN index on the reduced vectors; Milvus only loads collections whose
+                    // vector fields are all indexed, so the full vectors get a FLAT index
+                    // kept on disk (mmap) as they are only read for rescoring
+                    createIndex(client, collectionName, MilvusSchema.VECTOR_REDUCED_FIELD);
+                    createRescoreIndex(client, collectionName);
+                } else {
+                    createIndex(client, collectionName, VECTOR_FIELD);
+                }
+                if (schema == MilvusSchema.V2) {
+                    createScalarIndex(client, collectionName, MilvusSchema.DOC_ID_FIELD);
+                }
             } else {
-                log.error("Failed to create collection '{}': {}", COLLECTION_NAME, createResult.getMessage());
+                log.error("Failed to create collection '{}': {}", collectionName, createResult.getMessage());
                 throw new RuntimeException("Failed to create Milvus collection: " + createResult.getMessage());
             }
 
@@ -183,15 +216,16 @@ public class MilvusConfig implements CommandLineRunner {
      * 
      * @return true if dimension matches, false otherwise
      */
-    private DimensionValidationResult validateCollectionDimension(MilvusServiceClient client) {
+    private DimensionValidationResult validateCollectionDimension(MilvusServiceClient client,
+            String collectionName) {
         try {
             R<?> describeResult = client.describeCollection(
                     DescribeCollectionParam.newBuilder()
-                            .withCollectionName(COLLECTION_NAME)
+                            .withCollectionName(collectionName)
                             .build());
 
             if (describeResult.getStatus() != R.Status.Success.getCode()) {
-                log.error("Failed to describe collection '{}': {}", COLLECTION_NAME, describeResult.getMessage());
+                log.error("Failed to describe collection '{}': {}", collectionName, describeResult.getMessage());
                 return DimensionValidationResult.UNKNOWN;
             }
 
@@ -211,7 +245,7 @@ public class MilvusConfig implements CommandLineRunner {
                 List<FieldType> fields = (List<FieldType>) getFieldsMethod.invoke(data);
 
                 if (fields == null || fields.isEmpty()) {
-                    log.warn("Collection '{}' has no fields", COLLECTION_NAME);
+                    log.warn("Collection '{}' has no fields", collectionName);
                     return DimensionValidationResult.UNKNOWN;
                 }
 
@@ -220,7 +254,7 @@ public class MilvusConfig implements CommandLineRunner {
                     if (VECTOR_FIELD.equals(field.getName()) && field.getDataType() == DataType.FloatVector) {
                         int actualDimension = field.getDimension();
                         log.info("Collection '{}' embedding field dimension: {} (configured: {})",
-                                COLLECTION_NAME, actualDimension, embeddingDimension);
+                                collectionName, actualDimension, embeddingDimension);
 
                         if (actualDimension != embeddingDimension) {
                             log.error("Dimension mismatch! Collection has dim={}, but configuration requires dim={}. " +
@@ -247,18 +281,18 @@ public class MilvusConfig implements CommandLineRunner {
     /**
      * Drop the collection (use with caution - this deletes all data)
      */
-    private void dropCollection(MilvusServiceClient client) {
+    private void dropCollection(MilvusServiceClient client, String collectionName) {
         try {
-            log.warn("Dropping collection '{}' to recreate with correct dimension...", COLLECTION_NAME);
+            log.warn("Dropping collection '{}' to recreate with correct dimension...", collectionName);
             R<?> dropResult = client.dropCollection(
                     DropCollectionParam.newBuilder()
-                            .withCollectionName(COLLECTION_NAME)
+                            .withCollectionName(collectionName)
                             .build());
 
             if (dropResult.getStatus() == R.Status.Success.getCode()) {
-                log.info("Successfully dropped collection '{}'", COLLECTION_NAME);
+                log.info("Successfully dropped collection '{}'", collectionName);
             } else {
-                log.error("Failed to drop collection '{}': {}", COLLECTION_NAME, dropResult.getMessage());
+                log.error("Failed to drop collection '{}': {}", collectionName, dropResult.getMessage());
                 throw new RuntimeException("Failed to drop collection: " + dropResult.getMessage());
             }
         } catch (Exception e) {
@@ -268,23 +302,133 @@ public class MilvusConfig implements CommandLineRunner {
     }
 
     /**
-     * Create index on vector field for efficient similarity search
+     * ANN-indexed vector field of an existing collection: the reduced field
+     * when dimension reduction is enabled and the collection was created with
+     * it, the full embedding otherwise.
+     */
+    private String annField(MilvusServiceClient client, MilvusSchema schema) {
+        if (!reductionEnabled || schema != MilvusSchema.V2) {
+            return VECTOR_FIELD;
+        }
+        R<DescribeCollectionResponse> describeResult = client.describeCollection(DescribeCollectionParam.newBuilder()
+                .withCollectionName(schema.collectionName())
+                .build());
+        boolean hasReducedField = describeResult.getStatus() == R.Status.Success.getCode()
+                && describeResult.getData() != null
+                && describeResult.getData().getSchema().getFieldsList().stream()
+                        .anyMatch(field -> MilvusSchema.VECTOR_REDUCED_FIELD.equals(field.getName()));
+        if (!hasReducedField) {
+            log.warn("Collection '{}' was created without '{}'; drop and re-create it to use dimension reduction",
+                    schema.collectionName(), MilvusSchema.VECTOR_REDUCED_FIELD);
+            return VECTOR_FIELD;
+        }
+        return MilvusSchema.VECTOR_REDUCED_FIELD;
+    }
+
+    /**
+     * Compare the index of the ANN vector field with the configured profile
+     * (see VectorIndexSettings): index type and build params (nlist, M,
+     * efConstruction, ...). On mismatch the index is rebuilt when
+     * rag.milvus.index.rebuild-on-change is set (the collection is released
+     * and reloaded on the next search); otherwise a warning is logged.
+     */
+    private void ensureIndexProfile(MilvusServiceClient client, String collectionName, String fieldName) {
+        try {
+            R<DescribeIndexResponse> describeResult = client.describeIndex(DescribeIndexParam.newBuilder()
+                    .withCollectionName(collectionName)
+                    .withFieldName(fieldName)
+                    .build());
+            if (describeResult.getStatus() != R.Status.Success.getCode() || describeResult.getData() == null
+                    || describeResult.getData().getIndexDescriptionsCount() == 0) {
+                log.warn("No index found on vector field of '{}', creating {}", collectionName,
+                        vectorIndexSettings.getProfile());
+                createIndex(client, collectionName, fieldName);
+                return;
+            }
+
+            IndexDescription index = describeResult.getData().getIndexDescriptions(0);
+            Map<String, String> currentParams = indexParams(index);
+            String currentType = currentParams.getOrDefault("index_type", "");
+            String wantedType = vectorIndexSettings.getProfile().indexType().name();
+            String current = currentType + currentParams;
+            String wanted = wantedType + vectorIndexSettings.buildParamsJson();
+            if (wantedType.equalsIgnoreCase(currentType) && buildParamsMatch(currentParams)) {
+                return;
+            }
+
+            if (!vectorIndexSettings.isRebuildOnChange()) {
+                log.warn("Collection '{}' has a {} index but {} is configured; set "
+                        + "rag.milvus.index.rebuild-on-change=true to rebuild it", collectionName, current, wanted);
+                return;
+            }
+
+            log.warn("Rebuilding index of '{}': {} -> {}", collectionName, current, wanted);
+            client.releaseCollection(ReleaseCollectionParam.newBuilder()
+                    .withCollectionName(collectionName)
+                    .build());
+            R<?> dropResult = client.dropIndex(DropIndexParam.newBuilder()
+                    .withCollectionName(collectionName)
+                    .withIndexName(index.getIndexName())
+                    .build());
+            if (dropResult.getStatus() != R.Status.Success.getCode()) {
+                log.error("Failed to drop index '{}' of '{}': {}", index.getIndexName(), collectionName,
+                        dropResult.getMessage());
+                return;
+            }
+            createIndex(client, collectionName, fieldName);
+        } catch (Exception e) {
+            log.warn("Error checking index profile of '{}', keeping the existing index", collectionName, e);
+        }
+    }
+
+    /**
+     * Params of an existing index. Depending on the Milvus version the build
+     * params are listed individually or as one "params" JSON object; both are
+     * flattened into the map.
+     */
+    private static Map<String, String> indexParams(IndexDescription index) {
+        Map<String, String> params = new TreeMap<>();
+        for (KeyValuePair param : index.getParamsList()) {
+            if ("params".equals(param.getKey())) {
+                try {
+                    JsonParser.parseString(param.getValue()).getAsJsonObject().entrySet()
+                            .forEach(entry -> params.put(entry.getKey(), entry.getValue().getAsString()));
+                } catch (RuntimeException e) {
+                    log.debug("Unparseable index params '{}'", param.getValue());
+                }
+            } else {
+                params.put(param.getKey(), param.getValue());
+            }
+        }
+        return params;
+    }
+
+    private boolean buildParamsMatch(Map<String, String> currentParams) {
+        return vectorIndexSettings.getProfile().buildParams(vectorIndexSettings).entrySet().stream()
+                .allMatch(entry -> String.valueOf(entry.getValue()).equals(currentParams.get(entry.getKey())));
+    }
+
+    /**
+     * Create index on a vector field for efficient similarity search, using
+     * the configured index profile
      */
-    private void createIndex(MilvusServiceClient client) {
+    private void createIndex(MilvusServiceClient client, String collectionName, String fieldName) {
         try {
             CreateIndexParam indexParam = CreateIndexParam.newBuilder()
-                    .withCollectionName(COLLECTION_NAME)
-                    .withFieldName(VECTOR_FIELD)
-                    .withIndexType(IndexType.IVF_FLAT)
+                    .withCollectionName(collectionName)
+                    .withFieldName(fieldName)
+                    .withIndexName(fieldName)
+                    .withIndexType(vectorIndexSettings.getProfile().indexType())
                     .withMetricType(MetricType.COSINE)
-                    .withExtraParam("{\"nlist\":1024}")
+                    .withExtraParam(vectorIndexSettings.buildParamsJson())
                     .withSyncMode(Boolean.FALSE)
                     .build();
 
             R<?> indexResult = client.createIndex(indexParam);
 
             if (indexResult.getStatus() == R.Status.Success.getCode()) {
-                log.info("Successfully created index on vector field");
+                log.info("Successfully created {} index on vector field '{}'", vectorIndexSettings.getProfile(),
+                        fieldName);
             } else {
                 log.warn("Failed to create index: {}", indexResult.getMessage());
             }
@@ -292,4 +436,61 @@ public class MilvusConfig implements CommandLineRunner {
             log.warn("Error creating index, continuing without index", e);
         }
     }
+
+    /**
+     * FLAT index on the full embedding of a reduced collection, memory-mapped
+     * so the full vectors are read from disk only for rescored candidates
+     */
+    private void createRescoreIndex(MilvusServiceClient client, String collectionName) {
+        try {
+            R<?> indexResult = client.createIndex(CreateIndexParam.newBuilder()
+                    .withCollectionName(collectionName)
+                    .withFieldName(VECTOR_FIELD)
+                    .withIndexName(VECTOR_FIELD)
+                    .withIndexType(IndexType.FLAT)
+                    .withMetricType(MetricType.COSINE)
+                    .withSyncMode(Boolean.FALSE)
+                    .build());
+            if (indexResult.getStatus() != R.Status.Success.getCode()) {
+                log.warn("Failed to create rescore index: {}", indexResult.getMessage());
+                return;
+            }
+
+            R<?> mmapResult = client.alterIndex(AlterIndexParam.newBuilder()
+                    .withCollectionName(collectionName)
+                    .withIndexName(VECTOR_FIELD)
+                    .withMMapEnabled(true)
+                    .build());
+            if (mmapResult.getStatus() == R.Status.Success.getCode()) {
+                log.info("Successfully created mmap FLAT index on vector field '{}'", VECTOR_FIELD);
+            } else {
+                log.warn("Failed to enable mmap on rescore index: {}", mmapResult.getMessage());
+            }
+        } catch (Exception e) {
+            log.warn("Error creating rescore index, continuing without it", e);
+        }
+    }
+
+    /**
+     * Create an inverted index on a scalar field (v2 doc_id lookups/deletes)
+     */
+    private void createScalarIndex(MilvusServiceClient client, String collectionName, String fieldName) {
+        try {
+            R<?> indexResult = client.createIndex(CreateIndexParam.newBuilder()
+                    .withCollectionName(collectionName)
+                    .withFieldName(fieldName)
+                    .withIndexName(fieldName + "_idx")
+                    .withIndexType(IndexType.INVERTED)
+                    .withSyncMode(Boolean.FALSE)
+                    .build());
+
+            if (indexResult.getStatus() == R.Status.Success.getCode()) {
+                log.info("Successfully created scalar index on field '{}'", fieldName);
+            } else {
+                log.warn("Failed to create scalar index on field '{}': {}", fieldName, indexResult.getMessage());
+            }
+        } catch (Exception e) {
+            log.warn("Error creating scalar index on field '{}', continuing without it", fieldName, e);
+        }
+    }
 }
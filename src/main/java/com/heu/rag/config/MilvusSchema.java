@@ -0,0 +1,347 @@
+package com.heu.rag.config;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.milvus.grpc.DataType;
+import io.milvus.param.collection.FieldType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Milvus collection layouts.
+ *
+ * V1 ("vector_store"): VarChar primary key, every filter attribute lives in
+ * the metadata_json JSON field and is matched with JSON-path string
+ * comparisons.
+ *
+ * V2 ("vector_store_v2"): int64 primary key and typed scalar fields base_id,
+ * doc_id and chunk_index, with base_id as the partition key so a
+ * knowledge-base filter prunes partitions instead of scanning JSON.
+ * metadata_json is kept for the remaining attributes (fileName etc.).
+ *
+ * A v2 collection can additionally carry embedding_reduced, a
+ * lower-dimensional projection of embedding used for the ANN index when
+ * dimension reduction is enabled (see VectorReductionService); the full
+ * embedding is then only read to rescore candidates.
+ *
+ * Selected with rag.milvus.schema-version (v1 | v2).
+ */
+public enum MilvusSchema {
+
+    V1("vector_store") {
+        @Override
+        public boolean usesInt64Ids() {
+            return false;
+        }
+
+        @Override
+        public String baseFilter(Long baseId) {
+            return String.format("%s[\"baseId\"] == \"%s\"", METADATA_FIELD, baseId);
+        }
+
+        @Override
+        public String docFilter(Long docId) {
+            return String.format("%s[\"docId\"] == \"%s\"", METADATA_FIELD, docId);
+        }
+
+        @Override
+        public String docsFilter(Collection<Long> docIds) {
+            return docIds.stream()
+                    .map(docId -> "\"" + docId + "\"")
+                    .collect(Collectors.joining(", ", METADATA_FIELD + "[\"docId\"] in [", "]"));
+        }
+
+        @Override
+        public List<FieldType> fieldTypes(int dimension) {
+            List<FieldType> fields = new ArrayList<>();
+            fields.add(FieldType.newBuilder()
+                    .withName(ID_FIELD)
+                    .withDataType(DataType.VarChar)
+                    .withMaxLength(65535)
+                    .withPrimaryKey(true)
+                    .withAutoID(false)
+                    .build());
+            addCommonFields(fields, dimension);
+            return fields;
+        }
+
+        @Override
+        public JsonObject toRow(String id, String content, float[] embedding, JsonObject metadata) {
+            JsonObject row = new JsonObject();
+            row.addProperty(ID_FIELD, id);
+            addCommonValues(row, content, embedding, metadata);
+            return row;
+        }
+    },
+
+    V2("vector_store_v2") {
+        @Override
+        public boolean usesInt64Ids() {
+            return true;
+        }
+
+        @Override
+        public String baseFilter(Long baseId) {
+            return BASE_ID_FIELD + " == " + baseId;
+        }
+
+        @Override
+        public String docFilter(Long docId) {
+            return DOC_ID_FIELD + " == " + docId;
+        }
+
+        @Override
+        public String docsFilter(Collection<Long> docIds) {
+            return docIds.stream()
+                    .map(String::valueOf)
+                    .collect(Collectors.joining(", ", DOC_ID_FIELD + " in [", "]"));
+        }
+
+        @Override
+        public List<FieldType> fieldTypes(int dimension) {
+            List<FieldType> fields = new ArrayList<>();
+            fields.add(FieldType.newBuilder()
+                    .withName(ID_FIELD)
+                    .withDataType(DataType.Int64)
+                    .withPrimaryKey(true)
+                    .withAutoID(false)
+                    .build());
+            addCommonFields(fields, dimension);
+            fields.add(FieldType.newBuilder()
+                    .withName(BASE_ID_FIELD)
+                    .withDataType(DataType.Int64)
+                    .withPartitionKey(true)
+                    .build());
+            fields.add(FieldType.newBuilder()
+                    .withName(DOC_ID_FIELD)
+                    .withDataType(DataType.Int64)
+                    .build());
+            fields.add(FieldType.newBuilder()
+                    .withName(CHUNK_INDEX_FIELD)
+                    .withDataType(DataType.Int32)
+                    .build());
+            return fields;
+        }
+
+        @Override
+        public JsonObject toRow(String id, String content, float[] embedding, JsonObject metadata) {
+            JsonObject row = new JsonObject();
+            row.addProperty(ID_FIELD, Long.parseLong(id));
+            addCommonValues(row, content, embedding, metadata);
+            row.addProperty(BASE_ID_FIELD, requireLong(metadata, "baseId"));
+            row.addProperty(DOC_ID_FIELD, requireLong(metadata, "docId"));
+            row.addProperty(CHUNK_INDEX_FIELD, (int) requireLong(metadata, "chunkIndex"));
+            return row;
+        }
+    };
+
+    public static final String ID_FIELD = "id";
+    public static final String CONTENT_FIELD = "content";
+    public static final String VECTOR_FIELD = "embedding";
+    public static final String VECTOR_REDUCED_FIELD = "embedding_reduced";
+    public static final String METADATA_FIELD = "metadata_json";
+    public static final String BASE_ID_FIELD = "base_id";
+    public static final String DOC_ID_FIELD = "doc_id";
+    public static final String CHUNK_INDEX_FIELD = "chunk_index";
+
+    private final String collectionName;
+
+    MilvusSchema(String collectionName) {
+        this.collectionName = collectionName;
+    }
+
+    public String collectionName() {
+        return collectionName;
+    }
+
+    /**
+     * Whether the primary key is int64 (ids are generated by the application)
+     * rather than the caller-provided VarChar chunk id.
+     */
+    public abstract boolean usesInt64Ids();
+
+    /**
+     * Filter matching all chunks of a knowledge base.
+     */
+    public abstract String baseFilter(Long baseId);
+
+    /**
+     * Filter matching all chunks of a document.
+     */
+    public abstract String docFilter(Long docId);
+
+    /**
+     * Filter matching all chunks of the given documents (non-empty).
+     */
+    public abstract String docsFilter(Collection<Long> docIds);
+
+    /**
+     * Filter matching rows by primary key (non-empty).
+     */
+    public String idsFilter(Collection<String> ids) {
+        return ids.stream()
+                .map(id -> usesInt64Ids() ? String.valueOf(Long.parseLong(id)) : "\"" + escape(id) + "\"")
+                .collect(Collectors.joining(", ", ID_FIELD + " in [", "]"));
+    }
+
+    /**
+     * Filter matching rows whose primary key sorts after {@code after} (all
+     * rows when null). Milvus returns limited query results in primary-key
+     * order, so repeating the query with the largest id of each page walks a
+     * whole collection without the 16384-row offset window.
+     */
+    public String idAfterFilter(String after) {
+        if (usesInt64Ids()) {
+            return ID_FIELD + " > " + (after == null ? 0L : Long.parseLong(after));
+        }
+        return ID_FIELD + " > \"" + (after == null ? "" : escape(after)) + "\"";
+    }
+
+    /**
+     * Filter matching chunks with chunkIndex in (after, upTo], or null when
+     * the layout cannot compare chunk indexes numerically (v1 stores them as
+     * JSON strings).
+     */
+    public String chunkIndexRangeFilter(int after, int upTo) {
+        if (this != V2) {
+            return null;
+        }
+        return String.format("%s > %d && %s <= %d", CHUNK_INDEX_FIELD, after, CHUNK_INDEX_FIELD, upTo);
+    }
+
+    /**
+     * Filter matching chunks with chunkIndex in [from, from + count). Unlike
+     * chunkIndexRangeFilter this also works on v1, where the indexes are
+     * listed explicitly as JSON strings.
+     */
+    public String chunkIndexWindowFilter(int from, int count) {
+        if (this == V2) {
+            return String.format("%s >= %d && %s < %d", CHUNK_INDEX_FIELD, from, CHUNK_INDEX_FIELD, from + count);
+        }
+        return IntStream.range(from, from + count)
+                .mapToObj(chunkIndex -> "\"" + chunkIndex + "\"")
+                .collect(Collectors.joining(", ", METADATA_FIELD + "[\"chunkIndex\"] in [", "]"));
+    }
+
+    /**
+     * Filter matching chunks whose content contains the given text
+     * (case-sensitive; LIKE wildcards in the text are matched literally).
+     */
+    public String contentContainsFilter(String text) {
+        String pattern = escape(text).replace("%", "\\%").replace("_", "\\_");
+        return String.format("%s like \"%%%s%%\"", CONTENT_FIELD, pattern);
+    }
+
+    /**
+     * Retrieval filter: chunks of a knowledge base except those of the given
+     * (disabled or deleted) documents.
+     */
+    public String retrievalFilter(Long baseId, Collection<Long> excludedDocIds) {
+        if (excludedDocIds.isEmpty()) {
+            return baseFilter(baseId);
+        }
+        return baseFilter(baseId) + " && not (" + docsFilter(excludedDocIds) + ")";
+    }
+
+    public abstract List<FieldType> fieldTypes(int dimension);
+
+    /**
+     * Field types including the reduced vector field when reducedDimension is
+     * positive (v2 only).
+     */
+    public List<FieldType> fieldTypes(int dimension, int reducedDimension) {
+        List<FieldType> fields = fieldTypes(dimension);
+        if (reducedDimension <= 0) {
+            return fields;
+        }
+        if (this != V2) {
+            throw new IllegalStateException("Dimension reduction requires Milvus schema v2");
+        }
+        fields.add(FieldType.newBuilder()
+                .withName(VECTOR_REDUCED_FIELD)
+                .withDataType(DataType.FloatVector)
+                .withDimension(reducedDimension)
+                .build());
+        return fields;
+    }
+
+    /**
+     * Build an insert row. metadata must contain docId, baseId and chunkIndex
+     * (as written by MilvusDocumentSanitizer).
+     */
+    public abstract JsonObject toRow(String id, String content, float[] embedding, JsonObject metadata);
+
+    /**
+     * Build an insert row carrying the reduced vector as well (null for
+     * collections without embedding_reduced).
+     */
+    public JsonObject toRow(String id, String content, float[] embedding, float[] reducedEmbedding,
+            JsonObject metadata) {
+        JsonObject row = toRow(id, content, embedding, metadata);
+        if (reducedEmbedding != null) {
+            row.add(VECTOR_REDUCED_FIELD, toJsonArray(reducedEmbedding));
+        }
+        return row;
+    }
+
+    public static MilvusSchema fromProperty(String version) {
+        String normalized = version == null ? "" : version.trim().toLowerCase(Locale.ROOT);
+        return switch (normalized) {
+            case "v1", "1" -> V1;
+            case "v2", "2" -> V2;
+            default -> throw new IllegalArgumentException("Unknown Milvus schema version: " + version);
+        };
+    }
+
+    private static void addCommonFields(List<FieldType> fields, int dimension) {
+        fields.add(FieldType.newBuilder()
+                .withName(CONTENT_FIELD)
+                .withDataType(DataType.VarChar)
+                .withMaxLength(65535)
+                .build());
+        fields.add(FieldType.newBuilder()
+                .withName(VECTOR_FIELD)
+                .withDataType(DataType.FloatVector)
+                .withDimension(dimension)
+                .build());
+        fields.add(FieldType.newBuilder()
+                .withName(METADATA_FIELD)
+                .withDataType(DataType.JSON)
+                .build());
+    }
+
+    private static void addCommonValues(JsonObject row, String content, float[] embedding, JsonObject metadata) {
+        row.addProperty(CONTENT_FIELD, content);
+        row.add(VECTOR_FIELD, toJsonArray(embedding));
+        row.add(METADATA_FIELD, metadata);
+    }
+
+    private static JsonArray toJsonArray(float[] values) {
+        JsonArray array = new JsonArray(values.length);
+        for (float value : values) {
+            array.add(value);
+        }
+        return array;
+    }
+
+    /**
+     * Escape a value for use inside a double-quoted expression literal.
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static long requireLong(JsonObject metadata, String key) {
+        JsonElement value = metadata.get(key);
+        if (value == null || value.isJsonNull()) {
+            throw new IllegalArgumentException("Chunk metadata is missing " + key);
+        }
+        return Long.parseLong(value.getAsString().trim());
+    }
+}
@@ -1,16 +1,90 @@
 package com.heu.rag.config;
 
+import io.milvus.param.ConnectParam;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Configuration for MilvusService dependencies
- * 
+ *
  * Note: ObjectMapper is now provided by JacksonConfig to avoid bean conflicts
  * and ensure consistent JSON serialization configuration across the
  * application.
  */
 @Configuration
+@Slf4j
 public class MilvusServiceConfig {
     // ObjectMapper bean moved to JacksonConfig to avoid conflicts
     // MilvusService will use the @Primary ObjectMapper from JacksonConfig
+
+    @Value("${spring.ai.vectorstore.milvus.client.host:localhost}")
+    private String milvusHost;
+
+    @Value("${spring.ai.vectorstore.milvus.client.port:19530}")
+    private int milvusPort;
+
+    @Value("${rag.milvus.pool.max-total:8}")
+    private int maxTotal;
+
+    @Value("${rag.milvus.pool.min-idle:1}")
+    private int minIdle;
+
+    @Value("${rag.milvus.pool.max-wait-ms:5000}")
+    private long maxWaitMs;
+
+    @Value("${rag.milvus.pool.idle-timeout-ms:300000}")
+    private long idleTimeoutMs;
+
+    @Value("${rag.milvus.pool.validation-interval-ms:30000}")
+    private long validationIntervalMs;
+
+    @Value("${rag.milvus.pool.eviction-interval-ms:60000}")
+    private long evictionIntervalMs;
+
+    @Value("${rag.milvus.schema-version:v1}")
+    private String schemaVersion;
+
+    /**
+     * Active Milvus collection layout (rag.milvus.schema-version: v1 | v2).
+     */
+    @Bean
+    public MilvusSchema milvusSchema() {
+        MilvusSchema schema = MilvusSchema.fromProperty(schemaVersion);
+        log.info("Using Milvus schema {} (collection '{}')", schema, schema.collectionName());
+        return schema;
+    }
+
+    /**
+     * Shared pool of long-lived Milvus clients used by MilvusService.
+     *
+     * Configuration (rag.milvus.pool.*):
+     * - max-total: maximum concurrent Milvus calls / open channels
+     * - min-idle: clients kept warm by the evictor
+     * - max-wait-ms: how long a caller waits for a free client before failing
+     * - idle-timeout-ms: idle clients beyond min-idle are closed after this
+     * - validation-interval-ms: idle clients older than this are health-checked
+     * before reuse
+     */
+    @Bean(destroyMethod = "close")
+    public MilvusClientPool milvusClientPool() {
+        ConnectParam connectParam = ConnectParam.newBuilder()
+                .withHost(milvusHost)
+                .withPort(milvusPort)
+                .withConnectTimeout(10, TimeUnit.SECONDS)
+                .withKeepAliveTime(55, TimeUnit.SECONDS)
+                .withKeepAliveTimeout(20, TimeUnit.SECONDS)
+                .withIdleTimeout(24, TimeUnit.HOURS)
+                .build();
+
+        MilvusClientPool pool = new MilvusClientPool(connectParam, maxTotal, minIdle, maxWaitMs,
+                idleTimeoutMs, validationIntervalMs, evictionIntervalMs);
+
+        log.info("Milvus client pool initialized: host={}, port={}, maxTotal={}, minIdle={}, maxWaitMs={}",
+                milvusHost, milvusPort, maxTotal, minIdle, maxWaitMs);
+        return pool;
+    }
 }
@@ -0,0 +1,84 @@
+package com.heu.rag.config;
+
+import io.milvus.param.IndexType;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Named vector index profiles for the embedding field.
+ *
+ * - IVF_FLAT: exact distances inside the probed clusters (baseline)
+ * - IVF_SQ8: IVF with 8-bit scalar quantization, ~4x less memory
+ * - IVF_PQ: IVF with product quantization, smallest footprint, lowest recall
+ * - HNSW: graph index, best latency/recall trade-off, most memory
+ *
+ * Build and search parameters come from VectorIndexSettings
+ * (rag.milvus.index.*).
+ */
+public enum VectorIndexProfile {
+
+    IVF_FLAT(IndexType.IVF_FLAT),
+    IVF_SQ8(IndexType.IVF_SQ8),
+    IVF_PQ(IndexType.IVF_PQ),
+    HNSW(IndexType.HNSW);
+
+    private final IndexType indexType;
+
+    VectorIndexProfile(IndexType indexType) {
+        this.indexType = indexType;
+    }
+
+    public IndexType indexType() {
+        return indexType;
+    }
+
+    public boolean isGraph() {
+        return this == HNSW;
+    }
+
+    /**
+     * Index build parameters (CreateIndexParam extra params).
+     */
+    public Map<String, Object> buildParams(VectorIndexSettings settings) {
+        Map<String, Object> params = new LinkedHashMap<>();
+        switch (this) {
+            case IVF_FLAT, IVF_SQ8 -> params.put("nlist", settings.getNlist());
+            case IVF_PQ -> {
+                params.put("nlist", settings.getNlist());
+                params.put("m", settings.getPqM());
+                params.put("nbits", settings.getPqNbits());
+            }
+            case HNSW -> {
+                params.put("M", settings.getHnswM());
+                params.put("efConstruction", settings.getHnswEfConstruction());
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Search parameters for a topK search.
+     *
+     * @param searchWidth nprobe for IVF profiles, ef for HNSW (ef is raised to
+     *                    at least topK, as Milvus requires)
+     */
+    public Map<String, Object> searchParams(int topK, int searchWidth) {
+        Map<String, Object> params = new LinkedHashMap<>();
+        if (isGraph()) {
+            params.put("ef", Math.max(searchWidth, topK));
+        } else {
+            params.put("nprobe", searchWidth);
+        }
+        return params;
+    }
+
+    public static VectorIndexProfile fromProperty(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown vector index profile: " + value, e);
+        }
+    }
+}
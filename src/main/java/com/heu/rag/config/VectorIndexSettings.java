@@ -0,0 +1,97 @@
+package com.heu.rag.config;
+
+import com.google.gson.Gson;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Active vector index profile and its build/search parameters
+ * (rag.milvus.index.*).
+ *
+ * MilvusConfig builds the embedding index from buildParams(); MilvusService
+ * adds searchParams() to every search so nprobe/ef follow the profile instead
+ * of Milvus defaults.
+ */
+@Component
+@Getter
+@Slf4j
+public class VectorIndexSettings {
+
+    private static final Gson GSON = new Gson();
+
+    private final VectorIndexProfile profile;
+    private final int nlist;
+    private final int nprobe;
+    private final int pqM;
+    private final int pqNbits;
+    private final int hnswM;
+    private final int hnswEfConstruction;
+    private final int hnswEf;
+    private final boolean rebuildOnChange;
+
+    public VectorIndexSettings(
+            @Value("${rag.milvus.index.profile:IVF_FLAT}") String profile,
+            @Value("${rag.milvus.index.nlist:1024}") int nlist,
+            @Value("${rag.milvus.index.nprobe:16}") int nprobe,
+            @Value("${rag.milvus.index.pq-m:64}") int pqM,
+            @Value("${rag.milvus.index.pq-nbits:8}") int pqNbits,
+            @Value("${rag.milvus.index.hnsw-m:16}") int hnswM,
+            @Value("${rag.milvus.index.hnsw-ef-construction:200}") int hnswEfConstruction,
+            @Value("${rag.milvus.index.hnsw-ef:64}") int hnswEf,
+            @Value("${rag.milvus.index.rebuild-on-change:false}") boolean rebuildOnChange) {
+        this.profile = VectorIndexProfile.fromProperty(profile);
+        this.nlist = nlist;
+        this.nprobe = nprobe;
+        this.pqM = pqM;
+        this.pqNbits = pqNbits;
+        this.hnswM = hnswM;
+        this.hnswEfConstruction = hnswEfConstruction;
+        this.hnswEf = hnswEf;
+        this.rebuildOnChange = rebuildOnChange;
+        log.info("Vector index profile: {} (build={}, searchWidth={})", this.profile, buildParamsJson(),
+                defaultSearchWidth());
+    }
+
+    /**
+     * Build params of the active profile as JSON (CreateIndexParam extra param).
+     */
+    public String buildParamsJson() {
+        return GSON.toJson(profile.buildParams(this));
+    }
+
+    /**
+     * nprobe for IVF profiles, ef for HNSW.
+     */
+    public int defaultSearchWidth() {
+        return profile.isGraph() ? hnswEf : nprobe;
+    }
+
+    /**
+     * Search params of the active profile with the configured nprobe/ef.
+     */
+    public Map<String, Object> searchParams(int topK) {
+        return profile.searchParams(topK, defaultSearchWidth());
+    }
+
+    /**
+     * Search params of the active profile with an explicit nprobe/ef (used by
+     * the index benchmark to sweep search widths).
+     */
+    public Map<String, Object> searchParams(int topK, int searchWidth) {
+        return profile.searchParams(topK, searchWidth);
+    }
+
+    /**
+     * Validate the profile against the embedding dimension.
+     */
+    public void validate(int dimension) {
+        if (profile == VectorIndexProfile.IVF_PQ && dimension % pqM != 0) {
+            throw new IllegalStateException(String.format(
+                    "IVF_PQ requires the embedding dimension (%d) to be divisible by pq-m (%d)", dimension, pqM));
+        }
+    }
+}
@@ -92,33 +92,70 @@ public class DocumentController {
         }
     }
 
+    /**
+     * Get the processing status of an uploaded document
+     * GET /api/knowledge/document/:docId/status
+     * status: Queued | Parsing | Embedding | Indexing | Success | Failure
+     */
+    @GetMapping("/{docId}/status")
+    public Result<Map<String, Object>> getDocumentStatus(@PathVariable Long docId) {
+        Long userId = getUserIdFromContext();
+
+        try {
+            DocumentService.IngestionStatus status = documentService.getIngestionStatus(docId, userId);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("docId", status.docId().toString());
+            response.put("status", status.status());
+            response.put("attempts", status.attempts());
+            response.put("chunks_done", status.chunksDone());
+            response.put("chunks_total", status.chunksTotal());
+            response.put("queue_position", status.queuePosition());
+            response.put("error", status.error());
+            response.put("created_at", status.createdAt());
+            response.put("started_at", status.startedAt());
+            response.put("finished_at", status.finishedAt());
+
+            return Result.success(response);
+        } catch (Exception e) {
+            log.error("Failed to get document status: docId={}", docId, e);
+            return Result.error("Failed to get document status: " + e.getMessage());
+        }
+    }
+
     /**
      * Get document chunks detail
      * GET /api/knowledge/document/detail
-     * Query params: docId (required), search (optional), limit (optional, default 10), offset (optional, default 0)
+     * Query params: docId (required), search (optional), limit (optional, default 10),
+     * cursor (optional, next_cursor of the previous page), offset (optional, default 0, first page only)
      */
     @GetMapping("/detail")
     public Result<Map<String, Object>> getDocumentDetail(
             @RequestParam Long docId,
             @RequestParam(required = false) String search,
             @RequestParam(defaultValue = "10") int limit,
-            @RequestParam(defaultValue = "0") int offset) {
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(required = false) String cursor) {
         Long userId = getUserIdFromContext();
-        log.info("Getting document detail: docId={}, search={}, limit={}, offset={}", docId, search, limit, offset);
+        log.info("Getting document detail: docId={}, search={}, limit={}, offset={}, cursor={}", docId, search,
+                limit, offset, cursor);
 
         try {
-            List<org.springframework.ai.document.Document> chunks = documentService.getDocumentChunks(docId, search, limit, offset, userId);
+            DocumentService.ChunkPage page = documentService.browseDocumentChunks(docId, search, limit, offset,
+                    cursor, userId);
 
-            List<DocumentChunkDTO> chunkDTOs = chunks.stream()
+            List<DocumentChunkDTO> chunkDTOs = page.chunks().stream()
                     .map(chunk -> DocumentChunkDTO.builder()
                             .chunkId(chunk.getId())
-                            .content(chunk.getText() != null ? chunk.getText() : chunk.toString())
+                            .chunkIndex(chunk.metadata().chunkIndex())
+                            .content(chunk.getContent())
                             .build())
                     .collect(Collectors.toList());
 
             Map<String, Object> response = new HashMap<>();
-            response.put("total", chunks.size()); // Note: This is the filtered/paginated count
+            response.put("total", page.total());
             response.put("data", chunkDTOs);
+            response.put("next_cursor", page.nextCursor());
 
             return Result.success(response);
         } catch (Exception e) {
@@ -5,24 +5,34 @@ import com.heu.rag.config.SnowflakeIdGenerator;
 import com.heu.rag.core.controller.dto.BaseCreateRequest;
 import com.heu.rag.core.controller.dto.BaseSearchRequest;
 import com.heu.rag.core.controller.dto.BaseUpdateRequest;
+import com.heu.rag.core.controller.dto.BatchRetrievalRequest;
 import com.heu.rag.core.controller.dto.DocumentDeleteRequest;
 import com.heu.rag.core.controller.dto.KnowledgeBaseDTO;
+import com.heu.rag.core.service.DisabledDocumentRegistry;
 import com.heu.rag.core.service.DocumentService;
 import com.heu.rag.core.domain.Document;
 import com.heu.rag.core.domain.KnowledgeBase;
+import com.heu.rag.core.domain.RetrievedChunk;
 import com.heu.rag.core.exception.ResourceNotFoundException;
 import com.heu.rag.core.repository.DocumentRepository;
+import com.heu.rag.core.repository.IngestionJobRepository;
 import com.heu.rag.core.repository.KnowledgeBaseRepository;
-import com.heu.rag.core.service.KnowledgeBaseService;
+import com.heu.rag.core.service.IngestionQueueService;
+import com.heu.rag.core.service.LexicalIndexService;
 import com.heu.rag.core.service.MilvusService;
+import com.heu.rag.core.service.RetrievalResultCache;
+import com.heu.rag.core.service.VectorCompactionService;
+import com.heu.rag.core.service.VectorTombstoneService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,13 +49,28 @@ import java.util.stream.Collectors;
 @Slf4j
 public class KnowledgeBaseController {
 
+    private static final int MAX_BATCH_QUERIES = 64;
+    private static final int MAX_BATCH_TOP_K = 50;
+
     private final KnowledgeBaseRepository knowledgeBaseRepository;
     private final DocumentRepository documentRepository;
-    private final KnowledgeBaseService knowledgeBaseService;
+    private final IngestionQueueService ingestionQueueService;
+    private final IngestionJobRepository ingestionJobRepository;
     private final DocumentService documentService;
     private final SnowflakeIdGenerator snowflakeIdGenerator;
+    private final RetrievalResultCache retrievalResultCache;
+    private final VectorTombstoneService vectorTombstoneService;
+    private final VectorCompactionService vectorCompactionService;
+    private final DisabledDocumentRegistry disabledDocumentRegistry;
+    private final LexicalIndexService lexicalIndexService;
     private final MilvusService milvusService;
 
+    @Value("${rag.retrieval.top-k:8}")
+    private int defaultTopK;
+
+    @Value("${rag.retrieval.similarity-threshold:0.45}")
+    private double defaultThreshold;
+
     /**
      * Get user ID from SecurityContext (set by JwtAuthenticationFilter)
      */
@@ -98,7 +123,8 @@ public class KnowledgeBaseController {
     }
 
     /**
-     * Upload and process a file
+     * Upload a file for processing; it is queued and processed in the
+     * background, poll GET /api/knowledge/document/{docId}/status for progress
      * POST /api/knowledge/upload/file
      * Note: This endpoint is kept here for backward compatibility
      * The userId is now obtained from JWT token instead of request parameter
@@ -110,12 +136,49 @@ public class KnowledgeBaseController {
         Long userId = getUserIdFromContext();
         log.info("File upload request: fileName={}, baseId={}, userId={}",
                 file.getOriginalFilename(), baseId, userId);
-        knowledgeBaseService.uploadAndProcess(file, baseId, userId);
+        IngestionQueueService.Submission submission = ingestionQueueService.submit(file, baseId, userId);
+        Document document = submission.document();
 
         Map<String, Object> response = new HashMap<>();
-        response.put("message", "File uploaded and processed successfully");
+        response.put("message", submission.duplicate()
+                ? "Identical file already uploaded to this knowledge base"
+                : "File accepted for processing");
+        response.put("duplicate", submission.duplicate());
         response.put("fileName", file.getOriginalFilename());
         response.put("baseId", baseId);
+        response.put("docId", document.getDocId().toString());
+        response.put("status", document.getStatus());
+
+        return Result.success(response);
+    }
+
+    /**
+     * Upload a new version of a processed document; only the chunks that
+     * changed are embedded again. Queued like an upload, poll
+     * GET /api/knowledge/document/{docId}/status for progress (a failed
+     * replacement returns to Success with the previous content and reports
+     * the error)
+     * POST /api/knowledge/document/{docId}/replace
+     */
+    @PostMapping("/document/{docId}/replace")
+    public Result<Map<String, Object>> replaceDocument(
+            @PathVariable Long docId,
+            @RequestParam("file") MultipartFile file) {
+        Long userId = getUserIdFromContext();
+        log.info("Document replace request: docId={}, fileName={}, userId={}",
+                docId, file.getOriginalFilename(), userId);
+        IngestionQueueService.Submission submission = ingestionQueueService.submitReplacement(file, docId, userId);
+        Document document = submission.document();
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("message", submission.duplicate()
+                ? "File is identical to the current version of the document"
+                : "New version accepted for processing");
+        response.put("duplicate", submission.duplicate());
+        response.put("fileName", file.getOriginalFilename());
+        response.put("baseId", document.getBaseId());
+        response.put("docId", document.getDocId().toString());
+        response.put("status", document.getStatus());
 
         return Result.success(response);
     }
@@ -161,6 +224,73 @@ public class KnowledgeBaseController {
         return Result.success(dto);
     }
 
+    /**
+     * Re-count knowledge base chunks in Milvus and repair the stored counters
+     * POST /api/knowledge/recount/:baseId
+     */
+    @PostMapping("/recount/{baseId}")
+    public Result<Map<String, Object>> recountChunks(@PathVariable Long baseId) {
+        Long userId = getUserIdFromContext();
+        long totalChunks = documentService.recountChunks(baseId, userId);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("baseId", baseId.toString());
+        response.put("total_chunks", totalChunks);
+        return Result.success(response);
+    }
+
+    /**
+     * Retrieve chunks of a knowledge base for several queries at once (offline
+     * evaluation, multi-query expansion, bulk QA): the queries are embedded in
+     * one call and sent as one multi-vector Milvus search
+     * POST /api/knowledge/retrieve/:baseId
+     * Request body: {"queries": ["string"], "top_k": number, "threshold": number}
+     * Response data: {"results": [[{"chunk_id", "doc_id", "chunk_index", "score",
+     * "content"}]]}, one ranked list per query in request order
+     */
+    @PostMapping("/retrieve/{baseId}")
+    public Result<Map<String, Object>> batchRetrieve(@PathVariable Long baseId,
+            @RequestBody BatchRetrievalRequest request) {
+        Long userId = getUserIdFromContext();
+        verifyOwnership(baseId, userId);
+
+        List<String> queries = request.getQueries();
+        if (queries == null || queries.isEmpty() || queries.size() > MAX_BATCH_QUERIES) {
+            throw new IllegalArgumentException("queries must contain 1 to " + MAX_BATCH_QUERIES + " entries");
+        }
+        if (queries.stream().anyMatch(query -> query == null || query.isBlank())) {
+            throw new IllegalArgumentException("queries must not be blank");
+        }
+        int topK = request.getTopK() != null ? request.getTopK() : defaultTopK;
+        if (topK < 1 || topK > MAX_BATCH_TOP_K) {
+            throw new IllegalArgumentException("top_k must be between 1 and " + MAX_BATCH_TOP_K);
+        }
+        double threshold = request.getThreshold() != null ? request.getThreshold() : defaultThreshold;
+        log.info("Batch retrieval: baseId={}, queries={}, topK={}, userId={}", baseId, queries.size(), topK,
+                userId);
+
+        List<List<Map<String, Object>>> results = new ArrayList<>(queries.size());
+        for (List<RetrievedChunk> chunks : milvusService.batchSimilaritySearchWithBaseId(queries, baseId, topK,
+                threshold)) {
+            List<Map<String, Object>> hits = new ArrayList<>(chunks.size());
+            for (RetrievedChunk chunk : chunks) {
+                Map<String, Object> hit = new HashMap<>();
+                hit.put("chunk_id", chunk.getId());
+                hit.put("doc_id", chunk.metadata().docId() != null ? chunk.metadata().docId().toString() : null);
+                hit.put("chunk_index", chunk.metadata().chunkIndex());
+                hit.put("score", chunk.getScore());
+                hit.put("content", chunk.getContent());
+                hits.add(hit);
+            }
+            results.add(hits);
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("baseId", baseId.toString());
+        response.put("results", results);
+        return Result.success(response);
+    }
+
     /**
      * Edit knowledge base
      * PUT /api/knowledge/edit/:baseId
@@ -227,11 +357,13 @@ public class KnowledgeBaseController {
     /**
      * Delete a knowledge base
      * DELETE /api/knowledge/delete/:baseId
-     * Also deletes associated documents and vector data
+     * Deletes associated documents and tombstones their vector data, which
+     * VectorCompactionService removes from Milvus in the background; track it
+     * with purgeJobId
      */
     @DeleteMapping("/delete/{baseId}")
     @Transactional
-    public Result<String> deleteKnowledgeBase(@PathVariable Long baseId) {
+    public Result<Map<String, Object>> deleteKnowledgeBase(@PathVariable Long baseId) {
         Long userId = getUserIdFromContext();
         log.info("Deleting knowledge base: baseId={}, userId={}", baseId, userId);
 
@@ -240,32 +372,35 @@ public class KnowledgeBaseController {
 
         verifyOwnership(baseId, userId);
 
-        // Delete associated documents and their vector data
-        List<Document> documents = documentRepository.findByBaseId(baseId);
-        log.info("Deleting {} documents for knowledge base: baseId={}", documents.size(), baseId);
-
-        // Delete vector data from Milvus for each document before deleting database records
-        long totalDeletedChunks = 0;
-        for (Document doc : documents) {
-            try {
-                long deletedCount = milvusService.deleteChunksByDocId(doc.getDocId());
-                totalDeletedChunks += deletedCount;
-                log.info("Deleted {} vector chunks for docId {}", deletedCount, doc.getDocId());
-            } catch (Exception e) {
-                log.error("Failed to delete vectors for docId {}: {}", doc.getDocId(), e.getMessage(), e);
-                // Continue with other documents even if one fails
-            }
-        }
-
-        // Delete document records from database
-        documentRepository.deleteAll(documents);
-        log.info("Deleted {} documents and {} vector chunks from Milvus", documents.size(), totalDeletedChunks);
+        // Delete document records with one statement; retrieval stops returning
+        // the vectors right away and they are deleted after commit
+        int deletedDocuments = documentRepository.deleteAllByBaseIdInBulk(baseId);
+        ingestionJobRepository.deleteFinishedByBaseId(baseId);
+        Long purgeJobId = vectorTombstoneService.tombstoneKnowledgeBases(List.of(baseId)).get(0);
+        vectorCompactionService.wake();
+        disabledDocumentRegistry.removeKnowledgeBases(List.of(baseId));
+        lexicalIndexService.dropKnowledgeBases(List.of(baseId));
+        log.info("Deleted {} documents, vectors tombstoned for compaction", deletedDocuments);
 
         // Delete the knowledge base
         knowledgeBaseRepository.delete(knowledgeBase);
-        log.info("Knowledge base deleted: baseId={}", baseId);
+        retrievalResultCache.bumpVersion(baseId);
+        log.info("Knowledge base deleted: baseId={}, purgeJobId={}", baseId, purgeJobId);
 
-        return Result.success("Knowledge base deleted successfully");
+        Map<String, Object> response = new HashMap<>();
+        response.put("message", "Knowledge base deleted successfully");
+        response.put("purgeJobId", purgeJobId.toString());
+        return Result.success(response);
+    }
+
+    /**
+     * Get the progress of a background vector purge
+     * GET /api/knowledge/purge/:jobId
+     */
+    @GetMapping("/purge/{jobId}")
+    public Result<VectorTombstoneService.PurgeStatus> getPurgeStatus(@PathVariable Long jobId) {
+        getUserIdFromContext();
+        return Result.success(vectorTombstoneService.purgeStatus(jobId));
     }
 
     /**
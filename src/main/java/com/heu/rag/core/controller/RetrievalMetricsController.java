@@ -0,0 +1,81 @@
+package com.heu.rag.core.controller;
+
+import com.heu.rag.common.Result;
+import com.heu.rag.config.MilvusClientPool;
+import com.heu.rag.core.service.ChunkEmbeddingCache;
+import com.heu.rag.core.service.ConsistencyPolicy;
+import com.heu.rag.core.service.ContextPacker;
+import com.heu.rag.core.service.DisabledDocumentRegistry;
+import com.heu.rag.core.service.DiversitySelector;
+import com.heu.rag.core.service.EmbeddedVectorStore;
+import com.heu.rag.core.service.HybridSearchService;
+import com.heu.rag.core.service.IngestionEmbeddingService;
+import com.heu.rag.core.service.IngestionParsingService;
+import com.heu.rag.core.service.IngestionQueueService;
+import com.heu.rag.core.service.MilvusSchemaMigrationService;
+import com.heu.rag.core.service.QueryEmbeddingCache;
+import com.heu.rag.core.service.RetrievalResultCache;
+import com.heu.rag.core.service.VectorCompactionService;
+import com.heu.rag.core.service.VectorReductionService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Retrieval Metrics Controller
+ * Exposes runtime statistics of the retrieval path (Milvus client pool,
+ * caches etc.)
+ */
+@RestController
+@RequestMapping("/api/metrics")
+@CrossOrigin(origins = { "http://localhost:5173", "http://202.118.184.207" })
+@RequiredArgsConstructor
+@Slf4j
+public class RetrievalMetricsController {
+
+    private final MilvusClientPool milvusClientPool;
+    private final QueryEmbeddingCache queryEmbeddingCache;
+    private final RetrievalResultCache retrievalResultCache;
+    private final ConsistencyPolicy consistencyPolicy;
+    private final MilvusSchemaMigrationService milvusSchemaMigrationService;
+    private final VectorReductionService vectorReductionService;
+    private final VectorCompactionService vectorCompactionService;
+    private final DisabledDocumentRegistry disabledDocumentRegistry;
+    private final EmbeddedVectorStore embeddedVectorStore;
+    private final HybridSearchService hybridSearchService;
+    private final DiversitySelector diversitySelector;
+    private final ContextPacker contextPacker;
+    private final IngestionQueueService ingestionQueueService;
+    private final IngestionParsingService ingestionParsingService;
+    private final IngestionEmbeddingService ingestionEmbeddingService;
+    private final ChunkEmbeddingCache chunkEmbeddingCache;
+
+    /**
+     * Get retrieval metrics
+     * GET /api/metrics/retrieval
+     */
+    @GetMapping("/retrieval")
+    public Result<Map<String, Object>> getRetrievalMetrics() {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("milvusPool", milvusClientPool.stats());
+        response.put("queryEmbeddingCache", queryEmbeddingCache.stats());
+        response.put("retrievalResultCache", retrievalResultCache.stats());
+        response.put("consistency", consistencyPolicy.stats());
+        response.put("schemaMigration", milvusSchemaMigrationService.stats());
+        response.put("vectorReduction", vectorReductionService.stats());
+        response.put("vectorCompaction", vectorCompactionService.stats());
+        response.put("disabledDocuments", disabledDocumentRegistry.size());
+        response.put("embeddedVectorStore", embeddedVectorStore.stats());
+        response.put("hybridRetrieval", hybridSearchService.stats());
+        response.put("diversity", diversitySelector.stats());
+        response.put("contextPacker", contextPacker.stats());
+        response.put("ingestion", ingestionQueueService.stats());
+        response.put("ingestionParsing", ingestionParsingService.stats());
+        response.put("ingestionEmbedding", ingestionEmbeddingService.stats());
+        response.put("chunkEmbeddingCache", chunkEmbeddingCache.stats());
+        return Result.success(response);
+    }
+}
@@ -6,16 +6,20 @@ import com.heu.rag.core.controller.dto.ChangeUsernameRequest;
 import com.heu.rag.core.controller.dto.UserInfoResponse;
 import com.heu.rag.core.domain.ChatMessage;
 import com.heu.rag.core.domain.Conversation;
-import com.heu.rag.core.domain.Document;
 import com.heu.rag.core.domain.KnowledgeBase;
 import com.heu.rag.core.domain.User;
 import com.heu.rag.core.exception.ResourceNotFoundException;
 import com.heu.rag.core.repository.ChatMessageRepository;
 import com.heu.rag.core.repository.ConversationRepository;
 import com.heu.rag.core.repository.DocumentRepository;
+import com.heu.rag.core.repository.IngestionJobRepository;
 import com.heu.rag.core.repository.KnowledgeBaseRepository;
 import com.heu.rag.core.repository.UserRepository;
-import com.heu.rag.core.service.MilvusService;
+import com.heu.rag.core.service.DisabledDocumentRegistry;
+import com.heu.rag.core.service.LexicalIndexService;
+import com.heu.rag.core.service.RetrievalResultCache;
+import com.heu.rag.core.service.VectorCompactionService;
+import com.heu.rag.core.service.VectorTombstoneService;
 import com.heu.rag.core.util.EmailValidator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -42,7 +46,12 @@ public class UserSettingsController {
     private final ChatMessageRepository chatMessageRepository;
     private final KnowledgeBaseRepository knowledgeBaseRepository;
     private final DocumentRepository documentRepository;
-    private final MilvusService milvusService;
+    private final IngestionJobRepository ingestionJobRepository;
+    private final VectorTombstoneService vectorTombstoneService;
+    private final VectorCompactionService vectorCompactionService;
+    private final DisabledDocumentRegistry disabledDocumentRegistry;
+    private final LexicalIndexService lexicalIndexService;
+    private final RetrievalResultCache retrievalResultCache;
 
     /**
      * Get user ID from SecurityContext (set by JwtAuthenticationFilter)
@@ -209,32 +218,24 @@ public class UserSettingsController {
             log.debug("Deleted {} conversations for user: {}", conversations.size(), userId);
         }
 
-        // 2. Delete all KnowledgeBases and Documents (PostgreSQL)
+        // 2. Delete all KnowledgeBases and Documents (PostgreSQL); their vectors are
+        // tombstoned and deleted in the background (see VectorCompactionService)
         List<KnowledgeBase> knowledgeBases = knowledgeBaseRepository.findByUserId(userId);
-        long totalDeletedChunks = 0;
         for (KnowledgeBase kb : knowledgeBases) {
-            // Delete all documents for this knowledge base
-            List<Document> documents = documentRepository.findByBaseId(kb.getBaseId());
-            for (Document doc : documents) {
-                // Delete vectors from Milvus using MilvusService
-                try {
-                    long deletedCount = milvusService.deleteChunksByDocId(doc.getDocId());
-                    totalDeletedChunks += deletedCount;
-                    log.debug("Deleted {} vector chunks for docId {}", deletedCount, doc.getDocId());
-                } catch (Exception e) {
-                    log.error("Error deleting vectors for docId={}: {}", doc.getDocId(), e.getMessage(), e);
-                    // Continue with other documents even if one fails
-                }
-            }
-            documentRepository.deleteAll(documents);
-            log.debug("Deleted {} documents for knowledge base: {}", documents.size(), kb.getBaseId());
-        }
-        if (totalDeletedChunks > 0) {
-            log.info("Deleted {} total vector chunks from Milvus for user: {}", totalDeletedChunks, userId);
+            int deletedDocuments = documentRepository.deleteAllByBaseIdInBulk(kb.getBaseId());
+            ingestionJobRepository.deleteFinishedByBaseId(kb.getBaseId());
+            retrievalResultCache.bumpVersion(kb.getBaseId());
+            log.debug("Deleted {} documents for knowledge base: {}", deletedDocuments, kb.getBaseId());
         }
         if (!knowledgeBases.isEmpty()) {
             knowledgeBaseRepository.deleteAll(knowledgeBases);
             log.debug("Deleted {} knowledge bases for user: {}", knowledgeBases.size(), userId);
+            List<Long> baseIds = knowledgeBases.stream().map(KnowledgeBase::getBaseId).toList();
+            List<Long> purgeJobIds = vectorTombstoneService.tombstoneKnowledgeBases(baseIds);
+            vectorCompactionService.wake();
+            log.info("Vector purge for user {} queued as jobs {}", userId, purgeJobIds);
+            disabledDocumentRegistry.removeKnowledgeBases(baseIds);
+            lexicalIndexService.dropKnowledgeBases(baseIds);
         }
 
         // 3. Delete User entity (PostgreSQL)
@@ -0,0 +1,22 @@
+package com.heu.rag.core.controller.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Request DTO for retrieving chunks for several queries at once
+ */
+@Data
+public class BatchRetrievalRequest {
+
+    @JsonProperty("queries")
+    private List<String> queries;
+
+    @JsonProperty("top_k")
+    private Integer topK;
+
+    @JsonProperty("threshold")
+    private Double threshold;
+}
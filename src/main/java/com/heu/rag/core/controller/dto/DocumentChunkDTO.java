@@ -19,6 +19,9 @@ public class DocumentChunkDTO {
     @JsonProperty("chunk_id")
     private String chunkId;
 
+    @JsonProperty("chunk_index")
+    private Integer chunkIndex;
+
     @JsonProperty("content")
     private String content;
 }
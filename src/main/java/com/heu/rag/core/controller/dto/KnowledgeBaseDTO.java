@@ -30,6 +30,9 @@ public class KnowledgeBaseDTO {
     @JsonProperty("base_desc")
     private String baseDesc;
     
+    @JsonProperty("total_chunks")
+    private Long totalChunks;
+    
     /**
      * Convert KnowledgeBase entity to DTO
      */
@@ -41,6 +44,7 @@ public class KnowledgeBaseDTO {
                 .baseId(knowledgeBase.getBaseId())
                 .baseName(knowledgeBase.getBaseName())
                 .baseDesc(knowledgeBase.getBaseDesc())
+                .totalChunks(knowledgeBase.getTotalChunks())
                 .build();
     }
 }
@@ -0,0 +1,46 @@
+package com.heu.rag.core.domain;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Cached embedding of a chunk text (see ChunkEmbeddingCache), keyed by the
+ * SHA-256 of the text and the embedding model. Stored as little-endian
+ * float32 bytes.
+ */
+@Entity
+@Table(name = "chunk_embeddings")
+@IdClass(ChunkEmbeddingId.class)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChunkEmbedding {
+
+    @Id
+    @Column(name = "chunk_hash", length = 64)
+    private String chunkHash;
+
+    @Id
+    @Column(name = "model", length = 200)
+    private String model;
+
+    @Column(name = "dimension", nullable = false)
+    private Integer dimension;
+
+    @Column(name = "embedding", nullable = false, columnDefinition = "bytea")
+    private byte[] embedding;
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+}
@@ -0,0 +1,22 @@
+package com.heu.rag.core.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * Primary key of ChunkEmbedding
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChunkEmbeddingId implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String chunkHash;
+
+    private String model;
+}
@@ -0,0 +1,103 @@
+package com.heu.rag.core.domain;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Typed view of the retrieval-relevant keys of a chunk's metadata_json.
+ * Parsed with a streaming parser: unknown keys are skipped without building a
+ * map.
+ */
+public record ChunkMetadata(Long docId, Long baseId, String fileName, Integer chunkIndex, Boolean enabled) {
+
+    public static final ChunkMetadata EMPTY = new ChunkMetadata(null, null, null, null, null);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Parse metadata_json. Values are written as strings at ingestion time but
+     * numbers/booleans are accepted too.
+     */
+    public static ChunkMetadata parse(String json) throws IOException {
+        if (json == null || json.isEmpty()) {
+            return EMPTY;
+        }
+
+        Long docId = null;
+        Long baseId = null;
+        String fileName = null;
+        Integer chunkIndex = null;
+        Boolean enabled = null;
+
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return EMPTY;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                switch (key) {
+                    case "docId" -> docId = parseLong(parser.getValueAsString());
+                    case "baseId" -> baseId = parseLong(parser.getValueAsString());
+                    case "fileName" -> fileName = parser.getValueAsString();
+                    case "chunkIndex" -> {
+                        Long index = parseLong(parser.getValueAsString());
+                        chunkIndex = index == null ? null : index.intValue();
+                    }
+                    case "isEnabled" -> enabled = parseBoolean(parser.getValueAsString());
+                    default -> {
+                        // not needed on the retrieval path
+                    }
+                }
+            }
+        }
+        return new ChunkMetadata(docId, baseId, fileName, chunkIndex, enabled);
+    }
+
+    /**
+     * Metadata as a map, e.g. for Spring AI Document instances.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>(8);
+        if (docId != null) {
+            map.put("docId", docId.toString());
+        }
+        if (baseId != null) {
+            map.put("baseId", baseId.toString());
+        }
+        if (fileName != null) {
+            map.put("fileName", fileName);
+        }
+        if (chunkIndex != null) {
+            map.put("chunkIndex", chunkIndex.toString());
+        }
+        if (enabled != null) {
+            map.put("isEnabled", enabled.toString());
+        }
+        return map;
+    }
+
+    private static Long parseLong(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Boolean parseBoolean(String value) {
+        return value == null ? null : Boolean.valueOf(value.trim());
+    }
+}
@@ -9,7 +9,8 @@ import lombok.NoArgsConstructor;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "documents")
+@Table(name = "documents", indexes = @Index(name = "idx_documents_base_content_hash",
+        columnList = "base_id, content_hash"))
 @Data
 @Builder
 @NoArgsConstructor
@@ -46,6 +47,9 @@ public class Document {
     @Column(name = "total_chunks")
     private Integer totalChunks;
     
+    @Column(name = "content_hash", length = 64)
+    private String contentHash; // SHA-256 of the uploaded file (hex), null for older uploads
+    
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
     
@@ -0,0 +1,82 @@
+package com.heu.rag.core.domain;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Queued processing of an uploaded document (see IngestionQueueService).
+ * The upload is spooled to spoolPath until the job finishes; the stage is
+ * tracked on the document (Document.status), progress and errors here.
+ * A replacement job carries a new version of an already processed document
+ * (see KnowledgeBaseService.replaceDocument).
+ */
+@Entity
+@Table(name = "ingestion_jobs")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestionJob {
+
+    @Id
+    @Column(name = "doc_id")
+    private Long docId; // One job per document
+
+    @Column(name = "base_id", nullable = false)
+    private Long baseId;
+
+    @Column(name = "spool_path", length = 1000)
+    private String spoolPath;
+
+    @Column(name = "file_size")
+    private Long fileSize;
+
+    @Column(name = "replacement")
+    private Boolean replacement;
+
+    @Column(name = "content_hash", length = 64)
+    private String contentHash; // SHA-256 of the new version, for replacements
+
+    @Column(name = "file_name", length = 500)
+    private String fileName; // Original name of the new version, for replacements
+
+    @Column(name = "attempts")
+    private Integer attempts;
+
+    @Column(name = "chunks_total")
+    private Integer chunksTotal;
+
+    @Column(name = "chunks_done")
+    private Integer chunksDone;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt; // null while queued or running
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        if (attempts == null) {
+            attempts = 0;
+        }
+        if (chunksDone == null) {
+            chunksDone = 0;
+        }
+        if (replacement == null) {
+            replacement = false;
+        }
+    }
+}
@@ -32,6 +32,9 @@ public class KnowledgeBase {
     @Column(name = "base_path")
     private String basePath;
     
+    @Column(name = "total_chunks")
+    private Long totalChunks; // Sum of Document.totalChunks, maintained on upload/delete
+    
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
     
@@ -42,6 +45,9 @@ public class KnowledgeBase {
     protected void onCreate() {
         createdAt = LocalDateTime.now();
         updatedAt = LocalDateTime.now();
+        if (totalChunks == null) {
+            totalChunks = 0L;
+        }
     }
     
     @PreUpdate
@@ -1,8 +1,16 @@
 package com.heu.rag.core.domain;
 
+/**
+ * Processing state of an uploaded document. Uploads are queued (see
+ * IngestionQueueService) and move through Parsing, Embedding and Indexing
+ * to Success or Failure.
+ */
 public enum ParseStatus {
     None,
+    Queued,
+    Parsing,
+    Embedding,
+    Indexing,
     Success,
     Failure
 }
-
@@ -0,0 +1,95 @@
+package com.heu.rag.core.domain;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+
+/**
+ * A chunk returned by a Milvus search or query.
+ *
+ * metadata_json is kept as the raw string and decoded into ChunkMetadata only
+ * when metadata() is first called; the chat path only needs the content and
+ * never pays for JSON parsing.
+ */
+@Slf4j
+public final class RetrievedChunk {
+
+    private final String id;
+    private final String content;
+    private final float score;
+    private final String metadataJson;
+    private final float[] embedding;
+    private volatile ChunkMetadata metadata;
+
+    public RetrievedChunk(String id, String content, float score, String metadataJson) {
+        this(id, content, score, metadataJson, null);
+    }
+
+    public RetrievedChunk(String id, String content, float score, String metadataJson, float[] embedding) {
+        this.id = id;
+        this.content = content != null ? content : "";
+        this.score = score;
+        this.metadataJson = metadataJson;
+        this.embedding = embedding;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     * Similarity score (COSINE) for search results, 0 for query results.
+     */
+    public float getScore() {
+        return score;
+    }
+
+    public String getMetadataJson() {
+        return metadataJson;
+    }
+
+    /**
+     * Stored embedding, only present when the vector field was requested as an
+     * output field. Must not be modified.
+     */
+    public float[] getEmbedding() {
+        return embedding;
+    }
+
+    /**
+     * Lazily decoded metadata. Decoding failures yield ChunkMetadata.EMPTY.
+     */
+    public ChunkMetadata metadata() {
+        ChunkMetadata result = metadata;
+        if (result == null) {
+            try {
+                result = ChunkMetadata.parse(metadataJson);
+            } catch (Exception e) {
+                log.warn("Failed to parse metadata for chunk {}: {}", id, e.getMessage());
+                result = ChunkMetadata.EMPTY;
+            }
+            metadata = result;
+        }
+        return result;
+    }
+
+    /**
+     * Convert to a Spring AI Document (decodes metadata).
+     */
+    public Document toDocument() {
+        return Document.builder()
+                .id(id)
+                .text(content)
+                .metadata(metadata().toMap())
+                .score((double) score)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return "RetrievedChunk{id=" + id + ", score=" + score + ", contentLength=" + content.length() + "}";
+    }
+}
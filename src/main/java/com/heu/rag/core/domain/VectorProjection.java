@@ -0,0 +1,54 @@
+package com.heu.rag.core.domain;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Dimension-reduction matrix of a Milvus collection (see
+ * VectorReductionService). Stored as little-endian float32 bytes:
+ * matrix is targetDimension x sourceDimension (row-major), mean has
+ * sourceDimension entries.
+ */
+@Entity
+@Table(name = "vector_projections")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class VectorProjection {
+
+    @Id
+    @Column(name = "collection_name")
+    private String collectionName;
+
+    @Column(name = "method", nullable = false)
+    private String method; // pca | random
+
+    @Column(name = "source_dimension", nullable = false)
+    private Integer sourceDimension;
+
+    @Column(name = "target_dimension", nullable = false)
+    private Integer targetDimension;
+
+    @Column(name = "sample_size")
+    private Integer sampleSize;
+
+    @Column(name = "matrix", nullable = false, columnDefinition = "bytea")
+    private byte[] matrix;
+
+    @Column(name = "mean", nullable = false, columnDefinition = "bytea")
+    private byte[] mean;
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+}
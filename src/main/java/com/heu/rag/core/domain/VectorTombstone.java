@@ -0,0 +1,50 @@
+package com.heu.rag.core.domain;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Logical delete of a document's (or a whole knowledge base's) vectors.
+ * Retrieval excludes tombstoned chunks until VectorCompactionService has
+ * removed them from Milvus and dropped the tombstone.
+ */
+@Entity
+@Table(name = "vector_tombstones")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class VectorTombstone {
+
+    @Id
+    @Column(name = "tombstone_id")
+    private Long tombstoneId; // Snowflake ID, set manually
+
+    @Column(name = "base_id", nullable = false)
+    private Long baseId;
+
+    @Column(name = "doc_id")
+    private Long docId; // null = all chunks of the knowledge base
+
+    @Column(name = "attempts")
+    private Integer attempts;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        if (attempts == null) {
+            attempts = 0;
+        }
+    }
+}
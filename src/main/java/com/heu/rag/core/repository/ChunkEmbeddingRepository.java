@@ -0,0 +1,31 @@
+package com.heu.rag.core.repository;
+
+import com.heu.rag.core.domain.ChunkEmbedding;
+import com.heu.rag.core.domain.ChunkEmbeddingId;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ChunkEmbeddingRepository extends JpaRepository<ChunkEmbedding, ChunkEmbeddingId> {
+
+    List<ChunkEmbedding> findByModelAndChunkHashIn(String model, Collection<String> chunkHashes);
+
+    /**
+     * Insert an embedding unless another upload has stored the same chunk
+     * meanwhile
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO chunk_embeddings (chunk_hash, model, dimension, embedding, created_at) "
+            + "VALUES (:chunkHash, :model, :dimension, :embedding, CURRENT_TIMESTAMP) "
+            + "ON CONFLICT (chunk_hash, model) DO NOTHING", nativeQuery = true)
+    int insertIfAbsent(@Param("chunkHash") String chunkHash, @Param("model") String model,
+            @Param("dimension") int dimension, @Param("embedding") byte[] embedding);
+}
@@ -1,19 +1,28 @@
 package com.heu.rag.core.repository;
 
 import com.heu.rag.core.domain.Document;
+import com.heu.rag.core.domain.ParseStatus;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface DocumentRepository extends JpaRepository<Document, Long> {
     List<Document> findByBaseId(Long baseId);
     
+    /**
+     * Find disabled documents (seeds DisabledDocumentRegistry)
+     */
+    List<Document> findByIsEnabledFalse();
+    
     /**
      * Find documents by baseId with pagination
      */
@@ -39,5 +48,54 @@ public interface DocumentRepository extends JpaRepository<Document, Long> {
      */
     @Query("SELECT COUNT(d) FROM Document d WHERE d.baseId = :baseId AND LOWER(d.docName) LIKE LOWER(CONCAT('%', :search, '%'))")
     long countByBaseIdAndDocNameContaining(@Param("baseId") Long baseId, @Param("search") String search);
+    
+    /**
+     * Sum of the chunk counters of a knowledge base's documents
+     */
+    @Query("SELECT COALESCE(SUM(d.totalChunks), 0) FROM Document d WHERE d.baseId = :baseId")
+    long sumTotalChunksByBaseId(@Param("baseId") Long baseId);
+    
+    /**
+     * Latest document of a knowledge base with the given file hash, ignoring
+     * the given status
+     */
+    Optional<Document> findFirstByBaseIdAndContentHashAndStatusNotOrderByCreatedAtDesc(Long baseId,
+            String contentHash, ParseStatus status);
+
+    /**
+     * Set the processing status; returns 0 if the document no longer exists
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Document d SET d.status = :status, d.updatedAt = CURRENT_TIMESTAMP WHERE d.docId = :docId")
+    int updateStatus(@Param("docId") Long docId, @Param("status") ParseStatus status);
+
+    /**
+     * Set the processing status only if it currently is {@code expected};
+     * returns 0 if it is not (or the document no longer exists)
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Document d SET d.status = :status, d.updatedAt = CURRENT_TIMESTAMP "
+            + "WHERE d.docId = :docId AND d.status = :expected")
+    int updateStatusFrom(@Param("docId") Long docId, @Param("expected") ParseStatus expected,
+            @Param("status") ParseStatus status);
+
+    /**
+     * Drop the check constraint Hibernate generated on documents.status for
+     * the original ParseStatus values; ddl-auto=update does not widen it for
+     * the ingestion stages
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "ALTER TABLE documents DROP CONSTRAINT IF EXISTS documents_status_check", nativeQuery = true)
+    void dropStatusCheckConstraint();
+    
+    /**
+     * Delete all documents of a knowledge base with a single statement
+     */
+    @Modifying
+    @Query("DELETE FROM Document d WHERE d.baseId = :baseId")
+    int deleteAllByBaseIdInBulk(@Param("baseId") Long baseId);
 }
 
@@ -0,0 +1,53 @@
+package com.heu.rag.core.repository;
+
+import com.heu.rag.core.domain.IngestionJob;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+public interface IngestionJobRepository extends JpaRepository<IngestionJob, Long> {
+
+    /**
+     * Unfinished jobs, oldest first (processing order)
+     */
+    List<IngestionJob> findByFinishedAtIsNullOrderByCreatedAtAsc(Pageable pageable);
+
+    /**
+     * Number of unfinished jobs created before the given one (queue position)
+     */
+    @Query("SELECT COUNT(j) FROM IngestionJob j WHERE j.finishedAt IS NULL AND j.createdAt < "
+            + "(SELECT o.createdAt FROM IngestionJob o WHERE o.docId = :docId)")
+    long countUnfinishedBefore(@Param("docId") Long docId);
+
+    long countByFinishedAtIsNull();
+
+    /**
+     * Record embedding progress of a running job
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE IngestionJob j SET j.chunksDone = :done, j.chunksTotal = :total WHERE j.docId = :docId")
+    int updateProgress(@Param("docId") Long docId, @Param("done") int done, @Param("total") int total);
+
+    /**
+     * Delete the finished jobs of a knowledge base's documents; unfinished
+     * ones are dropped by the worker once it finds their document gone
+     */
+    @Modifying
+    @Query("DELETE FROM IngestionJob j WHERE j.baseId = :baseId AND j.finishedAt IS NOT NULL")
+    int deleteFinishedByBaseId(@Param("baseId") Long baseId);
+
+    /**
+     * Delete the finished job of a document before it is queued again
+     */
+    @Modifying
+    @Query("DELETE FROM IngestionJob j WHERE j.docId = :docId AND j.finishedAt IS NOT NULL")
+    int deleteFinishedByDocId(@Param("docId") Long docId);
+}
@@ -2,6 +2,7 @@ package com.heu.rag.core.repository;
 
 import com.heu.rag.core.domain.KnowledgeBase;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -18,4 +19,19 @@ public interface KnowledgeBaseRepository extends JpaRepository<KnowledgeBase, Lo
     @Query("SELECT kb FROM KnowledgeBase kb WHERE kb.userId = :userId AND LOWER(kb.baseName) LIKE LOWER(CONCAT('%', :baseName, '%')) ORDER BY kb.updatedAt DESC")
     List<KnowledgeBase> findByUserIdAndBaseNameContainingIgnoreCase(@Param("userId") Long userId,
             @Param("baseName") String baseName);
+
+    /**
+     * Atomically add delta to the knowledge base chunk counter
+     */
+    @Modifying
+    @Query("UPDATE KnowledgeBase kb SET kb.totalChunks = COALESCE(kb.totalChunks, 0) + :delta WHERE kb.baseId = :baseId")
+    int addTotalChunks(@Param("baseId") Long baseId, @Param("delta") long delta);
+
+    /**
+     * Initialize missing chunk counters from the per-document counters
+     */
+    @Modifying
+    @Query("UPDATE KnowledgeBase kb SET kb.totalChunks = (SELECT COALESCE(SUM(d.totalChunks), 0) FROM Document d "
+            + "WHERE d.baseId = kb.baseId) WHERE kb.totalChunks IS NULL")
+    int backfillTotalChunks();
 }
@@ -0,0 +1,9 @@
+package com.heu.rag.core.repository;
+
+import com.heu.rag.core.domain.VectorProjection;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface VectorProjectionRepository extends JpaRepository<VectorProjection, String> {
+}
@@ -0,0 +1,25 @@
+package com.heu.rag.core.repository;
+
+import com.heu.rag.core.domain.VectorTombstone;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface VectorTombstoneRepository extends JpaRepository<VectorTombstone, Long> {
+
+    /**
+     * Compaction order: fewest failed attempts first, then oldest, skipping
+     * the given tombstones (those that already failed in the current run)
+     */
+    List<VectorTombstone> findByTombstoneIdNotInOrderByAttemptsAscCreatedAtAsc(Collection<Long> excludedIds,
+            Pageable pageable);
+
+    /**
+     * Tombstones whose deletes have failed at least the given number of times
+     */
+    long countByAttemptsGreaterThanEqual(int attempts);
+}
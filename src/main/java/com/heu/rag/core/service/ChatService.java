@@ -2,6 +2,7 @@ package com.heu.rag.core.service;
 
 import com.heu.rag.core.domain.ChatMessage;
 import com.heu.rag.core.domain.Conversation;
+import com.heu.rag.core.domain.RetrievedChunk;
 import com.heu.rag.core.exception.ResourceNotFoundException;
 import com.heu.rag.core.repository.ChatMessageRepository;
 import com.heu.rag.core.repository.ConversationRepository;
@@ -15,8 +16,6 @@ import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.document.Document;
-import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Sort;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -31,7 +30,6 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
 
 /**
  * Service for handling RAG-based chat with streaming support.
@@ -44,11 +42,11 @@ import java.util.stream.Collectors;
 public class ChatService {
 
     private final ChatModel chatModel;
-    private final VectorStore vectorStore;
     private final ChatMessageRepository chatMessageRepository;
     private final ConversationRepository conversationRepository;
     private final KnowledgeBaseRepository knowledgeBaseRepository;
-    private final MilvusService milvusService;
+    private final HybridSearchService hybridSearchService;
+    private final ContextPacker contextPacker;
     @Qualifier("chatPersistenceExecutor")
     private final ThreadPoolExecutor chatPersistenceExecutor;
     private final SnowflakeIdGenerator snowflakeIdGenerator;
@@ -146,30 +144,17 @@ public class ChatService {
         if (effectiveBaseId != null) {
             log.debug("Retrieving similar documents from vector store with baseId filter...");
             try {
-                // Use MilvusService for baseId-filtered search to prevent cross-base retrieval
-                List<Document> similarDocuments = milvusService.similaritySearchWithBaseId(
-                        query, effectiveBaseId, retrievalTopK, retrievalThreshold);
-                
-                // Fallback retrieval with lower threshold to improve recall for vague queries.
-                if (similarDocuments.isEmpty() && fallbackThreshold < retrievalThreshold) {
-                    log.info("Primary retrieval returned 0 docs, retrying with fallback threshold: {} -> {}",
-                            retrievalThreshold, fallbackThreshold);
-                    similarDocuments = milvusService.similaritySearchWithBaseId(
-                            query, effectiveBaseId, retrievalTopK, fallbackThreshold);
-                }
+                // baseId-filtered search to prevent cross-base retrieval. One range search
+                // down to the fallback threshold serves both tiers, so a vague query no
+                // longer costs a second embedding + search round trip; BM25 hits on exact
+                // terms are fused in (see HybridSearchService).
+                List<RetrievedChunk> similarDocuments = hybridSearchService.search(
+                        query, effectiveBaseId, retrievalTopK, retrievalThreshold, fallbackThreshold);
 
                 log.info("Retrieved {} chunks for query (filtered by baseId={})", similarDocuments.size(), effectiveBaseId);
 
-                context = similarDocuments.stream()
-                        .map(doc -> {
-                            try {
-                                return doc.getText() != null ? doc.getText() : doc.toString();
-                            } catch (Exception e) {
-                                return doc.toString();
-                            }
-                        })
-                        .filter(content -> content != null && !content.isEmpty())
-                        .collect(Collectors.joining("\n\n---\n\n"));
+                // Fill the context token budget in retrieval order (see ContextPacker)
+                context = contextPacker.pack(similarDocuments).text();
 
                 if (context.isEmpty()) {
                     log.warn("No context retrieved for query, proceeding without context");
@@ -197,7 +182,8 @@ public class ChatService {
             List<ChatMessage> historyMessages = chatMessageRepository.findByConversationId(
                     finalConversationId, Sort.by(Sort.Direction.ASC, "createdAt"));
 
-            // Get last 5 messages
+            // Get last 5 messages, newest first within the history token budget
+            List<Message> history = new ArrayList<>();
             int historySize = Math.min(5, historyMessages.size());
             for (int i = Math.max(0, historyMessages.size() - historySize); i < historyMessages.size(); i++) {
                 ChatMessage msg = historyMessages.get(i);
@@ -206,14 +192,15 @@ public class ChatService {
                     String role = (String) msgContent.getOrDefault("role", "user");
                     String content = (String) msgContent.getOrDefault("content", "");
                     if ("user".equals(role)) {
-                        messages.add(new UserMessage(content));
+                        history.add(new UserMessage(content));
                     } else if ("assistant".equals(role)) {
                         org.springframework.ai.chat.messages.AssistantMessage assistantMsg = new org.springframework.ai.chat.messages.AssistantMessage(
                                 content);
-                        messages.add(assistantMsg);
+                        history.add(assistantMsg);
                     }
                 }
             }
+            messages.addAll(contextPacker.fitHistory(history));
         }
 
         messages.add(userMessage);
@@ -0,0 +1,109 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.core.domain.ChunkEmbedding;
+import com.heu.rag.core.repository.ChunkEmbeddingRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of chunk embeddings keyed by (SHA-256 of the chunk text,
+ * embedding model), so the same syllabus uploaded into several knowledge
+ * bases, or re-uploaded, is only embedded once (see
+ * IngestionEmbeddingService). Entries are never evicted; a model change
+ * simply stops matching the old ones.
+ *
+ * The cache is best-effort: database errors are logged and treated as
+ * misses, they never fail an upload.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ChunkEmbeddingCache {
+
+    private final ChunkEmbeddingRepository chunkEmbeddingRepository;
+
+    @Value("${rag.ingestion.embedding-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${spring.ai.ollama.embedding.model:qwen2.5:7b}")
+    private String model;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * Cached embeddings of the given chunk hashes (absent ones are missing
+     * from the map)
+     */
+    public Map<String, float[]> getAll(Collection<String> chunkHashes) {
+        Map<String, float[]> found = new HashMap<>();
+        if (!enabled || chunkHashes.isEmpty()) {
+            return found;
+        }
+        try {
+            for (ChunkEmbedding entry : chunkEmbeddingRepository.findByModelAndChunkHashIn(model, chunkHashes)) {
+                float[] embedding = fromBytes(entry.getEmbedding());
+                if (embedding.length == entry.getDimension()) {
+                    found.put(entry.getChunkHash(), embedding);
+                }
+            }
+        } catch (Exception e) {
+            errors.incrementAndGet();
+            log.warn("Chunk embedding cache lookup failed, embedding all {} chunks: {}", chunkHashes.size(),
+                    e.getMessage());
+        }
+        hits.addAndGet(found.size());
+        misses.addAndGet(chunkHashes.size() - found.size());
+        return found;
+    }
+
+    public void putAll(Map<String, float[]> embeddings) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            for (Map.Entry<String, float[]> entry : embeddings.entrySet()) {
+                float[] embedding = entry.getValue();
+                stored.addAndGet(chunkEmbeddingRepository.insertIfAbsent(entry.getKey(), model, embedding.length,
+                        toBytes(embedding)));
+            }
+        } catch (Exception e) {
+            errors.incrementAndGet();
+            log.warn("Failed to cache chunk embeddings: {}", e.getMessage());
+        }
+    }
+
+    public ChunkEmbeddingCacheStats stats() {
+        long hitCount = hits.get();
+        long lookups = hitCount + misses.get();
+        return new ChunkEmbeddingCacheStats(enabled, model, hitCount, misses.get(),
+                lookups == 0 ? 0.0 : (double) hitCount / lookups, stored.get(), errors.get());
+    }
+
+    private static byte[] toBytes(float[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(values);
+        return buffer.array();
+    }
+
+    private static float[] fromBytes(byte[] bytes) {
+        float[] values = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(values);
+        return values;
+    }
+
+    public record ChunkEmbeddingCacheStats(boolean enabled, String model, long hits, long misses, double hitRate,
+            long stored, long errors) {
+    }
+}
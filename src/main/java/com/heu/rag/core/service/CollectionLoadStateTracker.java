@@ -0,0 +1,148 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.config.MilvusClientPool;
+import io.milvus.client.MilvusServiceClient;
+import io.milvus.grpc.GetLoadStateResponse;
+import io.milvus.grpc.LoadState;
+import io.milvus.param.R;
+import io.milvus.param.collection.GetLoadStateParam;
+import io.milvus.param.collection.LoadCollectionParam;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks whether Milvus collections are loaded into memory.
+ *
+ * Search paths call ensureLoaded(), which is a map lookup once a collection is
+ * known to be loaded. The state is refreshed in the background via
+ * getLoadState and invalidated explicitly when a search fails with
+ * "collection not loaded", so loadCollection is only issued when needed.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class CollectionLoadStateTracker {
+
+    private final MilvusClientPool milvusClientPool;
+
+    @Value("${rag.milvus.load-state.refresh-interval-ms:60000}")
+    private long refreshIntervalMs;
+
+    // Key: collection name
+    private final Map<String, LoadState> states = new ConcurrentHashMap<>();
+    private final Map<String, Object> loadLocks = new ConcurrentHashMap<>();
+    private ScheduledExecutorService refresher;
+
+    @PostConstruct
+    void startRefresher() {
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "milvus-load-state-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::refreshAll, refreshIntervalMs, refreshIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stopRefresher() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    /**
+     * Whether the collection is currently known to be loaded (no RPC).
+     */
+    public boolean isLoaded(String collectionName) {
+        return states.get(collectionName) == LoadState.LoadStateLoaded;
+    }
+
+    /**
+     * Ensure the collection is loaded. Returns immediately when the tracker
+     * already knows it is loaded; otherwise checks the load state and loads the
+     * collection if required.
+     */
+    public void ensureLoaded(MilvusServiceClient client, String collectionName) {
+        if (isLoaded(collectionName)) {
+            return;
+        }
+        synchronized (loadLocks.computeIfAbsent(collectionName, k -> new Object())) {
+            if (isLoaded(collectionName)) {
+                return;
+            }
+            LoadState state = fetchLoadState(client, collectionName);
+            if (state != LoadState.LoadStateLoaded) {
+                log.info("Milvus collection '{}' is in state {}, loading...", collectionName, state);
+                R<?> loadResult = client.loadCollection(
+                        LoadCollectionParam.newBuilder()
+                                .withCollectionName(collectionName)
+                                .build());
+                if (loadResult.getStatus() != R.Status.Success.getCode()) {
+                    String message = loadResult.getMessage();
+                    if (message == null || !message.toLowerCase().contains("loaded")) {
+                        throw new RuntimeException("Failed to load Milvus collection: " + message);
+                    }
+                }
+            }
+            states.put(collectionName, LoadState.LoadStateLoaded);
+        }
+    }
+
+    /**
+     * Forget the loaded state, e.g. after a "collection not loaded" error or a
+     * release. The next ensureLoaded() call will check and reload.
+     */
+    public void markNotLoaded(String collectionName) {
+        log.warn("Marking Milvus collection '{}' as not loaded", collectionName);
+        states.remove(collectionName);
+    }
+
+    private LoadState fetchLoadState(MilvusServiceClient client, String collectionName) {
+        R<GetLoadStateResponse> result = client.getLoadState(
+                GetLoadStateParam.newBuilder()
+                        .withCollectionName(collectionName)
+                        .build());
+        if (result.getStatus() != R.Status.Success.getCode() || result.getData() == null) {
+            log.warn("Failed to get load state of '{}': {}", collectionName, result.getMessage());
+            return LoadState.UNRECOGNIZED;
+        }
+        return result.getData().getState();
+    }
+
+    /**
+     * Background refresh of every tracked collection, so an external
+     * release is noticed without waiting for a failed search.
+     */
+    private void refreshAll() {
+        if (states.isEmpty()) {
+            return;
+        }
+        try {
+            milvusClientPool.execute(client -> {
+                for (String collectionName : states.keySet()) {
+                    LoadState state = fetchLoadState(client, collectionName);
+                    if (state == LoadState.LoadStateLoaded) {
+                        states.put(collectionName, state);
+                    } else if (state != LoadState.UNRECOGNIZED) {
+                        log.warn("Milvus load state of '{}' changed to {}", collectionName, state);
+                        states.remove(collectionName);
+                    }
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("Milvus load state refresh failed: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.heu.rag.core.service;
+
+import io.milvus.common.clientenum.ConsistencyLevelEnum;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chooses the Milvus consistency level per operation.
+ *
+ * Interactive reads (chat retrieval, chunk browsing) default to BOUNDED so they
+ * do not wait for the latest cluster timestamp while other users ingest.
+ * Writers call recordWrite(baseId) after inserting into or deleting from a
+ * knowledge base; for the read-your-writes window after that, reads of the
+ * same knowledge base are issued with STRONG so the user who just uploaded or
+ * deleted a file sees the change immediately.
+ *
+ * STRONG is used instead of SESSION for that window: SESSION only covers
+ * writes made through the same client, and writes here go through pooled
+ * clients and the Spring AI VectorStore.
+ */
+@Component
+@Slf4j
+public class ConsistencyPolicy {
+
+    private final ConsistencyLevelEnum retrievalLevel;
+    private final ConsistencyLevelEnum browseLevel;
+    private final long readYourWritesWindowMs;
+
+    // Key: baseId, value: time of the last write (epoch millis)
+    private final Map<Long, Long> lastWrites = new ConcurrentHashMap<>();
+
+    private final LongAdder strongReads = new LongAdder();
+    private final LongAdder relaxedReads = new LongAdder();
+
+    public ConsistencyPolicy(
+            @Value("${rag.milvus.consistency.retrieval:BOUNDED}") String retrievalLevel,
+            @Value("${rag.milvus.consistency.browse:BOUNDED}") String browseLevel,
+            @Value("${rag.milvus.consistency.read-your-writes-window-ms:10000}") long readYourWritesWindowMs) {
+        this.retrievalLevel = parseLevel(retrievalLevel);
+        this.browseLevel = parseLevel(browseLevel);
+        this.readYourWritesWindowMs = readYourWritesWindowMs;
+        log.info("Milvus consistency policy: retrieval={}, browse={}, readYourWritesWindowMs={}",
+                this.retrievalLevel, this.browseLevel, readYourWritesWindowMs);
+    }
+
+    /**
+     * Record an insert or delete in the knowledge base.
+     */
+    public void recordWrite(Long baseId) {
+        if (baseId != null) {
+            lastWrites.put(baseId, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Consistency level for chat retrieval in the knowledge base.
+     */
+    public ConsistencyLevelEnum forRetrieval(Long baseId) {
+        return resolve(baseId, retrievalLevel);
+    }
+
+    /**
+     * Consistency level for browsing the chunks of a document in the knowledge
+     * base.
+     */
+    public ConsistencyLevelEnum forBrowse(Long baseId) {
+        return resolve(baseId, browseLevel);
+    }
+
+    /**
+     * Consistency level for admin operations and consistency checks (counts,
+     * migrations), which must always see every acknowledged write.
+     */
+    public ConsistencyLevelEnum strong() {
+        return ConsistencyLevelEnum.STRONG;
+    }
+
+    public PolicyStats stats() {
+        return new PolicyStats(retrievalLevel, browseLevel, readYourWritesWindowMs, lastWrites.size(),
+                strongReads.sum(), relaxedReads.sum());
+    }
+
+    private ConsistencyLevelEnum resolve(Long baseId, ConsistencyLevelEnum defaultLevel) {
+        if (defaultLevel == ConsistencyLevelEnum.STRONG || baseId == null || withinWriteWindow(baseId)) {
+            strongReads.increment();
+            return ConsistencyLevelEnum.STRONG;
+        }
+        relaxedReads.increment();
+        return defaultLevel;
+    }
+
+    private boolean withinWriteWindow(Long baseId) {
+        Long lastWrite = lastWrites.get(baseId);
+        if (lastWrite == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - lastWrite <= readYourWritesWindowMs) {
+            return true;
+        }
+        // Expired; drop it unless a newer write raced in
+        lastWrites.remove(baseId, lastWrite);
+        return false;
+    }
+
+    private static ConsistencyLevelEnum parseLevel(String level) {
+        try {
+            return ConsistencyLevelEnum.valueOf(level.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown Milvus consistency level: " + level, e);
+        }
+    }
+
+    public record PolicyStats(ConsistencyLevelEnum retrievalLevel, ConsistencyLevelEnum browseLevel,
+            long readYourWritesWindowMs, int trackedKnowledgeBases, long strongReads, long relaxedReads) {
+    }
+}
@@ -0,0 +1,177 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.core.domain.RetrievedChunk;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Token-budgeted assembly of the prompt's variable parts: the retrieved
+ * context and the conversation history.
+ *
+ * Chunks are taken in retrieval order (best first) while they fit
+ * rag.prompt.context-token-budget. The first chunk that does not fit is cut
+ * at a sentence boundary if at least min-chunk-tokens of budget are left;
+ * later chunks are still added whole if they fit. History messages are
+ * taken newest first within history-token-budget. Tokens are counted with
+ * JTokkit (cl100k_base), which is close to, but not exactly, the chat
+ * model's own tokenizer, so budgets should keep some headroom below num_ctx.
+ */
+@Service
+@Slf4j
+public class ContextPacker {
+
+    public static final String CHUNK_SEPARATOR = "\n\n---\n\n";
+
+    // Sentence ends: Latin punctuation followed by whitespace, CJK punctuation, line breaks
+    private static final Pattern SENTENCE_END = Pattern.compile("[.!?;](?=\\s)|[。！？；]|\\n+");
+
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    @Value("${rag.prompt.context-token-budget:2000}")
+    private int contextTokenBudget;
+
+    @Value("${rag.prompt.history-token-budget:800}")
+    private int historyTokenBudget;
+
+    @Value("${rag.prompt.min-chunk-tokens:64}")
+    private int minChunkTokens;
+
+    private final AtomicLong packs = new AtomicLong();
+    private final AtomicLong chunksPacked = new AtomicLong();
+    private final AtomicLong chunksTruncated = new AtomicLong();
+    private final AtomicLong chunksDropped = new AtomicLong();
+    private final AtomicLong historyMessagesDropped = new AtomicLong();
+    private final AtomicLong contextTokens = new AtomicLong();
+
+    /**
+     * Context text of the chunks that fit the budget, separated by
+     * CHUNK_SEPARATOR.
+     */
+    public PackedContext pack(List<RetrievedChunk> chunks) {
+        int separatorTokens = tokenCountEstimator.estimate(CHUNK_SEPARATOR);
+        StringBuilder context = new StringBuilder();
+        int used = 0;
+        int included = 0;
+        int truncated = 0;
+        List<String> droppedIds = new ArrayList<>();
+
+        for (RetrievedChunk chunk : chunks) {
+            String content = chunk.getContent();
+            if (content.isEmpty()) {
+                continue;
+            }
+            int overhead = context.isEmpty() ? 0 : separatorTokens;
+            int remaining = contextTokenBudget - used - overhead;
+            int tokens = tokenCountEstimator.estimate(content);
+            if (tokens > remaining) {
+                if (truncated > 0 || remaining < minChunkTokens) {
+                    droppedIds.add(chunk.getId());
+                    continue;
+                }
+                content = truncateToSentences(content, remaining);
+                if (content.isEmpty()) {
+                    droppedIds.add(chunk.getId());
+                    continue;
+                }
+                tokens = tokenCountEstimator.estimate(content);
+                truncated++;
+            }
+            if (overhead > 0) {
+                context.append(CHUNK_SEPARATOR);
+            }
+            context.append(content);
+            used += overhead + tokens;
+            included++;
+        }
+
+        packs.incrementAndGet();
+        chunksPacked.addAndGet(included);
+        chunksTruncated.addAndGet(truncated);
+        chunksDropped.addAndGet(droppedIds.size());
+        contextTokens.addAndGet(used);
+        if (truncated > 0 || !droppedIds.isEmpty()) {
+            log.info("Context packed into {}/{} tokens: {} chunks included ({} truncated), dropped {}", used,
+                    contextTokenBudget, included, truncated, droppedIds);
+        }
+        return new PackedContext(context.toString(), used, included, truncated, droppedIds);
+    }
+
+    /**
+     * The most recent history messages (oldest first, as given) that fit the
+     * history budget; older ones are dropped.
+     */
+    public List<Message> fitHistory(List<Message> history) {
+        List<Message> kept = new ArrayList<>(history.size());
+        int used = 0;
+        for (int i = history.size() - 1; i >= 0; i--) {
+            String text = history.get(i).getText();
+            int tokens = text == null ? 0 : tokenCountEstimator.estimate(text);
+            if (used + tokens > historyTokenBudget) {
+                break;
+            }
+            used += tokens;
+            kept.add(history.get(i));
+        }
+        Collections.reverse(kept);
+        if (kept.size() < history.size()) {
+            historyMessagesDropped.addAndGet(history.size() - kept.size());
+            log.info("Dropped {} of {} history messages over the {} token budget", history.size() - kept.size(),
+                    history.size(), historyTokenBudget);
+        }
+        return kept;
+    }
+
+    public PackerStats stats() {
+        long packCount = packs.get();
+        return new PackerStats(contextTokenBudget, historyTokenBudget, packCount, chunksPacked.get(),
+                chunksTruncated.get(), chunksDropped.get(), historyMessagesDropped.get(),
+                packCount == 0 ? 0.0 : (double) contextTokens.get() / packCount);
+    }
+
+    /**
+     * Longest prefix of whole sentences within maxTokens (empty if not even
+     * the first sentence fits).
+     */
+    private String truncateToSentences(String content, int maxTokens) {
+        Matcher matcher = SENTENCE_END.matcher(content);
+        int start = 0;
+        int end = 0;
+        int used = 0;
+        while (start < content.length()) {
+            int sentenceEnd = matcher.find(start) ? matcher.end() : content.length();
+            int tokens = tokenCountEstimator.estimate(content.substring(start, sentenceEnd));
+            if (used + tokens > maxTokens) {
+                break;
+            }
+            used += tokens;
+            end = sentenceEnd;
+            start = sentenceEnd;
+        }
+        return content.substring(0, end).stripTrailing();
+    }
+
+    /**
+     * @param text       Context text for the system prompt
+     * @param tokens     Estimated tokens of text
+     * @param included   Chunks in text
+     * @param truncated  Chunks cut at a sentence boundary
+     * @param droppedIds Chunks left out for lack of budget
+     */
+    public record PackedContext(String text, int tokens, int included, int truncated, List<String> droppedIds) {
+    }
+
+    public record PackerStats(int contextTokenBudget, int historyTokenBudget, long packs, long chunksPacked,
+            long chunksTruncated, long chunksDropped, long historyMessagesDropped, double avgContextTokens) {
+    }
+}
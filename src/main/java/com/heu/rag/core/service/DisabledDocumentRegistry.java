@@ -0,0 +1,116 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.core.domain.Document;
+import com.heu.rag.core.repository.DocumentRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory registry of disabled documents per knowledge base.
+ *
+ * The isEnabled flag baked into chunk metadata at ingestion is never
+ * rewritten (that would mean re-upserting every vector of the document), so
+ * retrieval excludes the documents registered here instead (see
+ * MilvusService). Postgres (documents.is_enabled) stays the source of truth:
+ * the registry is seeded from it at startup and updated when a status change
+ * commits, so toggling is O(1) and applies to the next search. The
+ * knowledge base's cached retrieval results are invalidated in the same
+ * step, right after the registry changed, so a search racing the commit
+ * cannot cache results computed against the old status.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DisabledDocumentRegistry {
+
+    private final DocumentRepository documentRepository;
+    private final RetrievalResultCache retrievalResultCache;
+
+    // baseId -> disabled docIds
+    private final Map<Long, Set<Long>> disabledDocuments = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void loadDisabledDocuments() {
+        List<Document> documents = documentRepository.findByIsEnabledFalse();
+        documents.forEach(document -> disable(document.getBaseId(), document.getDocId()));
+        if (!documents.isEmpty()) {
+            log.info("Loaded {} disabled documents", documents.size());
+        }
+    }
+
+    /**
+     * Record a document status change and invalidate the knowledge base's
+     * cached results once the current transaction commits (immediately
+     * without a transaction)
+     */
+    public void setEnabled(Long baseId, Long docId, boolean enabled) {
+        afterCommit(() -> {
+            if (enabled) {
+                enable(baseId, docId);
+            } else {
+                disable(baseId, docId);
+            }
+            retrievalResultCache.bumpVersion(baseId);
+        });
+    }
+
+    /**
+     * Forget a deleted document
+     */
+    public void remove(Long baseId, Long docId) {
+        afterCommit(() -> enable(baseId, docId));
+    }
+
+    /**
+     * Forget the documents of deleted knowledge bases
+     */
+    public void removeKnowledgeBases(Iterable<Long> baseIds) {
+        afterCommit(() -> baseIds.forEach(disabledDocuments::remove));
+    }
+
+    /**
+     * Disabled documents of a knowledge base (read-only view)
+     */
+    public Set<Long> disabledDocIds(Long baseId) {
+        Set<Long> docIds = disabledDocuments.get(baseId);
+        return docIds == null ? Set.of() : Collections.unmodifiableSet(docIds);
+    }
+
+    public int size() {
+        return disabledDocuments.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private void disable(Long baseId, Long docId) {
+        disabledDocuments.computeIfAbsent(baseId, id -> ConcurrentHashMap.newKeySet()).add(docId);
+    }
+
+    private void enable(Long baseId, Long docId) {
+        disabledDocuments.computeIfPresent(baseId, (id, docIds) -> {
+            docIds.remove(docId);
+            return docIds.isEmpty() ? null : docIds;
+        });
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.core.domain.RetrievedChunk;
+import com.heu.rag.core.util.Bm25Index;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maximal marginal relevance (Carbonell and Goldstein) selection of the
+ * chunks put into the prompt: repeatedly picks the candidate maximizing
+ * lambda * relevance - (1 - lambda) * max similarity to the chunks picked so
+ * far, so overlapping chunks of the same page do not all make it in.
+ *
+ * Relevance comes from the rank in the retrieval list (1 for the first
+ * candidate down to 1/n for the last), since fused hybrid rankings have no
+ * common score. Similarity is the cosine of the stored embeddings returned
+ * with the search hits; for chunks without one (lexical-only hits) the
+ * Jaccard overlap of their terms is used instead. Candidates at least
+ * duplicate-threshold similar to a picked chunk are dropped outright and at
+ * most max-per-document chunks of one document are picked, so fewer than
+ * topK chunks may come back.
+ */
+@Service
+@Slf4j
+public class DiversitySelector {
+
+    @Value("${rag.retrieval.mmr.enabled:true}")
+    private boolean enabled;
+
+    @Value("${rag.retrieval.mmr.lambda:0.7}")
+    private double lambda;
+
+    @Value("${rag.retrieval.mmr.max-per-document:3}")
+    private int maxPerDocument;
+
+    @Value("${rag.retrieval.mmr.duplicate-threshold:0.95}")
+    private double duplicateThreshold;
+
+    private final AtomicLong selections = new AtomicLong();
+    private final AtomicLong candidatesSeen = new AtomicLong();
+    private final AtomicLong duplicatesDropped = new AtomicLong();
+    private final AtomicLong cappedByDocument = new AtomicLong();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Pick up to topK diverse chunks from a ranked candidate list (best
+     * first); returned in selection order.
+     */
+    public List<RetrievedChunk> select(List<RetrievedChunk> ranked, int topK) {
+        if (!enabled || ranked.size() <= 1) {
+            return ranked.size() > topK ? new ArrayList<>(ranked.subList(0, topK)) : ranked;
+        }
+        int n = ranked.size();
+        double[] maxSimilarity = new double[n];
+        boolean[] done = new boolean[n];
+        Map<Integer, Set<String>> terms = new HashMap<>();
+        Map<Long, Integer> perDocument = new HashMap<>();
+        List<RetrievedChunk> selected = new ArrayList<>(Math.min(topK, n));
+        int duplicates = 0;
+        int capped = 0;
+
+        while (selected.size() < topK) {
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                if (done[i]) {
+                    continue;
+                }
+                Long docId = ranked.get(i).metadata().docId();
+                if (docId != null && perDocument.getOrDefault(docId, 0) >= maxPerDocument) {
+                    done[i] = true;
+                    capped++;
+                    continue;
+                }
+                double relevance = 1.0 - (double) i / n;
+                double score = lambda * relevance - (1 - lambda) * maxSimilarity[i];
+                if (score > bestScore) {
+                    best = i;
+                    bestScore = score;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+
+            RetrievedChunk chosen = ranked.get(best);
+            done[best] = true;
+            selected.add(chosen);
+            Long docId = chosen.metadata().docId();
+            if (docId != null) {
+                perDocument.merge(docId, 1, Integer::sum);
+            }
+            for (int i = 0; i < n; i++) {
+                if (done[i]) {
+                    continue;
+                }
+                double similarity = similarity(ranked, best, i, terms);
+                if (similarity >= duplicateThreshold) {
+                    done[i] = true;
+                    duplicates++;
+                } else if (similarity > maxSimilarity[i]) {
+                    maxSimilarity[i] = similarity;
+                }
+            }
+        }
+
+        selections.incrementAndGet();
+        candidatesSeen.addAndGet(n);
+        duplicatesDropped.addAndGet(duplicates);
+        cappedByDocument.addAndGet(capped);
+        log.debug("MMR picked {} of {} candidates ({} near-duplicates, {} over the per-document cap)",
+                selected.size(), n, duplicates, capped);
+        return selected;
+    }
+
+    public DiversityStats stats() {
+        return new DiversityStats(enabled, lambda, maxPerDocument, selections.get(), candidatesSeen.get(),
+                duplicatesDropped.get(), cappedByDocument.get());
+    }
+
+    private static double similarity(List<RetrievedChunk> ranked, int a, int b, Map<Integer, Set<String>> terms) {
+        float[] x = ranked.get(a).getEmbedding();
+        float[] y = ranked.get(b).getEmbedding();
+        if (x != null && y != null && x.length == y.length) {
+            return cosine(x, y);
+        }
+        Set<String> termsA = terms.computeIfAbsent(a, i -> termsOf(ranked.get(i)));
+        Set<String> termsB = terms.computeIfAbsent(b, i -> termsOf(ranked.get(i)));
+        if (termsA.isEmpty() || termsB.isEmpty()) {
+            return 0.0;
+        }
+        int shared = 0;
+        for (String term : termsA) {
+            if (termsB.contains(term)) {
+                shared++;
+            }
+        }
+        return (double) shared / (termsA.size() + termsB.size() - shared);
+    }
+
+    private static Set<String> termsOf(RetrievedChunk chunk) {
+        return new HashSet<>(Bm25Index.tokenize(chunk.getContent()));
+    }
+
+    private static double cosine(float[] x, float[] y) {
+        double dot = 0;
+        double normX = 0;
+        double normY = 0;
+        for (int i = 0; i < x.length; i++) {
+            dot += x[i] * y[i];
+            normX += x[i] * x[i];
+            normY += y[i] * y[i];
+        }
+        double denominator = Math.sqrt(normX) * Math.sqrt(normY);
+        return denominator == 0 ? 0.0 : dot / denominator;
+    }
+
+    public record DiversityStats(boolean enabled, double lambda, int maxPerDocument, long selections,
+            long candidates, long duplicatesDropped, long cappedByDocument) {
+    }
+}
@@ -1,13 +1,17 @@
 package com.heu.rag.core.service;
 
 import com.heu.rag.core.domain.Document;
+import com.heu.rag.core.domain.IngestionJob;
 import com.heu.rag.core.domain.KnowledgeBase;
+import com.heu.rag.core.domain.ParseStatus;
+import com.heu.rag.core.domain.RetrievedChunk;
 import com.heu.rag.core.exception.ResourceNotFoundException;
 import com.heu.rag.core.repository.DocumentRepository;
+import com.heu.rag.core.repository.IngestionJobRepository;
 import com.heu.rag.core.repository.KnowledgeBaseRepository;
+import com.heu.rag.core.util.ChunkCursor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
@@ -15,8 +19,8 @@ import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Service for handling document management operations
@@ -28,8 +32,14 @@ public class DocumentService {
 
     private final DocumentRepository documentRepository;
     private final KnowledgeBaseRepository knowledgeBaseRepository;
-    private final VectorStore vectorStore;
     private final MilvusService milvusService;
+    private final RetrievalResultCache retrievalResultCache;
+    private final ConsistencyPolicy consistencyPolicy;
+    private final VectorTombstoneService vectorTombstoneService;
+    private final VectorCompactionService vectorCompactionService;
+    private final DisabledDocumentRegistry disabledDocumentRegistry;
+    private final LexicalIndexService lexicalIndexService;
+    private final IngestionJobRepository ingestionJobRepository;
 
     /**
      * Verify that the knowledge base belongs to the current user
@@ -46,10 +56,11 @@ public class DocumentService {
      * Verify that the document belongs to a knowledge base owned by the current
      * user
      */
-    private void verifyDocumentOwnership(Long docId, Long userId) {
+    private Document verifyDocumentOwnership(Long docId, Long userId) {
         Document document = documentRepository.findById(docId)
                 .orElseThrow(() -> new ResourceNotFoundException("Document not found"));
         verifyOwnership(document.getBaseId(), userId);
+        return document;
     }
 
     /**
@@ -117,45 +128,121 @@ public class DocumentService {
     }
 
     /**
-     * Get document chunks from Milvus with pagination and search
+     * Processing stage and progress of an uploaded document (see
+     * IngestionQueueService)
+     *
+     * @param docId  Document ID
+     * @param userId User ID for ownership verification
+     * @return Status; job fields are null for documents uploaded before the
+     *         ingestion queue existed
+     */
+    public IngestionStatus getIngestionStatus(Long docId, Long userId) {
+        Document document = verifyDocumentOwnership(docId, userId);
+        IngestionJob job = ingestionJobRepository.findById(docId).orElse(null);
+        if (job == null) {
+            return new IngestionStatus(docId, document.getStatus(), null, document.getTotalChunks(),
+                    document.getTotalChunks(), null, null, document.getCreatedAt(), null, null);
+        }
+        Long queuePosition = document.getStatus() == ParseStatus.Queued
+                ? ingestionJobRepository.countUnfinishedBefore(docId)
+                : null;
+        return new IngestionStatus(docId, document.getStatus(), job.getAttempts(), job.getChunksDone(),
+                job.getChunksTotal(), queuePosition, job.getLastError(), job.getCreatedAt(), job.getStartedAt(),
+                job.getFinishedAt());
+    }
+
+    /**
+     * Browse document chunks from Milvus in chunkIndex order
+     *
+     * Pages are addressed with opaque cursors (see ChunkCursor); offset is
+     * only honoured for the first request of a listing (no cursor). Content
+     * search is evaluated by Milvus, so it covers the whole document.
      * 
      * @param docId  Document ID
      * @param search Search term for content (optional)
      * @param limit  Page size
-     * @param offset Offset (for pagination)
+     * @param offset Offset, only used when cursor is null
+     * @param cursor Cursor returned with the previous page (optional)
      * @param userId User ID for ownership verification
-     * @return List of document chunks
+     * @return Page of document chunks with total count and next cursor
      */
-    public List<org.springframework.ai.document.Document> getDocumentChunks(Long docId, String search, int limit,
-            int offset, Long userId) {
-        log.info("Getting document chunks: docId={}, search={}, limit={}, offset={}, userId={}",
-                docId, search, limit, offset, userId);
+    public ChunkPage browseDocumentChunks(Long docId, String search, int limit, int offset, String cursor,
+            Long userId) {
+        log.info("Browsing document chunks: docId={}, search={}, limit={}, offset={}, cursor={}, userId={}",
+                docId, search, limit, offset, cursor, userId);
+
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
 
         // Verify ownership
-        verifyDocumentOwnership(docId, userId);
+        Document document = verifyDocumentOwnership(docId, userId);
+
+        String contentSearch = search != null && !search.trim().isEmpty() ? search.trim() : null;
+        int afterChunkIndex = -1;
+        int skip = Math.max(offset, 0);
+        if (cursor != null && !cursor.isBlank()) {
+            afterChunkIndex = ChunkCursor.decode(cursor, docId).lastChunkIndex();
+            skip = 0;
+        }
+
+        // Fetch one extra chunk to know whether there is a next page
+        List<RetrievedChunk> chunks = milvusService.queryChunkPage(docId, document.getBaseId(), contentSearch,
+                afterChunkIndex, skip, limit + 1);
+        boolean hasMore = chunks.size() > limit;
+        if (hasMore) {
+            chunks = chunks.subList(0, limit);
+        }
+        String nextCursor = null;
+        if (hasMore) {
+            Integer lastChunkIndex = chunks.get(chunks.size() - 1).metadata().chunkIndex();
+            nextCursor = lastChunkIndex != null ? new ChunkCursor(docId, lastChunkIndex).encode() : null;
+        }
 
-        // Use MilvusService to query chunks by docId with metadata filtering
-        // This avoids topK(10000) full scan and filters at Milvus level
-        List<org.springframework.ai.document.Document> filteredChunks = milvusService.queryChunksByDocId(
-                docId, limit, offset);
+        // The Postgres counter is exact for unfiltered listings; searches are counted by Milvus
+        long total = contentSearch == null && document.getTotalChunks() != null
+                ? document.getTotalChunks()
+                : milvusService.countChunksByDocId(docId, contentSearch);
 
-        log.info("Found {} chunks for document {} (with pagination)", filteredChunks.size(), docId);
+        log.info("Found {} chunks for document {} (total={}, hasMore={})", chunks.size(), docId, total, hasMore);
+        return new ChunkPage(chunks, total, nextCursor);
+    }
 
-        // Apply content search filter if provided
-        if (search != null && !search.trim().isEmpty()) {
-            String searchLower = search.trim().toLowerCase();
-            filteredChunks = filteredChunks.stream()
-                    .filter(chunk -> {
-                        String content = chunk.getText() != null ? chunk.getText() : chunk.toString();
-                        return content.toLowerCase().contains(searchLower);
-                    })
-                    .collect(Collectors.toList());
+    /**
+     * Re-count the chunks of every document of a knowledge base in Milvus
+     * (count(*) per document, no vectors are read) and repair the Postgres
+     * counters Document.totalChunks and KnowledgeBase.totalChunks. If any
+     * count fails the whole repair is rolled back, so an outage never
+     * overwrites the counters with zeros.
+     *
+     * @param baseId Knowledge base ID
+     * @param userId User ID for ownership verification
+     * @return Total number of chunks in the knowledge base
+     */
+    @Transactional
+    public long recountChunks(Long baseId, Long userId) {
+        log.info("Recounting chunks: baseId={}, userId={}", baseId, userId);
+
+        verifyOwnership(baseId, userId);
+        KnowledgeBase knowledgeBase = knowledgeBaseRepository.findById(baseId)
+                .orElseThrow(() -> new ResourceNotFoundException("Knowledge base not found"));
+
+        long total = 0;
+        int repaired = 0;
+        for (Document document : documentRepository.findByBaseId(baseId)) {
+            int count = (int) milvusService.countChunksByDocId(document.getDocId());
+            if (document.getTotalChunks() == null || document.getTotalChunks() != count) {
+                document.setTotalChunks(count);
+                documentRepository.save(document);
+                repaired++;
+            }
+            total += count;
         }
+        knowledgeBase.setTotalChunks(total);
+        knowledgeBaseRepository.save(knowledgeBase);
 
-        // Apply pagination
-        int start = Math.min(offset, filteredChunks.size());
-        int end = Math.min(offset + limit, filteredChunks.size());
-        return filteredChunks.subList(start, end);
+        log.info("Recounted chunks: baseId={}, totalChunks={}, repairedDocuments={}", baseId, total, repaired);
+        return total;
     }
 
     /**
@@ -176,6 +263,10 @@ public class DocumentService {
 
         document.setIsEnabled(isEnabled);
         documentRepository.save(document);
+        // Chunk metadata keeps its ingestion-time flag; retrieval excludes the
+        // documents of the registry instead of re-upserting their vectors. The
+        // registry also invalidates the cached results after commit.
+        disabledDocumentRegistry.setEnabled(document.getBaseId(), docId, Boolean.TRUE.equals(isEnabled));
 
         log.info("Document status updated: docId={}, isEnabled={}", docId, isEnabled);
     }
@@ -227,18 +318,36 @@ public class DocumentService {
             throw new IllegalArgumentException("Document does not belong to the specified knowledge base");
         }
 
-        // Delete chunks from Milvus using MilvusService (metadata-filtered delete)
-        try {
-            long deletedCount = milvusService.deleteChunksByDocId(docId);
-            log.info("Deleted {} vector chunks from Milvus for docId {}", deletedCount, docId);
-        } catch (Exception e) {
-            log.error("Failed to delete chunks from Milvus for docId {}: {}", docId, e.getMessage(), e);
-            // Continue with database deletion even if Milvus deletion fails
-        }
+        // Tombstone the vector chunks; retrieval excludes them right away and
+        // VectorCompactionService deletes them from Milvus in the background
+        vectorTombstoneService.tombstoneDocument(baseId, docId);
+        vectorCompactionService.wake();
+        disabledDocumentRegistry.remove(baseId, docId);
+        lexicalIndexService.removeDocument(baseId, docId);
 
-        // Delete document from database
+        // Delete document from database; an unfinished ingestion job is
+        // dropped by its worker once it finds the document gone
         documentRepository.delete(document);
+        ingestionJobRepository.findById(docId)
+                .filter(job -> job.getFinishedAt() != null)
+                .ifPresent(ingestionJobRepository::delete);
+        if (document.getTotalChunks() != null && document.getTotalChunks() > 0) {
+            knowledgeBaseRepository.addTotalChunks(baseId, -document.getTotalChunks());
+        }
+        retrievalResultCache.bumpVersion(baseId);
+        consistencyPolicy.recordWrite(baseId);
 
         log.info("Document deleted: docId={}", docId);
     }
+
+    public record ChunkPage(List<RetrievedChunk> chunks, long total, String nextCursor) {
+    }
+
+    /**
+     * @param queuePosition Unfinished jobs ahead of this one while Queued
+     */
+    public record IngestionStatus(Long docId, ParseStatus status, Integer attempts, Integer chunksDone,
+            Integer chunksTotal, Long queuePosition, String error, LocalDateTime createdAt,
+            LocalDateTime startedAt, LocalDateTime finishedAt) {
+    }
 }
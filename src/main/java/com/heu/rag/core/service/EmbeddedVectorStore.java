@@ -0,0 +1,961 @@
+package com.heu.rag.core.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.heu.rag.core.domain.ChunkMetadata;
+import com.heu.rag.core.domain.RetrievedChunk;
+import com.heu.rag.core.util.AppendLog;
+import com.heu.rag.core.util.HnswGraph;
+import com.heu.rag.core.util.MappedVectorFile;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * In-process vector engine, selected with rag.vector.backend=embedded for
+ * single-node / edge deployments without a Milvus server. MilvusService
+ * routes its search/query/count/delete/insert surface here when active.
+ *
+ * Storage (rag.vector.embedded.path) holds one generation directory, named
+ * by the CURRENT file:
+ * - vectors-NNNNN.f32: L2-normalized vectors, memory-mapped and off-heap,
+ * one slot per chunk (see MappedVectorFile);
+ * - records.log: checksummed write-ahead log of insert batches, deletes and
+ * chunk index updates (see AppendLog), replayed at startup to rebuild chunk
+ * metadata;
+ * - graphs.snap: checkpoint of the per-knowledge-base HNSW graphs with the
+ * number of log records it covers; later inserts are re-added on startup.
+ *
+ * An insert batch is durable once its vectors are forced and its log record
+ * fsync'ed; a crash before that leaves unreferenced slots that are reused.
+ * Deletes only mark chunks; compact() rewrites the live chunks into a new
+ * generation and switches CURRENT atomically.
+ *
+ * Every knowledge base has its own graph (like the baseId partition key of
+ * the v2 Milvus schema), so the baseId filter is free; docId exclusions and
+ * deletes are applied as a search filter. Knowledge bases with at most
+ * exact-search-threshold live chunks are scanned exhaustively.
+ *
+ * Chunk content and metadata are kept on the heap.
+ */
+@Service
+@Slf4j
+public class EmbeddedVectorStore {
+
+    private static final Gson GSON = new Gson();
+    private static final String CURRENT_FILE = "CURRENT";
+    private static final String LOG_FILE = "records.log";
+    private static final String SNAPSHOT_FILE = "graphs.snap";
+    private static final int SNAPSHOT_MAGIC = 0x47524653; // "GRFS"
+    private static final byte INSERT = 1;
+    private static final byte DELETE_DOCS = 2;
+    private static final byte DELETE_BASE = 3;
+    private static final byte DELETE_CHUNKS = 4;
+    private static final byte SET_CHUNK_INDEXES = 5;
+    private static final int COMPACTION_BATCH_SIZE = 1024;
+
+    @Value("${rag.vector.backend:milvus}")
+    private String backend;
+
+    @Value("${rag.vector.embedded.path:./data/vector-store}")
+    private String storePath;
+
+    @Value("${spring.ai.vectorstore.milvus.embedding-dimension:4096}")
+    private int dimension;
+
+    @Value("${rag.vector.embedded.m:16}")
+    private int m;
+
+    @Value("${rag.vector.embedded.ef-construction:200}")
+    private int efConstruction;
+
+    @Value("${rag.vector.embedded.ef:64}")
+    private int ef;
+
+    @Value("${rag.vector.embedded.exact-search-threshold:2000}")
+    private int exactSearchThreshold;
+
+    @Value("${rag.vector.embedded.snapshot-interval:5000}")
+    private int snapshotInterval;
+
+    @Value("${rag.vector.embedded.seed:42}")
+    private long seed;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean active;
+    private Generation current;
+
+    @PostConstruct
+    void open() throws IOException {
+        if (!"embedded".equals(backend.trim().toLowerCase(Locale.ROOT))) {
+            return;
+        }
+        Path root = Path.of(storePath);
+        Files.createDirectories(root);
+        Path currentFile = root.resolve(CURRENT_FILE);
+        String name = Files.exists(currentFile)
+                ? Files.readString(currentFile, StandardCharsets.UTF_8).trim()
+                : generationName(0);
+        current = new Generation(root.resolve(name));
+        current.load();
+        if (!Files.exists(currentFile)) {
+            writeAtomically(currentFile, name.getBytes(StandardCharsets.UTF_8));
+        }
+        active = true;
+        log.info("Embedded vector store opened at {}: {} chunks in {} knowledge bases (generation {})",
+                root.toAbsolutePath(), current.liveChunks, current.graphs.size(), name);
+    }
+
+    @PreDestroy
+    void close() {
+        if (!active) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            current.writeSnapshot();
+            current.close();
+            active = false;
+        } catch (IOException e) {
+            log.error("Failed to close embedded vector store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Whether the embedded backend is selected (rag.vector.backend=embedded)
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * topK cosine search per query vector over the live chunks of a knowledge
+     * base, skipping the excluded documents; hits scoring below minScore are
+     * dropped.
+     *
+     * @param searchWidth HNSW ef, or 0 for rag.vector.embedded.ef
+     */
+    public List<List<RetrievedChunk>> search(Long baseId, List<float[]> queries, int topK, double minScore,
+            Set<Long> excludedDocIds, int searchWidth, boolean withVectors) {
+        lock.readLock().lock();
+        try {
+            Generation generation = current;
+            List<List<RetrievedChunk>> results = new ArrayList<>(queries.size());
+            HnswGraph graph = generation.graphs.get(baseId);
+            int live = generation.liveByBase.getOrDefault(baseId, 0);
+            IntPredicate accept = slot -> {
+                ChunkRecord record = generation.records.get(slot);
+                return !record.deleted && !excludedDocIds.contains(record.docId);
+            };
+            for (float[] query : queries) {
+                if (graph == null || live == 0) {
+                    results.add(new ArrayList<>());
+                    continue;
+                }
+                float[] normalized = normalize(query);
+                List<HnswGraph.Hit> hits = live <= exactSearchThreshold
+                        ? generation.exactSearch(baseId, normalized, topK, accept)
+                        : graph.search(normalized, topK, searchWidth > 0 ? searchWidth : ef, accept,
+                                generation.scorer);
+                List<RetrievedChunk> chunks = new ArrayList<>(hits.size());
+                for (HnswGraph.Hit hit : hits) {
+                    if (hit.score() >= minScore) {
+                        chunks.add(generation.toChunk(hit.slot(), hit.score(), withVectors));
+                    }
+                }
+                results.add(chunks);
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Live chunks of a knowledge base with their (normalized) vectors, in
+     * insertion order
+     */
+    public List<RetrievedChunk> queryVectors(Long baseId, Set<Long> excludedDocIds, long offset, long limit) {
+        lock.readLock().lock();
+        try {
+            return current.baseSlots(baseId)
+                    .filter(slot -> !excludedDocIds.contains(current.records.get(slot).docId))
+                    .skip(offset)
+                    .limit(limit)
+                    .map(slot -> current.toChunk(slot, 0f, true))
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * (Normalized) vectors of live chunks of a document by chunk id; ids of
+     * other documents or deleted chunks are left out
+     */
+    public Map<String, float[]> vectors(Long docId, Collection<String> chunkIds) {
+        lock.readLock().lock();
+        try {
+            Set<String> ids = new HashSet<>(chunkIds);
+            Map<String, float[]> vectors = new HashMap<>();
+            current.docSlots(docId, null)
+                    .filter(slot -> ids.contains(current.records.get(slot).id))
+                    .forEach(slot -> vectors.put(current.records.get(slot).id, current.vectors.read(slot)));
+            return vectors;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * One page of a document's chunks in chunkIndex order, optionally only
+     * those whose content contains {@code search}
+     */
+    public List<RetrievedChunk> queryChunkPage(Long docId, String search, int afterChunkIndex, int skip,
+            int limit) {
+        lock.readLock().lock();
+        try {
+            return current.docSlots(docId, search)
+                    .filter(slot -> current.records.get(slot).chunkIndex > afterChunkIndex)
+                    .boxed()
+                    .sorted(Comparator.comparingInt(slot -> current.records.get(slot).chunkIndex))
+                    .skip(skip)
+                    .limit(limit)
+                    .map(slot -> current.toChunk(slot, 0f, false))
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * One page of a document's chunks in id order, after the chunk
+     * {@code afterId} (null for the first page)
+     */
+    public List<RetrievedChunk> queryChunksAfterId(Long docId, String afterId, int limit) {
+        lock.readLock().lock();
+        try {
+            return current.docSlots(docId, null)
+                    .filter(slot -> afterId == null || current.records.get(slot).id.compareTo(afterId) > 0)
+                    .boxed()
+                    .sorted(Comparator.comparing(slot -> current.records.get(slot).id))
+                    .limit(limit)
+                    .map(slot -> current.toChunk(slot, 0f, false))
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long countByDocId(Long docId, String search) {
+        lock.readLock().lock();
+        try {
+            return current.docSlots(docId, search).count();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Store embedded chunks; metadata must contain docId, baseId, chunkIndex
+     * and isEnabled (see MilvusDocumentSanitizer)
+     */
+    public long insert(List<Document> chunks, List<float[]> embeddings) {
+        if (chunks.isEmpty()) {
+            return 0;
+        }
+        List<ChunkRecord> batch = new ArrayList<>(chunks.size());
+        for (Document chunk : chunks) {
+            String metadataJson = GSON.toJson(chunk.getMetadata());
+            ChunkMetadata metadata;
+            try {
+                metadata = ChunkMetadata.parse(metadataJson);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Invalid metadata for chunk " + chunk.getId(), e);
+            }
+            if (metadata.baseId() == null || metadata.docId() == null) {
+                throw new IllegalArgumentException("Chunk " + chunk.getId() + " has no baseId/docId metadata");
+            }
+            batch.add(new ChunkRecord(chunk.getId(), metadata.baseId(), metadata.docId(),
+                    metadata.chunkIndex() != null ? metadata.chunkIndex() : 0,
+                    !Boolean.FALSE.equals(metadata.enabled()), chunk.getText(), metadataJson));
+        }
+
+        lock.writeLock().lock();
+        try {
+            current.append(batch, embeddings);
+            return batch.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to insert into embedded vector store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public long deleteByDocIds(Collection<Long> docIds) {
+        lock.writeLock().lock();
+        try {
+            long deleted = docIds.stream().mapToLong(docId -> current.docSlots(docId, null).count()).sum();
+            if (deleted > 0) {
+                current.commit(encodeDeleteDocs(docIds));
+            }
+            return deleted;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete from embedded vector store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Delete single chunks of a document by id (ids of other documents are
+     * ignored)
+     */
+    public long deleteChunks(Long docId, Collection<String> chunkIds) {
+        lock.writeLock().lock();
+        try {
+            Set<String> ids = new HashSet<>(chunkIds);
+            long deleted = current.docSlots(docId, null)
+                    .filter(slot -> ids.contains(current.records.get(slot).id))
+                    .count();
+            if (deleted > 0) {
+                current.commit(encodeDeleteChunks(docId, ids));
+            }
+            return deleted;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete from embedded vector store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Move chunks of a document to new chunk indexes (chunk id -> chunkIndex);
+     * vectors and graph nodes are kept
+     */
+    public long updateChunkIndexes(Long docId, Map<String, Integer> chunkIndexes) {
+        lock.writeLock().lock();
+        try {
+            long updated = current.docSlots(docId, null)
+                    .filter(slot -> chunkIndexes.containsKey(current.records.get(slot).id))
+                    .count();
+            if (updated > 0) {
+                current.commit(encodeSetChunkIndexes(docId, chunkIndexes));
+            }
+            return updated;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to update embedded vector store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public long deleteByBaseId(Long baseId) {
+        lock.writeLock().lock();
+        try {
+            long deleted = current.liveByBase.getOrDefault(baseId, 0);
+            if (deleted > 0 || current.graphs.containsKey(baseId)) {
+                current.commit(encodeDeleteBase(baseId));
+            }
+            return deleted;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete from embedded vector store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrite the live chunks into a new generation (dropping deleted slots
+     * and graph nodes) and switch to it atomically.
+     */
+    public void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            Path root = Path.of(storePath);
+            Generation old = current;
+            int number = Integer.parseInt(old.directory.getFileName().toString().substring("gen-".length()));
+            Path directory = root.resolve(generationName(number + 1));
+            if (Files.exists(directory)) {
+                // Leftover of an interrupted compaction
+                deleteRecursively(directory);
+            }
+
+            Generation next = new Generation(directory);
+            next.load();
+            List<ChunkRecord> batch = new ArrayList<>(COMPACTION_BATCH_SIZE);
+            List<float[]> vectors = new ArrayList<>(COMPACTION_BATCH_SIZE);
+            for (int slot = 0; slot < old.records.size(); slot++) {
+                ChunkRecord record = old.records.get(slot);
+                if (record == null || record.deleted) {
+                    continue;
+                }
+                batch.add(record.copy());
+                vectors.add(old.vectors.read(slot));
+                if (batch.size() == COMPACTION_BATCH_SIZE) {
+                    next.append(batch, vectors);
+                    batch.clear();
+                    vectors.clear();
+                }
+            }
+            next.append(batch, vectors);
+            next.writeSnapshot();
+
+            writeAtomically(root.resolve(CURRENT_FILE),
+                    directory.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+            current = next;
+            old.close();
+            deleteRecursively(old.directory);
+            log.info("Compacted embedded vector store into {}: {} live chunks kept, {} deleted dropped",
+                    directory.getFileName(), next.liveChunks, old.deletedChunks);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public EmbeddedStats stats() {
+        if (!active) {
+            return new EmbeddedStats(false, null, 0, 0, 0, 0L, 0L, 0L);
+        }
+        lock.readLock().lock();
+        try {
+            return new EmbeddedStats(true, current.directory.toString(), current.graphs.size(), current.liveChunks,
+                    current.deletedChunks, current.vectors.sizeOnDisk(), current.recordLog.size(),
+                    current.snapshotRecords);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * One storage generation: vectors, record log, graph snapshot and the
+     * in-memory state rebuilt from them.
+     */
+    private final class Generation {
+
+        private final Path directory;
+        private final List<ChunkRecord> records = new ArrayList<>(); // by slot
+        private final Map<Long, List<Integer>> slotsByDoc = new HashMap<>();
+        private final Map<Long, Set<Long>> docsByBase = new HashMap<>();
+        private final Map<Long, Integer> liveByBase = new HashMap<>();
+        private final Map<Long, HnswGraph> graphs = new HashMap<>();
+        private MappedVectorFile vectors;
+        private HnswGraph.VectorScorer scorer;
+        private AppendLog recordLog;
+        private long snapshotRecords;
+        private int insertsSinceSnapshot;
+        private int liveChunks;
+        private int deletedChunks;
+
+        private Generation(Path directory) {
+            this.directory = directory;
+        }
+
+        private void load() throws IOException {
+            Files.createDirectories(directory);
+            vectors = new MappedVectorFile(directory, dimension);
+            scorer = new HnswGraph.VectorScorer() {
+                @Override
+                public float score(int slotA, int slotB) {
+                    return vectors.dot(slotA, slotB);
+                }
+
+                @Override
+                public float score(float[] query, int slot) {
+                    return vectors.dot(slot, query);
+                }
+            };
+
+            long covered = readSnapshot();
+            long[] sequence = { 0 };
+            recordLog = AppendLog.open(directory.resolve(LOG_FILE),
+                    payload -> apply(payload, ++sequence[0] > covered));
+            if (covered > recordLog.size()) {
+                log.warn("Graph snapshot of {} covers {} log records but the log has {}, rebuilding graphs",
+                        directory, covered, recordLog.size());
+                rebuildGraphs();
+            }
+            snapshotRecords = Math.min(covered, recordLog.size());
+        }
+
+        /**
+         * Write vectors, then log the batch; the batch exists once the log
+         * record is synced.
+         */
+        private void append(List<ChunkRecord> batch, List<float[]> embeddings) throws IOException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            if (embeddings.size() != batch.size()) {
+                throw new IllegalArgumentException(String.format(
+                        "Got %d vectors for %d chunks", embeddings.size(), batch.size()));
+            }
+            int firstSlot = records.size();
+            for (int i = 0; i < batch.size(); i++) {
+                vectors.write(firstSlot + i, normalize(embeddings.get(i)));
+            }
+            vectors.force();
+            commit(encodeInsert(firstSlot, batch));
+            insertsSinceSnapshot += batch.size();
+            if (insertsSinceSnapshot >= snapshotInterval) {
+                writeSnapshot();
+            }
+        }
+
+        private void commit(byte[] payload) throws IOException {
+            recordLog.append(payload);
+            apply(ByteBuffer.wrap(payload), true);
+        }
+
+        /**
+         * Apply a log record to the in-memory state; graphs are only updated
+         * for records not covered by the loaded snapshot.
+         */
+        private void apply(ByteBuffer payload, boolean updateGraphs) {
+            byte type = payload.get();
+            switch (type) {
+                case INSERT -> {
+                    int slot = payload.getInt();
+                    int count = payload.getInt();
+                    for (int i = 0; i < count; i++, slot++) {
+                        ChunkRecord record = new ChunkRecord(readString(payload), payload.getLong(),
+                                payload.getLong(), payload.getInt(), payload.get() != 0, readString(payload),
+                                readString(payload));
+                        while (records.size() < slot) {
+                            records.add(null);
+                        }
+                        records.add(record);
+                        slotsByDoc.computeIfAbsent(record.docId, id -> new ArrayList<>()).add(slot);
+                        docsByBase.computeIfAbsent(record.baseId, id -> new LinkedHashSet<>()).add(record.docId);
+                        liveByBase.merge(record.baseId, 1, Integer::sum);
+                        liveChunks++;
+                        if (updateGraphs) {
+                            graphs.computeIfAbsent(record.baseId, this::newGraph).add(slot, scorer);
+                        }
+                    }
+                }
+                case DELETE_DOCS -> {
+                    int count = payload.getInt();
+                    for (int i = 0; i < count; i++) {
+                        deleteDocument(payload.getLong());
+                    }
+                }
+                case DELETE_CHUNKS -> {
+                    long docId = payload.getLong();
+                    int count = payload.getInt();
+                    Set<String> ids = new HashSet<>();
+                    for (int i = 0; i < count; i++) {
+                        ids.add(readString(payload));
+                    }
+                    deleteChunks(docId, ids);
+                }
+                case SET_CHUNK_INDEXES -> {
+                    long docId = payload.getLong();
+                    int count = payload.getInt();
+                    Map<String, Integer> chunkIndexes = new HashMap<>();
+                    for (int i = 0; i < count; i++) {
+                        chunkIndexes.put(readString(payload), payload.getInt());
+                    }
+                    setChunkIndexes(docId, chunkIndexes);
+                }
+                case DELETE_BASE -> {
+                    long baseId = payload.getLong();
+                    Set<Long> docIds = docsByBase.remove(baseId);
+                    if (docIds != null) {
+                        docIds.forEach(this::deleteDocument);
+                    }
+                    liveByBase.remove(baseId);
+                    if (updateGraphs) {
+                        graphs.remove(baseId);
+                    }
+                }
+                default -> throw new IllegalStateException("Unknown vector store log record type " + type);
+            }
+        }
+
+        private void deleteDocument(long docId) {
+            List<Integer> slots = slotsByDoc.remove(docId);
+            if (slots == null) {
+                return;
+            }
+            for (int slot : slots) {
+                ChunkRecord record = records.get(slot);
+                if (!record.deleted) {
+                    record.deleted = true;
+                    liveByBase.computeIfPresent(record.baseId, (id, live) -> live > 1 ? live - 1 : null);
+                    liveChunks--;
+                    deletedChunks++;
+                }
+            }
+            ChunkRecord any = records.get(slots.get(0));
+            docsByBase.computeIfPresent(any.baseId, (id, docIds) -> {
+                docIds.remove(docId);
+                return docIds.isEmpty() ? null : docIds;
+            });
+        }
+
+        private void deleteChunks(long docId, Set<String> ids) {
+            List<Integer> slots = slotsByDoc.get(docId);
+            if (slots == null) {
+                return;
+            }
+            ChunkRecord any = records.get(slots.get(0));
+            slots.removeIf(slot -> {
+                ChunkRecord record = records.get(slot);
+                if (!ids.contains(record.id)) {
+                    return false;
+                }
+                if (!record.deleted) {
+                    record.deleted = true;
+                    liveByBase.computeIfPresent(record.baseId, (id, live) -> live > 1 ? live - 1 : null);
+                    liveChunks--;
+                    deletedChunks++;
+                }
+                return true;
+            });
+            if (slots.isEmpty()) {
+                slotsByDoc.remove(docId);
+                docsByBase.computeIfPresent(any.baseId, (id, docIds) -> {
+                    docIds.remove(docId);
+                    return docIds.isEmpty() ? null : docIds;
+                });
+            }
+        }
+
+        private void setChunkIndexes(long docId, Map<String, Integer> chunkIndexes) {
+            for (int slot : slotsByDoc.getOrDefault(docId, List.of())) {
+                ChunkRecord record = records.get(slot);
+                Integer chunkIndex = chunkIndexes.get(record.id);
+                if (chunkIndex != null && !record.deleted) {
+                    records.set(slot, record.withChunkIndex(chunkIndex));
+                }
+            }
+        }
+
+        private Stream<Integer> baseSlots(Long baseId) {
+            Set<Long> docIds = docsByBase.getOrDefault(baseId, Set.of());
+            return docIds.stream()
+                    .flatMap(docId -> slotsByDoc.getOrDefault(docId, List.of()).stream())
+                    .filter(slot -> !records.get(slot).deleted)
+                    .sorted();
+        }
+
+        private IntStream docSlots(Long docId, String search) {
+            return slotsByDoc.getOrDefault(docId, List.of()).stream()
+                    .mapToInt(Integer::intValue)
+                    .filter(slot -> {
+                        ChunkRecord record = records.get(slot);
+                        return !record.deleted && (search == null || record.content.contains(search));
+                    });
+        }
+
+        private List<HnswGraph.Hit> exactSearch(Long baseId, float[] query, int topK, IntPredicate accept) {
+            PriorityQueue<HnswGraph.Hit> heap = new PriorityQueue<>(
+                    Comparator.comparingDouble(HnswGraph.Hit::score));
+            baseSlots(baseId).forEach(slot -> {
+                if (!accept.test(slot)) {
+                    return;
+                }
+                float score = vectors.dot(slot, query);
+                if (heap.size() < topK) {
+                    heap.add(new HnswGraph.Hit(slot, score));
+                } else if (score > heap.peek().score()) {
+                    heap.poll();
+                    heap.add(new HnswGraph.Hit(slot, score));
+                }
+            });
+            List<HnswGraph.Hit> hits = new ArrayList<>(heap);
+            hits.sort(Comparator.comparingDouble(HnswGraph.Hit::score).reversed());
+            return hits;
+        }
+
+        private RetrievedChunk toChunk(int slot, float score, boolean withVector) {
+            ChunkRecord record = records.get(slot);
+            return new RetrievedChunk(record.id, record.content, score, record.metadataJson,
+                    withVector ? vectors.read(slot) : null);
+        }
+
+        /**
+         * Graph of a knowledge base; its level generator is seeded the same
+         * way when the graph is read back from a snapshot
+         */
+        private HnswGraph newGraph(long baseId) {
+            return new HnswGraph(m, efConstruction, graphSeed(baseId));
+        }
+
+        private void rebuildGraphs() {
+            graphs.clear();
+            for (int slot = 0; slot < records.size(); slot++) {
+                ChunkRecord record = records.get(slot);
+                if (record != null && !record.deleted) {
+                    graphs.computeIfAbsent(record.baseId, this::newGraph).add(slot, scorer);
+                }
+            }
+        }
+
+        /**
+         * Checkpoint the graphs (checksummed, written to a temp file and moved
+         * into place) so startup only re-adds chunks logged afterwards.
+         */
+        private void writeSnapshot() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeLong(recordLog.size());
+                out.writeInt(graphs.size());
+                for (Map.Entry<Long, HnswGraph> entry : graphs.entrySet()) {
+                    out.writeLong(entry.getKey());
+                    entry.getValue().writeTo(out);
+                }
+            }
+            byte[] body = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            ByteBuffer file = ByteBuffer.allocate(Long.BYTES + body.length);
+            file.putLong(crc.getValue()).put(body);
+            writeAtomically(directory.resolve(SNAPSHOT_FILE), file.array());
+            snapshotRecords = recordLog.size();
+            insertsSinceSnapshot = 0;
+        }
+
+        /**
+         * Load the graph snapshot; returns the number of log records it covers
+         * (0 when missing or corrupt).
+         */
+        private long readSnapshot() {
+            Path path = directory.resolve(SNAPSHOT_FILE);
+            if (!Files.exists(path)) {
+                return 0;
+            }
+            try {
+                ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path));
+                long checksum = file.getLong();
+                byte[] body = new byte[file.remaining()];
+                file.get(body);
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if (crc.getValue() != checksum) {
+                    log.warn("Ignoring corrupt graph snapshot {}", path);
+                    return 0;
+                }
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+                if (in.readInt() != SNAPSHOT_MAGIC) {
+                    log.warn("Ignoring unknown graph snapshot {}", path);
+                    return 0;
+                }
+                long covered = in.readLong();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    long baseId = in.readLong();
+                    graphs.put(baseId, HnswGraph.readFrom(in, graphSeed(baseId)));
+                }
+                return covered;
+            } catch (IOException | RuntimeException e) {
+                log.warn("Ignoring unreadable graph snapshot {}: {}", path, e.getMessage());
+                graphs.clear();
+                return 0;
+            }
+        }
+
+        private long graphSeed(long baseId) {
+            return seed + baseId;
+        }
+
+        private void close() throws IOException {
+            recordLog.close();
+        }
+    }
+
+    private static final class ChunkRecord {
+        private final String id;
+        private final long baseId;
+        private final long docId;
+        private final int chunkIndex;
+        private final boolean enabled;
+        private final String content;
+        private final String metadataJson;
+        private boolean deleted;
+
+        private ChunkRecord(String id, long baseId, long docId, int chunkIndex, boolean enabled, String content,
+                String metadataJson) {
+            this.id = id;
+            this.baseId = baseId;
+            this.docId = docId;
+            this.chunkIndex = chunkIndex;
+            this.enabled = enabled;
+            this.content = content != null ? content : "";
+            this.metadataJson = metadataJson;
+        }
+
+        private ChunkRecord copy() {
+            return new ChunkRecord(id, baseId, docId, chunkIndex, enabled, content, metadataJson);
+        }
+
+        private ChunkRecord withChunkIndex(int newChunkIndex) {
+            JsonObject metadata = metadataJson == null ? new JsonObject()
+                    : JsonParser.parseString(metadataJson).getAsJsonObject();
+            metadata.addProperty("chunkIndex", String.valueOf(newChunkIndex));
+            return new ChunkRecord(id, baseId, docId, newChunkIndex, enabled, content, GSON.toJson(metadata));
+        }
+    }
+
+    private static byte[] encodeInsert(int firstSlot, List<ChunkRecord> batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(INSERT);
+            out.writeInt(firstSlot);
+            out.writeInt(batch.size());
+            for (ChunkRecord record : batch) {
+                writeString(out, record.id);
+                out.writeLong(record.baseId);
+                out.writeLong(record.docId);
+                out.writeInt(record.chunkIndex);
+                out.writeByte(record.enabled ? 1 : 0);
+                writeString(out, record.content);
+                writeString(out, record.metadataJson);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeDeleteDocs(Collection<Long> docIds) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + Integer.BYTES + docIds.size() * Long.BYTES);
+        buffer.put(DELETE_DOCS).putInt(docIds.size());
+        docIds.forEach(buffer::putLong);
+        return buffer.array();
+    }
+
+    private static byte[] encodeDeleteChunks(Long docId, Collection<String> chunkIds) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(DELETE_CHUNKS);
+            out.writeLong(docId);
+            out.writeInt(chunkIds.size());
+            for (String id : chunkIds) {
+                writeString(out, id);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeSetChunkIndexes(Long docId, Map<String, Integer> chunkIndexes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(SET_CHUNK_INDEXES);
+            out.writeLong(docId);
+            out.writeInt(chunkIndexes.size());
+            for (Map.Entry<String, Integer> entry : chunkIndexes.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeDeleteBase(Long baseId) {
+        return ByteBuffer.allocate(1 + Long.BYTES).put(DELETE_BASE).putLong(baseId).array();
+    }
+
+    // Length-prefixed UTF-8 (DataOutput.writeUTF is limited to 64 KB)
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static float[] normalize(float[] vector) {
+        double sum = 0;
+        for (float value : vector) {
+            sum += value * value;
+        }
+        double norm = Math.sqrt(sum);
+        float[] normalized = new float[vector.length];
+        if (norm == 0) {
+            return normalized;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = (float) (vector[i] / norm);
+        }
+        return normalized;
+    }
+
+    private static String generationName(int number) {
+        return String.format("gen-%05d", number);
+    }
+
+    private static void writeAtomically(Path target, byte[] content) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    public record EmbeddedStats(boolean active, String directory, int knowledgeBases, int liveChunks,
+            int deletedChunks, long vectorBytes, long logRecords, long snapshotRecords) {
+    }
+}
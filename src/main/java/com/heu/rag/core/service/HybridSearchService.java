@@ -0,0 +1,192 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.core.domain.ChunkMetadata;
+import com.heu.rag.core.domain.RetrievedChunk;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hybrid retrieval: the tiered vector search (see
+ * MilvusService.tieredSearchWithBaseId) and a BM25 search of the knowledge
+ * base's lexical index (see LexicalIndexService) run in parallel and their
+ * rankings are merged with reciprocal rank fusion,
+ * score(chunk) = sum over lists of 1 / (rrf-k + rank).
+ *
+ * Cosine similarity alone misses exact identifiers (course codes, Chinese
+ * proper nouns) that the lexical ranking puts first, and chunks ranked well
+ * by both rise above ones only one of them likes, so topK can stay small.
+ * Both lists are cut at rag.retrieval.hybrid.candidates before fusion. A
+ * lexical search that is not ready (index rebuilding) or slower than
+ * lexical-timeout-ms is skipped and the vector ranking is used as is. Lexical
+ * hits are filtered like vector hits (see MilvusService.retrievableRows). The
+ * final topK are picked from the ranking by DiversitySelector (MMR over the
+ * embeddings returned with the vector hits).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class HybridSearchService {
+
+    private final MilvusService milvusService;
+    private final LexicalIndexService lexicalIndexService;
+    private final DiversitySelector diversitySelector;
+
+    @Value("${rag.retrieval.hybrid.enabled:true}")
+    private boolean enabled;
+
+    @Value("${rag.retrieval.hybrid.rrf-k:60}")
+    private int rrfK;
+
+    @Value("${rag.retrieval.hybrid.candidates:20}")
+    private int candidates;
+
+    @Value("${rag.retrieval.hybrid.lexical-threads:2}")
+    private int lexicalThreads;
+
+    @Value("${rag.retrieval.hybrid.lexical-timeout-ms:200}")
+    private long lexicalTimeoutMs;
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong vectorOnlyQueries = new AtomicLong();
+    private final AtomicLong lexicalOnlyChunks = new AtomicLong();
+    private ExecutorService lexicalExecutor;
+
+    @PostConstruct
+    void startLexicalExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        lexicalExecutor = Executors.newFixedThreadPool(Math.max(1, lexicalThreads), r -> {
+            Thread thread = new Thread(r, "lexical-search-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stopLexicalExecutor() {
+        if (lexicalExecutor != null) {
+            lexicalExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Hybrid counterpart of MilvusService.tieredSearchWithBaseId: the
+     * thresholds apply to the vector ranking only.
+     *
+     * @return Up to topK chunks by fused rank; getScore() stays the cosine
+     *         similarity (0 for chunks found by the lexical search only)
+     */
+    public List<RetrievedChunk> search(String query, Long baseId, int topK, double threshold,
+            double fallbackThreshold) {
+        boolean diversify = diversitySelector.isEnabled();
+        int depth = enabled || diversify ? Math.max(topK, candidates) : topK;
+        if (!enabled) {
+            return diversitySelector.select(milvusService.tieredSearchWithBaseId(query, baseId, depth, threshold,
+                    fallbackThreshold, diversify), topK);
+        }
+        queries.incrementAndGet();
+        CompletableFuture<List<RetrievedChunk>> lexical = CompletableFuture.supplyAsync(
+                () -> lexicalIndexService.search(baseId, query, depth, milvusService.excludedDocIds(baseId)),
+                lexicalExecutor);
+
+        List<RetrievedChunk> vector = milvusService.tieredSearchWithBaseId(query, baseId, depth, threshold,
+                fallbackThreshold, diversify);
+
+        List<RetrievedChunk> lexicalHits = awaitLexical(lexical, baseId);
+        if (lexicalHits == null) {
+            vectorOnlyQueries.incrementAndGet();
+            return diversitySelector.select(vector, topK);
+        }
+        // Same exclusions as the vector hits (documents disabled or deleted since the
+        // lexical search started, rows hidden by a running replacement)
+        lexicalHits = milvusService.retrievableRows(baseId, lexicalHits);
+        List<RetrievedChunk> fused = fuse(vector, lexicalHits, depth);
+        List<RetrievedChunk> selected = diversitySelector.select(fused, topK);
+        log.info("Hybrid retrieval: {} vector + {} lexical candidates fused, {} chunks selected (baseId={})",
+                vector.size(), lexicalHits.size(), selected.size(), baseId);
+        return selected;
+    }
+
+    public HybridStats stats() {
+        return new HybridStats(enabled, queries.get(), vectorOnlyQueries.get(), lexicalOnlyChunks.get(),
+                lexicalIndexService.stats());
+    }
+
+    private List<RetrievedChunk> awaitLexical(CompletableFuture<List<RetrievedChunk>> lexical, Long baseId) {
+        try {
+            return lexical.get(lexicalTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            lexical.cancel(false);
+            log.warn("Lexical search of knowledge base {} timed out, using vector results only", baseId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Lexical search of knowledge base {} failed, using vector results only", baseId, e.getCause());
+        }
+        return null;
+    }
+
+    /**
+     * Reciprocal rank fusion of the two rankings, deduplicated by
+     * docId:chunkIndex (vector ids and lexical ids differ on schema v2).
+     */
+    private List<RetrievedChunk> fuse(List<RetrievedChunk> vector, List<RetrievedChunk> lexical, int limit) {
+        Map<String, RetrievedChunk> chunks = new LinkedHashMap<>();
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (int rank = 0; rank < vector.size(); rank++) {
+            RetrievedChunk chunk = vector.get(rank);
+            String key = chunkKey(chunk);
+            chunks.putIfAbsent(key, chunk);
+            scores.merge(key, 1.0 / (rrfK + rank + 1), Double::sum);
+        }
+        for (int rank = 0; rank < lexical.size(); rank++) {
+            RetrievedChunk chunk = lexical.get(rank);
+            String key = chunkKey(chunk);
+            chunks.putIfAbsent(key, chunk);
+            scores.merge(key, 1.0 / (rrfK + rank + 1), Double::sum);
+        }
+
+        List<String> ranked = new ArrayList<>(scores.keySet());
+        ranked.sort((a, b) -> Double.compare(scores.get(b), scores.get(a)));
+        List<RetrievedChunk> fused = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (String key : ranked) {
+            if (fused.size() >= limit) {
+                break;
+            }
+            RetrievedChunk chunk = chunks.get(key);
+            fused.add(chunk);
+            if (!vector.contains(chunk)) {
+                lexicalOnlyChunks.incrementAndGet();
+            }
+        }
+        return fused;
+    }
+
+    private static String chunkKey(RetrievedChunk chunk) {
+        ChunkMetadata metadata = chunk.metadata();
+        if (metadata.docId() == null || metadata.chunkIndex() == null) {
+            return chunk.getId();
+        }
+        return metadata.docId() + ":" + metadata.chunkIndex();
+    }
+
+    public record HybridStats(boolean enabled, long queries, long vectorOnlyQueries, long lexicalOnlyChunks,
+            LexicalIndexService.LexicalIndexStats lexicalIndex) {
+    }
+}
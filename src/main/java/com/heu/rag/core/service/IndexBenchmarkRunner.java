@@ -0,0 +1,238 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.config.VectorIndexSettings;
+import com.heu.rag.core.domain.RetrievedChunk;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Recall/latency benchmark of the active vector index profile.
+ *
+ * Replays a query set (one query per line, '#' comments) against the enabled
+ * chunks of one knowledge base. Ground truth is an exact cosine top-k computed
+ * in the JVM over the stored vectors; each configured search width (nprobe for
+ * IVF profiles, ef for HNSW) is then measured for recall@k and p50/p99 Milvus
+ * search latency (embedding time excluded). Compare index profiles by running
+ * it once per rag.milvus.index.profile (with rebuild-on-change), and once with
+ * rag.vector.backend=embedded to compare against the in-process HNSW engine.
+ *
+ * Only active with rag.bench.enabled=true (the bean does not exist otherwise);
+ * rag.bench.query-file and rag.bench.base-id are then required. Runs once the
+ * application is ready and, with rag.bench.exit-on-finish, shuts the
+ * application down.
+ */
+@Component
+@ConditionalOnProperty(name = "rag.bench.enabled", havingValue = "true")
+@RequiredArgsConstructor
+@Slf4j
+public class IndexBenchmarkRunner {
+
+    private final MilvusService milvusService;
+    private final QueryEmbeddingCache queryEmbeddingCache;
+    private final VectorIndexSettings vectorIndexSettings;
+    private final EmbeddedVectorStore embeddedVectorStore;
+    private final ApplicationContext applicationContext;
+
+    @Value("${rag.bench.query-file:}")
+    private String queryFile;
+
+    @Value("${rag.bench.base-id:#{null}}")
+    private Long baseId;
+
+    @Value("${rag.bench.top-k:10}")
+    private int topK;
+
+    @Value("${rag.bench.search-widths:8,16,32,64,128}")
+    private List<Integer> searchWidths;
+
+    @Value("${rag.bench.warmup-rounds:1}")
+    private int warmupRounds;
+
+    @Value("${rag.bench.max-corpus:16384}")
+    private int maxCorpus;
+
+    @Value("${rag.bench.report-file:}")
+    private String reportFile;
+
+    @Value("${rag.bench.exit-on-finish:false}")
+    private boolean exitOnFinish;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void runOnReady() {
+        try {
+            List<BenchResult> results = run();
+            writeReport(results);
+        } catch (Exception e) {
+            log.error("Index benchmark failed", e);
+        } finally {
+            if (exitOnFinish) {
+                System.exit(SpringApplication.exit(applicationContext, () -> 0));
+            }
+        }
+    }
+
+    private List<BenchResult> run() throws IOException {
+        if (queryFile == null || queryFile.isBlank()) {
+            throw new IllegalArgumentException("rag.bench.query-file is required");
+        }
+        if (baseId == null) {
+            throw new IllegalArgumentException("rag.bench.base-id is required");
+        }
+        List<String> queries = Files.readAllLines(Path.of(queryFile), StandardCharsets.UTF_8).stream()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                .toList();
+        if (queries.isEmpty()) {
+            throw new IllegalArgumentException("No queries in " + queryFile);
+        }
+
+        List<RetrievedChunk> corpus = loadCorpus();
+        log.info("Index benchmark: profile={}, baseId={}, corpus={}, queries={}, topK={}",
+                profileName(), baseId, corpus.size(), queries.size(), topK);
+
+        List<float[]> queryVectors = new ArrayList<>(queries.size());
+        List<Set<String>> groundTruth = new ArrayList<>(queries.size());
+        for (String query : queries) {
+            float[] vector = queryEmbeddingCache.embed(query);
+            queryVectors.add(vector);
+            groundTruth.add(exactTopK(vector, corpus));
+        }
+
+        List<BenchResult> results = new ArrayList<>();
+        for (int width : searchWidths) {
+            for (int round = 0; round < warmupRounds; round++) {
+                for (float[] vector : queryVectors) {
+                    milvusService.searchIdsByVector(baseId, vector, topK, width);
+                }
+            }
+
+            long[] latencies = new long[queryVectors.size()];
+            double recallSum = 0;
+            for (int i = 0; i < queryVectors.size(); i++) {
+                long start = System.nanoTime();
+                List<RetrievedChunk> hits = milvusService.searchIdsByVector(baseId, queryVectors.get(i), topK,
+                        width);
+                latencies[i] = System.nanoTime() - start;
+                recallSum += recall(hits, groundTruth.get(i));
+            }
+            Arrays.sort(latencies);
+            BenchResult result = new BenchResult(profileName(), width, topK,
+                    recallSum / queryVectors.size(), percentileMs(latencies, 0.50), percentileMs(latencies, 0.99));
+            log.info("Index benchmark: {}", result);
+            results.add(result);
+        }
+        return results;
+    }
+
+    private String profileName() {
+        return embeddedVectorStore.isActive() ? "EMBEDDED_HNSW" : vectorIndexSettings.getProfile().name();
+    }
+
+    private List<RetrievedChunk> loadCorpus() {
+        List<RetrievedChunk> corpus = new ArrayList<>();
+        int pageSize = 1000;
+        while (corpus.size() < maxCorpus) {
+            int limit = Math.min(pageSize, maxCorpus - corpus.size());
+            List<RetrievedChunk> page = milvusService.queryVectorsByBaseId(baseId, corpus.size(), limit);
+            corpus.addAll(page);
+            if (page.size() < limit) {
+                break;
+            }
+        }
+        if (corpus.size() >= maxCorpus) {
+            log.warn("Knowledge base {} has more than {} chunks; recall is measured against the first {}",
+                    baseId, maxCorpus, maxCorpus);
+        }
+        return corpus;
+    }
+
+    /**
+     * Exact cosine top-k ids over the corpus.
+     */
+    private Set<String> exactTopK(float[] query, List<RetrievedChunk> corpus) {
+        double queryNorm = norm(query);
+        PriorityQueue<ScoredId> heap = new PriorityQueue<>((a, b) -> Double.compare(a.score(), b.score()));
+        for (RetrievedChunk chunk : corpus) {
+            float[] vector = chunk.getEmbedding();
+            if (vector == null || vector.length != query.length) {
+                continue;
+            }
+            double dot = 0;
+            for (int i = 0; i < vector.length; i++) {
+                dot += query[i] * vector[i];
+            }
+            double denominator = queryNorm * norm(vector);
+            double score = denominator == 0 ? 0 : dot / denominator;
+            if (heap.size() < topK) {
+                heap.add(new ScoredId(chunk.getId(), score));
+            } else if (score > heap.peek().score()) {
+                heap.poll();
+                heap.add(new ScoredId(chunk.getId(), score));
+            }
+        }
+        Set<String> ids = new HashSet<>();
+        heap.forEach(scored -> ids.add(scored.id()));
+        return ids;
+    }
+
+    private static double recall(List<RetrievedChunk> hits, Set<String> truth) {
+        if (truth.isEmpty()) {
+            return 1.0;
+        }
+        long found = hits.stream().filter(hit -> truth.contains(hit.getId())).count();
+        return found / (double) truth.size();
+    }
+
+    private static double norm(float[] vector) {
+        double sum = 0;
+        for (float value : vector) {
+            sum += value * value;
+        }
+        return Math.sqrt(sum);
+    }
+
+    private static double percentileMs(long[] sortedNanos, double percentile) {
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, Math.min(index, sortedNanos.length - 1))] / 1_000_000.0;
+    }
+
+    private void writeReport(List<BenchResult> results) throws IOException {
+        if (reportFile == null || reportFile.isBlank() || results.isEmpty()) {
+            return;
+        }
+        List<String> lines = new ArrayList<>();
+        lines.add("profile,search_width,top_k,recall_at_k,p50_ms,p99_ms");
+        for (BenchResult result : results) {
+            lines.add(String.format(Locale.ROOT, "%s,%d,%d,%.4f,%.3f,%.3f", result.profile(), result.searchWidth(),
+                    result.topK(), result.recallAtK(), result.p50Ms(), result.p99Ms()));
+        }
+        Files.write(Path.of(reportFile), lines, StandardCharsets.UTF_8);
+        log.info("Index benchmark report written to {}", reportFile);
+    }
+
+    private record ScoredId(String id, double score) {
+    }
+
+    public record BenchResult(String profile, int searchWidth, int topK, double recallAtK, double p50Ms,
+            double p99Ms) {
+    }
+}
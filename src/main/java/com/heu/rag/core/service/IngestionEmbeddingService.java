@@ -0,0 +1,284 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.core.util.ContentHash;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedding stage of document ingestion: chunks are taken from the parse
+ * stage (see IngestionParsingService) in batches of
+ * rag.ingestion.embedding.batch-size, embedded on a shared pool of workers
+ * threads, and each batch is inserted into the vector store (see
+ * MilvusService.insertEmbedded) as soon as its embeddings are back, in
+ * completion order.
+ *
+ * At most max-in-flight batches of one document are submitted at a time,
+ * so a large document neither queues thousands of embedding calls nor holds
+ * all of its vectors in memory, and concurrent uploads share the pool; while
+ * the limit is reached no more chunks are taken, which in turn blocks the
+ * parser. A failed embedding call is retried up to max-attempts times with
+ * exponential backoff starting at retry-backoff-ms; a batch that still
+ * fails aborts the document (batches already inserted are left for the
+ * caller to discard). Inserts run on the calling thread.
+ *
+ * Chunks whose text has been embedded before with the same model take their
+ * vector from ChunkEmbeddingCache instead of the model.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class IngestionEmbeddingService {
+
+    /**
+     * Chunk metadata key of the SHA-256 of the chunk text
+     */
+    public static final String CHUNK_HASH_KEY = "chunkHash";
+
+    private final EmbeddingModel embeddingModel;
+    private final MilvusService milvusService;
+    private final ChunkEmbeddingCache chunkEmbeddingCache;
+
+    @Value("${rag.ingestion.embedding.batch-size:32}")
+    private int batchSize;
+
+    @Value("${rag.ingestion.embedding.workers:4}")
+    private int workers;
+
+    @Value("${rag.ingestion.embedding.max-in-flight:8}")
+    private int maxInFlight;
+
+    @Value("${rag.ingestion.embedding.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${rag.ingestion.embedding.retry-backoff-ms:1000}")
+    private long retryBackoffMs;
+
+    private final AtomicLong chunksEmbedded = new AtomicLong();
+    private final AtomicLong cachedChunks = new AtomicLong();
+    private final AtomicLong batchesEmbedded = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong embedNanos = new AtomicLong();
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong documentChunks = new AtomicLong();
+    private final AtomicLong documentNanos = new AtomicLong();
+    private volatile double lastChunksPerSecond;
+    private ExecutorService embeddingExecutor;
+
+    @PostConstruct
+    void startEmbeddingExecutor() {
+        batchSize = Math.max(1, batchSize);
+        workers = Math.max(1, workers);
+        maxInFlight = Math.max(1, maxInFlight);
+        AtomicInteger threadCount = new AtomicInteger();
+        embeddingExecutor = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "ingestion-embedding-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stopEmbeddingExecutor() {
+        if (embeddingExecutor != null) {
+            embeddingExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Called after each batch is inserted, on the thread of embedAndStore
+     */
+    @FunctionalInterface
+    public interface StoredBatchListener {
+        void stored(List<Document> batch, long storedSoFar);
+    }
+
+    /**
+     * Embed and store the chunks of one document as they arrive.
+     *
+     * @param chunks   Chunks with metadata as required by MilvusService; may
+     *                 block while the next chunk is produced (see
+     *                 IngestionParsingService.ChunkStream)
+     * @param listener Called after every inserted batch
+     * @return Number of inserted rows
+     */
+    public long embedAndStore(Iterator<Document> chunks, StoredBatchListener listener) throws InterruptedException {
+        long start = System.nanoTime();
+        CompletionService<EmbeddedBatch> completion = new ExecutorCompletionService<>(embeddingExecutor);
+        Set<Future<EmbeddedBatch>> inFlight = new HashSet<>();
+        boolean exhausted = false;
+        int batches = 0;
+        long inserted = 0;
+        try {
+            while (true) {
+                // Store whatever is ready before possibly waiting on the chunk source
+                Future<EmbeddedBatch> ready;
+                while ((ready = completion.poll()) != null) {
+                    inserted += store(ready, inFlight, inserted, listener);
+                }
+                if (!exhausted && inFlight.size() < maxInFlight) {
+                    List<Document> batch = nextBatch(chunks);
+                    if (batch.isEmpty()) {
+                        exhausted = true;
+                    } else {
+                        inFlight.add(completion.submit(() -> embedBatch(batch)));
+                        batches++;
+                    }
+                    continue;
+                }
+                if (inFlight.isEmpty()) {
+                    break;
+                }
+                inserted += store(completion.take(), inFlight, inserted, listener);
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException runtime ? runtime
+                    : new IllegalStateException("Embedding failed: " + cause.getMessage(), cause);
+        } finally {
+            inFlight.forEach(future -> future.cancel(true));
+        }
+        if (inserted == 0) {
+            return 0;
+        }
+
+        long elapsed = System.nanoTime() - start;
+        double chunksPerSecond = inserted / Math.max(elapsed / 1e9, 1e-9);
+        lastChunksPerSecond = chunksPerSecond;
+        documents.incrementAndGet();
+        documentChunks.addAndGet(inserted);
+        documentNanos.addAndGet(elapsed);
+        log.info("Embedded and stored {} chunks in {} batches in {} ms ({} chunks/s)", inserted, batches,
+                elapsed / 1_000_000, String.format("%.1f", chunksPerSecond));
+        return inserted;
+    }
+
+    public EmbeddingStats stats() {
+        long nanos = documentNanos.get();
+        long batches = batchesEmbedded.get();
+        return new EmbeddingStats(batchSize, workers, maxInFlight, documents.get(), chunksEmbedded.get(),
+                cachedChunks.get(), batches, retries.get(), failedBatches.get(),
+                batches == 0 ? 0.0 : embedNanos.get() / 1e6 / batches,
+                nanos == 0 ? 0.0 : documentChunks.get() / (nanos / 1e9), lastChunksPerSecond);
+    }
+
+    private long store(Future<EmbeddedBatch> done, Set<Future<EmbeddedBatch>> inFlight, long storedBefore,
+            StoredBatchListener listener) throws InterruptedException, ExecutionException {
+        inFlight.remove(done);
+        EmbeddedBatch embedded = done.get();
+        long inserted = milvusService.insertEmbedded(embedded.chunks(), embedded.embeddings());
+        listener.stored(embedded.chunks(), storedBefore + inserted);
+        return inserted;
+    }
+
+    private List<Document> nextBatch(Iterator<Document> chunks) {
+        List<Document> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize && chunks.hasNext()) {
+            batch.add(chunks.next());
+        }
+        return batch;
+    }
+
+    /**
+     * Embeddings of a batch: cached ones from ChunkEmbeddingCache, the rest
+     * (each distinct text once) from the embedding model
+     */
+    private EmbeddedBatch embedBatch(List<Document> batch) throws InterruptedException {
+        List<String> hashes = batch.stream().map(IngestionEmbeddingService::chunkHash).toList();
+        Map<String, float[]> embeddingsByHash = chunkEmbeddingCache.getAll(new HashSet<>(hashes));
+        cachedChunks.addAndGet(hashes.stream().filter(embeddingsByHash::containsKey).count());
+
+        Map<String, String> missing = new LinkedHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (!embeddingsByHash.containsKey(hashes.get(i))) {
+                missing.putIfAbsent(hashes.get(i), batch.get(i).getText());
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<float[]> embedded = embedWithRetry(new ArrayList<>(missing.values()));
+            if (embedded.size() != missing.size()) {
+                throw new IllegalStateException(String.format(
+                        "Embedding model returned %d vectors for %d chunks", embedded.size(), missing.size()));
+            }
+            Map<String, float[]> computed = new HashMap<>();
+            int i = 0;
+            for (String hash : missing.keySet()) {
+                computed.put(hash, embedded.get(i++));
+            }
+            chunkEmbeddingCache.putAll(computed);
+            embeddingsByHash.putAll(computed);
+        }
+        return new EmbeddedBatch(batch, hashes.stream().map(embeddingsByHash::get).toList());
+    }
+
+    private List<float[]> embedWithRetry(List<String> texts) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
+            try {
+                List<float[]> embeddings = embeddingModel.embed(texts);
+                embedNanos.addAndGet(System.nanoTime() - start);
+                batchesEmbedded.incrementAndGet();
+                chunksEmbedded.addAndGet(texts.size());
+                return embeddings;
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts) {
+                    failedBatches.incrementAndGet();
+                    throw e;
+                }
+                retries.incrementAndGet();
+                long backoff = retryBackoffMs << (attempt - 1);
+                log.warn("Embedding batch of {} chunks failed (attempt {}/{}), retrying in {} ms: {}", texts.size(),
+                        attempt, maxAttempts, backoff, e.getMessage());
+                Thread.sleep(backoff);
+            }
+        }
+    }
+
+    /**
+     * SHA-256 of the chunk text, as stored in its metadata by
+     * KnowledgeBaseService
+     */
+    private static String chunkHash(Document chunk) {
+        return chunk.getMetadata().get(CHUNK_HASH_KEY) instanceof String hash ? hash
+                : ContentHash.sha256(chunk.getText());
+    }
+
+    private record EmbeddedBatch(List<Document> chunks, List<float[]> embeddings) {
+    }
+
+    /**
+     * @param chunksEmbedded       Chunks sent to the embedding model
+     * @param cachedChunks         Chunks served from ChunkEmbeddingCache
+     * @param avgBatchMs           Mean latency of one embedding call
+     * @param avgChunksPerSecond   Chunks stored per second of embedding stage
+     *                             time, over all documents
+     * @param lastChunksPerSecond  Same, for the most recent document
+     */
+    public record EmbeddingStats(int batchSize, int workers, int maxInFlight, long documents, long chunksEmbedded,
+            long cachedChunks, long batches, long retries, long failedBatches, double avgBatchMs,
+            double avgChunksPerSecond, double lastChunksPerSecond) {
+    }
+}
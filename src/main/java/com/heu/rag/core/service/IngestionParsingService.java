@@ -0,0 +1,298 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.core.util.StreamingTextSplitter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.sax.BodyContentHandler;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Parse and chunk stages of document ingestion. Tika streams the extracted
+ * text into a StreamingTextSplitter on a parser thread, and the chunks are
+ * handed to the embedding stage (see IngestionEmbeddingService) through a
+ * queue of rag.ingestion.pipeline.queue-capacity chunks. When the embedder
+ * falls behind, the parser blocks on the full queue, so only a bounded
+ * window of a document's text and chunks is held at a time, whatever the
+ * file size. Spooled files are opened as files, so PDF parsing can seek
+ * instead of buffering the whole upload.
+ *
+ * Chunks are cut with the TokenTextSplitter defaults used before (800
+ * tokens, cut at a sentence end past 350 characters).
+ */
+@Service
+@Slf4j
+public class IngestionParsingService {
+
+    private static final int CHUNK_SIZE = 800;
+    private static final int MIN_CHUNK_SIZE_CHARS = 350;
+    private static final int MIN_CHUNK_LENGTH_TO_EMBED = 5;
+
+    private static final Object END = new Object();
+    private static final long TERMINAL_POLL_MS = 100;
+
+    @Value("${rag.ingestion.workers:2}")
+    private int parserThreads;
+
+    @Value("${rag.ingestion.pipeline.queue-capacity:64}")
+    private int queueCapacity;
+
+    @Value("${rag.ingestion.pipeline.window-chars:16384}")
+    private int windowChars;
+
+    private final AtomicLong documentsParsed = new AtomicLong();
+    private final AtomicLong charactersParsed = new AtomicLong();
+    private final AtomicLong chunksProduced = new AtomicLong();
+    private final AtomicLong parseFailures = new AtomicLong();
+    private final AtomicLong blockedNanos = new AtomicLong();
+    private ExecutorService parserExecutor;
+
+    @PostConstruct
+    void startParserExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        parserExecutor = Executors.newFixedThreadPool(Math.max(1, parserThreads), r -> {
+            Thread thread = new Thread(r, "ingestion-parser-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stopParserExecutor() {
+        if (parserExecutor != null) {
+            parserExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Start parsing a file; its chunks are read from the returned stream,
+     * which must be closed (closing early stops the parser).
+     *
+     * @param source       The uploaded file
+     * @param chunkFactory Turns chunk text into the chunk to store (null to
+     *                     skip it); runs on the parser thread
+     */
+    public ChunkStream open(Resource source, Function<String, Document> chunkFactory) {
+        ChunkStream stream = new ChunkStream(Math.max(1, queueCapacity));
+        stream.producer = parserExecutor.submit(() -> parse(source, chunkFactory, stream));
+        return stream;
+    }
+
+    public ParsingStats stats() {
+        return new ParsingStats(queueCapacity, documentsParsed.get(), charactersParsed.get(), chunksProduced.get(),
+                parseFailures.get(), blockedNanos.get() / 1_000_000);
+    }
+
+    private void parse(Resource source, Function<String, Document> chunkFactory, ChunkStream stream) {
+        long start = System.currentTimeMillis();
+        try (InputStream input = source.isFile() ? TikaInputStream.get(source.getFile().toPath())
+                : source.getInputStream()) {
+            StreamingTextSplitter splitter = new StreamingTextSplitter(CHUNK_SIZE, MIN_CHUNK_SIZE_CHARS,
+                    MIN_CHUNK_LENGTH_TO_EMBED, windowChars, text -> {
+                        Document chunk = chunkFactory.apply(text);
+                        if (chunk != null) {
+                            stream.produced.incrementAndGet();
+                            chunksProduced.incrementAndGet();
+                            stream.put(chunk);
+                        }
+                    });
+            DefaultHandler textHandler = new DefaultHandler() {
+                @Override
+                public void characters(char[] ch, int offset, int length) {
+                    stream.characters.addAndGet(length);
+                    if (!stream.hasText) {
+                        for (int i = offset; i < offset + length; i++) {
+                            if (!Character.isWhitespace(ch[i])) {
+                                stream.hasText = true;
+                                break;
+                            }
+                        }
+                    }
+                    splitter.append(ch, offset, length);
+                }
+
+                @Override
+                public void ignorableWhitespace(char[] ch, int offset, int length) {
+                    splitter.append(ch, offset, length);
+                }
+            };
+            new AutoDetectParser().parse(input, new BodyContentHandler(textHandler), new Metadata(),
+                    new ParseContext());
+            splitter.finish();
+
+            documentsParsed.incrementAndGet();
+            charactersParsed.addAndGet(stream.characters.get());
+            log.info("Parsed {} characters into {} chunks in {} ms", stream.characters.get(), stream.produced.get(),
+                    System.currentTimeMillis() - start);
+            stream.finish(END);
+        } catch (CancellationException e) {
+            log.debug("Parsing cancelled");
+        } catch (Throwable e) {
+            // Errors too (Tika throws StackOverflowError, NoClassDefFoundError, ...)
+            if (!Thread.currentThread().isInterrupted()) {
+                parseFailures.incrementAndGet();
+                stream.finish(new ParsingException("Failed to parse document: " + e.getMessage(), e));
+            }
+        } finally {
+            // Never leave the consumer waiting, however the parser stopped
+            if (stream.terminal == null) {
+                stream.finish(new ParsingException("Parsing stopped before the end of the document", null));
+            }
+        }
+    }
+
+    /**
+     * Chunks of a document being parsed, in order. hasNext() blocks until
+     * the parser has produced the next chunk or finished; a parse failure is
+     * thrown from it as a ParsingException.
+     */
+    public final class ChunkStream implements Iterator<Document>, AutoCloseable {
+
+        private final BlockingQueue<Object> queue;
+        private final AtomicLong produced = new AtomicLong();
+        private final AtomicLong characters = new AtomicLong();
+        private volatile boolean hasText;
+        // END or a ParsingException, set once the parser has stopped
+        private volatile Object terminal;
+        private volatile Future<?> producer;
+        private Document next;
+        private boolean finished;
+
+        private ChunkStream(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (finished) {
+                return false;
+            }
+            Object item = null;
+            try {
+                while (item == null) {
+                    item = queue.poll(TERMINAL_POLL_MS, TimeUnit.MILLISECONDS);
+                    // The terminal item could not be queued (queue full): it
+                    // applies once every chunk before it has been taken
+                    if (item == null && terminal != null && queue.isEmpty()) {
+                        item = terminal;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for the parser");
+            }
+            if (item == END) {
+                finished = true;
+                return false;
+            }
+            if (item instanceof ParsingException failure) {
+                finished = true;
+                throw failure;
+            }
+            next = (Document) item;
+            return true;
+        }
+
+        @Override
+        public Document next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Document chunk = next;
+            next = null;
+            return chunk;
+        }
+
+        /**
+         * Chunks produced by the parser so far
+         */
+        public long produced() {
+            return produced.get();
+        }
+
+        /**
+         * Whether the parser has seen any non-whitespace text so far
+         */
+        public boolean hasText() {
+            return hasText;
+        }
+
+        @Override
+        public void close() {
+            Future<?> running = producer;
+            if (running != null) {
+                running.cancel(true);
+            }
+            queue.clear();
+        }
+
+        /**
+         * Signal the end of the stream without blocking, so it cannot fail
+         * even when the consumer is slow or gone
+         */
+        private void finish(Object item) {
+            terminal = item;
+            queue.offer(item);
+        }
+
+        private void put(Object item) {
+            if (queue.offer(item)) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                queue.put(item);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Parsing cancelled");
+            } finally {
+                blockedNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * The parser failed; chunks before the failure may have been consumed
+     */
+    public static class ParsingException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public ParsingException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * @param parserBlockedMs Time parsers waited on a full queue (embedding
+     *                        slower than parsing)
+     */
+    public record ParsingStats(int queueCapacity, long documents, long characters, long chunks, long failures,
+            long parserBlockedMs) {
+    }
+}
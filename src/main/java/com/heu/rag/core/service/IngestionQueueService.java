@@ -0,0 +1,485 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.core.domain.Document;
+import com.heu.rag.core.domain.IngestionJob;
+import com.heu.rag.core.domain.ParseStatus;
+import com.heu.rag.core.repository.DocumentRepository;
+import com.heu.rag.core.repository.IngestionJobRepository;
+import com.heu.rag.core.util.ContentHash;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent queue of uploaded documents waiting to be processed by
+ * KnowledgeBaseService.processDocument.
+ *
+ * An upload is spooled to rag.ingestion.spool-dir and recorded as an
+ * IngestionJob in the same transaction as its Queued document, so the
+ * request returns right away. A dispatcher hands unfinished jobs, oldest
+ * first, to a pool of rag.ingestion.workers threads; it polls every
+ * poll-interval-ms and is woken after each submit and each finished job.
+ * Workers move the document through Parsing, Embedding and Indexing to
+ * Success or Failure and record the embedding progress on the job.
+ *
+ * Jobs that were started but never finished were interrupted by a restart:
+ * their partial vectors are deleted and they are run again, up to
+ * max-attempts times before the document is marked as failed. Documents
+ * deleted while queued or running are dropped with their job and spool
+ * file; vectors written meanwhile are tombstoned.
+ *
+ * Uploads are identified by the SHA-256 of their bytes: a file identical
+ * to a queued, processing or processed document of the same knowledge base
+ * returns that document instead of being processed again.
+ *
+ * A new version of a processed document is queued the same way as a
+ * replacement job, which runs KnowledgeBaseService.replaceDocument: only the
+ * chunks that changed are embedded, and if it fails the document keeps its
+ * previous version where possible. An interrupted replacement is resumed
+ * against whatever rows it left behind instead of starting from scratch.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class IngestionQueueService {
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final KnowledgeBaseService knowledgeBaseService;
+    private final IngestionJobRepository ingestionJobRepository;
+    private final DocumentRepository documentRepository;
+    private final MilvusService milvusService;
+    private final LexicalIndexService lexicalIndexService;
+    private final VectorTombstoneService vectorTombstoneService;
+    private final VectorCompactionService vectorCompactionService;
+
+    @Value("${rag.ingestion.workers:2}")
+    private int workers;
+
+    @Value("${rag.ingestion.spool-dir:./data/ingestion-spool}")
+    private String spoolDir;
+
+    @Value("${rag.ingestion.poll-interval-ms:5000}")
+    private long pollIntervalMs;
+
+    @Value("${rag.ingestion.max-attempts:3}")
+    private int maxAttempts;
+
+    private final Set<Long> running = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean wakePending = new AtomicBoolean();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong recovered = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong replacements = new AtomicLong();
+    private Path spoolPath;
+    private ScheduledExecutorService dispatcher;
+    private ExecutorService workerPool;
+
+    @PostConstruct
+    void startWorkers() throws IOException {
+        spoolPath = Paths.get(spoolDir).toAbsolutePath();
+        Files.createDirectories(spoolPath);
+        workers = Math.max(1, workers);
+        documentRepository.dropStatusCheckConstraint();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        workerPool = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "ingestion-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        dispatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ingestion-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dispatcher.scheduleWithFixedDelay(this::dispatchSafely, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stopWorkers() {
+        if (dispatcher != null) {
+            dispatcher.shutdownNow();
+        }
+        if (workerPool != null) {
+            workerPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Accept an upload: create its Queued document, spool the file and queue
+     * the job. Processing starts once the transaction commits. A
+     * byte-identical file already in the knowledge base is not queued again;
+     * its existing document is returned instead.
+     *
+     * @return The queued (or identical existing) document
+     */
+    @Transactional
+    public Submission submit(MultipartFile file, Long baseId, Long userId) {
+        String contentHash;
+        try (InputStream input = file.getInputStream()) {
+            contentHash = ContentHash.sha256(input);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read upload " + file.getOriginalFilename(), e);
+        }
+        Optional<Document> identical = knowledgeBaseService.findIdenticalDocument(baseId, contentHash, userId);
+        if (identical.isPresent()) {
+            duplicates.incrementAndGet();
+            log.info("Upload {} is identical to document {} in knowledge base {}, not queued",
+                    file.getOriginalFilename(), identical.get().getDocId(), baseId);
+            return new Submission(identical.get(), true);
+        }
+
+        Document document = knowledgeBaseService.createQueuedDocument(file.getOriginalFilename(), contentHash,
+                baseId, userId);
+        ingestionJobRepository.save(IngestionJob.builder()
+                .docId(document.getDocId())
+                .baseId(baseId)
+                .spoolPath(spool(file, document))
+                .fileSize(file.getSize())
+                .build());
+        log.info("Queued document for processing: docId={}, fileName={}, size={}", document.getDocId(),
+                document.getDocName(), file.getSize());
+        return new Submission(document, false);
+    }
+
+    /**
+     * Accept a new version of a processed document: the document goes back
+     * to Queued (keeping its id, name and current chunks; its file type
+     * follows the new version once processed) and a replacement job is
+     * queued. A file identical to the current version is not queued.
+     *
+     * @return The document, Queued unless the file was identical
+     */
+    @Transactional
+    public Submission submitReplacement(MultipartFile file, Long docId, Long userId) {
+        String contentHash;
+        try (InputStream input = file.getInputStream()) {
+            contentHash = ContentHash.sha256(input);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read upload " + file.getOriginalFilename(), e);
+        }
+        Document document = knowledgeBaseService.findReplaceableDocument(docId, userId);
+        if (contentHash.equals(document.getContentHash())) {
+            duplicates.incrementAndGet();
+            log.info("Replacement {} is identical to document {}, not queued", file.getOriginalFilename(), docId);
+            return new Submission(document, true);
+        }
+        if (documentRepository.updateStatusFrom(docId, ParseStatus.Success, ParseStatus.Queued) == 0) {
+            throw new IllegalArgumentException("Document " + docId + " is already being processed");
+        }
+        document.setStatus(ParseStatus.Queued);
+
+        ingestionJobRepository.deleteFinishedByDocId(docId);
+        ingestionJobRepository.save(IngestionJob.builder()
+                .docId(docId)
+                .baseId(document.getBaseId())
+                .spoolPath(spool(file, document))
+                .fileSize(file.getSize())
+                .replacement(true)
+                .contentHash(contentHash)
+                .fileName(file.getOriginalFilename())
+                .build());
+        log.info("Queued replacement of document {}: fileName={}, size={}", docId, file.getOriginalFilename(),
+                file.getSize());
+        return new Submission(document, false);
+    }
+
+    /**
+     * Spool an upload for the document's job; the file is deleted again if
+     * the transaction rolls back, and the dispatcher is woken once it commits
+     */
+    private String spool(MultipartFile file, Document document) {
+        Path spoolFile = spoolPath.resolve(document.getDocId().toString());
+        try {
+            file.transferTo(spoolFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to spool upload " + document.getDocName(), e);
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    wake();
+                } else {
+                    deleteSpoolFile(spoolFile.toString());
+                }
+            }
+        });
+        return spoolFile.toString();
+    }
+
+    /**
+     * Dispatch queued jobs now instead of waiting for the next poll
+     */
+    public void wake() {
+        if (wakePending.compareAndSet(false, true)) {
+            dispatcher.execute(() -> {
+                wakePending.set(false);
+                dispatchSafely();
+            });
+        }
+    }
+
+    public IngestionStats stats() {
+        int active = running.size();
+        long unfinished = ingestionJobRepository.countByFinishedAtIsNull();
+        return new IngestionStats(workers, Math.max(0, unfinished - active), active, completed.get(), failed.get(),
+                cancelled.get(), recovered.get(), duplicates.get(), replacements.get());
+    }
+
+    private void dispatchSafely() {
+        try {
+            dispatch();
+        } catch (Exception e) {
+            log.error("Ingestion dispatch failed", e);
+        }
+    }
+
+    /**
+     * Hand the oldest unfinished jobs that are not running to idle workers
+     * (only called on the dispatcher thread)
+     */
+    private void dispatch() {
+        int idle = workers - running.size();
+        if (idle <= 0) {
+            return;
+        }
+        List<IngestionJob> jobs = ingestionJobRepository
+                .findByFinishedAtIsNullOrderByCreatedAtAsc(PageRequest.of(0, idle + running.size()));
+        for (IngestionJob job : jobs) {
+            if (running.size() >= workers) {
+                break;
+            }
+            if (running.add(job.getDocId())) {
+                workerPool.execute(() -> runJob(job));
+            }
+        }
+    }
+
+    private void runJob(IngestionJob job) {
+        Long docId = job.getDocId();
+        try {
+            Document document = documentRepository.findById(docId).orElse(null);
+            if (document == null) {
+                log.info("Dropping ingestion job of deleted document {}", docId);
+                dropJob(job);
+                return;
+            }
+            if (job.getStartedAt() != null && !recoverInterruptedJob(job, document)) {
+                return;
+            }
+
+            job.setAttempts(job.getAttempts() + 1);
+            job.setStartedAt(LocalDateTime.now());
+            job.setChunksDone(0);
+            job.setLastError(null);
+            ingestionJobRepository.save(job);
+
+            long start = System.currentTimeMillis();
+            FileSystemResource source = new FileSystemResource(job.getSpoolPath());
+            if (isReplacement(job)) {
+                knowledgeBaseService.replaceDocument(document, source, job.getContentHash(), job.getFileName(),
+                        new JobProgress(docId));
+                replacements.incrementAndGet();
+            } else {
+                knowledgeBaseService.processDocument(document, source, new JobProgress(docId));
+            }
+
+            job.setFinishedAt(LocalDateTime.now());
+            ingestionJobRepository.save(job);
+            deleteSpoolFile(job.getSpoolPath());
+            completed.incrementAndGet();
+            log.info("Ingestion job of document {} finished in {} ms", docId, System.currentTimeMillis() - start);
+        } catch (CancellationException e) {
+            log.info("Document {} was deleted during processing, discarding its vectors", docId);
+            discardVectors(job);
+            dropJob(job);
+            cancelled.incrementAndGet();
+        } catch (KnowledgeBaseService.ReplacementException e) {
+            if (e.isPreviousVersionKept()) {
+                keepPreviousVersion(job, e);
+            } else {
+                failJob(job, e);
+            }
+        } catch (Exception e) {
+            failJob(job, e);
+        } finally {
+            running.remove(docId);
+            wake();
+        }
+    }
+
+    /**
+     * Prepare a job left unfinished by a restart for another attempt;
+     * returns false if it has used up its attempts and was failed instead
+     */
+    private boolean recoverInterruptedJob(IngestionJob job, Document document) {
+        recovered.incrementAndGet();
+        if (job.getAttempts() >= maxAttempts) {
+            failJob(job, new IllegalStateException("Processing was interrupted " + job.getAttempts() + " times"));
+            return false;
+        }
+        log.warn("Retrying interrupted ingestion job of document {} (stage {}, attempt {}/{})", job.getDocId(),
+                document.getStatus(), job.getAttempts() + 1, maxAttempts);
+        if (!isReplacement(job)) {
+            // A replacement matches its chunks against the rows left behind instead
+            milvusService.deleteChunksByDocId(job.getDocId());
+        }
+        return true;
+    }
+
+    /**
+     * A replacement failed but the document still holds its previous
+     * version: it goes back to Success and the error is kept on the job
+     */
+    private void keepPreviousVersion(IngestionJob job, Exception e) {
+        Long docId = job.getDocId();
+        log.error("Replacement of document {} failed, keeping its previous version", docId, e);
+        try {
+            if (documentRepository.updateStatus(docId, ParseStatus.Success) == 0) {
+                discardVectors(job);
+                dropJob(job);
+                return;
+            }
+            job.setLastError(errorMessage(e));
+            job.setFinishedAt(LocalDateTime.now());
+            ingestionJobRepository.save(job);
+            deleteSpoolFile(job.getSpoolPath());
+            failed.incrementAndGet();
+        } catch (Exception saveError) {
+            log.error("Failed to record the failure of ingestion job {}", docId, saveError);
+        }
+    }
+
+    private void failJob(IngestionJob job, Exception e) {
+        Long docId = job.getDocId();
+        log.error("Ingestion job of document {} failed (attempt {})", docId, job.getAttempts(), e);
+        discardVectors(job);
+        try {
+            if (documentRepository.updateStatus(docId, ParseStatus.Failure) == 0) {
+                dropJob(job);
+                return;
+            }
+            job.setLastError(errorMessage(e));
+            job.setFinishedAt(LocalDateTime.now());
+            ingestionJobRepository.save(job);
+            deleteSpoolFile(job.getSpoolPath());
+            failed.incrementAndGet();
+        } catch (Exception saveError) {
+            log.error("Failed to record the failure of ingestion job {}", docId, saveError);
+        }
+    }
+
+    /**
+     * Tombstone the vectors a job may have written; retrieval skips them
+     * right away and the compaction worker deletes them
+     */
+    private void discardVectors(IngestionJob job) {
+        try {
+            lexicalIndexService.removeDocument(job.getBaseId(), job.getDocId());
+            vectorTombstoneService.tombstoneDocument(job.getBaseId(), job.getDocId());
+            vectorCompactionService.wake();
+        } catch (Exception e) {
+            log.error("Failed to tombstone the vectors of document {}", job.getDocId(), e);
+        }
+    }
+
+    private void dropJob(IngestionJob job) {
+        ingestionJobRepository.deleteById(job.getDocId());
+        deleteSpoolFile(job.getSpoolPath());
+    }
+
+    private static boolean isReplacement(IngestionJob job) {
+        return Boolean.TRUE.equals(job.getReplacement());
+    }
+
+    private void deleteSpoolFile(String path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(Paths.get(path));
+        } catch (IOException e) {
+            log.warn("Failed to delete spooled upload {}: {}", path, e.getMessage());
+        }
+    }
+
+    private static String errorMessage(Throwable e) {
+        Throwable cause = e;
+        while (cause.getCause() != null && cause.getMessage() != null
+                && cause.getMessage().startsWith("Failed to process document")) {
+            cause = cause.getCause();
+        }
+        String message = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+
+    /**
+     * Writes stage changes to the document and embedding progress to the job
+     */
+    private final class JobProgress implements KnowledgeBaseService.IngestionProgress {
+
+        private final Long docId;
+
+        private JobProgress(Long docId) {
+            this.docId = docId;
+        }
+
+        @Override
+        public boolean stage(ParseStatus stage) {
+            return documentRepository.updateStatus(docId, stage) > 0;
+        }
+
+        @Override
+        public void chunksStored(long stored, int total) {
+            ingestionJobRepository.updateProgress(docId, (int) stored, total);
+        }
+    }
+
+    /**
+     * @param duplicate The file is identical to document's, nothing was queued
+     */
+    public record Submission(Document document, boolean duplicate) {
+    }
+
+    /**
+     * @param duplicates   Uploads identical to a document already in their
+     *                     knowledge base (or to the version they replace)
+     * @param replacements Completed replacement jobs
+     */
+    public record IngestionStats(int workers, long queued, int running, long completed, long failed,
+            long cancelled, long recovered, long duplicates, long replacements) {
+    }
+}
@@ -4,27 +4,38 @@ import com.heu.rag.config.SnowflakeIdGenerator;
 import com.heu.rag.core.domain.Document;
 import com.heu.rag.core.domain.FileType;
 import com.heu.rag.core.domain.ParseStatus;
+import com.heu.rag.core.domain.RetrievedChunk;
 import com.heu.rag.core.exception.ResourceNotFoundException;
 import com.heu.rag.core.repository.DocumentRepository;
 import com.heu.rag.core.repository.KnowledgeBaseRepository;
+import com.heu.rag.core.util.ContentHash;
 import com.heu.rag.core.util.MilvusDocumentSanitizer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.ai.reader.tika.TikaDocumentReader;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
-import org.springframework.ai.vectorstore.VectorStore;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Service for handling knowledge base document upload and processing.
@@ -36,37 +47,70 @@ import java.util.stream.Collectors;
 @Slf4j
 public class KnowledgeBaseService {
 
+    // Stored chunks read per query when a replacement matches against them
+    private static final int STORED_CHUNK_PAGE_SIZE = 1000;
+
     private final DocumentRepository documentRepository;
     private final KnowledgeBaseRepository knowledgeBaseRepository;
-    private final VectorStore vectorStore;
+    private final IngestionParsingService ingestionParsingService;
+    private final IngestionEmbeddingService ingestionEmbeddingService;
     private final SnowflakeIdGenerator snowflakeIdGenerator;
     private final MilvusDocumentSanitizer milvusDocumentSanitizer;
+    private final RetrievalResultCache retrievalResultCache;
+    private final ConsistencyPolicy consistencyPolicy;
+    private final LexicalIndexService lexicalIndexService;
+    private final MilvusService milvusService;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Stage and progress callbacks of a document being processed (see
+     * IngestionQueueService)
+     */
+    public interface IngestionProgress {
+        /**
+         * Enter a processing stage; returns false if the document has been
+         * deleted meanwhile, which aborts processing
+         */
+        boolean stage(ParseStatus stage);
+
+        void chunksStored(long stored, int total);
+    }
+
+    /**
+     * Document of a byte-identical file already uploaded to the knowledge
+     * base (queued, processing or processed; failed ones are ignored so
+     * they can be uploaded again).
+     *
+     * @param baseId      The knowledge base ID
+     * @param contentHash SHA-256 of the uploaded file
+     * @param userId      The user ID (for validation)
+     */
+    @Transactional(readOnly = true)
+    public Optional<Document> findIdenticalDocument(Long baseId, String contentHash, Long userId) {
+        verifyKnowledgeBaseAccess(baseId, userId);
+        return documentRepository.findFirstByBaseIdAndContentHashAndStatusNotOrderByCreatedAtDesc(baseId,
+                contentHash, ParseStatus.Failure);
+    }
 
     /**
-     * Upload and process a file: parse, chunk, vectorize, and store in Milvus.
+     * Validate an upload and create its Document entity with status Queued;
+     * the content is processed later by processDocument.
      * 
-     * @param file   The uploaded file
-     * @param baseId The knowledge base ID
-     * @param userId The user ID (for validation)
+     * @param rawFileName Original file name of the upload
+     * @param contentHash SHA-256 of the uploaded file
+     * @param baseId      The knowledge base ID
+     * @param userId      The user ID (for validation)
+     * @return The saved document
      */
     @Transactional
-    public void uploadAndProcess(MultipartFile file, Long baseId, Long userId) {
-        String rawFileName = file.getOriginalFilename();
+    public Document createQueuedDocument(String rawFileName, String contentHash, Long baseId, Long userId) {
         String fileName = sanitizeString(rawFileName, "unnamed-file");
-        log.info("Starting file upload processing: fileName={}, baseId={}, userId={}",
-                fileName, baseId, userId);
+        log.info("Accepting file upload: fileName={}, baseId={}, userId={}", fileName, baseId, userId);
 
         // 1. Validation: Check if KnowledgeBase exists
-        var knowledgeBase = knowledgeBaseRepository.findById(baseId)
-                .orElseThrow(() -> new ResourceNotFoundException(
-                        "KnowledgeBase not found with id: " + baseId));
-
-        if (!knowledgeBase.getUserId().equals(userId)) {
-            throw new IllegalArgumentException(
-                    "User " + userId + " does not have access to knowledge base " + baseId);
-        }
+        verifyKnowledgeBaseAccess(baseId, userId);
 
-        // 2. DB Entry: Save a new Document entity with status NONE
+        // 2. DB Entry: Save a new Document entity with status QUEUED
         Long docId = snowflakeIdGenerator.nextId();
         String fileSuffix = extractFileSuffix(fileName);
         FileType fileType = determineFileType(fileSuffix);
@@ -79,192 +123,190 @@ public class KnowledgeBaseService {
                 .fileType(fileType)
                 .filePath(null) // Can be set if file is saved to disk
                 .isEnabled(true)
-                .status(ParseStatus.None)
+                .status(ParseStatus.Queued)
+                .contentHash(contentHash)
                 .totalChunks(0)
                 .build();
 
         dbDocument = documentRepository.save(dbDocument);
         log.info("Created document entity: docId={}", docId);
+        return dbDocument;
+    }
 
-        try {
-            // 3. Parsing: Use TikaDocumentReader to extract text
-            log.debug("Starting document parsing...");
-            TikaDocumentReader reader = new TikaDocumentReader(
-                    new InputStreamResource(file.getInputStream()));
-            List<org.springframework.ai.document.Document> parsedDocuments = reader.get();
-
-            if (parsedDocuments.isEmpty()) {
-                throw new IOException("No content extracted from file: " + fileName);
-            }
-
-            // Combine all parsed content
-            String fullText = parsedDocuments.stream()
-                    .map(doc -> {
-                        // Try different methods to get content
-                        try {
-                            return doc.getText() != null ? doc.getText() : doc.toString();
-                        } catch (Exception e) {
-                            return doc.toString();
-                        }
-                    })
-                    .filter(content -> content != null && !content.isEmpty())
-                    .collect(Collectors.joining("\n\n"));
-
-            log.info("Extracted text content: {} characters", fullText.length());
-
-            // Check if extracted text is empty
-            if (fullText == null || fullText.trim().isEmpty()) {
-                String errorMsg = String.format(
-                        "无法从文件中提取文本内容。文件类型: %s, 文件名: %s。图片文件或无法解析的文件类型无法进行向量化处理。",
-                        fileType, fileName);
-                throw new IOException(errorMsg);
-            }
+    /**
+     * Process a queued document: parse, chunk, vectorize, and store in Milvus.
+     * The stages run as a pipeline with bounded queues between them, so
+     * chunks are embedded and stored while the rest of the file is still
+     * being parsed and memory stays flat regardless of file size (stored
+     * batches go to the lexical index as they complete; Parsing switches to
+     * Embedding once the first chunk is ready).
+     * Runs on an ingestion worker without a surrounding transaction, so no
+     * database connection is held while Tika and the embedding model work;
+     * the stages are reported through {@code progress} and the final status
+     * and chunk counters are written in one short transaction. Failures are
+     * thrown to the caller, which marks the document as failed.
+     * 
+     * @param document The queued document
+     * @param source   The uploaded file content
+     * @param progress Stage and progress callbacks
+     */
+    public void processDocument(Document document, Resource source, IngestionProgress progress) {
+        ingest(document, source, null, null, progress);
+    }
 
-            // 4. Splitting: Use TokenTextSplitter to split text into chunks
-            log.debug("Starting text chunking...");
-            TokenTextSplitter splitter = new TokenTextSplitter();
-            List<org.springframework.ai.document.Document> chunks = splitter.apply(parsedDocuments);
+    /**
+     * Check that a document can be replaced by a new version: it belongs to
+     * the user and has been processed successfully.
+     *
+     * @param docId  The document ID
+     * @param userId The user ID (for validation)
+     */
+    @Transactional(readOnly = true)
+    public Document findReplaceableDocument(Long docId, Long userId) {
+        Document document = documentRepository.findById(docId)
+                .orElseThrow(() -> new ResourceNotFoundException("Document not found with id: " + docId));
+        verifyKnowledgeBaseAccess(document.getBaseId(), userId);
+        if (document.getStatus() != ParseStatus.Success) {
+            throw new IllegalArgumentException(String.format(
+                    "Only processed documents can be replaced, document %d is %s", docId, document.getStatus()));
+        }
+        return document;
+    }
 
-            log.info("Split document into {} chunks", chunks.size());
+    /**
+     * Replace the content of a processed document with a new version,
+     * re-embedding only what changed. The new version is chunked as in
+     * processDocument and each chunk is matched by chunkHash against the
+     * chunks stored for the document: matching rows keep their vector, the
+     * other chunks are embedded and inserted, and once all of them are stored
+     * the matching rows that moved get their new chunk index and the rows
+     * that did not match are deleted. Editing one page of a long document
+     * therefore re-embeds only the chunks the edit touched, even when it
+     * shifts every chunk after it.
+     *
+     * Until the new version is complete retrieval only returns the rows of
+     * the previous one, then only those of the new one (see
+     * MilvusService.showOnlyRows). If the replacement fails before the
+     * switch, the rows inserted so far are deleted again and a
+     * ReplacementException with previousVersionKept set is thrown: the
+     * document still holds its previous version.
+     *
+     * @param document    The document, with status Queued
+     * @param source      The new version
+     * @param contentHash SHA-256 of the new version
+     * @param fileName    Original file name of the new version (its suffix
+     *                    becomes the document's file type; null keeps it)
+     * @param progress    Stage and progress callbacks
+     */
+    public void replaceDocument(Document document, Resource source, String contentHash, String fileName,
+            IngestionProgress progress) {
+        ingest(document, source, Objects.requireNonNull(contentHash), fileName, progress);
+    }
 
-            // Check if chunks are empty after splitting
-            if (chunks == null || chunks.isEmpty()) {
-                String errorMsg = String.format(
-                        "文件分割后没有生成有效的内容块。文件类型: %s, 文件名: %s。请确保文件包含可提取的文本内容。",
-                        fileType, fileName);
-                throw new IOException(errorMsg);
-            }
+    /**
+     * processDocument, or replaceDocument when contentHash is set
+     */
+    private void ingest(Document document, Resource source, String contentHash, String newFileName,
+            IngestionProgress progress) {
+        Long docId = document.getDocId();
+        Long baseId = document.getBaseId();
+        String fileName = document.getDocName();
+        boolean replacement = contentHash != null;
+        String fileSuffix = replacement && newFileName != null
+                ? extractFileSuffix(sanitizeString(newFileName, fileName))
+                : document.getFileSuffix();
+        FileType fileType = replacement && newFileName != null ? determineFileType(fileSuffix)
+                : document.getFileType();
+        log.info("Starting document {}: docId={}, fileName={}, baseId={}", replacement ? "replacement" : "processing",
+                docId, fileName, baseId);
+
+        long baseTimestamp = System.currentTimeMillis();
+        AtomicInteger sourceIndex = new AtomicInteger();
+        AtomicInteger chunkIndex = new AtomicInteger();
+        AtomicInteger totalChunkCount = new AtomicInteger();
+        AtomicLong storedCount = new AtomicLong();
+        StoredChunks previous = null;
+        boolean previousDeleted = false;
 
-            // Filter out empty chunks
-            List<org.springframework.ai.document.Document> validChunks = chunks.stream()
-                    .filter(chunk -> {
-                        try {
-                            String content = chunk.getText() != null ? chunk.getText() : chunk.toString();
-                            return content != null && !content.trim().isEmpty();
-                        } catch (Exception e) {
-                            return false;
-                        }
-                    })
-                    .collect(Collectors.toList());
-
-            if (validChunks.isEmpty()) {
-                String errorMsg = String.format(
-                        "文件处理后没有生成有效的内容块。文件类型: %s, 文件名: %s。请确保文件包含可提取的文本内容。",
-                        fileType, fileName);
-                throw new IOException(errorMsg);
+        try {
+            enterStage(progress, ParseStatus.Parsing, docId);
+            previous = replacement ? loadStoredChunks(docId) : StoredChunks.empty();
+            StoredChunks stored = previous;
+            if (replacement) {
+                milvusService.showOnlyRows(docId, stored.ids());
             }
 
-            // 5. Vectorization & Storage: Convert chunks and inject metadata
-            log.debug("Starting vectorization and storage...");
-            List<org.springframework.ai.document.Document> chunksWithMetadata = new ArrayList<>();
-            int chunkIndex = 0;
-            long baseTimestamp = System.currentTimeMillis();
-
-            for (org.springframework.ai.document.Document chunk : validChunks) {
-                // Extract content
-                String content = null;
-                try {
-                    content = chunk.getText() != null ? chunk.getText() : chunk.toString();
-                } catch (Exception e) {
-                    log.warn("Failed to extract text from chunk {}, using toString()", chunkIndex, e);
-                    content = chunk.toString();
-                }
-
-                // Validate content is not empty
-                if (content == null || content.trim().isEmpty()) {
-                    log.warn("Skipping empty chunk at index {}", chunkIndex);
-                    chunkIndex++;
-                    continue;
-                }
-
-                // Generate unique ID for each chunk if not present
-                // Format: docId_chunkIndex_timestamp
-                String chunkId = chunk.getId();
-                if (chunkId == null || chunkId.trim().isEmpty()) {
-                    // Use baseTimestamp + chunkIndex to ensure uniqueness while maintaining order
-                    chunkId = String.format("%d_%d_%d", docId, chunkIndex, baseTimestamp + chunkIndex);
-                    log.debug("Generated new chunk ID: {}", chunkId);
-                } else {
-                    log.debug("Using existing chunk ID: {}", chunkId);
-                }
-
-                // Ensure chunkId is never null or empty
-                if (chunkId == null || chunkId.trim().isEmpty()) {
-                    throw new IllegalStateException(
-                            String.format("Failed to generate valid ID for chunk at index %d", chunkIndex));
-                }
-
-                // Create document with metadata
-                // CRITICAL: Ensure metadata is never null - Milvus requires metadata_json field
-                // If chunk.getMetadata() is null, create a new HashMap to avoid "field is not provided" error
-                Map<String, Object> metadata = chunk.getMetadata();
-                if (metadata == null) {
-                    metadata = new HashMap<>();
-                    log.debug("Chunk at index {} had null metadata, creating new metadata map", chunkIndex);
-                } else {
-                    // Create a copy to avoid modifying the original
-                    metadata = new HashMap<>(metadata);
+            // 3-4. Parsing & Splitting: Tika streams text into the splitter on a parser
+            // thread (see IngestionParsingService); chunks get their metadata as they are cut
+            log.debug("Starting streaming parse...");
+            try (IngestionParsingService.ChunkStream chunks = ingestionParsingService.open(source,
+                    text -> toChunk(text, sourceIndex.getAndIncrement(), chunkIndex, document, baseTimestamp))) {
+
+                if (!chunks.hasNext()) {
+                    String errorMsg = chunks.hasText()
+                            ? String.format(
+                                    "文件分割后没有生成有效的内容块。文件类型: %s, 文件名: %s。请确保文件包含可提取的文本内容。",
+                                    fileType, fileName)
+                            : String.format(
+                                    "无法从文件中提取文本内容。文件类型: %s, 文件名: %s。图片文件或无法解析的文件类型无法进行向量化处理。",
+                                    fileType, fileName);
+                    throw new IOException(errorMsg);
                 }
 
-                // Inject metadata for retrieval filtering
-                metadata.put("docId", docId.toString());
-                metadata.put("baseId", baseId.toString());
-                metadata.put("fileName", fileName);
-                metadata.put("chunkIndex", String.valueOf(chunkIndex));
-                metadata.put("isEnabled", String.valueOf(dbDocument.getIsEnabled())); // Add isEnabled for filtering
-
-                // Create document with guaranteed non-null metadata
-                org.springframework.ai.document.Document docWithMetadata = new org.springframework.ai.document.Document(
-                        chunkId, // Ensure ID is always provided and non-empty
-                        content,
-                        metadata); // Metadata is guaranteed to be non-null
-
-                chunksWithMetadata.add(docWithMetadata);
-                chunkIndex++;
-            }
-
-            // Call vectorStore.add() - This automatically calls Ollama Embedding
-            // Only add if we have valid chunks
-            if (!chunksWithMetadata.isEmpty()) {
-                try {
-                    log.info("Attempting to store {} chunks in vector store (Milvus)...", chunksWithMetadata.size());
-
-                    MilvusDocumentSanitizer.SanitizeResult sanitizeResult = milvusDocumentSanitizer.sanitize(
-                            chunksWithMetadata,
-                            docId,
-                            baseId,
-                            fileName,
-                            dbDocument.getIsEnabled(),
-                            baseTimestamp);
-                    List<org.springframework.ai.document.Document> milvusSafeChunks = sanitizeResult.documents();
-                    List<String> validationWarnings = sanitizeResult.warnings();
-                    if (!validationWarnings.isEmpty()) {
-                        log.warn("Milvus payload sanitizer warnings: {}", String.join(" | ", validationWarnings));
-                    }
-
-                    if (milvusSafeChunks.isEmpty()) {
-                        String validationMsg = validationWarnings.isEmpty() ? "unknown validation error"
-                                : String.join("; ", validationWarnings);
-                        throw new IllegalStateException(
-                                String.format("没有可写入Milvus的有效内容块。文档ID: %d, 文件名: %s, 详情: %s",
-                                        docId, fileName, validationMsg));
+                // 5. Vectorization & Storage: embed in parallel batches (see
+                // IngestionEmbeddingService) and write the rows in the active schema
+                // layout as batches complete, while parsing continues; chunks already
+                // stored unchanged are skipped
+                enterStage(progress, ParseStatus.Embedding, docId);
+                Iterator<org.springframework.ai.document.Document> changed = new Iterator<>() {
+                    private org.springframework.ai.document.Document next;
+
+                    @Override
+                    public boolean hasNext() {
+                        while (next == null && chunks.hasNext()) {
+                            org.springframework.ai.document.Document chunk = chunks.next();
+                            totalChunkCount.incrementAndGet();
+                            if (!stored.keep(chunk)) {
+                                next = chunk;
+                            }
+                        }
+                        return next != null;
                     }
 
-                    // 在 vectorStore.add(...) 前调用
-                    logMilvusPayloadProbe(milvusSafeChunks, docId, fileName);
-                    List<String> payloadErrors = validateMilvusPayload(milvusSafeChunks);
-                    if (!payloadErrors.isEmpty()) {
-                        throw new IllegalStateException(
-                                String.format("Milvus payload 校验失败，docId=%d, fileName=%s, errors=%s",
-                                        docId, fileName, String.join(" | ", payloadErrors)));
+                    @Override
+                    public org.springframework.ai.document.Document next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        org.springframework.ai.document.Document chunk = next;
+                        next = null;
+                        return chunk;
                     }
-
-                    vectorStore.add(milvusSafeChunks);
-                    log.info("Successfully stored {} chunks in vector store (Milvus)", milvusSafeChunks.size());
-                    chunksWithMetadata = milvusSafeChunks;
+                };
+                try {
+                    ingestionEmbeddingService.embedAndStore(changed, (batch, storedSoFar) -> {
+                        storedCount.set(storedSoFar);
+                        // A new document is indexed lexically as its batches are stored
+                        if (!replacement) {
+                            lexicalIndexService.addChunks(baseId, batch);
+                        }
+                        progress.chunksStored(storedSoFar + stored.kept(), (int) chunks.produced());
+                    });
+                    retrievalResultCache.bumpVersion(baseId);
+                    consistencyPolicy.recordWrite(baseId);
+                    log.info("Successfully stored {} chunks in vector store (Milvus), {} unchanged",
+                            storedCount.get(), stored.kept());
+                } catch (IngestionParsingService.ParsingException e) {
+                    // Chunks before the parse failure may have been stored
+                    retrievalResultCache.bumpVersion(baseId);
+                    consistencyPolicy.recordWrite(baseId);
+                    throw e;
                 } catch (Exception e) {
-                    log.error("Failed to store chunks in Milvus vector store. Chunk count: {}, docId: {}, fileName: {}",
-                            chunksWithMetadata.size(), docId, fileName, e);
+                    log.error("Failed to store chunks in Milvus vector store. Stored chunks: {}, docId: {}, fileName: {}",
+                            storedCount.get(), docId, fileName, e);
+                    // A failed insert may still have written part of the chunks
+                    retrievalResultCache.bumpVersion(baseId);
+                    consistencyPolicy.recordWrite(baseId);
 
                     // Check if it's a Milvus-specific error
                     String errorMsg = e.getMessage();
@@ -292,24 +334,310 @@ public class KnowledgeBaseService {
                                 e);
                     }
                 }
-            } else {
-                log.warn("No valid chunks to store in vector store for docId: {}, fileName: {}", docId, fileName);
             }
 
-            // 6. Completion: Update DB entity status to SUCCESS
-            dbDocument.setStatus(ParseStatus.Success);
-            dbDocument.setTotalChunks(chunksWithMetadata.size());
-            documentRepository.save(dbDocument);
+            // Replacement: the new version is complete. Switch retrieval over to it (the
+            // moved rows stay hidden until their chunk index is rewritten), then drop the
+            // rows it no longer has
+            if (replacement) {
+                previousDeleted = true;
+                Set<String> unmatched = stored.unmatchedIds();
+                Set<String> hidden = new HashSet<>(unmatched);
+                hidden.addAll(stored.moved().keySet());
+                milvusService.hideRows(docId, hidden);
+                retrievalResultCache.bumpVersion(baseId);
+                long moved = milvusService.updateChunkIndexes(docId, stored.moved());
+                milvusService.hideRows(docId, unmatched);
+                retrievalResultCache.bumpVersion(baseId);
+                long deleted = milvusService.deleteChunksByIds(docId, unmatched);
+                milvusService.clearRowVisibility(docId);
+                retrievalResultCache.bumpVersion(baseId);
+                consistencyPolicy.recordWrite(baseId);
+                log.info("Replaced document {}: {} chunks unchanged ({} moved), {} inserted, {} deleted", docId,
+                        stored.kept(), moved, storedCount.get(), deleted);
+            }
+
+            // 6. Indexing: lexical index (see LexicalIndexService). A new document was indexed
+            // as its batches were stored; a replacement is re-read from its final rows
+            enterStage(progress, ParseStatus.Indexing, docId);
+            if (replacement) {
+                lexicalIndexService.reindexDocument(baseId, docId);
+            }
 
-            log.info("Successfully processed document: docId={}, totalChunks={}",
-                    docId, chunksWithMetadata.size());
+            // 7. Completion: Update DB entity status to SUCCESS and the chunk counters
+            int totalChunks = totalChunkCount.get();
+            Boolean completed = transactionTemplate.execute(status -> {
+                Document current = documentRepository.findById(docId).orElse(null);
+                if (current == null) {
+                    return false;
+                }
+                int previousChunks = current.getTotalChunks() != null ? current.getTotalChunks() : 0;
+                current.setStatus(ParseStatus.Success);
+                current.setTotalChunks(totalChunks);
+                if (replacement) {
+                    current.setContentHash(contentHash);
+                    current.setFileSuffix(fileSuffix);
+                    current.setFileType(fileType);
+                }
+                documentRepository.save(current);
+                knowledgeBaseRepository.addTotalChunks(baseId, totalChunks - previousChunks);
+                return true;
+            });
+            if (!Boolean.TRUE.equals(completed)) {
+                throw new CancellationException("Document " + docId + " was deleted during processing");
+            }
 
+            log.info("Successfully processed document: docId={}, totalChunks={}", docId, totalChunks);
+
+        } catch (CancellationException e) {
+            throw e;
         } catch (Exception e) {
-            // 7. Error Handling: Update status to FAILURE and throw exception
+            // 8. Error Handling: the caller marks the document as FAILURE, or for a
+            // replacement that could be undone restores the previous version's status
             log.error("Error processing document: docId={}", docId, e);
-            dbDocument.setStatus(ParseStatus.Failure);
-            documentRepository.save(dbDocument);
+            if (replacement) {
+                boolean previousVersionKept = previous == null
+                        || !previousDeleted && removeReplacementRows(docId, baseId, previous);
+                throw new ReplacementException("Failed to process document: " + fileName, e, previousVersionKept);
+            }
             throw new RuntimeException("Failed to process document: " + fileName, e);
+        } finally {
+            if (replacement) {
+                milvusService.clearRowVisibility(docId);
+                retrievalResultCache.bumpVersion(baseId);
+            }
+        }
+    }
+
+    /**
+     * Chunks stored for a document, read page by page (see
+     * MilvusService.queryDocumentChunkPage)
+     */
+    private StoredChunks loadStoredChunks(Long docId) {
+        StoredChunks stored = StoredChunks.empty();
+        String afterId = null;
+        while (true) {
+            List<RetrievedChunk> page = milvusService.queryDocumentChunkPage(docId, afterId, STORED_CHUNK_PAGE_SIZE);
+            page.forEach(stored::add);
+            if (page.size() < STORED_CHUNK_PAGE_SIZE) {
+                return stored;
+            }
+            afterId = page.get(page.size() - 1).getId();
+        }
+    }
+
+    /**
+     * Delete the rows a failed replacement has inserted (all rows of the
+     * document that were not stored before); returns false if that failed
+     */
+    private boolean removeReplacementRows(Long docId, Long baseId, StoredChunks previous) {
+        try {
+            List<String> inserted = new ArrayList<>();
+            String afterId = null;
+            while (true) {
+                List<RetrievedChunk> page = milvusService.queryDocumentChunkPage(docId, afterId,
+                        STORED_CHUNK_PAGE_SIZE);
+                page.stream()
+                        .map(RetrievedChunk::getId)
+                        .filter(id -> !previous.contains(id))
+                        .forEach(inserted::add);
+                if (page.size() < STORED_CHUNK_PAGE_SIZE) {
+                    break;
+                }
+                afterId = page.get(page.size() - 1).getId();
+            }
+            milvusService.deleteChunksByIds(docId, inserted);
+            retrievalResultCache.bumpVersion(baseId);
+            consistencyPolicy.recordWrite(baseId);
+            return true;
+        } catch (Exception e) {
+            log.error("Failed to remove the rows of a failed replacement of document {}", docId, e);
+            return false;
+        }
+    }
+
+    /**
+     * Turn chunk text into the chunk to store: metadata for retrieval
+     * filtering, sanitized and validated for Milvus. Returns null for chunks
+     * the sanitizer drops.
+     */
+    private org.springframework.ai.document.Document toChunk(String text, int sourceIndex,
+            AtomicInteger chunkIndex, Document document, long baseTimestamp) {
+        Long docId = document.getDocId();
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("source", document.getDocName());
+        // Sanitized content is the trimmed text; its hash keys ChunkEmbeddingCache
+        metadata.put(IngestionEmbeddingService.CHUNK_HASH_KEY, ContentHash.sha256(text.trim()));
+
+        List<String> warnings = new ArrayList<>();
+        org.springframework.ai.document.Document chunk = milvusDocumentSanitizer.sanitizeChunk(
+                new org.springframework.ai.document.Document(text, metadata),
+                sourceIndex,
+                chunkIndex.get(),
+                docId,
+                document.getBaseId(),
+                document.getDocName(),
+                document.getIsEnabled(),
+                baseTimestamp,
+                warnings);
+        if (!warnings.isEmpty()) {
+            log.warn("Milvus payload sanitizer warnings: {}", String.join(" | ", warnings));
+        }
+        if (chunk == null) {
+            return null;
+        }
+
+        List<String> payloadErrors = validateMilvusPayload(List.of(chunk));
+        if (!payloadErrors.isEmpty()) {
+            throw new IllegalStateException(
+                    String.format("Milvus payload 校验失败，docId=%d, fileName=%s, errors=%s",
+                            docId, document.getDocName(), String.join(" | ", payloadErrors)));
+        }
+        chunkIndex.incrementAndGet();
+        return chunk;
+    }
+
+    private void verifyKnowledgeBaseAccess(Long baseId, Long userId) {
+        var knowledgeBase = knowledgeBaseRepository.findById(baseId)
+                .orElseThrow(() -> new ResourceNotFoundException(
+                        "KnowledgeBase not found with id: " + baseId));
+
+        if (!knowledgeBase.getUserId().equals(userId)) {
+            throw new IllegalArgumentException(
+                    "User " + userId + " does not have access to knowledge base " + baseId);
+        }
+    }
+
+    private static void enterStage(IngestionProgress progress, ParseStatus stage, Long docId) {
+        if (!progress.stage(stage)) {
+            throw new CancellationException("Document " + docId + " was deleted during processing");
+        }
+    }
+
+    /**
+     * Chunks stored for a document before its replacement, keyed by
+     * chunkHash. keep() matches the chunks of the new version against them,
+     * once each, preferring a row at the same chunkIndex; a row matched at
+     * another index is recorded in moved(). What is left unmatched is the
+     * old content. Rows stored before chunkHash metadata existed are keyed by
+     * the hash of their content, which is the same thing.
+     */
+    private static final class StoredChunks {
+
+        private record StoredRow(String id, Integer chunkIndex) {
+        }
+
+        private final Set<String> ids = new HashSet<>();
+        private final Map<String, List<StoredRow>> unmatched = new HashMap<>(); // hash -> rows
+        private final Map<String, Integer> moved = new HashMap<>(); // row id -> new chunkIndex
+        private int kept;
+
+        static StoredChunks empty() {
+            return new StoredChunks();
+        }
+
+        void add(RetrievedChunk row) {
+            ids.add(row.getId());
+            unmatched.computeIfAbsent(storedHash(row), hash -> new ArrayList<>(1))
+                    .add(new StoredRow(row.getId(), row.metadata().chunkIndex()));
+        }
+
+        /**
+         * Whether the chunk is already stored (possibly at another index); it
+         * is then matched and must not be inserted again
+         */
+        boolean keep(org.springframework.ai.document.Document chunk) {
+            if (unmatched.isEmpty()) {
+                return false;
+            }
+            Object chunkIndex = chunk.getMetadata().get("chunkIndex");
+            Object hash = chunk.getMetadata().get(IngestionEmbeddingService.CHUNK_HASH_KEY);
+            List<StoredRow> rows = chunkIndex == null || hash == null ? null : unmatched.get(hash.toString());
+            if (rows == null) {
+                return false;
+            }
+            int index = Integer.parseInt(chunkIndex.toString());
+            StoredRow row = rows.stream()
+                    .filter(candidate -> candidate.chunkIndex() != null && candidate.chunkIndex() == index)
+                    .findFirst()
+                    .orElse(rows.get(0));
+            rows.remove(row);
+            if (rows.isEmpty()) {
+                unmatched.remove(hash.toString());
+            }
+            if (row.chunkIndex() == null || row.chunkIndex() != index) {
+                moved.put(row.id(), index);
+            }
+            kept++;
+            return true;
+        }
+
+        int kept() {
+            return kept;
+        }
+
+        boolean contains(String id) {
+            return ids.contains(id);
+        }
+
+        Set<String> ids() {
+            return ids;
+        }
+
+        Map<String, Integer> moved() {
+            return moved;
+        }
+
+        Set<String> unmatchedIds() {
+            Set<String> unmatchedIds = new HashSet<>();
+            unmatched.values().forEach(rows -> rows.forEach(row -> unmatchedIds.add(row.id())));
+            return unmatchedIds;
+        }
+
+        private static String storedHash(RetrievedChunk row) {
+            try {
+                JsonElement hash = JsonParser.parseString(row.getMetadataJson()).getAsJsonObject()
+                        .get(IngestionEmbeddingService.CHUNK_HASH_KEY);
+                if (hash != null && !hash.isJsonNull()) {
+                    return hash.getAsString();
+                }
+            } catch (RuntimeException e) {
+                // Unreadable metadata: fall back to the content
+            }
+            return ContentHash.sha256(row.getContent());
+        }
+    }
+
+    /**
+     * A replaceDocument failed; previousVersionKept tells whether the
+     * document's rows are back to its previous version
+     */
+    public static class ReplacementException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final boolean previousVersionKept;
+
+        public ReplacementException(String message, Throwable cause, boolean previousVersionKept) {
+            super(message, cause);
+            this.previousVersionKept = previousVersionKept;
+        }
+
+        public boolean isPreviousVersionKept() {
+            return previousVersionKept;
+        }
+    }
+
+    /**
+     * Initialize the chunk counters of knowledge bases created before
+     * KnowledgeBase.totalChunks existed from their documents' counters.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void backfillChunkCounters() {
+        int updated = knowledgeBaseRepository.backfillTotalChunks();
+        if (updated > 0) {
+            log.info("Initialized chunk counters of {} knowledge bases", updated);
         }
     }
 
@@ -349,61 +677,6 @@ public class KnowledgeBaseService {
 
     // ====== Payload Probe Helpers ======
 
-    private void logMilvusPayloadProbe(List<org.springframework.ai.document.Document> docs, Long docId,
-            String fileName) {
-        if (!log.isInfoEnabled()) {
-            return;
-        }
-
-        log.info("Milvus payload probe start: docId={}, fileName={}, chunkCount={}",
-                docId, fileName, docs == null ? 0 : docs.size());
-
-        if (docs == null) {
-            log.warn("Milvus payload docs is null");
-            return;
-        }
-
-        for (int i = 0; i < docs.size(); i++) {
-            org.springframework.ai.document.Document d = docs.get(i);
-            if (d == null) {
-                log.warn("payload[{}]: document is null", i);
-                continue;
-            }
-
-            String id = d.getId();
-            String content = d.getText();
-            Map<String, Object> metadata = d.getMetadata();
-
-            boolean idNull = id == null;
-            boolean contentNull = content == null;
-            boolean metadataNull = metadata == null;
-
-            int contentLen = contentNull ? -1 : content.length();
-            int metadataSize = metadataNull ? -1 : metadata.size();
-
-            log.info(
-                    "payload[{}]: idNull={}, contentNull={}, metadataNull={}, contentLen={}, metadataSize={}, idPreview={}",
-                    i, idNull, contentNull, metadataNull, contentLen, metadataSize, safePreview(id, 64));
-
-            if (!metadataNull) {
-                for (Map.Entry<String, Object> entry : metadata.entrySet()) {
-                    String key = entry.getKey();
-                    Object value = entry.getValue();
-                    if (key == null) {
-                        log.warn("payload[{}].metadata has null key", i);
-                    }
-                    if (value == null) {
-                        log.warn("payload[{}].metadata[{}] is null", i, key);
-                    } else if (value instanceof String s && s.trim().isEmpty()) {
-                        log.debug("payload[{}].metadata[{}] is blank string", i, key);
-                    }
-                }
-            }
-        }
-
-        log.info("Milvus payload probe end: docId={}, fileName={}", docId, fileName);
-    }
-
     private List<String> validateMilvusPayload(List<org.springframework.ai.document.Document> docs) {
         List<String> errors = new ArrayList<>();
         if (docs == null) {
@@ -477,15 +750,4 @@ public class KnowledgeBaseService {
 
         return errors;
     }
-
-    private String safePreview(String value, int maxLen) {
-        if (value == null) {
-            return "<null>";
-        }
-        String v = value.replaceAll("\\s+", " ").trim();
-        if (v.length() <= maxLen) {
-            return v;
-        }
-        return v.substring(0, maxLen) + "...";
-    }
 }
@@ -0,0 +1,276 @@
+package com.heu.rag.core.service;
+
+import com.google.gson.Gson;
+import com.heu.rag.core.domain.ChunkMetadata;
+import com.heu.rag.core.domain.Document;
+import com.heu.rag.core.domain.ParseStatus;
+import com.heu.rag.core.domain.RetrievedChunk;
+import com.heu.rag.core.repository.DocumentRepository;
+import com.heu.rag.core.util.Bm25Index;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per knowledge base BM25 indexes (see Bm25Index) for the lexical half of
+ * hybrid retrieval (see HybridSearchService).
+ *
+ * Chunks are indexed when an upload has stored them in the vector store and
+ * dropped when their document or knowledge base is deleted. The indexes live
+ * in memory only: after a restart a knowledge base is rebuilt in the
+ * background from its stored chunks the first time it is searched or
+ * written to, and is searched vector-only until then.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class LexicalIndexService {
+
+    private static final Gson GSON = new Gson();
+
+    private final DocumentRepository documentRepository;
+    private final MilvusService milvusService;
+
+    @Value("${rag.retrieval.hybrid.rebuild-page-size:500}")
+    private int rebuildPageSize;
+
+    private final Map<Long, KnowledgeBaseIndex> indexes = new ConcurrentHashMap<>();
+    private final AtomicLong rebuilds = new AtomicLong();
+    private final AtomicLong rebuildFailures = new AtomicLong();
+    private ExecutorService rebuildExecutor;
+
+    /**
+     * Index of one knowledge base; documents deleted while it is rebuilt are
+     * remembered so the rebuild does not resurrect them.
+     */
+    private static final class KnowledgeBaseIndex {
+        private final Bm25Index index = new Bm25Index();
+        private final Set<Long> removedWhileBuilding = ConcurrentHashMap.newKeySet();
+        private volatile boolean ready;
+    }
+
+    @PostConstruct
+    void startRebuildExecutor() {
+        rebuildExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "lexical-index-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stopRebuildExecutor() {
+        if (rebuildExecutor != null) {
+            rebuildExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Index chunks that have just been stored in the vector store (chunk
+     * metadata as written by KnowledgeBaseService.processDocument) once the
+     * current transaction commits, after the chunks already indexed for
+     * their documents. An upload feeds its chunks batch by batch.
+     */
+    public void addChunks(Long baseId, List<org.springframework.ai.document.Document> chunks) {
+        Map<Long, List<Bm25Index.Chunk>> chunksByDoc = new LinkedHashMap<>();
+        for (org.springframework.ai.document.Document chunk : chunks) {
+            String metadataJson = GSON.toJson(chunk.getMetadata());
+            Bm25Index.Chunk indexed = toIndexChunk(chunk.getId(), chunk.getText(), metadataJson);
+            if (indexed != null) {
+                chunksByDoc.computeIfAbsent(indexed.docId(), id -> new ArrayList<>()).add(indexed);
+            }
+        }
+        afterCommit(() -> {
+            Bm25Index index = indexFor(baseId).index;
+            chunksByDoc.forEach(index::addChunks);
+        });
+    }
+
+    /**
+     * Index a document again from the chunks stored for it in the vector
+     * store, replacing what was indexed for it (after a replacement has
+     * rewritten its rows)
+     */
+    public void reindexDocument(Long baseId, Long docId) {
+        KnowledgeBaseIndex kbIndex = indexFor(baseId);
+        kbIndex.index.putDocument(docId, loadChunks(baseId, docId));
+    }
+
+    /**
+     * Drop a deleted document once the current transaction commits
+     */
+    public void removeDocument(Long baseId, Long docId) {
+        afterCommit(() -> {
+            KnowledgeBaseIndex kbIndex = indexes.get(baseId);
+            if (kbIndex != null) {
+                if (!kbIndex.ready) {
+                    kbIndex.removedWhileBuilding.add(docId);
+                }
+                kbIndex.index.removeDocument(docId);
+            }
+        });
+    }
+
+    /**
+     * Drop the indexes of deleted knowledge bases once the current
+     * transaction commits
+     */
+    public void dropKnowledgeBases(Iterable<Long> baseIds) {
+        afterCommit(() -> baseIds.forEach(indexes::remove));
+    }
+
+    /**
+     * BM25 top-k of a knowledge base, skipping the excluded documents.
+     * Returns null while the index of the knowledge base is not ready yet
+     * (starting its rebuild if needed).
+     */
+    public List<RetrievedChunk> search(Long baseId, String query, int topK, Set<Long> excludedDocIds) {
+        KnowledgeBaseIndex kbIndex = indexFor(baseId);
+        if (!kbIndex.ready) {
+            return null;
+        }
+        List<Bm25Index.Hit> hits = kbIndex.index.search(query, topK, excludedDocIds);
+        List<RetrievedChunk> chunks = new ArrayList<>(hits.size());
+        for (Bm25Index.Hit hit : hits) {
+            Bm25Index.Chunk chunk = hit.chunk();
+            // Lexical hits carry no similarity score
+            chunks.add(new RetrievedChunk(chunk.id(), chunk.content(), 0f, chunk.metadataJson()));
+        }
+        return chunks;
+    }
+
+    public LexicalIndexStats stats() {
+        int ready = 0;
+        int building = 0;
+        long chunks = 0;
+        for (KnowledgeBaseIndex kbIndex : indexes.values()) {
+            if (kbIndex.ready) {
+                ready++;
+            } else {
+                building++;
+            }
+            chunks += kbIndex.index.size();
+        }
+        return new LexicalIndexStats(ready, building, chunks, rebuilds.get(), rebuildFailures.get());
+    }
+
+    /**
+     * Index of a knowledge base, scheduling its rebuild from the vector store
+     * when it is not in memory yet
+     */
+    private KnowledgeBaseIndex indexFor(Long baseId) {
+        return indexes.computeIfAbsent(baseId, id -> {
+            KnowledgeBaseIndex created = new KnowledgeBaseIndex();
+            rebuildExecutor.execute(() -> rebuild(id, created));
+            return created;
+        });
+    }
+
+    private void rebuild(Long baseId, KnowledgeBaseIndex kbIndex) {
+        long start = System.currentTimeMillis();
+        try {
+            int chunks = 0;
+            for (Document document : documentRepository.findByBaseId(baseId)) {
+                Long docId = document.getDocId();
+                // Documents indexed by an upload since the rebuild started are current
+                if (document.getStatus() != ParseStatus.Success || kbIndex.removedWhileBuilding.contains(docId)
+                        || kbIndex.index.containsDocument(docId)) {
+                    continue;
+                }
+                List<Bm25Index.Chunk> docChunks = loadChunks(baseId, docId);
+                if (!kbIndex.removedWhileBuilding.contains(docId) && !kbIndex.index.containsDocument(docId)) {
+                    kbIndex.index.putDocument(docId, docChunks);
+                    chunks += docChunks.size();
+                }
+            }
+            kbIndex.removedWhileBuilding.forEach(kbIndex.index::removeDocument);
+            kbIndex.ready = true;
+            kbIndex.removedWhileBuilding.clear();
+            rebuilds.incrementAndGet();
+            log.info("Rebuilt lexical index of knowledge base {}: {} chunks in {} ms", baseId, chunks,
+                    System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            rebuildFailures.incrementAndGet();
+            // Forget the partial index; the next search retries
+            indexes.remove(baseId, kbIndex);
+            log.error("Failed to rebuild lexical index of knowledge base {}", baseId, e);
+        }
+    }
+
+    private List<Bm25Index.Chunk> loadChunks(Long baseId, Long docId) {
+        List<Bm25Index.Chunk> docChunks = new ArrayList<>();
+        int afterChunkIndex = -1;
+        while (true) {
+            List<RetrievedChunk> page = milvusService.queryChunkPage(docId, baseId, null, afterChunkIndex, 0,
+                    rebuildPageSize);
+            int pageStart = afterChunkIndex;
+            for (RetrievedChunk chunk : page) {
+                // The cursor follows every row read, indexable or not
+                Integer chunkIndex = chunk.metadata().chunkIndex();
+                if (chunkIndex != null) {
+                    afterChunkIndex = Math.max(afterChunkIndex, chunkIndex);
+                }
+                Bm25Index.Chunk indexed = toIndexChunk(chunk.getId(), chunk.getContent(), chunk.getMetadataJson());
+                if (indexed != null) {
+                    docChunks.add(indexed);
+                }
+            }
+            if (page.size() < rebuildPageSize) {
+                return docChunks;
+            }
+            if (afterChunkIndex == pageStart) {
+                // A full page without a chunk index to continue after would be read again forever
+                log.warn("Stopped reading chunks of document {} for the lexical index: a page of {} rows has no "
+                        + "chunk index after {}", docId, page.size(), pageStart);
+                return docChunks;
+            }
+        }
+    }
+
+    private static Bm25Index.Chunk toIndexChunk(String id, String content, String metadataJson) {
+        ChunkMetadata metadata;
+        try {
+            metadata = ChunkMetadata.parse(metadataJson);
+        } catch (Exception e) {
+            log.warn("Skipping chunk {} with unreadable metadata: {}", id, e.getMessage());
+            return null;
+        }
+        if (metadata.docId() == null || metadata.chunkIndex() == null) {
+            return null;
+        }
+        return new Bm25Index.Chunk(id, metadata.docId(), metadata.chunkIndex(), content != null ? content : "",
+                metadataJson);
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    public record LexicalIndexStats(int knowledgeBases, int rebuilding, long chunks, long rebuilds,
+            long rebuildFailures) {
+    }
+}
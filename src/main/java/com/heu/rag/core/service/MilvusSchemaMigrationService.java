@@ -0,0 +1,200 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.config.MilvusSchema;
+import com.heu.rag.core.domain.Document;
+import com.heu.rag.core.domain.RetrievedChunk;
+import com.heu.rag.core.repository.DocumentRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Background copy of the v1 collection (vector_store) into the v2 layout
+ * (vector_store_v2, see MilvusSchema) without re-embedding.
+ *
+ * Enabled with rag.milvus.migration.enabled while v1 is still the active
+ * schema. Documents are walked from Postgres in docId order (new uploads are
+ * appended at the end and picked up by the same run); for each document the
+ * stored vectors are read from v1 in chunk-index windows and inserted into
+ * v2. A document whose v2 row count already matches v1 is skipped, and a
+ * partially copied one is cleared and copied again, so the job can be
+ * restarted at any time. A document fails (and the run ends FAILED) when
+ * either collection cannot be counted or the copy does not add up to the v1
+ * count.
+ *
+ * While the migration is enabled MilvusService mirrors inserts and deletes to
+ * v2, so documents uploaded or replaced after the walk has passed them stay
+ * in step; documents whose mirrored write failed are copied again at the end
+ * of the run. Once it has completed, switch rag.milvus.schema-version to v2.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class MilvusSchemaMigrationService {
+
+    private static final int DOCUMENT_PAGE_SIZE = 100;
+
+    private final DocumentRepository documentRepository;
+    private final MilvusService milvusService;
+    private final MilvusSchema schema;
+
+    @Value("${rag.milvus.migration.enabled:false}")
+    private boolean enabled;
+
+    @Value("${rag.milvus.migration.batch-size:256}")
+    private int batchSize;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.IDLE);
+    private final AtomicLong documentsTotal = new AtomicLong();
+    private final AtomicLong documentsCopied = new AtomicLong();
+    private final AtomicLong documentsSkipped = new AtomicLong();
+    private final AtomicLong documentsFailed = new AtomicLong();
+    private final AtomicLong chunksCopied = new AtomicLong();
+    private volatile String lastError;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "milvus-schema-migration");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startOnReady() {
+        if (!enabled) {
+            return;
+        }
+        if (schema == MilvusSchema.V2) {
+            log.info("Milvus schema v2 is already active, skipping v1 -> v2 migration");
+            return;
+        }
+        start();
+    }
+
+    /**
+     * Start the migration in the background. Returns false if it is already
+     * running.
+     */
+    public boolean start() {
+        if (state.getAndSet(State.RUNNING) == State.RUNNING) {
+            return false;
+        }
+        documentsCopied.set(0);
+        documentsSkipped.set(0);
+        documentsFailed.set(0);
+        chunksCopied.set(0);
+        lastError = null;
+        executor.submit(this::run);
+        return true;
+    }
+
+    public MigrationStats stats() {
+        return new MigrationStats(state.get(), documentsTotal.get(), documentsCopied.get(), documentsSkipped.get(),
+                documentsFailed.get(), chunksCopied.get(), milvusService.unmirroredDocumentCount(), lastError);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void run() {
+        log.info("Starting Milvus schema migration {} -> {}", MilvusSchema.V1.collectionName(),
+                MilvusSchema.V2.collectionName());
+        try {
+            int page = 0;
+            Page<Document> documents;
+            do {
+                documents = documentRepository.findAll(
+                        PageRequest.of(page, DOCUMENT_PAGE_SIZE, Sort.by(Sort.Direction.ASC, "docId")));
+                documentsTotal.set(documents.getTotalElements());
+                for (Document document : documents.getContent()) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedException("Migration interrupted");
+                    }
+                    migrateDocument(document.getDocId());
+                }
+                page++;
+            } while (documents.hasNext());
+
+            // Documents whose mirrored write failed while (or before) the walk passed them
+            for (Long docId : milvusService.drainUnmirroredDocIds()) {
+                migrateDocument(docId);
+            }
+
+            state.set(documentsFailed.get() == 0 ? State.COMPLETED : State.FAILED);
+            log.info("Milvus schema migration finished: {}", stats());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            lastError = e.getMessage();
+            state.set(State.FAILED);
+        } catch (Exception e) {
+            log.error("Milvus schema migration failed", e);
+            lastError = e.getMessage();
+            state.set(State.FAILED);
+        }
+    }
+
+    private void migrateDocument(Long docId) {
+        try {
+            // Counts throw when Milvus cannot answer, failing the document
+            long sourceCount = milvusService.countChunksByDocId(MilvusSchema.V1, docId);
+            long targetCount = milvusService.countChunksByDocId(MilvusSchema.V2, docId);
+            if (targetCount >= sourceCount) {
+                documentsSkipped.incrementAndGet();
+                return;
+            }
+            if (targetCount > 0) {
+                // Partially copied by an interrupted run
+                milvusService.deleteChunksByDocId(MilvusSchema.V2, docId);
+            }
+
+            // Chunk indexes are assigned densely from 0, so the windows up to
+            // sourceCount cover the whole document whatever its size
+            long copied = 0;
+            for (int from = 0; from < sourceCount; from += batchSize) {
+                List<RetrievedChunk> chunks = milvusService.queryChunksWithVectors(MilvusSchema.V1, docId, from,
+                        batchSize);
+                copied += milvusService.insertChunks(MilvusSchema.V2, chunks);
+            }
+            if (copied != sourceCount) {
+                // Left to the next run, which finds v2 short and copies again
+                milvusService.deleteChunksByDocId(MilvusSchema.V2, docId);
+                throw new IllegalStateException(String.format(
+                        "copied %d of %d chunks (chunk indexes not contiguous or document changed)", copied,
+                        sourceCount));
+            }
+
+            chunksCopied.addAndGet(copied);
+            documentsCopied.incrementAndGet();
+            log.debug("Migrated {} chunks of document {}", copied, docId);
+        } catch (Exception e) {
+            documentsFailed.incrementAndGet();
+            lastError = "docId=" + docId + ": " + e.getMessage();
+            log.error("Failed to migrate chunks of document {}", docId, e);
+        }
+    }
+
+    public enum State {
+        IDLE,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    public record MigrationStats(State state, long documentsTotal, long documentsCopied, long documentsSkipped,
+            long documentsFailed, long chunksCopied, long documentsPendingResync, String lastError) {
+    }
+}
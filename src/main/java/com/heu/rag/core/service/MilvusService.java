@@ -1,17 +1,24 @@
 package com.heu.rag.core.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.heu.rag.config.MilvusClientPool;
+import com.heu.rag.config.MilvusSchema;
+import com.heu.rag.config.SnowflakeIdGenerator;
+import com.heu.rag.config.VectorIndexSettings;
+import com.heu.rag.core.domain.RetrievedChunk;
+import com.heu.rag.core.util.MilvusResultDecoder;
 import io.milvus.client.MilvusServiceClient;
-import io.milvus.common.clientenum.ConsistencyLevelEnum;
-import io.milvus.param.ConnectParam;
+import io.milvus.grpc.MutationResult;
+import io.milvus.grpc.QueryResults;
+import io.milvus.grpc.SearchResults;
 import io.milvus.param.R;
-import io.milvus.param.collection.LoadCollectionParam;
 import io.milvus.param.dml.DeleteParam;
+import io.milvus.param.dml.InsertParam;
 import io.milvus.param.dml.QueryParam;
 import io.milvus.param.dml.SearchParam;
-import io.milvus.response.QueryResultsWrapper;
-import io.milvus.response.SearchResultsWrapper;
+import io.milvus.param.dml.UpsertParam;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
@@ -20,44 +27,60 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Service for direct Milvus operations with metadata filtering support.
  * Provides methods for querying and deleting vectors by metadata (baseId,
  * docId).
+ * Milvus clients are borrowed from the shared MilvusClientPool instead of
+ * being created per call; responses are decoded by MilvusResultDecoder.
+ * With rag.vector.backend=embedded the non-migration operations are served
+ * by the in-process EmbeddedVectorStore instead.
  */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class MilvusService {
 
-    private static final String COLLECTION_NAME = "vector_store";
-    private static final String ID_FIELD = "id";
-    private static final String CONTENT_FIELD = "content";
-    private static final String VECTOR_FIELD = "embedding";
-    private static final String METADATA_FIELD = "metadata_json";
+    private static final String ID_FIELD = MilvusSchema.ID_FIELD;
+    private static final String CONTENT_FIELD = MilvusSchema.CONTENT_FIELD;
+    private static final String VECTOR_FIELD = MilvusSchema.VECTOR_FIELD;
+    private static final String METADATA_FIELD = MilvusSchema.METADATA_FIELD;
+    private static final String VECTOR_REDUCED_FIELD = MilvusSchema.VECTOR_REDUCED_FIELD;
+    // Milvus caps topK (and offset + limit) at 16384
+    private static final int MAX_TOP_K = 16384;
+    private static final int INSERT_BATCH_SIZE = 256;
+    private static final Gson GSON = new Gson();
     private static final int SEARCH_RETRY_ATTEMPTS = 3;
     private static final long RETRY_BACKOFF_MS = 500L;
 
-    @Value("${spring.ai.vectorstore.milvus.client.host:localhost}")
-    private String milvusHost;
+    private final QueryEmbeddingCache queryEmbeddingCache;
+    private final RetrievalResultCache retrievalResultCache;
+    private final MilvusClientPool milvusClientPool;
+    private final CollectionLoadStateTracker loadStateTracker;
+    private final ConsistencyPolicy consistencyPolicy;
+    private final MilvusSchema schema;
+    private final VectorIndexSettings vectorIndexSettings;
+    private final EmbeddingModel embeddingModel;
+    private final SnowflakeIdGenerator snowflakeIdGenerator;
+    private final VectorReductionService vectorReductionService;
+    private final VectorTombstoneService tombstoneService;
+    private final DisabledDocumentRegistry disabledDocumentRegistry;
+    private final EmbeddedVectorStore embeddedVectorStore;
 
-    @Value("${spring.ai.vectorstore.milvus.client.port:19530}")
-    private int milvusPort;
+    @Value("${rag.retrieval.range-search.enabled:true}")
+    private boolean rangeSearchEnabled;
 
-    private final EmbeddingModel embeddingModel;
-    private final ObjectMapper objectMapper;
+    // While the v1 -> v2 migration is enabled, inserts and deletes are mirrored to v2
+    @Value("${rag.milvus.migration.enabled:false}")
+    private boolean migrationEnabled;
 
-    /**
-     * Create Milvus client instance
-     */
-    private MilvusServiceClient createClient() {
-        return new MilvusServiceClient(
-                ConnectParam.newBuilder()
-                        .withHost(milvusHost)
-                        .withPort(milvusPort)
-                        .build());
-    }
+    // Documents whose v2 copy could not be kept in step; copied again by the migration
+    private final Set<Long> unmirroredDocIds = ConcurrentHashMap.newKeySet();
+
+    // Documents being replaced: which of their rows retrieval returns (see showOnlyRows)
+    private final Map<Long, RowVisibility> rowVisibility = new ConcurrentHashMap<>();
 
     /**
      * Search similar documents by query text with baseId filter (for RAG retrieval)
@@ -66,153 +89,530 @@ public class MilvusService {
      * @param baseId    The knowledge base ID to filter by (required)
      * @param topK      Number of results to return
      * @param threshold Similarity threshold (0.0-1.0)
-     * @return List of similar documents
+     * @return List of similar chunks, best first
+     */
+    public List<RetrievedChunk> similaritySearchWithBaseId(String query, Long baseId, int topK, double threshold) {
+        return tieredSearchWithBaseId(query, baseId, topK, threshold, threshold);
+    }
+
+    /**
+     * Single-pass tiered retrieval: one embedding and one Milvus range search
+     * down to the fallback threshold, split client-side by score tier.
+     * Returns the hits scoring at least {@code threshold}; if there are none,
+     * the hits scoring at least {@code fallbackThreshold}. This is equivalent to
+     * a topK search at {@code threshold} followed by a second topK search at
+     * {@code fallbackThreshold} when the first one comes back empty, because
+     * both tiers are cut from the same topK nearest neighbours.
+     *
+     * @param query             The query text
+     * @param baseId            The knowledge base ID to filter by (required)
+     * @param topK              Number of results to return
+     * @param threshold         Primary similarity threshold (0.0-1.0)
+     * @param fallbackThreshold Threshold used when nothing passes the primary one
+     * @return List of similar chunks, best first
+     */
+    public List<RetrievedChunk> tieredSearchWithBaseId(String query, Long baseId, int topK, double threshold,
+            double fallbackThreshold) {
+        return tieredSearchWithBaseId(query, baseId, topK, threshold, fallbackThreshold, false);
+    }
+
+    /**
+     * Tiered retrieval that can also return the stored embedding of every hit
+     * (see RetrievedChunk.getEmbedding()), e.g. for MMR diversity selection.
+     */
+    public List<RetrievedChunk> tieredSearchWithBaseId(String query, Long baseId, int topK, double threshold,
+            double fallbackThreshold, boolean withVectors) {
+        double minScore = Math.min(threshold, fallbackThreshold);
+        List<RetrievedChunk> candidates = searchWithBaseId(query, baseId, topK, minScore, withVectors);
+        if (minScore >= threshold) {
+            return candidates;
+        }
+
+        // Hits are sorted by score, so the primary tier is a prefix
+        int primaryCount = 0;
+        while (primaryCount < candidates.size() && candidates.get(primaryCount).getScore() >= threshold) {
+            primaryCount++;
+        }
+        if (primaryCount > 0) {
+            return new ArrayList<>(candidates.subList(0, primaryCount));
+        }
+        if (!candidates.isEmpty()) {
+            log.info("No chunk passed similarity threshold {}, using {} chunks above fallback threshold {}",
+                    threshold, candidates.size(), fallbackThreshold);
+        }
+        return candidates;
+    }
+
+    /**
+     * topK search returning only hits scoring at least {@code minScore}. With
+     * range search enabled the score bound is applied by Milvus (radius), so
+     * below-threshold rows are never returned.
      */
-    public List<Document> similaritySearchWithBaseId(String query, Long baseId, int topK, double threshold) {
-        log.info("Searching similar documents: query={}, baseId={}, topK={}, threshold={}",
-                query, baseId, topK, threshold);
+    private List<RetrievedChunk> searchWithBaseId(String query, Long baseId, int topK, double minScore,
+            boolean withVectors) {
+        log.info("Searching similar documents: query={}, baseId={}, topK={}, minScore={}",
+                query, baseId, topK, minScore);
 
-        MilvusServiceClient client = null;
         try {
-            client = createClient();
-
-            // 1. Generate embedding for query text
-            // EmbeddingModel.embed() returns List<Double> or float[]
-            Object embeddingResult = embeddingModel.embed(query);
-            List<Float> queryVector = new ArrayList<>();
-
-            if (embeddingResult instanceof List) {
-                @SuppressWarnings("unchecked")
-                List<Double> embeddingList = (List<Double>) embeddingResult;
-                queryVector = new ArrayList<>(embeddingList.size());
-                for (Double d : embeddingList) {
-                    queryVector.add(d.floatValue());
+            // 1. Generate embedding for query text (served from QueryEmbeddingCache for
+            // repeated queries; computed before borrowing a pooled client, so a slow
+            // embedding call does not hold a Milvus connection)
+            float[] embedding = queryEmbeddingCache.embed(query);
+
+            // Serve popular questions from the per-KB versioned result cache
+            // (cached hits carry no embeddings; those of the returned hits are
+            // fetched by id when requested)
+            RetrievalResultCache.Key cacheKey = retrievalResultCache.keyFor(baseId, embedding, topK, minScore);
+            List<RetrievedChunk> cachedChunks = retrievalResultCache.get(cacheKey);
+            if (cachedChunks != null) {
+                log.info("Found {} similar documents in retrieval cache (baseId={})", cachedChunks.size(), baseId);
+                return withVectors ? withStoredVectors(baseId, cachedChunks) : cachedChunks;
+            }
+
+            List<RetrievedChunk> chunks = searchVectors(baseId, List.of(embedding), topK, minScore, withVectors)
+                    .get(0);
+
+            log.info("Found {} similar documents after filtering", chunks.size());
+            retrievalResultCache.put(cacheKey, chunks);
+            return chunks;
+
+        } catch (Exception e) {
+            log.error("Error in similarity search with baseId filter", e);
+            throw new RuntimeException("Failed to search similar documents", e);
+        }
+    }
+
+    /**
+     * Batched retrieval: embeds all queries in one EmbeddingModel call (cache
+     * misses only) and sends them as a single multi-vector Milvus search
+     * (result-cache misses only).
+     *
+     * @param queries   The query texts
+     * @param baseId    The knowledge base ID to filter by (required)
+     * @param topK      Number of results per query
+     * @param threshold Similarity threshold (0.0-1.0)
+     * @return One ranked list per query, in query order
+     */
+    public List<List<RetrievedChunk>> batchSimilaritySearchWithBaseId(List<String> queries, Long baseId, int topK,
+            double threshold) {
+        log.info("Batch searching similar documents: queries={}, baseId={}, topK={}, threshold={}",
+                queries.size(), baseId, topK, threshold);
+        if (queries.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        try {
+            List<float[]> embeddings = queryEmbeddingCache.embedAll(queries);
+
+            List<List<RetrievedChunk>> results = new ArrayList<>(Collections.nCopies(queries.size(), null));
+            List<RetrievalResultCache.Key> missKeys = new ArrayList<>();
+            List<Integer> missIndexes = new ArrayList<>();
+            List<float[]> missEmbeddings = new ArrayList<>();
+            for (int i = 0; i < queries.size(); i++) {
+                RetrievalResultCache.Key cacheKey = retrievalResultCache.keyFor(baseId, embeddings.get(i), topK,
+                        threshold);
+                List<RetrievedChunk> cachedChunks = retrievalResultCache.get(cacheKey);
+                if (cachedChunks != null) {
+                    results.set(i, cachedChunks);
+                } else {
+                    missKeys.add(cacheKey);
+                    missIndexes.add(i);
+                    missEmbeddings.add(embeddings.get(i));
                 }
-            } else if (embeddingResult instanceof float[]) {
-                float[] embeddingArray = (float[]) embeddingResult;
-                queryVector = new ArrayList<>(embeddingArray.length);
-                for (float f : embeddingArray) {
-                    queryVector.add(f);
+            }
+
+            if (!missEmbeddings.isEmpty()) {
+                List<List<RetrievedChunk>> searched = searchVectors(baseId, missEmbeddings, topK, threshold, false);
+                for (int i = 0; i < searched.size(); i++) {
+                    results.set(missIndexes.get(i), searched.get(i));
+                    retrievalResultCache.put(missKeys.get(i), searched.get(i));
                 }
+            }
+
+            log.info("Batch search answered {} queries ({} from retrieval cache)", queries.size(),
+                    queries.size() - missEmbeddings.size());
+            return results;
+
+        } catch (Exception e) {
+            log.error("Error in batch similarity search with baseId filter", e);
+            throw new RuntimeException("Failed to search similar documents", e);
+        }
+    }
+
+    /**
+     * One Milvus search for all query vectors; returns one ranked list per
+     * vector, each containing only hits scoring at least {@code minScore}.
+     *
+     * With dimension reduction active (see VectorReductionService) the
+     * projected query vectors are searched against the reduced field for
+     * rescore-factor x topK candidates, which are then rescored with exact
+     * cosine against their full embeddings. Reduced-space scores are not
+     * comparable to full ones, so no range search is used in that case.
+     *
+     * @param withVectors Also return the stored (full) embedding of each hit
+     */
+    private List<List<RetrievedChunk>> searchVectors(Long baseId, List<float[]> embeddings, int topK,
+            double minScore, boolean withVectors) {
+        if (tombstoneService.isKnowledgeBaseDeleted(baseId)) {
+            List<List<RetrievedChunk>> empty = new ArrayList<>(embeddings.size());
+            embeddings.forEach(embedding -> empty.add(new ArrayList<>()));
+            return empty;
+        }
+        if (embeddedVectorStore.isActive()) {
+            List<List<RetrievedChunk>> results = embeddedVectorStore.search(baseId, embeddings, topK, minScore,
+                    excludedDocIds(baseId), 0, withVectors);
+            results.replaceAll(this::visibleRows);
+            return results;
+        }
+        boolean reduced = vectorReductionService.isActiveFor(schema);
+        int candidateK = reduced ? Math.min(topK * vectorReductionService.getRescoreFactor(), MAX_TOP_K) : topK;
+
+        List<List<Float>> queryVectors = new ArrayList<>(embeddings.size());
+        for (float[] embedding : embeddings) {
+            queryVectors.add(toFloatList(reduced ? vectorReductionService.projectQuery(embedding) : embedding));
+        }
+
+        // 2. Build filter expression for baseId (JSON path comparison on v1,
+        // partition-key field on v2; see MilvusSchema) excluding disabled and
+        // tombstoned documents
+        String filterExpr = retrievalFilter(baseId);
+
+        // 3. Build search parameters
+        SearchParam searchParam = SearchParam.newBuilder()
+                .withCollectionName(schema.collectionName())
+                .withMetricType(io.milvus.param.MetricType.COSINE)
+                .withOutFields(reduced || withVectors
+                        ? Arrays.asList(ID_FIELD, CONTENT_FIELD, METADATA_FIELD, VECTOR_FIELD)
+                        : Arrays.asList(ID_FIELD, CONTENT_FIELD, METADATA_FIELD))
+                .withTopK(candidateK)
+                .withFloatVectors(queryVectors)
+                .withVectorFieldName(reduced ? VECTOR_REDUCED_FIELD : VECTOR_FIELD)
+                .withExpr(filterExpr)
+                .withConsistencyLevel(consistencyPolicy.forRetrieval(baseId))
+                .withParams(reduced ? GSON.toJson(vectorIndexSettings.searchParams(candidateK))
+                        : searchParams(topK, minScore))
+                .build();
+
+        // 4. Execute search (auto load collection and retry if needed)
+        R<SearchResults> searchResult = milvusClientPool
+                .execute(client -> executeSearchWithAutoLoad(client, searchParam));
+
+        if (searchResult.getStatus() != R.Status.Success.getCode()) {
+            log.error("Milvus search failed: {}", searchResult.getMessage());
+            throw new RuntimeException("Milvus search failed: " + searchResult.getMessage());
+        }
+
+        // 5. Decode results per query (hits of query i follow those of queries 0..i-1);
+        // hits below minScore are skipped before decoding (only needed when range
+        // search is disabled)
+        List<List<RetrievedChunk>> results = new ArrayList<>(embeddings.size());
+        for (int i = 0; i < embeddings.size(); i++) {
+            if (searchResult.getData() == null) {
+                results.add(new ArrayList<>());
+                continue;
+            }
+            if (reduced) {
+                List<RetrievedChunk> candidates = MilvusResultDecoder.decodeSearch(
+                        searchResult.getData().getResults(), i, -1.0, CONTENT_FIELD, METADATA_FIELD, VECTOR_FIELD);
+                results.add(rescore(candidates, embeddings.get(i), topK, minScore, withVectors));
             } else {
-                throw new RuntimeException("Unsupported embedding result type: " + embeddingResult.getClass());
+                results.add(MilvusResultDecoder.decodeSearch(searchResult.getData().getResults(), i, minScore,
+                        CONTENT_FIELD, METADATA_FIELD, withVectors ? VECTOR_FIELD : null));
             }
+        }
+        results.replaceAll(this::visibleRows);
+        return results;
+    }
 
-            // 2. Build filter expression: JSON path query for baseId and isEnabled in
-            // metadata_json
-            // Milvus JSON field query syntax: JSON_EXTRACT(metadata_json, '$.baseId') ==
-            // 'baseId'
-            // Only retrieve chunks from enabled documents (isEnabled == 'true')
-            String filterExpr = String.format(
-                    "%s[\"baseId\"] == \"%s\" && %s[\"isEnabled\"] == \"true\"",
-                    METADATA_FIELD, baseId, METADATA_FIELD);
-
-            // 3. Build search parameters
-            SearchParam searchParam = SearchParam.newBuilder()
-                    .withCollectionName(COLLECTION_NAME)
-                    .withMetricType(io.milvus.param.MetricType.COSINE)
-                    .withOutFields(Arrays.asList(ID_FIELD, CONTENT_FIELD, METADATA_FIELD))
-                    .withTopK(topK)
-                    .withVectors(Collections.singletonList(queryVector))
-                    .withVectorFieldName(VECTOR_FIELD)
-                    .withExpr(filterExpr)
-                    .withConsistencyLevel(ConsistencyLevelEnum.STRONG)
+    /**
+     * The hits with their stored (full) embeddings attached, read by id; hits
+     * whose row is gone keep none (DiversitySelector then compares their
+     * terms instead).
+     */
+    private List<RetrievedChunk> withStoredVectors(Long baseId, List<RetrievedChunk> hits) {
+        if (hits.isEmpty()) {
+            return hits;
+        }
+        Map<String, float[]> vectors = new HashMap<>();
+        if (embeddedVectorStore.isActive()) {
+            Map<Long, List<String>> idsByDoc = new LinkedHashMap<>();
+            for (RetrievedChunk hit : hits) {
+                idsByDoc.computeIfAbsent(hit.metadata().docId(), docId -> new ArrayList<>()).add(hit.getId());
+            }
+            idsByDoc.forEach((docId, ids) -> vectors.putAll(embeddedVectorStore.vectors(docId, ids)));
+        } else {
+            QueryParam queryParam = QueryParam.newBuilder()
+                    .withCollectionName(schema.collectionName())
+                    .withExpr(schema.idsFilter(hits.stream().map(RetrievedChunk::getId).toList()))
+                    .withOutFields(Arrays.asList(ID_FIELD, VECTOR_FIELD))
+                    .withLimit((long) hits.size())
+                    .withConsistencyLevel(consistencyPolicy.forRetrieval(baseId))
                     .build();
+            R<QueryResults> queryResult = milvusClientPool.execute(client -> {
+                loadStateTracker.ensureLoaded(client, schema.collectionName());
+                return client.query(queryParam);
+            });
+            if (queryResult.getStatus() != R.Status.Success.getCode()) {
+                throw new RuntimeException("Milvus query failed: " + queryResult.getMessage());
+            }
+            for (RetrievedChunk row : MilvusResultDecoder.decodeQuery(queryResult.getData(), ID_FIELD, null, null,
+                    VECTOR_FIELD)) {
+                vectors.put(row.getId(), row.getEmbedding());
+            }
+        }
+        List<RetrievedChunk> withVectors = new ArrayList<>(hits.size());
+        for (RetrievedChunk hit : hits) {
+            withVectors.add(new RetrievedChunk(hit.getId(), hit.getContent(), hit.getScore(), hit.getMetadataJson(),
+                    vectors.get(hit.getId())));
+        }
+        return withVectors;
+    }
+
+    /**
+     * Restrict retrieval of a document to the given rows (its current
+     * version) while a replacement inserts the rows of the next one, so the
+     * two versions are never returned together: their chunks share
+     * docId:chunkIndex keys (see HybridSearchService). Affected searches
+     * return fewer than topK hits meanwhile.
+     */
+    public void showOnlyRows(Long docId, Set<String> rowIds) {
+        rowVisibility.put(docId, new RowVisibility(Set.copyOf(rowIds), true));
+    }
 
-            // 4. Execute search (auto load collection and retry if needed)
-            R<?> searchResult = executeSearchWithAutoLoad(client, searchParam);
+    /**
+     * Hide the given rows of a document from retrieval (the rows a completed
+     * replacement no longer has, until they are deleted)
+     */
+    public void hideRows(Long docId, Set<String> rowIds) {
+        rowVisibility.put(docId, new RowVisibility(Set.copyOf(rowIds), false));
+    }
+
+    /**
+     * Return all rows of a document to retrieval again
+     */
+    public void clearRowVisibility(Long docId) {
+        rowVisibility.remove(docId);
+    }
 
-            if (searchResult.getStatus() != R.Status.Success.getCode()) {
-                log.error("Milvus search failed: {}", searchResult.getMessage());
-                throw new RuntimeException("Milvus search failed: " + searchResult.getMessage());
+    private List<RetrievedChunk> visibleRows(List<RetrievedChunk> hits) {
+        if (rowVisibility.isEmpty()) {
+            return hits;
+        }
+        List<RetrievedChunk> visible = new ArrayList<>(hits.size());
+        for (RetrievedChunk hit : hits) {
+            // Rows without docId metadata (legacy v1 rows) are never under replacement
+            Long docId = hit.metadata().docId();
+            RowVisibility rows = docId != null ? rowVisibility.get(docId) : null;
+            if (rows == null || rows.rowIds().contains(hit.getId()) == rows.shown()) {
+                visible.add(hit);
             }
+        }
+        return visible;
+    }
 
-            // 5. Parse results - use reflection to handle type safely
-            Object searchData = searchResult.getData();
-            if (searchData == null) {
-                log.warn("Search returned null data");
-                return new ArrayList<>();
+    /**
+     * Hits of the lexical index (see HybridSearchService) that vector search
+     * could also return: none of a deleted knowledge base or of an excluded
+     * document, and of a document under replacement only rows its current
+     * version explicitly shows. Once the new version is switched in, the
+     * lexical index still holds the previous one until the replacement
+     * reindexes it, so its hits of that document are dropped meanwhile.
+     */
+    public List<RetrievedChunk> retrievableRows(Long baseId, List<RetrievedChunk> hits) {
+        if (tombstoneService.isKnowledgeBaseDeleted(baseId)) {
+            return new ArrayList<>();
+        }
+        Set<Long> excluded = excludedDocIds(baseId);
+        List<RetrievedChunk> retrievable = new ArrayList<>(hits.size());
+        for (RetrievedChunk hit : hits) {
+            Long docId = hit.metadata().docId();
+            if (docId != null && excluded.contains(docId)) {
+                continue;
+            }
+            RowVisibility rows = docId != null ? rowVisibility.get(docId) : null;
+            if (rows == null || rows.shown() && rows.rowIds().contains(hit.getId())) {
+                retrievable.add(hit);
             }
+        }
+        return retrievable;
+    }
 
-            // Get results field using reflection and create wrapper
-            SearchResultsWrapper wrapper;
-            try {
-                java.lang.reflect.Method getResultsMethod = searchData.getClass().getMethod("getResults");
-                Object results = getResultsMethod.invoke(searchData);
-                // SearchResultsWrapper constructor takes SearchResultsData
-                @SuppressWarnings("unchecked")
-                java.lang.reflect.Constructor<SearchResultsWrapper> constructor = (java.lang.reflect.Constructor<SearchResultsWrapper>) SearchResultsWrapper.class
-                        .getDeclaredConstructor(results.getClass());
-                wrapper = constructor.newInstance(results);
-            } catch (Exception e) {
-                log.error("Failed to parse search results using reflection: {}", e.getMessage(), e);
-                log.error("Search data type: {}, available methods: {}",
-                        searchData.getClass().getName(),
-                        Arrays.toString(searchData.getClass().getMethods()));
-                // If reflection fails, we cannot construct the wrapper
-                // Return empty list as fallback
-                return new ArrayList<>();
+    /**
+     * Rows of a document retrieval returns (shown) or skips (not shown)
+     */
+    private record RowVisibility(Set<String> rowIds, boolean shown) {
+    }
+
+    /**
+     * Exact cosine rescoring of reduced-space candidates against the full
+     * query vector; keeps the best topK scoring at least {@code minScore} and
+     * drops the candidate vectors unless {@code keepVectors}.
+     */
+    private static List<RetrievedChunk> rescore(List<RetrievedChunk> candidates, float[] query, int topK,
+            double minScore, boolean keepVectors) {
+        double queryNorm = norm(query);
+        List<RetrievedChunk> rescored = new ArrayList<>(candidates.size());
+        for (RetrievedChunk candidate : candidates) {
+            float[] vector = candidate.getEmbedding();
+            if (vector == null || vector.length != query.length) {
+                continue;
+            }
+            double dot = 0;
+            for (int i = 0; i < vector.length; i++) {
+                dot += query[i] * vector[i];
+            }
+            double denominator = queryNorm * norm(vector);
+            float score = denominator == 0 ? 0f : (float) (dot / denominator);
+            if (score >= minScore) {
+                rescored.add(new RetrievedChunk(candidate.getId(), candidate.getContent(), score,
+                        candidate.getMetadataJson(), keepVectors ? vector : null));
             }
-            List<Document> documents = new ArrayList<>();
+        }
+        rescored.sort(Comparator.comparingDouble(RetrievedChunk::getScore).reversed());
+        return rescored.size() > topK ? new ArrayList<>(rescored.subList(0, topK)) : rescored;
+    }
 
-            List<SearchResultsWrapper.IDScore> idScores = wrapper.getIDScore(0);
-            for (int i = 0; i < idScores.size(); i++) {
-                SearchResultsWrapper.IDScore idScore = idScores.get(i);
-                float score = idScore.getScore();
+    private static double norm(float[] vector) {
+        double sum = 0;
+        for (float value : vector) {
+            sum += value * value;
+        }
+        return Math.sqrt(sum);
+    }
 
-                // Apply similarity threshold
-                if (score < threshold) {
-                    continue;
-                }
+    private static List<Float> toFloatList(float[] vector) {
+        List<Float> values = new ArrayList<>(vector.length);
+        for (float f : vector) {
+            values.add(f);
+        }
+        return values;
+    }
 
-                String id = idScore.getStrID();
-                Object contentObj = wrapper.getFieldWrapper(CONTENT_FIELD).getFieldData().get(i);
-                String content = contentObj != null ? contentObj.toString() : "";
-
-                // Parse metadata from JSON
-                Map<String, Object> metadata = new HashMap<>();
-                try {
-                    Object metadataObj = wrapper.getFieldWrapper(METADATA_FIELD).getFieldData().get(i);
-                    if (metadataObj != null) {
-                        String metadataJson = metadataObj.toString();
-                        metadata = objectMapper.readValue(metadataJson, new TypeReference<Map<String, Object>>() {
-                        });
-                    }
-                } catch (Exception e) {
-                    log.warn("Failed to parse metadata for chunk {}: {}", id, e.getMessage());
-                }
+    /**
+     * Search params: nprobe/ef of the index profile (see VectorIndexSettings)
+     * plus, for a COSINE range search, radius/range_filter returning scores in
+     * (minScore, 1.0]. Milvus treats radius as exclusive; the decoder still
+     * applies minScore, so an exact tie is the only difference.
+     */
+    private String searchParams(int topK, double minScore) {
+        Map<String, Object> params = new LinkedHashMap<>(vectorIndexSettings.searchParams(topK));
+        if (rangeSearchEnabled && minScore > -1.0) {
+            params.put("radius", minScore);
+            params.put("range_filter", 1.0);
+        }
+        return GSON.toJson(params);
+    }
 
-                Document doc = new Document(id, content, metadata);
-                documents.add(doc);
-            }
+    /**
+     * Plain topK vector search over the enabled chunks of a knowledge base with
+     * an explicit search width (nprobe for IVF profiles, ef for HNSW). Returns
+     * ids and scores only; no caching, STRONG consistency. Used by the index
+     * benchmark. With dimension reduction active the reduced-space candidates
+     * are rescored like in retrieval, so recall includes the rescoring step.
+     */
+    public List<RetrievedChunk> searchIdsByVector(Long baseId, float[] vector, int topK, int searchWidth) {
+        if (embeddedVectorStore.isActive()) {
+            return embeddedVectorStore.search(baseId, List.of(vector), topK, -1.0, excludedDocIds(baseId),
+                    searchWidth, false).get(0);
+        }
+        boolean reduced = vectorReductionService.isActiveFor(schema);
+        int candidateK = reduced ? Math.min(topK * vectorReductionService.getRescoreFactor(), MAX_TOP_K) : topK;
+        SearchParam.Builder searchBuilder = SearchParam.newBuilder()
+                .withCollectionName(schema.collectionName())
+                .withMetricType(io.milvus.param.MetricType.COSINE)
+                .withTopK(candidateK)
+                .withFloatVectors(Collections.singletonList(
+                        toFloatList(reduced ? vectorReductionService.projectQuery(vector) : vector)))
+                .withVectorFieldName(reduced ? VECTOR_REDUCED_FIELD : VECTOR_FIELD)
+                .withExpr(retrievalFilter(baseId))
+                .withConsistencyLevel(consistencyPolicy.strong())
+                .withParams(GSON.toJson(vectorIndexSettings.searchParams(candidateK, searchWidth)));
+        if (reduced) {
+            searchBuilder.withOutFields(Collections.singletonList(VECTOR_FIELD));
+        }
+        SearchParam searchParam = searchBuilder.build();
 
-            log.info("Found {} similar documents after filtering", documents.size());
-            return documents;
+        R<SearchResults> searchResult = milvusClientPool
+                .execute(client -> executeSearchWithAutoLoad(client, searchParam));
+        if (searchResult.getStatus() != R.Status.Success.getCode()) {
+            throw new RuntimeException("Milvus search failed: " + searchResult.getMessage());
+        }
+        if (reduced) {
+            return rescore(MilvusResultDecoder.decodeSearch(searchResult.getData().getResults(), 0, -1.0, null, null,
+                    VECTOR_FIELD), vector, topK, -1.0, false);
+        }
+        return MilvusResultDecoder.decodeSearch(searchResult.getData().getResults(), 0, -1.0, null, null);
+    }
 
-        } catch (Exception e) {
-            log.error("Error in similarity search with baseId filter", e);
-            throw new RuntimeException("Failed to search similar documents", e);
-        } finally {
-            if (client != null) {
-                try {
-                    client.close();
-                } catch (Exception e) {
-                    log.warn("Error closing Milvus client", e);
-                }
-            }
+    /**
+     * Retrieval filter of a knowledge base minus its excluded documents
+     */
+    private String retrievalFilter(Long baseId) {
+        return schema.retrievalFilter(baseId, excludedDocIds(baseId));
+    }
+
+    /**
+     * Documents of a knowledge base excluded from retrieval: disabled ones
+     * (see DisabledDocumentRegistry) and tombstoned ones, whose vectors may
+     * not be deleted yet (see VectorTombstoneService).
+     */
+    public Set<Long> excludedDocIds(Long baseId) {
+        Set<Long> disabled = disabledDocumentRegistry.disabledDocIds(baseId);
+        Set<Long> deleted = tombstoneService.deletedDocIds(baseId);
+        if (deleted.isEmpty()) {
+            return disabled;
         }
+        Set<Long> excluded = new HashSet<>(disabled);
+        excluded.addAll(deleted);
+        return excluded;
+    }
+
+    /**
+     * Read the enabled chunks of a knowledge base with their stored
+     * embeddings, ordered by primary key (brute-force ground truth for the
+     * index benchmark).
+     */
+    public List<RetrievedChunk> queryVectorsByBaseId(Long baseId, long offset, long limit) {
+        if (embeddedVectorStore.isActive()) {
+            return embeddedVectorStore.queryVectors(baseId, excludedDocIds(baseId), offset, limit);
+        }
+        QueryParam queryParam = QueryParam.newBuilder()
+                .withCollectionName(schema.collectionName())
+                .withExpr(retrievalFilter(baseId))
+                .withOutFields(Arrays.asList(ID_FIELD, VECTOR_FIELD))
+                .withOffset(offset)
+                .withLimit(limit)
+                .withConsistencyLevel(consistencyPolicy.strong())
+                .build();
+
+        R<QueryResults> queryResult = milvusClientPool.execute(client -> {
+            loadStateTracker.ensureLoaded(client, schema.collectionName());
+            return client.query(queryParam);
+        });
+        if (queryResult.getStatus() != R.Status.Success.getCode()) {
+            throw new RuntimeException("Milvus query failed: " + queryResult.getMessage());
+        }
+        return MilvusResultDecoder.decodeQuery(queryResult.getData(), ID_FIELD, null, null, VECTOR_FIELD);
     }
 
     /**
      * Execute Milvus search with automatic collection loading and retry.
+     * The load state is tracked by CollectionLoadStateTracker, so no
+     * loadCollection round trip is made while the collection is known to be
+     * loaded.
      */
-    private R<?> executeSearchWithAutoLoad(MilvusServiceClient client, SearchParam searchParam) {
-        ensureCollectionLoaded(client);
+    private R<SearchResults> executeSearchWithAutoLoad(MilvusServiceClient client, SearchParam searchParam) {
+        loadStateTracker.ensureLoaded(client, schema.collectionName());
 
         Exception lastException = null;
         for (int attempt = 1; attempt <= SEARCH_RETRY_ATTEMPTS; attempt++) {
             try {
-                return client.search(searchParam);
+                R<SearchResults> result = client.search(searchParam);
+                if (!isCollectionNotLoadedMessage(result.getMessage()) || attempt == SEARCH_RETRY_ATTEMPTS) {
+                    return result;
+                }
+                log.warn("Milvus reported collection not loaded (attempt {}/{}), reloading collection",
+                        attempt, SEARCH_RETRY_ATTEMPTS);
             } catch (Exception e) {
                 lastException = e;
                 if (!isCollectionNotLoadedError(e) || attempt == SEARCH_RETRY_ATTEMPTS) {
@@ -221,38 +621,21 @@ public class MilvusService {
 
                 log.warn("Milvus collection is not loaded during search (attempt {}/{}), reloading collection",
                         attempt, SEARCH_RETRY_ATTEMPTS);
-                ensureCollectionLoaded(client);
-                sleepBackoff(attempt);
             }
+            loadStateTracker.markNotLoaded(schema.collectionName());
+            loadStateTracker.ensureLoaded(client, schema.collectionName());
+            sleepBackoff(attempt);
         }
 
         throw new RuntimeException("Milvus search failed after retries", lastException);
     }
 
-    /**
-     * Ensure target collection is loaded before search.
-     */
-    private void ensureCollectionLoaded(MilvusServiceClient client) {
-        R<?> loadResult = client.loadCollection(
-                LoadCollectionParam.newBuilder()
-                        .withCollectionName(COLLECTION_NAME)
-                        .build());
-
-        if (loadResult.getStatus() != R.Status.Success.getCode()) {
-            String message = loadResult.getMessage();
-            if (message != null && message.toLowerCase().contains("loaded")) {
-                return;
-            }
-            throw new RuntimeException("Failed to load Milvus collection: " + message);
-        }
+    private boolean isCollectionNotLoadedError(Exception e) {
+        return e != null && isCollectionNotLoadedMessage(e.getMessage());
     }
 
-    private boolean isCollectionNotLoadedError(Exception e) {
-        if (e == null || e.getMessage() == null) {
-            return false;
-        }
-        String message = e.getMessage().toLowerCase();
-        return message.contains("collection not loaded");
+    private boolean isCollectionNotLoadedMessage(String message) {
+        return message != null && message.toLowerCase().contains("collection not loaded");
     }
 
     private void sleepBackoff(int attempt) {
@@ -265,106 +648,155 @@ public class MilvusService {
     }
 
     /**
-     * Query document chunks by docId with pagination (for document detail view)
-     * 
-     * @param docId  Document ID to filter by
-     * @param limit  Maximum number of results
-     * @param offset Offset for pagination
-     * @return List of document chunks
+     * One page of a document's chunks in chunkIndex order (for document
+     * detail view), optionally restricted to chunks whose content contains
+     * {@code search} (evaluated by Milvus with a LIKE filter).
+     *
+     * Without search, on v2, the page is read directly with a chunk_index
+     * range (chunk indexes are dense per document). Otherwise, or when the
+     * range comes back short because of gaps, the (id, metadata) keys of the
+     * matching chunks are read first, sorted by chunkIndex, and the content
+     * of the selected page is fetched by id.
+     *
+     * @param docId           Document ID to filter by
+     * @param baseId          Knowledge base of the document (selects the
+     *                        consistency level; null means STRONG)
+     * @param search          Content substring (optional)
+     * @param afterChunkIndex Only chunks with a larger chunkIndex (-1 for the
+     *                        first page)
+     * @param skip            Matching chunks to skip after afterChunkIndex
+     * @param limit           Maximum number of results
+     * @return Chunks ordered by chunkIndex
      */
-    public List<Document> queryChunksByDocId(Long docId, int limit, int offset) {
-        log.info("Querying chunks by docId: docId={}, limit={}, offset={}", docId, limit, offset);
+    public List<RetrievedChunk> queryChunkPage(Long docId, Long baseId, String search, int afterChunkIndex,
+            int skip, int limit) {
+        log.info("Querying chunk page: docId={}, baseId={}, search={}, after={}, skip={}, limit={}", docId,
+                baseId, search, afterChunkIndex, skip, limit);
+        if (embeddedVectorStore.isActive()) {
+            return embeddedVectorStore.queryChunkPage(docId, search, afterChunkIndex, skip, limit);
+        }
 
-        MilvusServiceClient client = null;
         try {
-            client = createClient();
-
-            // Build filter expression: JSON path query for docId in metadata_json
-            String filterExpr = String.format("%s[\"docId\"] == \"%s\"", METADATA_FIELD, docId);
-
-            // Build query parameters
-            QueryParam queryParam = QueryParam.newBuilder()
-                    .withCollectionName(COLLECTION_NAME)
-                    .withExpr(filterExpr)
-                    .withOutFields(Arrays.asList(ID_FIELD, CONTENT_FIELD, METADATA_FIELD))
-                    .withLimit((long) limit)
-                    .withOffset((long) offset)
-                    .withConsistencyLevel(ConsistencyLevelEnum.STRONG)
-                    .build();
-
-            // Execute query
-            R<?> queryResult = client.query(queryParam);
+            String filterExpr = documentChunkFilter(docId, search);
 
-            if (queryResult.getStatus() != R.Status.Success.getCode()) {
-                log.error("Milvus query failed: {}", queryResult.getMessage());
-                throw new RuntimeException("Milvus query failed: " + queryResult.getMessage());
+            String rangeFilter = search == null && skip == 0
+                    ? schema.chunkIndexRangeFilter(afterChunkIndex, afterChunkIndex + limit)
+                    : null;
+            if (rangeFilter != null) {
+                List<RetrievedChunk> chunks = queryChunks(filterExpr + " && " + rangeFilter,
+                        Arrays.asList(ID_FIELD, CONTENT_FIELD, METADATA_FIELD), limit, baseId);
+                if (chunks.size() == limit) {
+                    chunks.sort(Comparator.comparingInt(MilvusService::chunkIndexOf));
+                    return chunks;
+                }
             }
 
-            // Parse results - use QueryResultsWrapper with proper type
-            Object queryData = queryResult.getData();
-            if (queryData == null) {
-                log.warn("Query returned null data");
-                return new ArrayList<>();
+            // Keys only: sort by chunkIndex and select the page
+            String keyFilter = schema.chunkIndexRangeFilter(afterChunkIndex, Integer.MAX_VALUE);
+            List<RetrievedChunk> keys = queryChunks(keyFilter == null ? filterExpr : filterExpr + " && " + keyFilter,
+                    Arrays.asList(ID_FIELD, METADATA_FIELD), MAX_TOP_K, baseId);
+            if (keys.size() >= MAX_TOP_K) {
+                log.warn("Document {} has more than {} matching chunks, browsing the first {}", docId, MAX_TOP_K,
+                        MAX_TOP_K);
             }
-
-            QueryResultsWrapper wrapper;
-            try {
-                // Try to find the correct constructor
-                @SuppressWarnings("unchecked")
-                java.lang.reflect.Constructor<QueryResultsWrapper> constructor = (java.lang.reflect.Constructor<QueryResultsWrapper>) QueryResultsWrapper.class
-                        .getDeclaredConstructor(queryData.getClass());
-                wrapper = constructor.newInstance(queryData);
-            } catch (Exception e) {
-                log.error("Failed to create QueryResultsWrapper using reflection: {}", e.getMessage(), e);
-                log.error("Query data type: {}, available methods: {}",
-                        queryData.getClass().getName(),
-                        Arrays.toString(queryData.getClass().getMethods()));
-                // If reflection fails, we cannot construct the wrapper
-                // Return empty list as fallback
+            List<String> pageIds = keys.stream()
+                    .filter(key -> chunkIndexOf(key) > afterChunkIndex)
+                    .sorted(Comparator.comparingInt(MilvusService::chunkIndexOf))
+                    .skip(skip)
+                    .limit(limit)
+                    .map(RetrievedChunk::getId)
+                    .toList();
+            if (pageIds.isEmpty()) {
                 return new ArrayList<>();
             }
-            List<Document> documents = new ArrayList<>();
-
-            int rowCount = wrapper.getRowRecords().size();
-            for (int i = 0; i < rowCount; i++) {
-                QueryResultsWrapper.RowRecord row = wrapper.getRowRecords().get(i);
-                String id = row.get(ID_FIELD).toString();
-                String content = row.get(CONTENT_FIELD).toString();
-
-                // Parse metadata from JSON
-                Map<String, Object> metadata = new HashMap<>();
-                try {
-                    Object metadataObj = row.get(METADATA_FIELD);
-                    if (metadataObj != null) {
-                        String metadataJson = metadataObj.toString();
-                        metadata = objectMapper.readValue(metadataJson, new TypeReference<Map<String, Object>>() {
-                        });
-                    }
-                } catch (Exception e) {
-                    log.warn("Failed to parse metadata for chunk {}: {}", id, e.getMessage());
-                }
-
-                Document doc = new Document(id, content, metadata);
-                documents.add(doc);
-            }
 
-            log.info("Found {} chunks for docId {}", documents.size(), docId);
-            return documents;
+            List<RetrievedChunk> chunks = queryChunks(schema.idsFilter(pageIds),
+                    Arrays.asList(ID_FIELD, CONTENT_FIELD, METADATA_FIELD), pageIds.size(), baseId);
+            chunks.sort(Comparator.comparingInt(MilvusService::chunkIndexOf));
+            log.info("Found {} chunks for docId {}", chunks.size(), docId);
+            return chunks;
 
         } catch (Exception e) {
             log.error("Error querying chunks by docId", e);
             throw new RuntimeException("Failed to query chunks by docId", e);
-        } finally {
-            if (client != null) {
-                try {
-                    client.close();
-                } catch (Exception e) {
-                    log.warn("Error closing Milvus client", e);
-                }
-            }
         }
     }
 
+    /**
+     * One page of a document's chunks (id, content and metadata) in primary
+     * key order, after the row {@code afterId} (null for the first page),
+     * read with strong consistency so rows written just before are included.
+     * Paging by primary key reads documents of any size.
+     */
+    public List<RetrievedChunk> queryDocumentChunkPage(Long docId, String afterId, int limit) {
+        if (embeddedVectorStore.isActive()) {
+            return embeddedVectorStore.queryChunksAfterId(docId, afterId, limit);
+        }
+        QueryParam queryParam = QueryParam.newBuilder()
+                .withCollectionName(schema.collectionName())
+                .withExpr(schema.docFilter(docId) + " && " + schema.idAfterFilter(afterId))
+                .withOutFields(Arrays.asList(ID_FIELD, CONTENT_FIELD, METADATA_FIELD))
+                .withLimit((long) limit)
+                .withConsistencyLevel(consistencyPolicy.strong())
+                .build();
+
+        R<QueryResults> queryResult = milvusClientPool.execute(client -> {
+            loadStateTracker.ensureLoaded(client, schema.collectionName());
+            return client.query(queryParam);
+        });
+        if (queryResult.getStatus() != R.Status.Success.getCode()) {
+            throw new RuntimeException("Milvus query failed: " + queryResult.getMessage());
+        }
+        List<RetrievedChunk> chunks = MilvusResultDecoder.decodeQuery(queryResult.getData(), ID_FIELD,
+                CONTENT_FIELD, METADATA_FIELD);
+        chunks.sort(schema.usesInt64Ids()
+                ? Comparator.comparingLong(chunk -> Long.parseLong(chunk.getId()))
+                : Comparator.comparing(RetrievedChunk::getId));
+        return chunks;
+    }
+
+    /**
+     * Count a document's chunks whose content contains {@code search}
+     * (all chunks when search is null)
+     */
+    public long countChunksByDocId(Long docId, String search) {
+        if (embeddedVectorStore.isActive()) {
+            return embeddedVectorStore.countByDocId(docId, search);
+        }
+        return countChunks(schema, documentChunkFilter(docId, search));
+    }
+
+    private String documentChunkFilter(Long docId, String search) {
+        String filterExpr = schema.docFilter(docId);
+        return search == null ? filterExpr : filterExpr + " && " + schema.contentContainsFilter(search);
+    }
+
+    private List<RetrievedChunk> queryChunks(String filterExpr, List<String> outFields, long limit, Long baseId) {
+        QueryParam queryParam = QueryParam.newBuilder()
+                .withCollectionName(schema.collectionName())
+                .withExpr(filterExpr)
+                .withOutFields(outFields)
+                .withLimit(limit)
+                .withConsistencyLevel(consistencyPolicy.forBrowse(baseId))
+                .build();
+
+        R<QueryResults> queryResult = milvusClientPool.execute(client -> {
+            loadStateTracker.ensureLoaded(client, schema.collectionName());
+            return client.query(queryParam);
+        });
+        if (queryResult.getStatus() != R.Status.Success.getCode()) {
+            log.error("Milvus query failed: {}", queryResult.getMessage());
+            throw new RuntimeException("Milvus query failed: " + queryResult.getMessage());
+        }
+        return MilvusResultDecoder.decodeQuery(queryResult.getData(), ID_FIELD,
+                outFields.contains(CONTENT_FIELD) ? CONTENT_FIELD : null, METADATA_FIELD);
+    }
+
+    private static int chunkIndexOf(RetrievedChunk chunk) {
+        Integer chunkIndex = chunk.metadata().chunkIndex();
+        return chunkIndex != null ? chunkIndex : Integer.MAX_VALUE;
+    }
+
     /**
      * Delete all chunks for a document by docId
      * 
@@ -372,54 +804,188 @@ public class MilvusService {
      * @return Number of deleted chunks
      */
     public long deleteChunksByDocId(Long docId) {
-        log.info("Deleting chunks by docId: docId={}", docId);
+        if (embeddedVectorStore.isActive()) {
+            return embeddedVectorStore.deleteByDocIds(List.of(docId));
+        }
+        long deletedCount = deleteChunksByDocId(schema, docId);
+        if (migrationEnabled && schema != MilvusSchema.V2) {
+            // Keep the migration target from resurrecting chunks that were already copied
+            deleteChunksByDocId(MilvusSchema.V2, docId);
+        }
+        return deletedCount;
+    }
 
-        MilvusServiceClient client = null;
-        try {
-            client = createClient();
+    /**
+     * Delete all chunks for a document from the collection of the given schema
+     */
+    public long deleteChunksByDocId(MilvusSchema targetSchema, Long docId) {
+        log.info("Deleting chunks by docId: docId={}, collection={}", docId, targetSchema.collectionName());
+        return deleteChunks(targetSchema, targetSchema.docFilter(docId));
+    }
+
+    /**
+     * Delete all chunks of the given documents with one docId in [...]
+     * expression (callers batch large id lists)
+     *
+     * @param docIds Document IDs (non-empty)
+     * @return Number of deleted chunks
+     */
+    public long deleteChunksByDocIds(Collection<Long> docIds) {
+        log.info("Deleting chunks of {} documents", docIds.size());
+        if (embeddedVectorStore.isActive()) {
+            return embeddedVectorStore.deleteByDocIds(docIds);
+        }
+        long deletedCount = deleteChunks(schema, schema.docsFilter(docIds));
+        if (migrationEnabled && schema != MilvusSchema.V2) {
+            deleteChunks(MilvusSchema.V2, MilvusSchema.V2.docsFilter(docIds));
+        }
+        return deletedCount;
+    }
 
-            // Build filter expression: JSON path query for docId in metadata_json
-            String filterExpr = String.format("%s[\"docId\"] == \"%s\"", METADATA_FIELD, docId);
+    /**
+     * Delete single chunks of a document by primary key (the ids returned by
+     * queryDocumentChunkPage). Ids differ between collections, so while the
+     * migration is enabled the document's v2 copy is cleared instead and
+     * copied again by the migration (see drainUnmirroredDocIds).
+     *
+     * @return Number of deleted chunks
+     */
+    public long deleteChunksByIds(Long docId, Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        log.info("Deleting {} chunks of document {}", ids.size(), docId);
+        if (embeddedVectorStore.isActive()) {
+            return embeddedVectorStore.deleteChunks(docId, ids);
+        }
+        List<String> idList = new ArrayList<>(ids);
+        long deletedCount = 0;
+        for (int start = 0; start < idList.size(); start += INSERT_BATCH_SIZE) {
+            List<String> batch = idList.subList(start, Math.min(start + INSERT_BATCH_SIZE, idList.size()));
+            deletedCount += deleteChunks(schema, schema.docFilter(docId) + " && " + schema.idsFilter(batch));
+        }
+        if (migrationEnabled && schema != MilvusSchema.V2) {
+            unmirroredDocIds.add(docId);
+            deleteChunksByDocId(MilvusSchema.V2, docId);
+        }
+        return deletedCount;
+    }
+
+    /**
+     * Move rows of a document to new chunk indexes (row id -> chunkIndex)
+     * keeping their content and stored vectors, e.g. chunks a replacement
+     * found unchanged at another position. Rows are rewritten in place
+     * (upsert with the same primary key); while the migration is enabled
+     * the document's v2 copy is cleared and copied again, as for
+     * deleteChunksByIds.
+     *
+     * @return Number of rewritten rows
+     */
+    public long updateChunkIndexes(Long docId, Map<String, Integer> chunkIndexes) {
+        if (chunkIndexes.isEmpty()) {
+            return 0;
+        }
+        log.info("Moving {} chunks of document {} to new chunk indexes", chunkIndexes.size(), docId);
+        if (embeddedVectorStore.isActive()) {
+            return embeddedVectorStore.updateChunkIndexes(docId, chunkIndexes);
+        }
+        List<String> idList = new ArrayList<>(chunkIndexes.keySet());
+        long updated = 0;
+        for (int start = 0; start < idList.size(); start += INSERT_BATCH_SIZE) {
+            List<String> batch = idList.subList(start, Math.min(start + INSERT_BATCH_SIZE, idList.size()));
+            QueryParam queryParam = QueryParam.newBuilder()
+                    .withCollectionName(schema.collectionName())
+                    .withExpr(schema.docFilter(docId) + " && " + schema.idsFilter(batch))
+                    .withOutFields(Arrays.asList(ID_FIELD, CONTENT_FIELD, METADATA_FIELD, VECTOR_FIELD))
+                    .withLimit((long) batch.size())
+                    .withConsistencyLevel(consistencyPolicy.strong())
+                    .build();
+            R<QueryResults> queryResult = milvusClientPool.execute(client -> {
+                loadStateTracker.ensureLoaded(client, schema.collectionName());
+                return client.query(queryParam);
+            });
+            if (queryResult.getStatus() != R.Status.Success.getCode()) {
+                throw new RuntimeException("Milvus query failed: " + queryResult.getMessage());
+            }
+            List<RetrievedChunk> rows = MilvusResultDecoder.decodeQuery(queryResult.getData(), ID_FIELD,
+                    CONTENT_FIELD, METADATA_FIELD, VECTOR_FIELD);
+            // Projected inside the lock, so a retrain cannot re-project the rows in between
+            updated += vectorReductionService.whileRowsStable(() -> upsertChunkIndexes(rows, chunkIndexes));
+        }
+        if (migrationEnabled && schema != MilvusSchema.V2) {
+            unmirroredDocIds.add(docId);
+            deleteChunksByDocId(MilvusSchema.V2, docId);
+        }
+        return updated;
+    }
 
+    private long upsertChunkIndexes(List<RetrievedChunk> rows, Map<String, Integer> chunkIndexes) {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        boolean reduced = vectorReductionService.isActiveFor(schema);
+        List<JsonObject> upserts = new ArrayList<>(rows.size());
+        for (RetrievedChunk row : rows) {
+            JsonObject metadata = row.getMetadataJson() == null ? new JsonObject()
+                    : JsonParser.parseString(row.getMetadataJson()).getAsJsonObject();
+            // Stored as a string, like MilvusDocumentSanitizer writes it
+            metadata.addProperty("chunkIndex", String.valueOf(chunkIndexes.get(row.getId())));
+            upserts.add(schema.toRow(row.getId(), row.getContent(), row.getEmbedding(),
+                    reduced ? vectorReductionService.projectChunk(row.getEmbedding()) : null, metadata));
+        }
+        UpsertParam upsertParam = UpsertParam.newBuilder()
+                .withCollectionName(schema.collectionName())
+                .withRows(upserts)
+                .build();
+        R<MutationResult> upsertResult = milvusClientPool.execute(client -> client.upsert(upsertParam));
+        if (upsertResult.getStatus() != R.Status.Success.getCode()) {
+            throw new RuntimeException("Milvus upsert failed: " + upsertResult.getMessage());
+        }
+        return upserts.size();
+    }
+
+    /**
+     * Delete all chunks of a knowledge base with one baseId expression
+     *
+     * @param baseId Knowledge base ID
+     * @return Number of deleted chunks
+     */
+    public long deleteChunksByBaseId(Long baseId) {
+        log.info("Deleting chunks by baseId: baseId={}", baseId);
+        if (embeddedVectorStore.isActive()) {
+            return embeddedVectorStore.deleteByBaseId(baseId);
+        }
+        long deletedCount = deleteChunks(schema, schema.baseFilter(baseId));
+        if (migrationEnabled && schema != MilvusSchema.V2) {
+            deleteChunks(MilvusSchema.V2, MilvusSchema.V2.baseFilter(baseId));
+        }
+        return deletedCount;
+    }
+
+    private long deleteChunks(MilvusSchema targetSchema, String filterExpr) {
+        try {
             // Build delete parameters
             DeleteParam deleteParam = DeleteParam.newBuilder()
-                    .withCollectionName(COLLECTION_NAME)
+                    .withCollectionName(targetSchema.collectionName())
                     .withExpr(filterExpr)
                     .build();
 
-            // Execute delete
-            R<?> deleteResult = client.delete(deleteParam);
+            // Execute delete (not interleaved with a re-projection of the same rows)
+            R<MutationResult> deleteResult = vectorReductionService.whileRowsStable(
+                    () -> milvusClientPool.execute(client -> client.delete(deleteParam)));
 
             if (deleteResult.getStatus() != R.Status.Success.getCode()) {
                 log.error("Milvus delete failed: {}", deleteResult.getMessage());
                 throw new RuntimeException("Milvus delete failed: " + deleteResult.getMessage());
             }
 
-            // Extract delete count from result
-            long deletedCount = 0;
-            try {
-                Object data = deleteResult.getData();
-                if (data != null) {
-                    java.lang.reflect.Method getDeleteCntMethod = data.getClass().getMethod("getDeleteCnt");
-                    deletedCount = (Long) getDeleteCntMethod.invoke(data);
-                }
-            } catch (Exception e) {
-                log.warn("Could not extract delete count from result", e);
-            }
-            log.info("Deleted {} chunks for docId {}", deletedCount, docId);
+            long deletedCount = deleteResult.getData() != null ? deleteResult.getData().getDeleteCnt() : 0L;
+            log.info("Deleted {} chunks from '{}'", deletedCount, targetSchema.collectionName());
             return deletedCount;
 
         } catch (Exception e) {
-            log.error("Error deleting chunks by docId", e);
-            throw new RuntimeException("Failed to delete chunks by docId", e);
-        } finally {
-            if (client != null) {
-                try {
-                    client.close();
-                } catch (Exception e) {
-                    log.warn("Error closing Milvus client", e);
-                }
-            }
+            log.error("Error deleting chunks: filter={}", filterExpr, e);
+            throw new RuntimeException("Failed to delete chunks", e);
         }
     }
 
@@ -430,63 +996,215 @@ public class MilvusService {
      * @return Number of chunks
      */
     public long countChunksByDocId(Long docId) {
-        log.debug("Counting chunks by docId: docId={}", docId);
+        if (embeddedVectorStore.isActive()) {
+            return embeddedVectorStore.countByDocId(docId, null);
+        }
+        return countChunksByDocId(schema, docId);
+    }
 
-        MilvusServiceClient client = null;
-        try {
-            client = createClient();
+    /**
+     * Count chunks for a document in the collection of the given schema
+     */
+    public long countChunksByDocId(MilvusSchema targetSchema, Long docId) {
+        return countChunks(targetSchema, targetSchema.docFilter(docId));
+    }
 
-            // Build filter expression
-            String filterExpr = String.format("%s[\"docId\"] == \"%s\"", METADATA_FIELD, docId);
+    /**
+     * Exact row count of a filter via a count(*) query: Milvus aggregates
+     * server-side, so no ids are transferred and there is no row cap. Throws
+     * if Milvus cannot answer; a failed count must never be taken for 0.
+     */
+    private long countChunks(MilvusSchema targetSchema, String filterExpr) {
+        log.debug("Counting chunks: filter={}, collection={}", filterExpr, targetSchema.collectionName());
 
-            // Note: Milvus doesn't have a direct count API, so we need to query all IDs
-            // For efficiency, we can use a workaround: query with a large limit
+        try {
             QueryParam countParam = QueryParam.newBuilder()
-                    .withCollectionName(COLLECTION_NAME)
+                    .withCollectionName(targetSchema.collectionName())
                     .withExpr(filterExpr)
-                    .withOutFields(Collections.singletonList(ID_FIELD))
-                    .withLimit(10000L) // Large limit to get all
-                    .withConsistencyLevel(ConsistencyLevelEnum.STRONG)
+                    .withOutFields(Collections.singletonList(MilvusResultDecoder.COUNT_FIELD))
+                    .withConsistencyLevel(consistencyPolicy.strong())
                     .build();
 
-            R<?> countResult = client.query(countParam);
-            if (countResult.getStatus() == R.Status.Success.getCode()) {
-                Object countData = countResult.getData();
-                if (countData != null) {
-                    QueryResultsWrapper wrapper;
-                    try {
-                        @SuppressWarnings("unchecked")
-                        java.lang.reflect.Constructor<QueryResultsWrapper> constructor = (java.lang.reflect.Constructor<QueryResultsWrapper>) QueryResultsWrapper.class
-                                .getDeclaredConstructor(countData.getClass());
-                        wrapper = constructor.newInstance(countData);
-                    } catch (Exception e) {
-                        log.error("Failed to create QueryResultsWrapper for count: {}", e.getMessage(), e);
-                        log.error("Count data type: {}, available methods: {}",
-                                countData.getClass().getName(),
-                                Arrays.toString(countData.getClass().getMethods()));
-                        // If reflection fails, we cannot construct the wrapper
-                        // Return 0 as fallback
-                        return 0;
-                    }
-                    long count = wrapper.getRowRecords().size();
-                    log.debug("Found {} chunks for docId {}", count, docId);
-                    return count;
-                }
+            R<QueryResults> countResult = milvusClientPool.execute(client -> {
+                loadStateTracker.ensureLoaded(client, targetSchema.collectionName());
+                return client.query(countParam);
+            });
+            if (countResult.getStatus() != R.Status.Success.getCode()) {
+                throw new RuntimeException("Milvus count failed: " + countResult.getMessage());
             }
+            long count = MilvusResultDecoder.count(countResult.getData());
+            log.debug("Found {} chunks for filter {}", count, filterExpr);
+            return count;
 
-            return 0;
+        } catch (Exception e) {
+            log.error("Error counting chunks: filter={}", filterExpr, e);
+            throw e instanceof RuntimeException runtime ? runtime
+                    : new RuntimeException("Failed to count chunks", e);
+        }
+    }
+
+    /**
+     * Embed and insert chunks into the active collection (replaces
+     * VectorStore.add, which only knows the v1 layout). Uploads go through
+     * IngestionEmbeddingService instead, which embeds batches in parallel.
+     *
+     * Chunk metadata must contain docId, baseId, chunkIndex and isEnabled (see
+     * MilvusDocumentSanitizer). On v1 the chunk id is used as primary key, on
+     * v2 int64 ids are generated.
+     *
+     * @param chunks Chunks to store
+     * @return Number of inserted rows
+     */
+    public long addDocuments(List<Document> chunks) {
+        long inserted = 0;
+        for (int start = 0; start < chunks.size(); start += INSERT_BATCH_SIZE) {
+            List<Document> batch = chunks.subList(start, Math.min(start + INSERT_BATCH_SIZE, chunks.size()));
+            inserted += insertEmbedded(batch, embeddingModel.embed(batch.stream().map(Document::getText).toList()));
+        }
+        log.info("Inserted {} chunks into '{}'", inserted,
+                embeddedVectorStore.isActive() ? "embedded vector store" : schema.collectionName());
+        return inserted;
+    }
 
+    /**
+     * Insert chunks with their already computed embeddings (same order) into
+     * the active collection; metadata requirements as for addDocuments. While
+     * the migration is enabled the rows are inserted into v2 as well; if that
+     * fails the documents are left to the migration to copy again.
+     *
+     * @return Number of inserted rows
+     */
+    public long insertEmbedded(List<Document> chunks, List<float[]> embeddings) {
+        if (embeddings.size() != chunks.size()) {
+            throw new IllegalStateException(String.format(
+                    "Embedding model returned %d vectors for %d chunks", embeddings.size(), chunks.size()));
+        }
+        if (embeddedVectorStore.isActive()) {
+            return embeddedVectorStore.insert(chunks, embeddings);
+        }
+
+        boolean reduced = vectorReductionService.isActiveFor(schema);
+        List<JsonObject> rows = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            Document chunk = chunks.get(i);
+            JsonObject metadata = GSON.toJsonTree(chunk.getMetadata()).getAsJsonObject();
+            float[] embedding = embeddings.get(i);
+            rows.add(schema.toRow(rowId(schema, chunk.getId()), chunk.getText(), embedding,
+                    reduced ? vectorReductionService.projectChunk(embedding) : null, metadata));
+        }
+        long inserted = insertRows(schema, rows);
+        if (migrationEnabled && schema != MilvusSchema.V2) {
+            mirrorInsert(chunks, embeddings);
+        }
+        return inserted;
+    }
+
+    private void mirrorInsert(List<Document> chunks, List<float[]> embeddings) {
+        boolean reduced = vectorReductionService.isActiveFor(MilvusSchema.V2);
+        Set<Long> docIds = new HashSet<>();
+        try {
+            List<JsonObject> rows = new ArrayList<>(chunks.size());
+            for (int i = 0; i < chunks.size(); i++) {
+                Document chunk = chunks.get(i);
+                JsonObject metadata = GSON.toJsonTree(chunk.getMetadata()).getAsJsonObject();
+                docIds.add(metadata.get("docId").getAsLong());
+                float[] embedding = embeddings.get(i);
+                rows.add(MilvusSchema.V2.toRow(rowId(MilvusSchema.V2, chunk.getId()), chunk.getText(), embedding,
+                        reduced ? vectorReductionService.projectChunk(embedding) : null, metadata));
+            }
+            insertRows(MilvusSchema.V2, rows);
         } catch (Exception e) {
-            log.error("Error counting chunks by docId", e);
-            return 0;
-        } finally {
-            if (client != null) {
-                try {
-                    client.close();
-                } catch (Exception e) {
-                    log.warn("Error closing Milvus client", e);
-                }
+            log.warn("Failed to mirror {} chunks to '{}', documents {} will be copied again: {}", chunks.size(),
+                    MilvusSchema.V2.collectionName(), docIds, e.getMessage());
+            unmirroredDocIds.addAll(docIds);
+        }
+    }
+
+    /**
+     * Documents whose v2 copy went out of step since the last call (failed
+     * mirrored insert, single chunks deleted); the migration copies them
+     * again.
+     */
+    public Set<Long> drainUnmirroredDocIds() {
+        Set<Long> drained = new HashSet<>();
+        for (Iterator<Long> it = unmirroredDocIds.iterator(); it.hasNext();) {
+            drained.add(it.next());
+            it.remove();
+        }
+        return drained;
+    }
+
+    public int unmirroredDocumentCount() {
+        return unmirroredDocIds.size();
+    }
+
+    /**
+     * Read the chunks of a document with chunkIndex in [fromChunkIndex,
+     * fromChunkIndex + count) including their stored embeddings (for copying
+     * between collections without re-embedding). Windowing by chunk index
+     * rather than by offset keeps documents beyond Milvus' 16384-row query
+     * window readable.
+     */
+    public List<RetrievedChunk> queryChunksWithVectors(MilvusSchema sourceSchema, Long docId, int fromChunkIndex,
+            int count) {
+        QueryParam queryParam = QueryParam.newBuilder()
+                .withCollectionName(sourceSchema.collectionName())
+                .withExpr(sourceSchema.docFilter(docId) + " && "
+                        + sourceSchema.chunkIndexWindowFilter(fromChunkIndex, count))
+                .withOutFields(Arrays.asList(ID_FIELD, CONTENT_FIELD, METADATA_FIELD, VECTOR_FIELD))
+                .withLimit((long) MAX_TOP_K)
+                .withConsistencyLevel(consistencyPolicy.strong())
+                .build();
+
+        R<QueryResults> queryResult = milvusClientPool.execute(client -> {
+            loadStateTracker.ensureLoaded(client, sourceSchema.collectionName());
+            return client.query(queryParam);
+        });
+        if (queryResult.getStatus() != R.Status.Success.getCode()) {
+            throw new RuntimeException("Milvus query failed: " + queryResult.getMessage());
+        }
+        return MilvusResultDecoder.decodeQuery(queryResult.getData(), ID_FIELD, CONTENT_FIELD, METADATA_FIELD,
+                VECTOR_FIELD);
+    }
+
+    /**
+     * Insert already-embedded chunks into the collection of the given schema.
+     * Chunks must carry their embedding and metadata_json.
+     */
+    public long insertChunks(MilvusSchema targetSchema, List<RetrievedChunk> chunks) {
+        boolean reduced = vectorReductionService.isActiveFor(targetSchema);
+        List<JsonObject> rows = new ArrayList<>(chunks.size());
+        for (RetrievedChunk chunk : chunks) {
+            if (chunk.getEmbedding() == null) {
+                throw new IllegalArgumentException("Chunk " + chunk.getId() + " has no embedding");
             }
+            JsonObject metadata = chunk.getMetadataJson() == null ? new JsonObject()
+                    : JsonParser.parseString(chunk.getMetadataJson()).getAsJsonObject();
+            rows.add(targetSchema.toRow(rowId(targetSchema, chunk.getId()), chunk.getContent(),
+                    chunk.getEmbedding(), reduced ? vectorReductionService.projectChunk(chunk.getEmbedding()) : null,
+                    metadata));
+        }
+        return insertRows(targetSchema, rows);
+    }
+
+    private String rowId(MilvusSchema targetSchema, String chunkId) {
+        return targetSchema.usesInt64Ids() ? String.valueOf(snowflakeIdGenerator.nextId()) : chunkId;
+    }
+
+    private long insertRows(MilvusSchema targetSchema, List<JsonObject> rows) {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        InsertParam insertParam = InsertParam.newBuilder()
+                .withCollectionName(targetSchema.collectionName())
+                .withRows(rows)
+                .build();
+
+        R<MutationResult> insertResult = milvusClientPool.execute(client -> client.insert(insertParam));
+        if (insertResult.getStatus() != R.Status.Success.getCode()) {
+            log.error("Milvus insert failed: {}", insertResult.getMessage());
+            throw new RuntimeException("Milvus insert failed: " + insertResult.getMessage());
         }
+        return insertResult.getData() != null ? insertResult.getData().getInsertCnt() : rows.size();
     }
 }
@@ -0,0 +1,167 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.core.util.LruTtlCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of query embeddings in front of EmbeddingModel.embed().
+ *
+ * Keyed by normalized query text plus the embedding model name, so repeated
+ * questions skip the Ollama call entirely. The normalized text is also what
+ * gets embedded, so a cached vector is exactly the one a miss would compute,
+ * whichever spelling came first. Vectors are stored as primitive float[] and
+ * evicted by size (LRU) and TTL.
+ *
+ * Cached arrays are shared between callers and must not be modified.
+ */
+@Component
+@Slf4j
+public class QueryEmbeddingCache {
+
+    private final EmbeddingModel embeddingModel;
+    private final String modelName;
+    private final LruTtlCache<String, float[]> cache;
+
+    private final LongAdder embedNanos = new LongAdder();
+    private final LongAdder embedCalls = new LongAdder();
+
+    public QueryEmbeddingCache(EmbeddingModel embeddingModel,
+            @Value("${spring.ai.ollama.embedding.model:qwen2.5:7b}") String modelName,
+            @Value("${rag.retrieval.embedding-cache.max-entries:2000}") int maxEntries,
+            @Value("${rag.retrieval.embedding-cache.ttl-seconds:3600}") long ttlSeconds) {
+        this.embeddingModel = embeddingModel;
+        this.modelName = modelName;
+        this.cache = new LruTtlCache<>(maxEntries, ttlSeconds * 1000L);
+        log.info("Query embedding cache initialized: model={}, maxEntries={}, ttlSeconds={}",
+                modelName, maxEntries, ttlSeconds);
+    }
+
+    /**
+     * Return the embedding of the query, computing it with the EmbeddingModel
+     * only on a cache miss.
+     */
+    public float[] embed(String query) {
+        String text = normalize(query);
+        if (!cache.isEnabled()) {
+            return embedUncached(text);
+        }
+
+        String key = cacheKey(text);
+        float[] cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Concurrent misses for the same key may both embed, the last writer wins.
+        float[] vector = embedUncached(text);
+        cache.put(key, vector);
+        return vector;
+    }
+
+    /**
+     * Embeddings of several queries, in order. Cache misses are embedded
+     * together in a single EmbeddingModel call.
+     */
+    public List<float[]> embedAll(List<String> queries) {
+        List<float[]> vectors = new ArrayList<>(Collections.nCopies(queries.size(), null));
+        List<Integer> missIndexes = new ArrayList<>();
+        List<String> missQueries = new ArrayList<>();
+        for (int i = 0; i < queries.size(); i++) {
+            String text = normalize(queries.get(i));
+            float[] cached = cache.isEnabled() ? cache.get(cacheKey(text)) : null;
+            if (cached != null) {
+                vectors.set(i, cached);
+            } else {
+                missIndexes.add(i);
+                missQueries.add(text);
+            }
+        }
+        if (missQueries.isEmpty()) {
+            return vectors;
+        }
+
+        long start = System.nanoTime();
+        List<float[]> embedded = embeddingModel.embed(missQueries);
+        embedNanos.add(System.nanoTime() - start);
+        embedCalls.increment();
+        if (embedded.size() != missQueries.size()) {
+            throw new IllegalStateException(String.format(
+                    "Embedding model returned %d vectors for %d queries", embedded.size(), missQueries.size()));
+        }
+        for (int i = 0; i < embedded.size(); i++) {
+            float[] vector = embedded.get(i);
+            if (vector == null || vector.length == 0) {
+                throw new IllegalStateException("Embedding model returned an empty vector");
+            }
+            vectors.set(missIndexes.get(i), vector);
+            if (cache.isEnabled()) {
+                cache.put(cacheKey(missQueries.get(i)), vector);
+            }
+        }
+        return vectors;
+    }
+
+    /**
+     * Drop all cached embeddings (e.g. after switching embedding models).
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    public String getModelName() {
+        return modelName;
+    }
+
+    public CacheStats stats() {
+        long calls = embedCalls.sum();
+        return new CacheStats(
+                cache.size(),
+                cache.maxEntries(),
+                cache.hits(),
+                cache.misses(),
+                cache.hitRate(),
+                cache.evictions(),
+                calls == 0 ? 0.0 : embedNanos.sum() / (double) calls / 1_000_000.0);
+    }
+
+    private float[] embedUncached(String query) {
+        long start = System.nanoTime();
+        float[] vector = embeddingModel.embed(query);
+        embedNanos.add(System.nanoTime() - start);
+        embedCalls.increment();
+        if (vector == null || vector.length == 0) {
+            throw new IllegalStateException("Embedding model returned an empty vector");
+        }
+        return vector;
+    }
+
+    private String cacheKey(String normalizedQuery) {
+        return modelName + '\u0000' + normalizedQuery;
+    }
+
+    /**
+     * Normalize query text so trivially different spellings share an entry:
+     * Unicode NFKC (full-width -> half-width) and collapsed whitespace. Case
+     * is kept, since it can change the embedding (acronyms, names).
+     */
+    static String normalize(String query) {
+        if (query == null) {
+            return "";
+        }
+        String normalized = Normalizer.normalize(query, Normalizer.Form.NFKC);
+        return normalized.trim().replaceAll("\\s+", " ");
+    }
+
+    public record CacheStats(int size, int maxEntries, long hits, long misses, double hitRate, long evictions,
+            double avgEmbedMs) {
+    }
+}
@@ -0,0 +1,129 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.core.domain.RetrievedChunk;
+import com.heu.rag.core.util.LruTtlCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of similaritySearchWithBaseId results, keyed by
+ * (baseId, KB version, query-embedding fingerprint, topK, threshold).
+ *
+ * Entries never hold stored embeddings: hits are cached without them (ids,
+ * content, scores and metadata only), so a full-dimension vector per hit
+ * does not multiply the cache's heap footprint. Callers that need the
+ * vectors of a cached result (MMR) fetch them for the returned hits.
+ *
+ * Invalidation is version based: every write to a knowledge base (upload,
+ * document delete, status change, KB deletion) bumps its version counter, so
+ * entries cached under the old version can never be served again and simply
+ * age out of the LRU.
+ *
+ * The version is captured before the Milvus search runs; a search racing with
+ * a write therefore stores its result under the old version and is never
+ * served after the write.
+ */
+@Component
+@Slf4j
+public class RetrievalResultCache {
+
+    private final LruTtlCache<Key, List<RetrievedChunk>> cache;
+    private final Map<Long, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    public RetrievalResultCache(
+            @Value("${rag.retrieval.result-cache.max-entries:1000}") int maxEntries,
+            @Value("${rag.retrieval.result-cache.ttl-seconds:600}") long ttlSeconds) {
+        this.cache = new LruTtlCache<>(maxEntries, ttlSeconds * 1000L);
+        log.info("Retrieval result cache initialized: maxEntries={}, ttlSeconds={}", maxEntries, ttlSeconds);
+    }
+
+    /**
+     * Build the cache key for a search, capturing the current KB version.
+     */
+    public Key keyFor(Long baseId, float[] queryVector, int topK, double threshold) {
+        return new Key(baseId, currentVersion(baseId), fingerprint(queryVector), topK, threshold);
+    }
+
+    /**
+     * Cached result for the key, or null on miss. The returned list is a copy;
+     * its hits carry no embeddings.
+     */
+    public List<RetrievedChunk> get(Key key) {
+        if (!cache.isEnabled()) {
+            return null;
+        }
+        List<RetrievedChunk> cached = cache.get(key);
+        return cached == null ? null : new ArrayList<>(cached);
+    }
+
+    /**
+     * Cache a search result; embeddings carried by the hits are not stored.
+     */
+    public void put(Key key, List<RetrievedChunk> chunks) {
+        if (key.version() != currentVersion(key.baseId())) {
+            // The KB changed while the search was running; do not cache
+            return;
+        }
+        cache.put(key, chunks.stream().map(RetrievalResultCache::withoutEmbedding).toList());
+    }
+
+    /**
+     * Invalidate all cached results of a knowledge base.
+     */
+    public void bumpVersion(Long baseId) {
+        if (baseId == null) {
+            return;
+        }
+        long version = versions.computeIfAbsent(baseId, k -> new AtomicLong()).incrementAndGet();
+        log.debug("Knowledge base {} version bumped to {}", baseId, version);
+    }
+
+    public long currentVersion(Long baseId) {
+        AtomicLong version = versions.get(baseId);
+        return version == null ? 0L : version.get();
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(cache.size(), cache.maxEntries(), cache.hits(), cache.misses(), cache.hitRate(),
+                cache.evictions());
+    }
+
+    private static RetrievedChunk withoutEmbedding(RetrievedChunk chunk) {
+        if (chunk.getEmbedding() == null) {
+            return chunk;
+        }
+        return new RetrievedChunk(chunk.getId(), chunk.getContent(), chunk.getScore(), chunk.getMetadataJson());
+    }
+
+    /**
+     * SHA-256 of the raw float bits, hex encoded (first 128 bits).
+     */
+    private String fingerprint(float[] vector) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES);
+            buffer.asFloatBuffer().put(vector);
+            byte[] hash = digest.digest(buffer.array());
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public record Key(Long baseId, long version, String fingerprint, int topK, double threshold) {
+    }
+
+    public record CacheStats(int size, int maxEntries, long hits, long misses, double hitRate, long evictions) {
+    }
+}
@@ -0,0 +1,280 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.config.MilvusClientPool;
+import com.heu.rag.config.MilvusSchema;
+import com.heu.rag.core.domain.VectorTombstone;
+import com.heu.rag.core.repository.VectorTombstoneRepository;
+import io.milvus.grpc.ManualCompactionResponse;
+import io.milvus.param.R;
+import io.milvus.param.control.ManualCompactParam;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background worker that physically removes tombstoned vectors (see
+ * VectorTombstoneService) from Milvus.
+ *
+ * Runs every rag.milvus.compaction.interval-ms and right after a delete
+ * commits. Tombstones are drained fewest failed attempts first, then oldest:
+ * knowledge bases with one baseId expression, documents grouped per
+ * knowledge base in docId in [...] expressions of batch-size documents. Each
+ * expression is retried with linear backoff; a tombstone is only released
+ * once its delete succeeded (deletes are idempotent). A tombstone that still
+ * fails is skipped for the rest of the run and its attempts are recorded, so
+ * it sorts behind the others and cannot hold up the queue; once it has used
+ * up max-attempts it is tried only once per run and counted as stuck in the
+ * stats.
+ * Once compact-threshold chunks have been deleted a manual compaction is
+ * triggered, so Milvus drops the deleted rows from its segments instead of
+ * filtering them on every search (the embedded backend rewrites its files).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class VectorCompactionService {
+
+    private final VectorTombstoneService tombstoneService;
+    private final VectorTombstoneRepository tombstoneRepository;
+    private final MilvusService milvusService;
+    private final MilvusClientPool milvusClientPool;
+    private final MilvusSchema schema;
+    private final RetrievalResultCache retrievalResultCache;
+    private final ConsistencyPolicy consistencyPolicy;
+    private final EmbeddedVectorStore embeddedVectorStore;
+
+    @Value("${rag.milvus.compaction.interval-ms:10000}")
+    private long intervalMs;
+
+    @Value("${rag.milvus.compaction.batch-size:500}")
+    private int batchSize;
+
+    @Value("${rag.milvus.compaction.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${rag.milvus.compaction.retry-backoff-ms:1000}")
+    private long retryBackoffMs;
+
+    @Value("${rag.milvus.compaction.compact-threshold:10000}")
+    private long compactThreshold;
+
+    private final AtomicBoolean wakePending = new AtomicBoolean();
+    private final AtomicLong chunksDeleted = new AtomicLong();
+    private final AtomicLong tombstonesReleased = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private long chunksSinceCompaction;
+    private volatile String lastError;
+    private ScheduledExecutorService worker;
+
+    @PostConstruct
+    void startWorker() {
+        worker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "milvus-vector-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        worker.scheduleWithFixedDelay(this::runSafely, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stopWorker() {
+        if (worker != null) {
+            worker.shutdownNow();
+        }
+    }
+
+    /**
+     * Run the worker now (after the current transaction commits, if any)
+     * instead of waiting for the next interval
+     */
+    public void wake() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submitRun();
+                }
+            });
+        } else {
+            submitRun();
+        }
+    }
+
+    public CompactionStats stats() {
+        return new CompactionStats(tombstoneService.pendingCount(),
+                tombstoneRepository.countByAttemptsGreaterThanEqual(maxAttempts), tombstonesReleased.get(),
+                chunksDeleted.get(), retries.get(), compactions.get(), lastError);
+    }
+
+    private void submitRun() {
+        if (wakePending.compareAndSet(false, true)) {
+            worker.execute(() -> {
+                wakePending.set(false);
+                runSafely();
+            });
+        }
+    }
+
+    private void runSafely() {
+        try {
+            drainTombstones();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            log.error("Vector compaction run failed", e);
+        }
+    }
+
+    private void drainTombstones() throws InterruptedException {
+        // Tombstones that failed in this run; -1 keeps the not-in list non-empty
+        Set<Long> failed = new HashSet<>(List.of(-1L));
+        while (true) {
+            List<VectorTombstone> tombstones = tombstoneRepository
+                    .findByTombstoneIdNotInOrderByAttemptsAscCreatedAtAsc(failed, PageRequest.of(0,
+                            Math.max(1, batchSize)));
+            if (tombstones.isEmpty()) {
+                break;
+            }
+            purge(tombstones, failed);
+        }
+        if (chunksSinceCompaction >= compactThreshold) {
+            compact();
+        }
+    }
+
+    /**
+     * Delete the vectors of a page of tombstones. Tombstones whose delete
+     * failed for good are added to {@code failed}; a failed multi-document
+     * batch is retried document by document so one bad document does not
+     * keep the others of its batch.
+     */
+    private void purge(List<VectorTombstone> tombstones, Set<Long> failed) throws InterruptedException {
+        Map<Long, List<VectorTombstone>> documentsByBase = new LinkedHashMap<>();
+        for (VectorTombstone tombstone : tombstones) {
+            if (tombstone.getDocId() == null) {
+                Long baseId = tombstone.getBaseId();
+                if (!delete(List.of(tombstone), () -> milvusService.deleteChunksByBaseId(baseId))) {
+                    failed.add(tombstone.getTombstoneId());
+                }
+            } else {
+                documentsByBase.computeIfAbsent(tombstone.getBaseId(), id -> new ArrayList<>()).add(tombstone);
+            }
+        }
+
+        for (List<VectorTombstone> group : documentsByBase.values()) {
+            for (int start = 0; start < group.size(); start += batchSize) {
+                List<VectorTombstone> batch = group.subList(start, Math.min(start + batchSize, group.size()));
+                List<Long> docIds = batch.stream().map(VectorTombstone::getDocId).toList();
+                if (delete(batch, () -> milvusService.deleteChunksByDocIds(docIds))) {
+                    continue;
+                }
+                for (VectorTombstone tombstone : batch) {
+                    if (batch.size() == 1 || !delete(List.of(tombstone),
+                            () -> milvusService.deleteChunksByDocIds(List.of(tombstone.getDocId())))) {
+                        failed.add(tombstone.getTombstoneId());
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean delete(List<VectorTombstone> tombstones, DeleteCall call) throws InterruptedException {
+        Long baseId = tombstones.get(0).getBaseId();
+        // Tombstones that already used up their attempts get one try per run
+        int allowedAttempts = tombstones.stream().anyMatch(tombstone -> tombstone.getAttempts() >= maxAttempts)
+                ? 1 : maxAttempts;
+        for (int attempt = 1;; attempt++) {
+            try {
+                long deleted = call.delete();
+                chunksDeleted.addAndGet(deleted);
+                chunksSinceCompaction += deleted;
+                retrievalResultCache.bumpVersion(baseId);
+                consistencyPolicy.recordWrite(baseId);
+                tombstoneService.release(tombstones);
+                tombstonesReleased.addAndGet(tombstones.size());
+                return true;
+            } catch (RuntimeException e) {
+                lastError = e.getMessage();
+                if (attempt >= allowedAttempts) {
+                    log.error("Vector compaction gave up on {} tombstones of knowledge base {} after {} attempts "
+                            + "(skipped for the rest of this run)", tombstones.size(), baseId, attempt, e);
+                    for (VectorTombstone tombstone : tombstones) {
+                        tombstone.setAttempts(tombstone.getAttempts() + attempt);
+                        tombstone.setLastError(truncate(e.getMessage()));
+                    }
+                    tombstoneRepository.saveAll(tombstones);
+                    return false;
+                }
+                retries.incrementAndGet();
+                log.warn("Vector compaction delete failed (attempt {}/{}), retrying: {}", attempt, maxAttempts,
+                        e.getMessage());
+                Thread.sleep(retryBackoffMs * attempt);
+            }
+        }
+    }
+
+    private void compact() {
+        if (embeddedVectorStore.isActive()) {
+            try {
+                embeddedVectorStore.compact();
+                compactions.incrementAndGet();
+                chunksSinceCompaction = 0;
+            } catch (Exception e) {
+                log.warn("Error compacting the embedded vector store", e);
+            }
+            return;
+        }
+        try {
+            R<ManualCompactionResponse> result = milvusClientPool.execute(client -> client.manualCompact(
+                    ManualCompactParam.newBuilder()
+                            .withCollectionName(schema.collectionName())
+                            .build()));
+            if (result.getStatus() != R.Status.Success.getCode()) {
+                log.warn("Manual compaction of '{}' failed: {}", schema.collectionName(), result.getMessage());
+                return;
+            }
+            compactions.incrementAndGet();
+            log.info("Triggered compaction of '{}' after {} deleted chunks", schema.collectionName(),
+                    chunksSinceCompaction);
+            chunksSinceCompaction = 0;
+        } catch (Exception e) {
+            log.warn("Error triggering compaction of '{}'", schema.collectionName(), e);
+        }
+    }
+
+    private static String truncate(String message) {
+        if (message == null || message.length() <= 1000) {
+            return message;
+        }
+        return message.substring(0, 1000);
+    }
+
+    @FunctionalInterface
+    private interface DeleteCall {
+        long delete();
+    }
+
+    public record CompactionStats(int pendingTombstones, long stuckTombstones, long tombstonesReleased,
+            long chunksDeleted, long retries, long compactions, String lastError) {
+    }
+}
@@ -0,0 +1,519 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.config.MilvusClientPool;
+import com.heu.rag.config.MilvusSchema;
+import com.heu.rag.core.domain.RetrievedChunk;
+import com.heu.rag.core.domain.VectorProjection;
+import com.heu.rag.core.repository.VectorProjectionRepository;
+import com.heu.rag.core.util.MilvusResultDecoder;
+import com.heu.rag.core.util.VectorProjector;
+import io.milvus.grpc.DescribeCollectionResponse;
+import io.milvus.grpc.FieldSchema;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.milvus.grpc.KeyValuePair;
+import io.milvus.grpc.MutationResult;
+import io.milvus.grpc.QueryResults;
+import io.milvus.param.R;
+import io.milvus.param.collection.DescribeCollectionParam;
+import io.milvus.param.dml.QueryParam;
+import io.milvus.param.dml.UpsertParam;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Dimension reduction for the ANN index (rag.milvus.reduction.*).
+ *
+ * When enabled, the v2 collection is created with an extra embedding_reduced
+ * field (see MilvusSchema/MilvusConfig) that carries the ANN index, while the
+ * full embedding is kept in an mmap'd FLAT-indexed field. MilvusService
+ * projects query vectors, searches the reduced field for rescore-factor x topK
+ * candidates and rescores them with exact cosine against the full vectors.
+ *
+ * The projection (PCA over a uniform random sample of stored embeddings, or a
+ * Gaussian random projection with method=random) is persisted in Postgres
+ * (vector_projections), because every stored reduced vector depends on it.
+ * Its target dimension is the dimension of embedding_reduced in the
+ * collection. While the collection holds fewer than min-sample-size rows
+ * (e.g. a fresh one) a provisional random projection is used; a background
+ * check then trains PCA once enough rows exist and re-projects the stored
+ * rows (see retrain).
+ *
+ * Reduction is only active for a v2 collection that actually has the reduced
+ * field; enabling it for an existing v2 collection requires re-creating it
+ * (e.g. by re-running the v1 -> v2 migration into a fresh collection).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class VectorReductionService {
+
+    // Keeps the PCA input (sample x embedding dimension floats) bounded
+    private static final int MAX_SAMPLE_SIZE = 16384;
+    private static final int ID_SCAN_PAGE_SIZE = 10000;
+    private static final int ROW_PAGE_SIZE = 256;
+    private static final String RANDOM = "random";
+    private static final String PCA = "pca";
+
+    private final VectorProjectionRepository projectionRepository;
+    private final MilvusClientPool milvusClientPool;
+    private final CollectionLoadStateTracker loadStateTracker;
+    private final ConsistencyPolicy consistencyPolicy;
+    private final MilvusSchema schema;
+
+    @Value("${spring.ai.vectorstore.milvus.embedding-dimension:4096}")
+    private int embeddingDimension;
+
+    @Value("${rag.milvus.reduction.enabled:false}")
+    private boolean enabled;
+
+    @Value("${rag.milvus.reduction.method:pca}")
+    private String method;
+
+    @Value("${rag.milvus.reduction.sample-size:2000}")
+    private int sampleSize;
+
+    @Value("${rag.milvus.reduction.min-sample-size:1000}")
+    private int minSampleSize;
+
+    @Value("${rag.milvus.reduction.retrain-check-minutes:10}")
+    private long retrainCheckMinutes;
+
+    @Value("${rag.milvus.reduction.iterations:3}")
+    private int iterations;
+
+    @Value("${rag.milvus.reduction.rescore-factor:4}")
+    private int rescoreFactor;
+
+    @Value("${rag.milvus.reduction.seed:42}")
+    private long seed;
+
+    private volatile Integer reducedDimension; // null = not checked yet, 0 = field missing
+    private volatile VectorProjector projector;
+    private volatile String projectionMethod;
+    private final AtomicLong projectedQueries = new AtomicLong();
+    private final AtomicLong projectedChunks = new AtomicLong();
+    private final AtomicLong reprojectedRows = new AtomicLong();
+    // Shared by row deletes/rewrites, held exclusively while retrain rewrites a page
+    private final ReentrantReadWriteLock rowLock = new ReentrantReadWriteLock();
+    private ScheduledExecutorService retrainWorker;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void initOnReady() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            if (isActiveFor(MilvusSchema.V2)) {
+                projector();
+            }
+        } catch (Exception e) {
+            log.error("Failed to initialize vector projection, it will be retried on first use", e);
+        }
+        if (PCA.equals(configuredMethod())) {
+            retrainWorker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "vector-projection-retrain");
+                thread.setDaemon(true);
+                return thread;
+            });
+            retrainWorker.scheduleWithFixedDelay(this::retrainIfDue, 0, Math.max(1, retrainCheckMinutes),
+                    TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    void stopRetrainWorker() {
+        if (retrainWorker != null) {
+            retrainWorker.shutdownNow();
+        }
+    }
+
+    /**
+     * Run a delete or rewrite of stored rows so that it cannot interleave
+     * with a retrain re-projecting the same rows (which would upsert a
+     * deleted row back, or overwrite the rewrite with the old values).
+     */
+    public <T> T whileRowsStable(Supplier<T> change) {
+        rowLock.readLock().lock();
+        try {
+            return change.get();
+        } finally {
+            rowLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Whether the collection of the given schema is searched and written
+     * through the reduced vector field.
+     */
+    public boolean isActiveFor(MilvusSchema targetSchema) {
+        return enabled && targetSchema == MilvusSchema.V2 && reducedDimension() > 0;
+    }
+
+    /**
+     * Project a stored chunk embedding.
+     */
+    public float[] projectChunk(float[] embedding) {
+        projectedChunks.incrementAndGet();
+        return projector().project(embedding);
+    }
+
+    /**
+     * Project a query embedding.
+     */
+    public float[] projectQuery(float[] embedding) {
+        projectedQueries.incrementAndGet();
+        return projector().project(embedding);
+    }
+
+    /**
+     * Number of reduced-space candidates fetched per requested result.
+     */
+    public int getRescoreFactor() {
+        return Math.max(1, rescoreFactor);
+    }
+
+    public ReductionStats stats() {
+        VectorProjector current = projector;
+        return new ReductionStats(enabled, enabled && reducedDimension != null && reducedDimension > 0,
+                projectionMethod, isProvisional(), current != null ? current.getSourceDimension() : 0,
+                current != null ? current.getTargetDimension() : 0, getRescoreFactor(), projectedQueries.get(),
+                projectedChunks.get(), reprojectedRows.get());
+    }
+
+    /**
+     * Whether the active projection is the random fallback although PCA is
+     * configured (too few rows when it was learned).
+     */
+    private boolean isProvisional() {
+        return PCA.equals(configuredMethod()) && RANDOM.equals(projectionMethod);
+    }
+
+    private String configuredMethod() {
+        return method.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private int minSampleSize(int targetDimension) {
+        return Math.max(targetDimension, minSampleSize);
+    }
+
+    private void retrainIfDue() {
+        try {
+            if (!isActiveFor(MilvusSchema.V2)) {
+                return;
+            }
+            projector();
+            if (!isProvisional()) {
+                retrainWorker.shutdown();
+                return;
+            }
+            long rows = countRows(schema);
+            if (rows < minSampleSize(reducedDimension())) {
+                log.debug("Deferring PCA training: '{}' has {} of {} rows", schema.collectionName(), rows,
+                        minSampleSize(reducedDimension()));
+                return;
+            }
+            retrain();
+        } catch (Exception e) {
+            log.warn("Vector projection retrain check failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Train PCA on a fresh random sample, switch to it and re-project the
+     * reduced vectors of all stored rows. New inserts use the new projection
+     * right away; the stored rows are rewritten page by page (upsert of the
+     * same row with a new embedding_reduced), so searches briefly see a mix
+     * of old and new reduced vectors, which only affects candidate
+     * selection since candidates are rescored with the full vectors. The
+     * projection is persisted only once every row has been rewritten, so an
+     * interrupted retrain is simply done again.
+     */
+    public synchronized void retrain() {
+        int targetDimension = reducedDimension();
+        if (targetDimension <= 0) {
+            throw new IllegalStateException("Collection '" + MilvusSchema.V2.collectionName()
+                    + "' has no reduced vector field");
+        }
+        List<float[]> sample = loadSample();
+        if (sample.size() < minSampleSize(targetDimension)) {
+            throw new IllegalStateException(String.format("Only %d sample vectors, PCA needs %d", sample.size(),
+                    minSampleSize(targetDimension)));
+        }
+        long start = System.currentTimeMillis();
+        VectorProjector trained = VectorProjector.pca(sample, targetDimension, iterations, seed);
+        projector = trained;
+        long rewritten = reprojectRows(trained);
+        save(trained, PCA, sample.size());
+        projectionMethod = PCA;
+        log.info("Retrained PCA projection {} -> {} on {} vectors and re-projected {} rows in {} ms",
+                trained.getSourceDimension(), targetDimension, sample.size(), rewritten,
+                System.currentTimeMillis() - start);
+    }
+
+    private long reprojectRows(VectorProjector projector) {
+        MilvusSchema target = MilvusSchema.V2;
+        List<String> outFields = Arrays.asList(MilvusSchema.ID_FIELD, MilvusSchema.CONTENT_FIELD,
+                MilvusSchema.METADATA_FIELD, MilvusSchema.VECTOR_FIELD);
+        long rewritten = 0;
+        String cursor = null;
+        while (true) {
+            rowLock.writeLock().lock();
+            try {
+                List<RetrievedChunk> page = query(target, target.idAfterFilter(cursor), ROW_PAGE_SIZE, outFields);
+                List<JsonObject> rows = new ArrayList<>(page.size());
+                for (RetrievedChunk chunk : page) {
+                    JsonObject metadata = JsonParser.parseString(chunk.getMetadataJson()).getAsJsonObject();
+                    rows.add(target.toRow(chunk.getId(), chunk.getContent(), chunk.getEmbedding(),
+                            projector.project(chunk.getEmbedding()), metadata));
+                }
+                upsert(target, rows);
+                rewritten += rows.size();
+                reprojectedRows.addAndGet(rows.size());
+                if (page.size() < ROW_PAGE_SIZE) {
+                    return rewritten;
+                }
+                cursor = maxId(target, page);
+            } finally {
+                rowLock.writeLock().unlock();
+            }
+        }
+    }
+
+    private int reducedDimension() {
+        Integer dimension = reducedDimension;
+        if (dimension == null) {
+            dimension = describeReducedDimension();
+            reducedDimension = dimension;
+            if (dimension == 0) {
+                log.warn("Dimension reduction is enabled but collection '{}' has no '{}' field; it must be "
+                        + "re-created to use reduction, searching the full embeddings instead",
+                        MilvusSchema.V2.collectionName(), MilvusSchema.VECTOR_REDUCED_FIELD);
+            }
+        }
+        return dimension;
+    }
+
+    private int describeReducedDimension() {
+        R<DescribeCollectionResponse> describeResult = milvusClientPool.execute(client -> client.describeCollection(
+                DescribeCollectionParam.newBuilder()
+                        .withCollectionName(MilvusSchema.V2.collectionName())
+                        .build()));
+        if (describeResult.getStatus() != R.Status.Success.getCode() || describeResult.getData() == null) {
+            throw new RuntimeException("Failed to describe collection: " + describeResult.getMessage());
+        }
+        for (FieldSchema field : describeResult.getData().getSchema().getFieldsList()) {
+            if (MilvusSchema.VECTOR_REDUCED_FIELD.equals(field.getName())) {
+                return field.getTypeParamsList().stream()
+                        .filter(param -> "dim".equals(param.getKey()))
+                        .map(KeyValuePair::getValue)
+                        .map(Integer::parseInt)
+                        .findFirst()
+                        .orElse(0);
+            }
+        }
+        return 0;
+    }
+
+    private VectorProjector projector() {
+        VectorProjector current = projector;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (projector == null) {
+                projector = loadOrTrain();
+            }
+            return projector;
+        }
+    }
+
+    private VectorProjector loadOrTrain() {
+        String collectionName = MilvusSchema.V2.collectionName();
+        int targetDimension = reducedDimension();
+        if (targetDimension <= 0) {
+            throw new IllegalStateException("Collection '" + collectionName + "' has no reduced vector field");
+        }
+
+        VectorProjection stored = projectionRepository.findById(collectionName).orElse(null);
+        if (stored != null && stored.getTargetDimension() != targetDimension) {
+            // The collection was re-created with another reduced dimension
+            log.warn("Stored projection for '{}' targets {} dimensions but the collection has {}, retraining",
+                    collectionName, stored.getTargetDimension(), targetDimension);
+            stored = null;
+        }
+        if (stored != null) {
+            projectionMethod = stored.getMethod();
+            log.info("Loaded {} projection {} -> {} for '{}'", stored.getMethod(), stored.getSourceDimension(),
+                    stored.getTargetDimension(), collectionName);
+            return VectorProjector.fromBytes(stored.getSourceDimension(), stored.getTargetDimension(),
+                    stored.getMatrix(), stored.getMean());
+        }
+
+        VectorProjector trained;
+        String trainedMethod;
+        List<float[]> sample = PCA.equals(configuredMethod()) ? loadSample() : Collections.emptyList();
+        if (sample.size() >= minSampleSize(targetDimension)) {
+            long start = System.currentTimeMillis();
+            trained = VectorProjector.pca(sample, targetDimension, iterations, seed);
+            trainedMethod = PCA;
+            log.info("Trained PCA projection {} -> {} on {} vectors in {} ms", trained.getSourceDimension(),
+                    targetDimension, sample.size(), System.currentTimeMillis() - start);
+        } else {
+            if (PCA.equals(configuredMethod())) {
+                log.warn("Only {} stored vectors, PCA needs {}; using a provisional random projection until "
+                        + "enough rows exist", sample.size(), minSampleSize(targetDimension));
+            }
+            trained = VectorProjector.random(embeddingDimension, targetDimension, seed);
+            trainedMethod = RANDOM;
+        }
+
+        save(trained, trainedMethod, sample.size());
+        projectionMethod = trainedMethod;
+        return trained;
+    }
+
+    private void save(VectorProjector trained, String trainedMethod, int trainedSampleSize) {
+        String collectionName = MilvusSchema.V2.collectionName();
+        VectorProjection projection = projectionRepository.findById(collectionName)
+                .orElseGet(() -> VectorProjection.builder().collectionName(collectionName).build());
+        projection.setMethod(trainedMethod);
+        projection.setSourceDimension(trained.getSourceDimension());
+        projection.setTargetDimension(trained.getTargetDimension());
+        projection.setSampleSize(trainedSampleSize);
+        projection.setMatrix(trained.matrixBytes());
+        projection.setMean(trained.meanBytes());
+        projectionRepository.save(projection);
+    }
+
+    /**
+     * Uniform random sample of stored full embeddings from the active
+     * collection (v1 while migrating into a fresh v2 collection, v2
+     * otherwise): a reservoir sample over a scan of the primary keys, whose
+     * vectors are then fetched by id.
+     */
+    private List<float[]> loadSample() {
+        int size = Math.max(1, Math.min(sampleSize, MAX_SAMPLE_SIZE));
+        Random random = new Random(seed);
+        List<String> reservoir = new ArrayList<>(size);
+        long seen = 0;
+        String cursor = null;
+        List<String> idField = List.of(MilvusSchema.ID_FIELD);
+        while (true) {
+            List<RetrievedChunk> page = query(schema, schema.idAfterFilter(cursor), ID_SCAN_PAGE_SIZE, idField);
+            for (RetrievedChunk chunk : page) {
+                seen++;
+                if (reservoir.size() < size) {
+                    reservoir.add(chunk.getId());
+                } else {
+                    long slot = (long) (random.nextDouble() * seen);
+                    if (slot < size) {
+                        reservoir.set((int) slot, chunk.getId());
+                    }
+                }
+            }
+            if (page.size() < ID_SCAN_PAGE_SIZE) {
+                break;
+            }
+            cursor = maxId(schema, page);
+        }
+
+        List<String> vectorFields = Arrays.asList(MilvusSchema.ID_FIELD, MilvusSchema.VECTOR_FIELD);
+        List<float[]> sample = new ArrayList<>(reservoir.size());
+        for (int start = 0; start < reservoir.size(); start += ROW_PAGE_SIZE) {
+            List<String> ids = reservoir.subList(start, Math.min(start + ROW_PAGE_SIZE, reservoir.size()));
+            for (RetrievedChunk chunk : query(schema, schema.idsFilter(ids), ids.size(), vectorFields)) {
+                if (chunk.getEmbedding() != null) {
+                    sample.add(chunk.getEmbedding());
+                }
+            }
+        }
+        log.info("Sampled {} of {} stored vectors from '{}'", sample.size(), seen, schema.collectionName());
+        return sample;
+    }
+
+    private static String maxId(MilvusSchema target, List<RetrievedChunk> page) {
+        String max = page.get(0).getId();
+        for (RetrievedChunk chunk : page) {
+            String id = chunk.getId();
+            boolean greater = target.usesInt64Ids() ? Long.parseLong(id) > Long.parseLong(max)
+                    : id.compareTo(max) > 0;
+            if (greater) {
+                max = id;
+            }
+        }
+        return max;
+    }
+
+    private long countRows(MilvusSchema target) {
+        QueryResults results = execute(target, QueryParam.newBuilder()
+                .withCollectionName(target.collectionName())
+                .withExpr(target.idAfterFilter(null))
+                .withOutFields(List.of(MilvusResultDecoder.COUNT_FIELD))
+                .withConsistencyLevel(consistencyPolicy.strong())
+                .build());
+        return MilvusResultDecoder.count(results);
+    }
+
+    private List<RetrievedChunk> query(MilvusSchema target, String expr, int limit, List<String> outFields) {
+        QueryResults results = execute(target, QueryParam.newBuilder()
+                .withCollectionName(target.collectionName())
+                .withExpr(expr)
+                .withOutFields(outFields)
+                .withLimit((long) limit)
+                .withConsistencyLevel(consistencyPolicy.strong())
+                .build());
+        return MilvusResultDecoder.decodeQuery(results, MilvusSchema.ID_FIELD,
+                outFields.contains(MilvusSchema.CONTENT_FIELD) ? MilvusSchema.CONTENT_FIELD : null,
+                outFields.contains(MilvusSchema.METADATA_FIELD) ? MilvusSchema.METADATA_FIELD : null,
+                outFields.contains(MilvusSchema.VECTOR_FIELD) ? MilvusSchema.VECTOR_FIELD : null);
+    }
+
+    private QueryResults execute(MilvusSchema target, QueryParam queryParam) {
+        R<QueryResults> queryResult = milvusClientPool.execute(client -> {
+            loadStateTracker.ensureLoaded(client, target.collectionName());
+            return client.query(queryParam);
+        });
+        if (queryResult.getStatus() != R.Status.Success.getCode()) {
+            throw new RuntimeException("Milvus query failed: " + queryResult.getMessage());
+        }
+        return queryResult.getData();
+    }
+
+    private void upsert(MilvusSchema target, List<JsonObject> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        UpsertParam upsertParam = UpsertParam.newBuilder()
+                .withCollectionName(target.collectionName())
+                .withRows(rows)
+                .build();
+        R<MutationResult> upsertResult = milvusClientPool.execute(client -> client.upsert(upsertParam));
+        if (upsertResult.getStatus() != R.Status.Success.getCode()) {
+            throw new RuntimeException("Milvus upsert failed: " + upsertResult.getMessage());
+        }
+    }
+
+    public record ReductionStats(boolean enabled, boolean active, String method, boolean provisional,
+            int sourceDimension, int targetDimension, int rescoreFactor, long projectedQueries, long projectedChunks,
+            long reprojectedRows) {
+    }
+}
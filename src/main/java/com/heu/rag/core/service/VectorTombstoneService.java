@@ -0,0 +1,169 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.config.SnowflakeIdGenerator;
+import com.heu.rag.core.domain.VectorTombstone;
+import com.heu.rag.core.repository.VectorTombstoneRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Logical deletes of document / knowledge base vectors.
+ *
+ * A tombstone is persisted (vector_tombstones) in the caller's transaction
+ * and registered in memory right away, so retrieval stops returning the
+ * deleted chunks before they are physically removed: searches of a
+ * tombstoned knowledge base return nothing, and tombstoned documents are
+ * excluded with a docId not-in filter (see MilvusService). VectorCompactionService deletes the
+ * vectors in the background and then releases the tombstones. The in-memory
+ * view is rebuilt from Postgres at startup.
+ *
+ * A tombstone id doubles as the purge job id returned by knowledge base
+ * deletion (GET /api/knowledge/purge/{jobId}, see purgeStatus).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class VectorTombstoneService {
+
+    private final VectorTombstoneRepository tombstoneRepository;
+    private final SnowflakeIdGenerator snowflakeIdGenerator;
+
+    // baseId -> tombstoned docIds
+    private final Map<Long, Set<Long>> deletedDocuments = new ConcurrentHashMap<>();
+    private final Set<Long> deletedKnowledgeBases = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    void loadTombstones() {
+        List<VectorTombstone> tombstones = tombstoneRepository.findAll();
+        tombstones.forEach(this::register);
+        if (!tombstones.isEmpty()) {
+            log.info("Loaded {} vector tombstones pending compaction", tombstones.size());
+        }
+    }
+
+    /**
+     * Tombstone the vectors of a document
+     */
+    public void tombstoneDocument(Long baseId, Long docId) {
+        save(VectorTombstone.builder()
+                .tombstoneId(snowflakeIdGenerator.nextId())
+                .baseId(baseId)
+                .docId(docId)
+                .build());
+    }
+
+    /**
+     * Tombstone all vectors of the given knowledge bases
+     *
+     * @return The tombstone (purge job) ids, in baseIds order
+     */
+    public List<Long> tombstoneKnowledgeBases(Collection<Long> baseIds) {
+        List<Long> tombstoneIds = new ArrayList<>(baseIds.size());
+        for (Long baseId : baseIds) {
+            Long tombstoneId = snowflakeIdGenerator.nextId();
+            save(VectorTombstone.builder()
+                    .tombstoneId(tombstoneId)
+                    .baseId(baseId)
+                    .build());
+            tombstoneIds.add(tombstoneId);
+        }
+        return tombstoneIds;
+    }
+
+    /**
+     * Progress of a purge job. A tombstone is dropped once its vectors are
+     * gone, so a job that is no longer pending is reported COMPLETED.
+     */
+    public PurgeStatus purgeStatus(Long jobId) {
+        return tombstoneRepository.findById(jobId)
+                .map(tombstone -> new PurgeStatus(jobId.toString(),
+                        tombstone.getAttempts() > 0 ? PurgeState.RETRYING : PurgeState.PENDING,
+                        tombstone.getBaseId().toString(), tombstone.getAttempts(), tombstone.getLastError()))
+                .orElseGet(() -> new PurgeStatus(jobId.toString(), PurgeState.COMPLETED, null, 0, null));
+    }
+
+    /**
+     * Whether all vectors of the knowledge base are tombstoned
+     */
+    public boolean isKnowledgeBaseDeleted(Long baseId) {
+        return deletedKnowledgeBases.contains(baseId);
+    }
+
+    /**
+     * Tombstoned documents of a knowledge base (read-only view)
+     */
+    public Set<Long> deletedDocIds(Long baseId) {
+        Set<Long> docIds = deletedDocuments.get(baseId);
+        return docIds == null ? Set.of() : Collections.unmodifiableSet(docIds);
+    }
+
+    /**
+     * Drop tombstones whose vectors have been removed
+     */
+    public void release(Collection<VectorTombstone> tombstones) {
+        tombstoneRepository.deleteAllInBatch(tombstones);
+        tombstones.forEach(this::unregister);
+    }
+
+    public int pendingCount() {
+        return deletedKnowledgeBases.size() + deletedDocuments.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private void save(VectorTombstone tombstone) {
+        tombstoneRepository.save(tombstone);
+        register(tombstone);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // The delete was rolled back: the vectors are live again
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        unregister(tombstone);
+                    }
+                }
+            });
+        }
+    }
+
+    private void register(VectorTombstone tombstone) {
+        if (tombstone.getDocId() == null) {
+            deletedKnowledgeBases.add(tombstone.getBaseId());
+        } else {
+            deletedDocuments.computeIfAbsent(tombstone.getBaseId(), id -> ConcurrentHashMap.newKeySet())
+                    .add(tombstone.getDocId());
+        }
+    }
+
+    private void unregister(VectorTombstone tombstone) {
+        if (tombstone.getDocId() == null) {
+            deletedKnowledgeBases.remove(tombstone.getBaseId());
+        } else {
+            deletedDocuments.computeIfPresent(tombstone.getBaseId(), (id, docIds) -> {
+                docIds.remove(tombstone.getDocId());
+                return docIds.isEmpty() ? null : docIds;
+            });
+        }
+    }
+
+    public enum PurgeState {
+        PENDING,
+        RETRYING,
+        COMPLETED
+    }
+
+    public record PurgeStatus(String jobId, PurgeState state, String baseId, int failedAttempts,
+            String lastError) {
+    }
+}
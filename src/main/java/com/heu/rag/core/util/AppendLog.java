@@ -0,0 +1,111 @@
+package com.heu.rag.core.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only record log (write-ahead log) with per-record checksums.
+ *
+ * Each record is framed as [int length][int crc32][payload]. append() returns
+ * only after the record has been fsync'ed. On open the log is replayed and a
+ * torn or corrupt tail (crash in the middle of an append) is truncated, so a
+ * record is either fully present or absent.
+ */
+public final class AppendLog implements AutoCloseable {
+
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+    private final FileChannel channel;
+    private long records;
+
+    private AppendLog(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Open (or create) the log, passing every valid record to {@code replay}
+     * in append order.
+     */
+    public static AppendLog open(Path path, Consumer<ByteBuffer> replay) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        AppendLog log = new AppendLog(channel);
+        try {
+            log.replay(replay);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return log;
+    }
+
+    /**
+     * Number of records in the log (replayed + appended).
+     */
+    public long size() {
+        return records;
+    }
+
+    public synchronized void append(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        records++;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void replay(Consumer<ByteBuffer> replay) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length < 0 || position + HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + HEADER_BYTES);
+            CRC32 crc = new CRC32();
+            crc.update(payload.array());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            payload.flip();
+            replay.accept(payload);
+            records++;
+            position += HEADER_BYTES + length;
+        }
+        if (position < size) {
+            // Torn write from a crash: drop the incomplete record
+            channel.truncate(position);
+            channel.force(false);
+        }
+        channel.position(position);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of log");
+            }
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.heu.rag.core.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory BM25 inverted index over chunk texts.
+ *
+ * Tokens (see tokenize()): lower-cased runs of letters/digits, plus their
+ * letter and digit parts for mixed identifiers (course codes like "CS101"),
+ * and overlapping character bigrams for CJK runs, so Chinese proper nouns
+ * match without a dictionary-based segmenter.
+ *
+ * Removing (or replacing) a document only drops its chunks; their postings
+ * are skipped until more than half of the postings are dead, at which point
+ * the live chunks are renumbered and the posting lists rebuilt. Thread-safe.
+ */
+public final class Bm25Index {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    public record Chunk(String id, long docId, int chunkIndex, String content, String metadataJson) {
+    }
+
+    public record Hit(Chunk chunk, double score) {
+    }
+
+    private static final class Postings {
+        private int[] ordinals = new int[4];
+        private int[] frequencies = new int[4];
+        private int size;
+
+        private void add(int ordinal, int frequency) {
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            ordinals[size] = ordinal;
+            frequencies[size] = frequency;
+            size++;
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Chunk> chunks = new ArrayList<>(); // by ordinal, null when removed
+    private final List<Integer> lengths = new ArrayList<>();
+    private final List<Integer> postingCounts = new ArrayList<>(); // distinct terms per chunk
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<Long, List<Integer>> ordinalsByDoc = new HashMap<>();
+    private long totalLength;
+    private int liveChunks;
+    private long livePostings;
+    private long deadPostings;
+
+    /**
+     * Index the chunks of a document, replacing the ones indexed for it before
+     */
+    public void putDocument(long docId, List<Chunk> documentChunks) {
+        lock.writeLock().lock();
+        try {
+            remove(docId);
+            append(docId, documentChunks);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Index more chunks of a document, after the ones already indexed for it
+     */
+    public void addChunks(long docId, List<Chunk> documentChunks) {
+        lock.writeLock().lock();
+        try {
+            append(docId, documentChunks);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean containsDocument(long docId) {
+        lock.readLock().lock();
+        try {
+            return ordinalsByDoc.containsKey(docId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void removeDocument(long docId) {
+        lock.writeLock().lock();
+        try {
+            remove(docId);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveChunks;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Top-k chunks by BM25 score for the query, skipping the excluded
+     * documents; chunks sharing no term with the query are not returned.
+     */
+    public List<Hit> search(String query, int topK, Set<Long> excludedDocIds) {
+        Map<String, Integer> queryTerms = termFrequencies(query);
+        lock.readLock().lock();
+        try {
+            if (liveChunks == 0 || queryTerms.isEmpty()) {
+                return new ArrayList<>();
+            }
+            double averageLength = Math.max(1.0, (double) totalLength / liveChunks);
+            Map<Integer, Double> scores = new HashMap<>();
+            for (String term : queryTerms.keySet()) {
+                Postings list = postings.get(term);
+                if (list == null) {
+                    continue;
+                }
+                int documentFrequency = 0;
+                for (int i = 0; i < list.size; i++) {
+                    if (chunks.get(list.ordinals[i]) != null) {
+                        documentFrequency++;
+                    }
+                }
+                if (documentFrequency == 0) {
+                    continue;
+                }
+                double idf = Math.log(1.0 + (liveChunks - documentFrequency + 0.5) / (documentFrequency + 0.5));
+                for (int i = 0; i < list.size; i++) {
+                    int ordinal = list.ordinals[i];
+                    Chunk chunk = chunks.get(ordinal);
+                    if (chunk == null || excludedDocIds.contains(chunk.docId())) {
+                        continue;
+                    }
+                    int frequency = list.frequencies[i];
+                    double norm = K1 * (1 - B + B * lengths.get(ordinal) / averageLength);
+                    scores.merge(ordinal, idf * frequency * (K1 + 1) / (frequency + norm), Double::sum);
+                }
+            }
+
+            PriorityQueue<Hit> heap = new PriorityQueue<>(Comparator.comparingDouble(Hit::score));
+            for (Map.Entry<Integer, Double> entry : scores.entrySet()) {
+                if (heap.size() < topK) {
+                    heap.add(new Hit(chunks.get(entry.getKey()), entry.getValue()));
+                } else if (entry.getValue() > heap.peek().score()) {
+                    heap.poll();
+                    heap.add(new Hit(chunks.get(entry.getKey()), entry.getValue()));
+                }
+            }
+            List<Hit> hits = new ArrayList<>(heap);
+            hits.sort(Comparator.comparingDouble(Hit::score).reversed());
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Split text into index terms: letter/digit words (plus the letter and
+     * digit parts of mixed words) and bigrams of CJK runs (a lone CJK
+     * character is kept as a unigram).
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        StringBuilder word = new StringBuilder();
+        List<Integer> cjk = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (isCjk(codePoint)) {
+                flushWord(word, tokens);
+                cjk.add(codePoint);
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                flushCjk(cjk, tokens);
+                word.appendCodePoint(Character.toLowerCase(codePoint));
+            } else {
+                flushWord(word, tokens);
+                flushCjk(cjk, tokens);
+            }
+        }
+        flushWord(word, tokens);
+        flushCjk(cjk, tokens);
+        return tokens;
+    }
+
+    private static Map<String, Integer> termFrequencies(String text) {
+        Map<String, Integer> frequencies = new LinkedHashMap<>();
+        for (String token : tokenize(text)) {
+            frequencies.merge(token, 1, Integer::sum);
+        }
+        return frequencies;
+    }
+
+    private void index(int ordinal, Map<String, Integer> frequencies) {
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), term -> new Postings()).add(ordinal, entry.getValue());
+        }
+        livePostings += frequencies.size();
+    }
+
+    private void append(long docId, List<Chunk> documentChunks) {
+        List<Integer> ordinals = ordinalsByDoc.computeIfAbsent(docId, id -> new ArrayList<>(documentChunks.size()));
+        for (Chunk chunk : documentChunks) {
+            int ordinal = chunks.size();
+            chunks.add(chunk);
+            Map<String, Integer> frequencies = termFrequencies(chunk.content());
+            int length = frequencies.values().stream().mapToInt(Integer::intValue).sum();
+            lengths.add(length);
+            postingCounts.add(frequencies.size());
+            index(ordinal, frequencies);
+            ordinals.add(ordinal);
+            totalLength += length;
+            liveChunks++;
+        }
+    }
+
+    private void remove(long docId) {
+        List<Integer> ordinals = ordinalsByDoc.remove(docId);
+        if (ordinals == null) {
+            return;
+        }
+        for (int ordinal : ordinals) {
+            livePostings -= postingCounts.get(ordinal);
+            deadPostings += postingCounts.get(ordinal);
+            chunks.set(ordinal, null);
+            totalLength -= lengths.get(ordinal);
+            liveChunks--;
+        }
+    }
+
+    /**
+     * Renumber the live chunks and rebuild the posting lists once dead
+     * postings outnumber live ones
+     */
+    private void compactIfNeeded() {
+        if (deadPostings <= livePostings) {
+            return;
+        }
+        List<Chunk> live = new ArrayList<>(liveChunks);
+        List<Integer> liveLengths = new ArrayList<>(liveChunks);
+        Map<Integer, Integer> renumbered = new HashMap<>();
+        for (int ordinal = 0; ordinal < chunks.size(); ordinal++) {
+            if (chunks.get(ordinal) != null) {
+                renumbered.put(ordinal, live.size());
+                live.add(chunks.get(ordinal));
+                liveLengths.add(lengths.get(ordinal));
+            }
+        }
+        chunks.clear();
+        chunks.addAll(live);
+        lengths.clear();
+        lengths.addAll(liveLengths);
+        postingCounts.clear();
+        postings.clear();
+        livePostings = 0;
+        deadPostings = 0;
+        for (int ordinal = 0; ordinal < chunks.size(); ordinal++) {
+            Map<String, Integer> frequencies = termFrequencies(chunks.get(ordinal).content());
+            postingCounts.add(frequencies.size());
+            index(ordinal, frequencies);
+        }
+        ordinalsByDoc.values().forEach(ordinals -> ordinals.replaceAll(renumbered::get));
+    }
+
+    private static void flushWord(StringBuilder word, List<String> tokens) {
+        if (word.isEmpty()) {
+            return;
+        }
+        String token = word.toString();
+        tokens.add(token);
+        // "cs101" -> also "cs" and "101", so "CS 101" and "CS101" match
+        int start = 0;
+        for (int j = 1; j <= token.length(); j++) {
+            if (j == token.length() || Character.isDigit(token.charAt(j)) != Character.isDigit(token.charAt(start))) {
+                if (start > 0 || j < token.length()) {
+                    tokens.add(token.substring(start, j));
+                }
+                start = j;
+            }
+        }
+        word.setLength(0);
+    }
+
+    private static void flushCjk(List<Integer> cjk, List<String> tokens) {
+        if (cjk.isEmpty()) {
+            return;
+        }
+        if (cjk.size() == 1) {
+            tokens.add(new String(Character.toChars(cjk.get(0))));
+        }
+        for (int j = 0; j + 1 < cjk.size(); j++) {
+            tokens.add(new StringBuilder().appendCodePoint(cjk.get(j)).appendCodePoint(cjk.get(j + 1)).toString());
+        }
+        cjk.clear();
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "Bm25Index{chunks=%d, terms=%d}", liveChunks, postings.size());
+    }
+}
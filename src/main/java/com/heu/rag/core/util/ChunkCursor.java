@@ -0,0 +1,44 @@
+package com.heu.rag.core.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque cursor for document chunk browsing: the document and the chunkIndex
+ * of the last chunk of the previous page, encoded as URL-safe base64 so
+ * clients cannot depend on its layout.
+ */
+public record ChunkCursor(long docId, int lastChunkIndex) {
+
+    private static final String VERSION = "c1";
+
+    public String encode() {
+        String raw = VERSION + ":" + docId + ":" + lastChunkIndex;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a cursor issued for the given document.
+     *
+     * @throws IllegalArgumentException if the cursor is malformed or belongs
+     *                                  to another document
+     */
+    public static ChunkCursor decode(String cursor, long docId) {
+        ChunkCursor decoded;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":");
+            if (parts.length != 3 || !VERSION.equals(parts[0])) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            decoded = new ChunkCursor(Long.parseLong(parts[1]), Integer.parseInt(parts[2]));
+        } catch (IllegalArgumentException e) {
+            // Malformed base64 or numbers
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+        if (decoded.docId() != docId) {
+            throw new IllegalArgumentException("Cursor does not belong to document " + docId);
+        }
+        return decoded;
+    }
+}
@@ -0,0 +1,323 @@
+package com.heu.rag.core.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+/**
+ * Hierarchical Navigable Small World graph (Malkov and Yashunin) over
+ * externally stored vectors, maximizing a similarity score (dot product of
+ * normalized vectors, i.e. cosine).
+ *
+ * Nodes reference vectors by slot; scores are computed by a VectorScorer
+ * passed per call, so the graph itself only holds adjacency lists and can be
+ * serialized independently of the vectors. Searches may filter results with
+ * a slot predicate: rejected nodes are still traversed but never returned,
+ * so restrictive filters degrade towards an exhaustive scan instead of
+ * losing recall.
+ *
+ * Not thread-safe for add(); concurrent searches are fine when no add() runs.
+ */
+public final class HnswGraph {
+
+    private static final int MAGIC = 0x484E5357; // "HNSW"
+
+    /**
+     * Similarity between stored vectors (by slot) and query vectors.
+     */
+    public interface VectorScorer {
+        float score(int slotA, int slotB);
+
+        float score(float[] query, int slot);
+    }
+
+    public record Hit(int slot, float score) {
+    }
+
+    private record Candidate(int node, float score) {
+    }
+
+    @FunctionalInterface
+    private interface NodeScore {
+        float score(int node);
+    }
+
+    private static final Comparator<Candidate> BEST_FIRST = (a, b) -> Float.compare(b.score(), a.score());
+    private static final Comparator<Candidate> WORST_FIRST = (a, b) -> Float.compare(a.score(), b.score());
+
+    private final int m;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random;
+
+    private int[] slots = new int[16];
+    // links[node][level] = {count, neighbor_1, ..., neighbor_capacity}
+    private int[][][] links = new int[16][][];
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswGraph(int m, int efConstruction, long seed) {
+        if (m < 2) {
+            throw new IllegalArgumentException("HNSW M must be at least 2");
+        }
+        this.m = m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.random = new Random(seed);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Insert the vector stored at the given slot.
+     */
+    public void add(int slot, VectorScorer scorer) {
+        int node = size;
+        if (node == slots.length) {
+            slots = Arrays.copyOf(slots, node * 2);
+            links = Arrays.copyOf(links, node * 2);
+        }
+        int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+        slots[node] = slot;
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[1 + capacity(l)];
+        }
+        size++;
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        NodeScore toNew = other -> scorer.score(slot, slots[other]);
+        int ep = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            ep = greedyClosest(toNew, ep, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Candidate> candidates = searchLayer(toNew, ep, efConstruction, l, null);
+            List<Candidate> selected = selectNeighbors(candidates, m, scorer);
+            int[] own = links[node][l];
+            own[0] = selected.size();
+            for (int i = 0; i < selected.size(); i++) {
+                own[i + 1] = selected.get(i).node();
+                link(selected.get(i).node(), node, l, scorer);
+            }
+            ep = candidates.get(0).node();
+        }
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+    }
+
+    /**
+     * Approximate top-k by score among the slots accepted by the filter.
+     *
+     * @param ef     Size of the dynamic candidate list (at least k)
+     * @param accept Slot filter, null to accept all
+     */
+    public List<Hit> search(float[] query, int k, int ef, IntPredicate accept, VectorScorer scorer) {
+        if (entryPoint < 0 || k <= 0) {
+            return new ArrayList<>();
+        }
+        NodeScore toQuery = node -> scorer.score(query, slots[node]);
+        int ep = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            ep = greedyClosest(toQuery, ep, l);
+        }
+        IntPredicate acceptNode = accept == null ? null : node -> accept.test(slots[node]);
+        List<Candidate> found = searchLayer(toQuery, ep, Math.max(ef, k), 0, acceptNode);
+        List<Hit> hits = new ArrayList<>(Math.min(k, found.size()));
+        for (int i = 0; i < found.size() && hits.size() < k; i++) {
+            hits.add(new Hit(slots[found.get(i).node()], found.get(i).score()));
+        }
+        return hits;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(m);
+        out.writeInt(efConstruction);
+        out.writeInt(size);
+        out.writeInt(entryPoint);
+        out.writeInt(maxLevel);
+        for (int node = 0; node < size; node++) {
+            out.writeInt(slots[node]);
+            out.writeInt(links[node].length);
+            for (int[] neighbors : links[node]) {
+                out.writeInt(neighbors[0]);
+                for (int i = 1; i <= neighbors[0]; i++) {
+                    out.writeInt(neighbors[i]);
+                }
+            }
+        }
+    }
+
+    public static HnswGraph readFrom(DataInput in, long seed) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an HNSW graph");
+        }
+        HnswGraph graph = new HnswGraph(in.readInt(), in.readInt(), seed);
+        int size = in.readInt();
+        graph.entryPoint = in.readInt();
+        graph.maxLevel = in.readInt();
+        graph.slots = new int[Math.max(16, size)];
+        graph.links = new int[Math.max(16, size)][][];
+        for (int node = 0; node < size; node++) {
+            graph.slots[node] = in.readInt();
+            int levels = in.readInt();
+            graph.links[node] = new int[levels][];
+            for (int l = 0; l < levels; l++) {
+                int[] neighbors = new int[1 + graph.capacity(l)];
+                int count = in.readInt();
+                if (count > neighbors.length - 1) {
+                    throw new IOException("Corrupt HNSW adjacency list");
+                }
+                neighbors[0] = count;
+                for (int i = 1; i <= count; i++) {
+                    neighbors[i] = in.readInt();
+                }
+                graph.links[node][l] = neighbors;
+            }
+        }
+        graph.size = size;
+        return graph;
+    }
+
+    private int capacity(int level) {
+        return level == 0 ? 2 * m : m;
+    }
+
+    private int greedyClosest(NodeScore score, int ep, int level) {
+        int current = ep;
+        float currentScore = score.score(current);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] neighbors = links[current][level];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                float s = score.score(neighbors[i]);
+                if (s > currentScore) {
+                    current = neighbors[i];
+                    currentScore = s;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first beam search of one layer; returns up to ef accepted nodes,
+     * best first.
+     */
+    private List<Candidate> searchLayer(NodeScore score, int ep, int ef, int level, IntPredicate accept) {
+        BitSet visited = new BitSet(size);
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(BEST_FIRST);
+        PriorityQueue<Candidate> results = new PriorityQueue<>(WORST_FIRST);
+
+        Candidate start = new Candidate(ep, score.score(ep));
+        visited.set(ep);
+        candidates.add(start);
+        if (accept == null || accept.test(ep)) {
+            results.add(start);
+        }
+
+        while (!candidates.isEmpty()) {
+            Candidate current = candidates.poll();
+            if (results.size() >= ef && current.score() < results.peek().score()) {
+                break;
+            }
+            int[] neighbors = links[current.node()][level];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                int neighbor = neighbors[i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float s = score.score(neighbor);
+                if (results.size() < ef || s > results.peek().score()) {
+                    Candidate candidate = new Candidate(neighbor, s);
+                    candidates.add(candidate);
+                    if (accept == null || accept.test(neighbor)) {
+                        results.add(candidate);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(BEST_FIRST);
+        return sorted;
+    }
+
+    /**
+     * Neighbor selection heuristic: keep a candidate only if it is closer to
+     * the base node than to every already selected neighbor (spreads links
+     * across directions), then top up with the pruned ones.
+     */
+    private List<Candidate> selectNeighbors(List<Candidate> candidates, int maxCount, VectorScorer scorer) {
+        List<Candidate> selected = new ArrayList<>(maxCount);
+        List<Candidate> pruned = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (selected.size() >= maxCount) {
+                break;
+            }
+            boolean diverse = true;
+            for (Candidate chosen : selected) {
+                if (scorer.score(slots[candidate.node()], slots[chosen.node()]) > candidate.score()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            (diverse ? selected : pruned).add(candidate);
+        }
+        for (int i = 0; i < pruned.size() && selected.size() < maxCount; i++) {
+            selected.add(pruned.get(i));
+        }
+        return selected;
+    }
+
+    /**
+     * Add a back link from node to newNode, re-selecting the node's
+     * neighbors when its list is full.
+     */
+    private void link(int node, int newNode, int level, VectorScorer scorer) {
+        int[] neighbors = links[node][level];
+        int count = neighbors[0];
+        if (count < neighbors.length - 1) {
+            neighbors[count + 1] = newNode;
+            neighbors[0] = count + 1;
+            return;
+        }
+        int slot = slots[node];
+        List<Candidate> candidates = new ArrayList<>(count + 1);
+        for (int i = 1; i <= count; i++) {
+            candidates.add(new Candidate(neighbors[i], scorer.score(slot, slots[neighbors[i]])));
+        }
+        candidates.add(new Candidate(newNode, scorer.score(slot, slots[newNode])));
+        candidates.sort(BEST_FIRST);
+        List<Candidate> selected = selectNeighbors(candidates, neighbors.length - 1, scorer);
+        neighbors[0] = selected.size();
+        for (int i = 0; i < selected.size(); i++) {
+            neighbors[i + 1] = selected.get(i).node();
+        }
+    }
+}
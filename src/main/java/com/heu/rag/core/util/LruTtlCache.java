@@ -0,0 +1,114 @@
+package com.heu.rag.core.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Small thread-safe LRU cache with a per-entry time-to-live.
+ * Used by the retrieval caches; keeps hit/miss/eviction counters.
+ */
+public class LruTtlCache<K, V> {
+
+    private final int maxEntries;
+    private final long ttlMs;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public LruTtlCache(int maxEntries, long ttlMs) {
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+        // Access-ordered map gives LRU iteration order
+        this.entries = new LinkedHashMap<>(Math.max(16, Math.min(maxEntries, 1024)), 0.75f, true);
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Get a live entry, or null on miss / expiry.
+     */
+    public V get(K key) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    hits.increment();
+                    return entry.value;
+                }
+                entries.remove(key);
+                evictions.increment();
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(K key, V value) {
+        if (!isEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            entries.put(key, new Entry<>(value, now + ttlMs));
+            Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+            while (it.hasNext() && entries.size() > maxEntries) {
+                it.next();
+                it.remove();
+                evictions.increment();
+            }
+            // Opportunistically drop expired entries at the LRU end
+            it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().getValue().expiresAt > now) {
+                    break;
+                }
+                it.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int maxEntries() {
+        return maxEntries;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public double hitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0.0 : hitCount / (double) total;
+    }
+
+    private record Entry<V>(V value, long expiresAt) {
+    }
+}
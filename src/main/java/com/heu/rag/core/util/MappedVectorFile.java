@@ -0,0 +1,142 @@
+package com.heu.rag.core.util;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-dimension float vectors stored off-heap in memory-mapped segment
+ * files (vectors-00000.f32, vectors-00001.f32, ...), addressed by slot.
+ *
+ * A single mapping is limited to 2 GB, so slots are spread over segments of
+ * at most 1 GB; segments are created (sparse) on demand. Vectors are written
+ * in place and only durable after force(). Not thread-safe for writes;
+ * concurrent reads of written slots are fine.
+ */
+public final class MappedVectorFile {
+
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    private final Path directory;
+    private final int dimension;
+    private final int slotsPerSegment;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final List<FloatBuffer> views = new ArrayList<>();
+    private final List<Boolean> dirty = new ArrayList<>();
+
+    public MappedVectorFile(Path directory, int dimension) throws IOException {
+        this.directory = directory;
+        this.dimension = dimension;
+        this.slotsPerSegment = (int) Math.max(1, SEGMENT_BYTES / ((long) dimension * Float.BYTES));
+        Files.createDirectories(directory);
+        while (Files.exists(segmentPath(segments.size()))) {
+            mapSegment(segments.size());
+        }
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Write a vector into a slot, creating segments as needed.
+     */
+    public void write(int slot, float[] vector) throws IOException {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException(String.format(
+                    "Vector has dimension %d, store expects %d", vector.length, dimension));
+        }
+        int segment = slot / slotsPerSegment;
+        while (segments.size() <= segment) {
+            mapSegment(segments.size());
+        }
+        FloatBuffer view = views.get(segment);
+        int offset = (slot % slotsPerSegment) * dimension;
+        for (int i = 0; i < dimension; i++) {
+            view.put(offset + i, vector[i]);
+        }
+        dirty.set(segment, true);
+    }
+
+    public float[] read(int slot) {
+        FloatBuffer view = views.get(slot / slotsPerSegment);
+        int offset = (slot % slotsPerSegment) * dimension;
+        float[] vector = new float[dimension];
+        view.get(offset, vector);
+        return vector;
+    }
+
+    /**
+     * Dot product of a stored vector with the given one.
+     */
+    public float dot(int slot, float[] vector) {
+        FloatBuffer view = views.get(slot / slotsPerSegment);
+        int offset = (slot % slotsPerSegment) * dimension;
+        float sum = 0f;
+        for (int i = 0; i < dimension; i++) {
+            sum += view.get(offset + i) * vector[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Dot product of two stored vectors.
+     */
+    public float dot(int slotA, int slotB) {
+        FloatBuffer viewA = views.get(slotA / slotsPerSegment);
+        FloatBuffer viewB = views.get(slotB / slotsPerSegment);
+        int offsetA = (slotA % slotsPerSegment) * dimension;
+        int offsetB = (slotB % slotsPerSegment) * dimension;
+        float sum = 0f;
+        for (int i = 0; i < dimension; i++) {
+            sum += viewA.get(offsetA + i) * viewB.get(offsetB + i);
+        }
+        return sum;
+    }
+
+    /**
+     * Flush written vectors to disk.
+     */
+    public void force() {
+        for (int i = 0; i < segments.size(); i++) {
+            if (dirty.get(i)) {
+                segments.get(i).force();
+                dirty.set(i, false);
+            }
+        }
+    }
+
+    /**
+     * Bytes reserved by the segment files.
+     */
+    public long sizeOnDisk() {
+        return (long) segments.size() * slotsPerSegment * dimension * Float.BYTES;
+    }
+
+    private void mapSegment(int index) throws IOException {
+        long bytes = (long) slotsPerSegment * dimension * Float.BYTES;
+        try (RandomAccessFile file = new RandomAccessFile(segmentPath(index).toFile(), "rw");
+                FileChannel channel = file.getChannel()) {
+            if (file.length() < bytes) {
+                file.setLength(bytes);
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            segments.add(buffer);
+            views.add(buffer.asFloatBuffer());
+            dirty.add(false);
+        }
+    }
+
+    private Path segmentPath(int index) {
+        return directory.resolve(String.format("vectors-%05d.f32", index));
+    }
+}
@@ -35,36 +35,61 @@ public class MilvusDocumentSanitizer {
 
         int safeIndex = 0;
         for (int i = 0; i < sourceDocs.size(); i++) {
-            Document doc = sourceDocs.get(i);
-            if (doc == null) {
-                warnings.add(String.format("doc[%d] is null and skipped", i));
-                continue;
+            Document safeDoc = sanitizeChunk(sourceDocs.get(i), i, safeIndex, docId, baseId, fileName, isEnabled,
+                    baseTimestamp, warnings);
+            if (safeDoc != null) {
+                sanitizedDocs.add(safeDoc);
+                safeIndex++;
             }
+        }
 
-            String safeId = normalizeString(doc.getId(), null);
-            if (safeId == null) {
-                safeId = String.format("%d_%d_%d_retry", docId, i, baseTimestamp + i);
-                warnings.add(String.format("doc[%d].id is null/blank, generated fallback id=%s", i, safeId));
-            }
+        return new SanitizeResult(sanitizedDocs, warnings);
+    }
 
-            String safeContent = normalizeString(doc.getText(), null);
-            if (safeContent == null) {
-                warnings.add(String.format("doc[%d].content is null/blank and skipped", i));
-                continue;
-            }
+    /**
+     * Sanitize a single chunk (for chunks produced one at a time, see
+     * IngestionParsingService).
+     *
+     * @param sourceIndex Position of the chunk in the source, for warnings
+     *                    and fallback ids
+     * @param chunkIndex  chunkIndex to store in the metadata
+     * @return The sanitized chunk, or null if it has no content
+     */
+    public Document sanitizeChunk(
+            Document doc,
+            int sourceIndex,
+            int chunkIndex,
+            Long docId,
+            Long baseId,
+            String fileName,
+            Boolean isEnabled,
+            long baseTimestamp,
+            List<String> warnings) {
+        if (doc == null) {
+            warnings.add(String.format("doc[%d] is null and skipped", sourceIndex));
+            return null;
+        }
 
-            Map<String, Object> safeMetadata = sanitizeMap(doc.getMetadata(), String.format("doc[%d].metadata", i), warnings);
-            safeMetadata.put("docId", normalizeString(String.valueOf(docId), ""));
-            safeMetadata.put("baseId", normalizeString(String.valueOf(baseId), ""));
-            safeMetadata.put("fileName", normalizeString(fileName, "unnamed-file"));
-            safeMetadata.put("chunkIndex", String.valueOf(safeIndex));
-            safeMetadata.put("isEnabled", String.valueOf(Boolean.TRUE.equals(isEnabled)));
+        String safeId = normalizeString(doc.getId(), null);
+        if (safeId == null) {
+            safeId = String.format("%d_%d_%d_retry", docId, sourceIndex, baseTimestamp + sourceIndex);
+            warnings.add(String.format("doc[%d].id is null/blank, generated fallback id=%s", sourceIndex, safeId));
+        }
 
-            sanitizedDocs.add(new Document(safeId, safeContent, safeMetadata));
-            safeIndex++;
+        String safeContent = normalizeString(doc.getText(), null);
+        if (safeContent == null) {
+            warnings.add(String.format("doc[%d].content is null/blank and skipped", sourceIndex));
+            return null;
         }
 
-        return new SanitizeResult(sanitizedDocs, warnings);
+        Map<String, Object> safeMetadata = sanitizeMap(doc.getMetadata(), String.format("doc[%d].metadata", sourceIndex), warnings);
+        safeMetadata.put("docId", normalizeString(String.valueOf(docId), ""));
+        safeMetadata.put("baseId", normalizeString(String.valueOf(baseId), ""));
+        safeMetadata.put("fileName", normalizeString(fileName, "unnamed-file"));
+        safeMetadata.put("chunkIndex", String.valueOf(chunkIndex));
+        safeMetadata.put("isEnabled", String.valueOf(Boolean.TRUE.equals(isEnabled)));
+
+        return new Document(safeId, safeContent, safeMetadata);
     }
 
     private Map<String, Object> sanitizeMap(Map<String, Object> map, String path, List<String> warnings) {
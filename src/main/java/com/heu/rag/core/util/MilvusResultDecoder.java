@@ -0,0 +1,229 @@
+package com.heu.rag.core.util;
+
+import com.heu.rag.core.domain.RetrievedChunk;
+import io.milvus.grpc.FieldData;
+import io.milvus.grpc.FloatArray;
+import io.milvus.grpc.IDs;
+import io.milvus.grpc.QueryResults;
+import io.milvus.grpc.ScalarField;
+import io.milvus.grpc.SearchResultData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decodes Milvus search/query responses straight from the gRPC messages.
+ *
+ * Compared to SearchResultsWrapper/QueryResultsWrapper this avoids reflection,
+ * resolves each output column once per response instead of once per row, never
+ * materializes whole columns as boxed lists, and skips below-threshold hits
+ * before touching their content. metadata_json is kept as a raw string and
+ * decoded lazily by RetrievedChunk.
+ */
+public final class MilvusResultDecoder {
+
+    public static final String COUNT_FIELD = "count(*)";
+
+    private MilvusResultDecoder() {
+    }
+
+    /**
+     * Decode the hits of one query vector of a search response.
+     *
+     * @param data          SearchResults.getResults()
+     * @param queryIndex    index of the query vector (0 for single-vector search)
+     * @param minScore      hits scoring below this are skipped
+     * @param contentField  VarChar content field name
+     * @param metadataField JSON metadata field name
+     */
+    public static List<RetrievedChunk> decodeSearch(SearchResultData data, int queryIndex, double minScore,
+            String contentField, String metadataField) {
+        return decodeSearch(data, queryIndex, minScore, contentField, metadataField, null);
+    }
+
+    /**
+     * Decode the hits of one query vector of a search response, including the
+     * float vectors of vectorField (an output field of the search) when it is
+     * not null.
+     */
+    public static List<RetrievedChunk> decodeSearch(SearchResultData data, int queryIndex, double minScore,
+            String contentField, String metadataField, String vectorField) {
+        if (data == null || data.getTopksCount() <= queryIndex) {
+            return Collections.emptyList();
+        }
+
+        // Hits of query i are stored after the hits of queries 0..i-1
+        int offset = 0;
+        for (int q = 0; q < queryIndex; q++) {
+            offset += (int) data.getTopks(q);
+        }
+        int hitCount = (int) data.getTopks(queryIndex);
+
+        Column content = Column.resolve(data.getFieldsDataList(), contentField);
+        Column metadata = Column.resolve(data.getFieldsDataList(), metadataField);
+        VectorColumn vectors = VectorColumn.resolve(data.getFieldsDataList(), vectorField);
+        IDs ids = data.getIds();
+        boolean intIds = ids.hasIntId();
+
+        List<RetrievedChunk> chunks = new ArrayList<>(hitCount);
+        for (int i = offset; i < offset + hitCount; i++) {
+            float score = data.getScores(i);
+            if (score < minScore) {
+                continue;
+            }
+            String id = intIds ? Long.toString(ids.getIntId().getData(i)) : ids.getStrId().getData(i);
+            chunks.add(new RetrievedChunk(id, content.getString(i), score, metadata.getJson(i), vectors.get(i)));
+        }
+        return chunks;
+    }
+
+    /**
+     * Decode all rows of a query response.
+     */
+    public static List<RetrievedChunk> decodeQuery(QueryResults results, String idField, String contentField,
+            String metadataField) {
+        return decodeQuery(results, idField, contentField, metadataField, null);
+    }
+
+    /**
+     * Decode all rows of a query response, including the float vectors of
+     * vectorField when it is not null.
+     */
+    public static List<RetrievedChunk> decodeQuery(QueryResults results, String idField, String contentField,
+            String metadataField, String vectorField) {
+        if (results == null) {
+            return Collections.emptyList();
+        }
+        List<FieldData> fields = results.getFieldsDataList();
+        Column id = Column.resolve(fields, idField);
+        Column content = Column.resolve(fields, contentField);
+        Column metadata = Column.resolve(fields, metadataField);
+        VectorColumn vectors = VectorColumn.resolve(fields, vectorField);
+
+        int rowCount = id.size();
+        List<RetrievedChunk> chunks = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            chunks.add(new RetrievedChunk(id.getString(i), content.getString(i), 0f, metadata.getJson(i),
+                    vectors.get(i)));
+        }
+        return chunks;
+    }
+
+    /**
+     * Value of a count(*) query (output field "count(*)"), 0 when absent.
+     */
+    public static long count(QueryResults results) {
+        if (results == null) {
+            return 0;
+        }
+        for (FieldData field : results.getFieldsDataList()) {
+            if (COUNT_FIELD.equals(field.getFieldName()) && field.hasScalars()
+                    && field.getScalars().getLongData().getDataCount() > 0) {
+                return field.getScalars().getLongData().getData(0);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Accessor for one output column, resolved once per response.
+     */
+    private static final class Column {
+
+        private static final Column MISSING = new Column(null);
+
+        private final ScalarField scalars;
+
+        private Column(ScalarField scalars) {
+            this.scalars = scalars;
+        }
+
+        static Column resolve(List<FieldData> fields, String name) {
+            if (name == null) {
+                return MISSING;
+            }
+            for (FieldData field : fields) {
+                if (name.equals(field.getFieldName()) && field.hasScalars()) {
+                    return new Column(field.getScalars());
+                }
+            }
+            return MISSING;
+        }
+
+        int size() {
+            if (scalars == null) {
+                return 0;
+            }
+            return switch (scalars.getDataCase()) {
+                case STRING_DATA -> scalars.getStringData().getDataCount();
+                case LONG_DATA -> scalars.getLongData().getDataCount();
+                case INT_DATA -> scalars.getIntData().getDataCount();
+                case BOOL_DATA -> scalars.getBoolData().getDataCount();
+                case JSON_DATA -> scalars.getJsonData().getDataCount();
+                default -> 0;
+            };
+        }
+
+        String getString(int row) {
+            if (scalars == null) {
+                return null;
+            }
+            return switch (scalars.getDataCase()) {
+                case STRING_DATA -> scalars.getStringData().getData(row);
+                case LONG_DATA -> Long.toString(scalars.getLongData().getData(row));
+                case INT_DATA -> Integer.toString(scalars.getIntData().getData(row));
+                case JSON_DATA -> scalars.getJsonData().getData(row).toStringUtf8();
+                default -> null;
+            };
+        }
+
+        String getJson(int row) {
+            if (scalars == null || !scalars.hasJsonData()) {
+                return null;
+            }
+            return scalars.getJsonData().getData(row).toStringUtf8();
+        }
+    }
+
+    /**
+     * Accessor for a float vector column, resolved once per response.
+     */
+    private static final class VectorColumn {
+
+        private static final VectorColumn MISSING = new VectorColumn(null, 0);
+
+        private final FloatArray data;
+        private final int dim;
+
+        private VectorColumn(FloatArray data, int dim) {
+            this.data = data;
+            this.dim = dim;
+        }
+
+        static VectorColumn resolve(List<FieldData> fields, String name) {
+            if (name == null) {
+                return MISSING;
+            }
+            for (FieldData field : fields) {
+                if (name.equals(field.getFieldName()) && field.hasVectors()
+                        && field.getVectors().hasFloatVector()) {
+                    return new VectorColumn(field.getVectors().getFloatVector(), (int) field.getVectors().getDim());
+                }
+            }
+            return MISSING;
+        }
+
+        float[] get(int row) {
+            if (data == null || dim <= 0) {
+                return null;
+            }
+            float[] vector = new float[dim];
+            int base = row * dim;
+            for (int j = 0; j < dim; j++) {
+                vector[j] = data.getData(base + j);
+            }
+            return vector;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.heu.rag.core.util;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.knuddels.jtokkit.api.IntArrayList;
+
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Incremental version of Spring AI's TokenTextSplitter for text that
+ * arrives in pieces (see IngestionParsingService): chunks of chunkSize
+ * cl100k_base tokens, cut back to the last sentence end ('.', '?', '!' or a
+ * line break) past minChunkSizeChars, trimmed, and dropped if not longer
+ * than minChunkLengthToEmbed.
+ *
+ * Text is buffered until window-chars characters are pending; the buffer is
+ * then tokenized once and chunks are emitted while at least two chunks worth
+ * of tokens are left, so the emitted chunks are the ones TokenTextSplitter
+ * would produce for the whole text (up to token merges across a window
+ * boundary). The rest is kept for the next window. Runs of blank lines are
+ * collapsed like ExtractedTextFormatter does for TikaDocumentReader. Not
+ * thread-safe.
+ */
+public final class StreamingTextSplitter {
+
+    private static final Encoding ENCODING = Encodings.newLazyEncodingRegistry()
+            .getEncoding(EncodingType.CL100K_BASE);
+    private static final Pattern BLANK_LINES = Pattern.compile("(?m)(^\\s*$\\R?)+");
+
+    private final int chunkSize;
+    private final int minChunkSizeChars;
+    private final int minChunkLengthToEmbed;
+    private final int windowChars;
+    private final Consumer<String> sink;
+    private final StringBuilder pending = new StringBuilder();
+    private long chunks;
+
+    /**
+     * @param sink Receives each chunk as soon as it is cut
+     */
+    public StreamingTextSplitter(int chunkSize, int minChunkSizeChars, int minChunkLengthToEmbed, int windowChars,
+            Consumer<String> sink) {
+        this.chunkSize = chunkSize;
+        this.minChunkSizeChars = minChunkSizeChars;
+        this.minChunkLengthToEmbed = minChunkLengthToEmbed;
+        this.windowChars = Math.max(windowChars, chunkSize * 8);
+        this.sink = sink;
+    }
+
+    public void append(char[] text, int start, int length) {
+        pending.append(text, start, length);
+        if (pending.length() >= windowChars) {
+            split(false);
+        }
+    }
+
+    public void append(String text) {
+        pending.append(text);
+        if (pending.length() >= windowChars) {
+            split(false);
+        }
+    }
+
+    /**
+     * Emit the chunks of the remaining text
+     */
+    public void finish() {
+        split(true);
+    }
+
+    /**
+     * Chunks emitted so far (after the minChunkLengthToEmbed filter)
+     */
+    public long chunkCount() {
+        return chunks;
+    }
+
+    private void split(boolean last) {
+        String text = BLANK_LINES.matcher(pending).replaceAll(System.lineSeparator());
+        pending.setLength(0);
+        if (text.isBlank()) {
+            return;
+        }
+        int[] tokens = ENCODING.encode(text).toArray();
+        int position = 0;
+        while (position < tokens.length && (last || tokens.length - position >= chunkSize * 2)) {
+            int end = Math.min(position + chunkSize, tokens.length);
+            String chunkText = decode(tokens, position, end);
+            if (chunkText.trim().isEmpty()) {
+                position = end;
+                continue;
+            }
+            int lastPunctuation = Math.max(chunkText.lastIndexOf('.'), Math.max(chunkText.lastIndexOf('?'),
+                    Math.max(chunkText.lastIndexOf('!'), chunkText.lastIndexOf('\n'))));
+            if (lastPunctuation != -1 && lastPunctuation > minChunkSizeChars) {
+                chunkText = chunkText.substring(0, lastPunctuation + 1);
+            }
+            String chunk = chunkText.trim();
+            if (chunk.length() > minChunkLengthToEmbed) {
+                chunks++;
+                sink.accept(chunk);
+            }
+            // Like TokenTextSplitter: advance by the re-encoded length of the cut text
+            position += Math.max(1, ENCODING.countTokens(chunkText));
+        }
+        if (position < tokens.length) {
+            pending.append(decode(tokens, position, tokens.length));
+        }
+    }
+
+    private static String decode(int[] tokens, int from, int to) {
+        IntArrayList slice = new IntArrayList(to - from);
+        for (int i = from; i < to; i++) {
+            slice.add(tokens[i]);
+        }
+        return ENCODING.decode(slice);
+    }
+}
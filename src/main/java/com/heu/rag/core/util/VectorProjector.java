@@ -0,0 +1,202 @@
+package com.heu.rag.core.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Linear dimension reduction y = P (x - mean), P being targetDim x sourceDim.
+ *
+ * - random(): Gaussian random projection (Johnson-Lindenstrauss), no training
+ * data needed, mean is zero.
+ * - pca(): top principal components of a sample, computed with randomized
+ * subspace iteration so the sourceDim x sourceDim covariance matrix is never
+ * materialized.
+ *
+ * Instances are immutable and thread-safe.
+ */
+public final class VectorProjector {
+
+    private final int sourceDimension;
+    private final int targetDimension;
+    private final float[] matrix; // row-major, targetDimension x sourceDimension
+    private final float[] mean;
+
+    public VectorProjector(int sourceDimension, int targetDimension, float[] matrix, float[] mean) {
+        if (matrix.length != sourceDimension * targetDimension || mean.length != sourceDimension) {
+            throw new IllegalArgumentException("Projection matrix does not match its dimensions");
+        }
+        this.sourceDimension = sourceDimension;
+        this.targetDimension = targetDimension;
+        this.matrix = matrix;
+        this.mean = mean;
+    }
+
+    public int getSourceDimension() {
+        return sourceDimension;
+    }
+
+    public int getTargetDimension() {
+        return targetDimension;
+    }
+
+    public float[] project(float[] vector) {
+        if (vector.length != sourceDimension) {
+            throw new IllegalArgumentException(String.format(
+                    "Vector has dimension %d, projection expects %d", vector.length, sourceDimension));
+        }
+        float[] centered = new float[sourceDimension];
+        for (int j = 0; j < sourceDimension; j++) {
+            centered[j] = vector[j] - mean[j];
+        }
+        float[] projected = new float[targetDimension];
+        for (int i = 0; i < targetDimension; i++) {
+            int row = i * sourceDimension;
+            double sum = 0;
+            for (int j = 0; j < sourceDimension; j++) {
+                sum += matrix[row + j] * centered[j];
+            }
+            projected[i] = (float) sum;
+        }
+        return projected;
+    }
+
+    public byte[] matrixBytes() {
+        return toBytes(matrix);
+    }
+
+    public byte[] meanBytes() {
+        return toBytes(mean);
+    }
+
+    public static VectorProjector fromBytes(int sourceDimension, int targetDimension, byte[] matrix, byte[] mean) {
+        return new VectorProjector(sourceDimension, targetDimension, fromBytes(matrix), fromBytes(mean));
+    }
+
+    /**
+     * Gaussian random projection with entries N(0, 1/targetDimension).
+     */
+    public static VectorProjector random(int sourceDimension, int targetDimension, long seed) {
+        Random random = new Random(seed);
+        float scale = (float) (1.0 / Math.sqrt(targetDimension));
+        float[] matrix = new float[sourceDimension * targetDimension];
+        for (int i = 0; i < matrix.length; i++) {
+            matrix[i] = (float) random.nextGaussian() * scale;
+        }
+        return new VectorProjector(sourceDimension, targetDimension, matrix, new float[sourceDimension]);
+    }
+
+    /**
+     * Top targetDimension principal components of the sample.
+     *
+     * Randomized subspace iteration: Q (d x k) starts random and is repeatedly
+     * replaced by orth(X^T X Q), X being the centered sample (n x d). Cost is
+     * O(iterations * n * d * k).
+     */
+    public static VectorProjector pca(List<float[]> sample, int targetDimension, int iterations, long seed) {
+        int n = sample.size();
+        int d = sample.get(0).length;
+        if (n < targetDimension) {
+            throw new IllegalArgumentException(String.format(
+                    "PCA to %d dimensions needs at least %d sample vectors, got %d", targetDimension,
+                    targetDimension, n));
+        }
+
+        float[] mean = new float[d];
+        for (float[] vector : sample) {
+            for (int j = 0; j < d; j++) {
+                mean[j] += vector[j] / n;
+            }
+        }
+        float[][] x = new float[n][d];
+        for (int r = 0; r < n; r++) {
+            float[] vector = sample.get(r);
+            for (int j = 0; j < d; j++) {
+                x[r][j] = vector[j] - mean[j];
+            }
+        }
+
+        // q[c] is column c of Q (length d)
+        Random random = new Random(seed);
+        double[][] q = new double[targetDimension][d];
+        for (double[] column : q) {
+            for (int j = 0; j < d; j++) {
+                column[j] = random.nextGaussian();
+            }
+        }
+        orthonormalize(q);
+
+        for (int it = 0; it < Math.max(1, iterations); it++) {
+            // Z = X Q (n x k), then Y = X^T Z (d x k)
+            double[][] y = new double[targetDimension][d];
+            for (int r = 0; r < n; r++) {
+                float[] row = x[r];
+                for (int c = 0; c < targetDimension; c++) {
+                    double[] column = q[c];
+                    double z = 0;
+                    for (int j = 0; j < d; j++) {
+                        z += row[j] * column[j];
+                    }
+                    double[] target = y[c];
+                    for (int j = 0; j < d; j++) {
+                        target[j] += row[j] * z;
+                    }
+                }
+            }
+            orthonormalize(y);
+            q = y;
+        }
+
+        float[] matrix = new float[targetDimension * d];
+        for (int c = 0; c < targetDimension; c++) {
+            for (int j = 0; j < d; j++) {
+                matrix[c * d + j] = (float) q[c][j];
+            }
+        }
+        return new VectorProjector(d, targetDimension, matrix, mean);
+    }
+
+    /**
+     * Modified Gram-Schmidt over the given column vectors, in place.
+     */
+    private static void orthonormalize(double[][] columns) {
+        for (int c = 0; c < columns.length; c++) {
+            double[] current = columns[c];
+            for (int p = 0; p < c; p++) {
+                double[] previous = columns[p];
+                double dot = 0;
+                for (int j = 0; j < current.length; j++) {
+                    dot += current[j] * previous[j];
+                }
+                for (int j = 0; j < current.length; j++) {
+                    current[j] -= dot * previous[j];
+                }
+            }
+            double norm = 0;
+            for (double value : current) {
+                norm += value * value;
+            }
+            norm = Math.sqrt(norm);
+            if (norm < 1e-12) {
+                // Degenerate direction (rank-deficient sample); leave it as zeros
+                continue;
+            }
+            for (int j = 0; j < current.length; j++) {
+                current[j] /= norm;
+            }
+        }
+    }
+
+    private static byte[] toBytes(float[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(values);
+        return buffer.array();
+    }
+
+    private static float[] fromBytes(byte[] bytes) {
+        float[] values = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(values);
+        return values;
+    }
+}
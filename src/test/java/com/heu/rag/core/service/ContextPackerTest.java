@@ -0,0 +1,138 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.core.domain.RetrievedChunk;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContextPackerTest {
+
+    private static final String SEPARATOR = ContextPacker.CHUNK_SEPARATOR;
+
+    private final TokenCountEstimator estimator = new JTokkitTokenCountEstimator();
+
+    @Test
+    void packsWholeChunksInRetrievalOrderWhenTheyFit() {
+        ContextPacker packer = packer(1000, 100, 8);
+
+        ContextPacker.PackedContext packed = packer.pack(List.of(
+                chunk("a", "First chunk."), chunk("empty", ""), chunk("b", "Second chunk.")));
+
+        assertEquals("First chunk." + SEPARATOR + "Second chunk.", packed.text());
+        assertEquals(tokens("First chunk.") + tokens(SEPARATOR) + tokens("Second chunk."), packed.tokens());
+        assertEquals(2, packed.included());
+        assertEquals(0, packed.truncated());
+        assertEquals(List.of(), packed.droppedIds());
+    }
+
+    @Test
+    void cutsTheFirstChunkOverBudgetAtASentenceBoundary() {
+        String first = "Alpha beta gamma.";
+        String second = " Delta epsilon zeta.";
+        String third = " Eta theta iota kappa lambda.";
+        ContextPacker packer = packer(tokens(first) + tokens(second), 100, 1);
+
+        ContextPacker.PackedContext packed = packer.pack(List.of(chunk("a", first + second + third)));
+
+        assertEquals(first + second, packed.text());
+        assertEquals(1, packed.included());
+        assertEquals(1, packed.truncated());
+        assertTrue(packed.tokens() <= tokens(first) + tokens(second));
+    }
+
+    @Test
+    void cutsChineseTextAtChineseSentenceEnds() {
+        String first = "哈尔滨工程大学位于哈尔滨。";
+        String second = "图书馆早八点开放！";
+        String third = "考试安排请查看教务处网站通知。";
+        ContextPacker packer = packer(tokens(first) + tokens(second) + tokens(third) - 1, 100, 1);
+
+        ContextPacker.PackedContext packed = packer.pack(List.of(chunk("a", first + second + third)));
+
+        assertEquals(first + second, packed.text());
+    }
+
+    @Test
+    void dropsAChunkWhenTooLittleBudgetIsLeftButStillAddsSmallerOnes() {
+        String whole = "One two three four five six seven eight nine ten.";
+        String large = "A much longer chunk that would only fit in part. It has several sentences. "
+                + "None of them matter here.";
+        String small = "Tiny.";
+        int budget = tokens(whole) + tokens(SEPARATOR) + tokens(SEPARATOR) + tokens(small) + 2;
+        ContextPacker packer = packer(budget, 100, 50);
+
+        ContextPacker.PackedContext packed = packer.pack(List.of(
+                chunk("a", whole), chunk("b", large), chunk("c", small)));
+
+        assertEquals(whole + SEPARATOR + small, packed.text());
+        assertEquals(2, packed.included());
+        assertEquals(0, packed.truncated());
+        assertEquals(List.of("b"), packed.droppedIds());
+    }
+
+    @Test
+    void truncatesAtMostOneChunk() {
+        String sentences = "Alpha beta gamma. Delta epsilon zeta. Eta theta iota. Kappa lambda mu.";
+        ContextPacker packer = packer(tokens(sentences) / 2, 100, 1);
+
+        ContextPacker.PackedContext packed = packer.pack(List.of(chunk("a", sentences), chunk("b", sentences)));
+
+        assertEquals(1, packed.included());
+        assertEquals(1, packed.truncated());
+        assertEquals(List.of("b"), packed.droppedIds());
+        assertTrue(sentences.startsWith(packed.text()));
+    }
+
+    @Test
+    void dropsAChunkWhoseFirstSentenceDoesNotFit() {
+        String sentence = "This single sentence is far longer than the remaining budget allows for.";
+        ContextPacker packer = packer(tokens(sentence) / 2, 100, 1);
+
+        ContextPacker.PackedContext packed = packer.pack(List.of(chunk("a", sentence)));
+
+        assertEquals("", packed.text());
+        assertEquals(0, packed.included());
+        assertEquals(0, packed.truncated());
+        assertEquals(List.of("a"), packed.droppedIds());
+    }
+
+    @Test
+    void keepsTheNewestHistoryMessagesThatFitInOrder() {
+        Message oldest = new UserMessage("What is the exam schedule for this semester at the university?");
+        Message older = new AssistantMessage("It is published on the registrar website.");
+        Message newer = new UserMessage("Where exactly?");
+        Message newest = new AssistantMessage("Under notices.");
+        int budget = tokens(older.getText()) + tokens(newer.getText()) + tokens(newest.getText());
+        ContextPacker packer = packer(1000, budget, 8);
+
+        assertEquals(List.of(older, newer, newest), packer.fitHistory(List.of(oldest, older, newer, newest)));
+        assertEquals(List.of(newest), packer(1000, tokens(newest.getText()), 8)
+                .fitHistory(List.of(oldest, older, newer, newest)));
+        assertEquals(List.of(), packer(1000, 0, 8).fitHistory(List.of(newest)));
+    }
+
+    private ContextPacker packer(int contextBudget, int historyBudget, int minChunkTokens) {
+        ContextPacker packer = new ContextPacker();
+        ReflectionTestUtils.setField(packer, "contextTokenBudget", contextBudget);
+        ReflectionTestUtils.setField(packer, "historyTokenBudget", historyBudget);
+        ReflectionTestUtils.setField(packer, "minChunkTokens", minChunkTokens);
+        return packer;
+    }
+
+    private int tokens(String text) {
+        return estimator.estimate(text);
+    }
+
+    private static RetrievedChunk chunk(String id, String content) {
+        return new RetrievedChunk(id, content, 0.9f, null);
+    }
+}
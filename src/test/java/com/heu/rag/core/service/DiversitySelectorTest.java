@@ -0,0 +1,107 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.core.domain.RetrievedChunk;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DiversitySelectorTest {
+
+    private static final float[] X = { 1f, 0f, 0f };
+    private static final float[] NEAR_X = { 0.9f, 0.436f, 0f }; // cosine 0.9 to X
+    private static final float[] Y = { 0f, 1f, 0f };
+    private static final float[] Z = { 0f, 0f, 1f };
+
+    @Test
+    void disabledSelectionKeepsTheRankingPrefix() {
+        DiversitySelector selector = selector(false, 0.5, 3, 0.95);
+        List<RetrievedChunk> ranked = List.of(chunk("a", 1, X), chunk("b", 1, X), chunk("c", 1, X));
+
+        assertEquals(List.of("a", "b"), ids(selector.select(ranked, 2)));
+        assertEquals(List.of("a", "b", "c"), ids(selector.select(ranked, 5)));
+    }
+
+    @Test
+    void prefersADiverseChunkOverASimilarBetterRankedOne() {
+        List<RetrievedChunk> ranked = List.of(chunk("a", 1, X), chunk("b", 2, NEAR_X), chunk("c", 3, Y));
+
+        assertEquals(List.of("a", "c"), ids(selector(true, 0.5, 3, 0.95).select(ranked, 2)));
+        // lambda 1 is rank order only
+        assertEquals(List.of("a", "b"), ids(selector(true, 1.0, 3, 0.95).select(ranked, 2)));
+    }
+
+    @Test
+    void dropsNearDuplicatesOfPickedChunks() {
+        DiversitySelector selector = selector(true, 0.7, 3, 0.95);
+        float[] almostX = { 0.99f, 0.05f, 0f };
+        List<RetrievedChunk> ranked = List.of(chunk("a", 1, X), chunk("b", 2, almostX), chunk("c", 3, Y));
+
+        // Fewer than topK: b is dropped, not picked last
+        assertEquals(List.of("a", "c"), ids(selector.select(ranked, 3)));
+        assertEquals(1, selector.stats().duplicatesDropped());
+    }
+
+    @Test
+    void capsTheChunksPickedFromOneDocument() {
+        DiversitySelector selector = selector(true, 1.0, 2, 0.95);
+        List<RetrievedChunk> ranked = List.of(
+                chunk("a1", 1, X), chunk("a2", 1, Y), chunk("a3", 1, Z), chunk("b1", 2, NEAR_X));
+
+        assertEquals(List.of("a1", "a2", "b1"), ids(selector.select(ranked, 4)));
+        assertEquals(1, selector.stats().cappedByDocument());
+    }
+
+    @Test
+    void comparesTermsOfChunksWithoutEmbeddings() {
+        DiversitySelector selector = selector(true, 0.7, 3, 0.95);
+        List<RetrievedChunk> ranked = List.of(
+                lexicalChunk("a", 1, "exam schedule for CS101"),
+                chunk("b", 2, X),
+                lexicalChunk("c", 3, "Exam schedule for cs101!"),
+                lexicalChunk("d", 4, "library opening hours"));
+
+        // c has the same terms as a; b has an embedding but a does not, so terms are compared
+        assertEquals(List.of("a", "b", "d"), ids(selector.select(ranked, 4)));
+        assertEquals(1, selector.stats().duplicatesDropped());
+    }
+
+    @Test
+    void shortRankingsAreReturnedAsIs() {
+        DiversitySelector selector = selector(true, 0.7, 3, 0.95);
+
+        assertEquals(List.of(), selector.select(List.of(), 3));
+        assertEquals(List.of("a"), ids(selector.select(List.of(chunk("a", 1, X)), 3)));
+    }
+
+    private static DiversitySelector selector(boolean enabled, double lambda, int maxPerDocument,
+            double duplicateThreshold) {
+        DiversitySelector selector = new DiversitySelector();
+        ReflectionTestUtils.setField(selector, "enabled", enabled);
+        ReflectionTestUtils.setField(selector, "lambda", lambda);
+        ReflectionTestUtils.setField(selector, "maxPerDocument", maxPerDocument);
+        ReflectionTestUtils.setField(selector, "duplicateThreshold", duplicateThreshold);
+        return selector;
+    }
+
+    private static RetrievedChunk chunk(String id, long docId, float[] embedding) {
+        return new RetrievedChunk(id, "chunk " + id, 0.8f, metadata(docId), embedding);
+    }
+
+    private static RetrievedChunk lexicalChunk(String id, long docId, String content) {
+        return new RetrievedChunk(id, content, 0f, metadata(docId));
+    }
+
+    private static String metadata(long docId) {
+        return "{\"docId\":\"" + docId + "\"}";
+    }
+
+    private static List<String> ids(List<RetrievedChunk> chunks) {
+        List<String> ids = new ArrayList<>();
+        chunks.forEach(chunk -> ids.add(chunk.getId()));
+        return ids;
+    }
+}
@@ -0,0 +1,19 @@
+package com.heu.rag.core.service;
+
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+/**
+ * Conformance cases against the embedded vector store
+ */
+class EmbeddedVectorBackendTest extends VectorBackendConformanceTest {
+
+    @TempDir
+    Path storeDirectory;
+
+    @Override
+    VectorBackendFixture createFixture() throws Exception {
+        return VectorBackendFixture.embedded(storeDirectory, DIMENSION, true);
+    }
+}
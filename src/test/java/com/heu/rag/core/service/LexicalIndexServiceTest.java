@@ -0,0 +1,116 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.core.domain.RetrievedChunk;
+import com.heu.rag.core.repository.DocumentRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LexicalIndexServiceTest {
+
+    private static final long BASE_ID = 1L;
+    private static final long DOC_ID = 10L;
+
+    private final DocumentRepository documentRepository = mock(DocumentRepository.class);
+    private final MilvusService milvusService = mock(MilvusService.class);
+    private final LexicalIndexService service = new LexicalIndexService(documentRepository, milvusService);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(service, "rebuildPageSize", 2);
+        when(documentRepository.findByBaseId(any())).thenReturn(List.of());
+        service.startRebuildExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.stopRebuildExecutor();
+    }
+
+    @Test
+    void readsEveryPageOfADocument() {
+        stubPages(List.of(
+                List.of(row("a", 0, "alpha"), row("b", 1, "beta")),
+                List.of(row("c", 2, "gamma"), row("d", 3, "delta")),
+                List.of(row("e", 4, "epsilon"))));
+
+        service.reindexDocument(BASE_ID, DOC_ID);
+
+        assertEquals(List.of("e"), ids(awaitSearch("epsilon")));
+        assertEquals(List.of("a"), ids(awaitSearch("alpha")));
+    }
+
+    @Test
+    void theCursorMovesPastRowsThatCannotBeIndexed() {
+        // Rows without docId are not indexed but still have a chunk index to continue after
+        stubPages(List.of(
+                List.of(new RetrievedChunk("x", "alpha", 0f, "{\"chunkIndex\":\"0\"}"),
+                        new RetrievedChunk("y", "alpha", 0f, "{\"chunkIndex\":\"1\"}")),
+                List.of(row("c", 2, "gamma"))));
+
+        service.reindexDocument(BASE_ID, DOC_ID);
+
+        assertEquals(List.of(), ids(awaitSearch("alpha")));
+        assertEquals(List.of("c"), ids(awaitSearch("gamma")));
+    }
+
+    @Test
+    void aFullPageWithoutChunkIndexesEndsTheDocument() {
+        RetrievedChunk unindexed = new RetrievedChunk("x", "alpha", 0f, "{\"docId\":\"" + DOC_ID + "\"}");
+        when(milvusService.queryChunkPage(eq(DOC_ID), eq(BASE_ID), isNull(), anyInt(), eq(0), eq(2)))
+                .thenReturn(List.of(unindexed, unindexed));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> service.reindexDocument(BASE_ID, DOC_ID));
+
+        verify(milvusService, times(1)).queryChunkPage(eq(DOC_ID), eq(BASE_ID), isNull(), anyInt(), eq(0), eq(2));
+    }
+
+    /**
+     * Page i is returned after the last chunk index of page i - 1
+     */
+    private void stubPages(List<List<RetrievedChunk>> pages) {
+        int after = -1;
+        for (List<RetrievedChunk> page : pages) {
+            when(milvusService.queryChunkPage(DOC_ID, BASE_ID, null, after, 0, 2)).thenReturn(page);
+            after = page.get(page.size() - 1).metadata().chunkIndex();
+        }
+    }
+
+    private List<RetrievedChunk> awaitSearch(String query) {
+        return assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            List<RetrievedChunk> hits;
+            while ((hits = service.search(BASE_ID, query, 10, Set.of())) == null) {
+                Thread.sleep(10);
+            }
+            return hits;
+        });
+    }
+
+    private static RetrievedChunk row(String id, int chunkIndex, String content) {
+        return new RetrievedChunk(id, content, 0f,
+                "{\"docId\":\"" + DOC_ID + "\",\"baseId\":\"" + BASE_ID + "\",\"chunkIndex\":\"" + chunkIndex + "\"}");
+    }
+
+    private static List<String> ids(List<RetrievedChunk> chunks) {
+        List<String> ids = new ArrayList<>();
+        chunks.forEach(chunk -> ids.add(chunk.getId()));
+        return ids;
+    }
+}
@@ -0,0 +1,43 @@
+package com.heu.rag.core.service;
+
+import org.junit.jupiter.api.AfterAll;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.milvus.MilvusContainer;
+
+/**
+ * Conformance cases against a Milvus standalone server in a container
+ * (skipped when Docker is not available). The collection is created once
+ * and shared by the tests.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class MilvusVectorBackendTest extends VectorBackendConformanceTest {
+
+    static final String MILVUS_IMAGE = "milvusdb/milvus:v2.5.4";
+
+    @Container
+    private static final MilvusContainer MILVUS = new MilvusContainer(MILVUS_IMAGE);
+
+    private static VectorBackendFixture shared;
+
+    @Override
+    VectorBackendFixture createFixture() {
+        if (shared == null) {
+            shared = VectorBackendFixture.milvus(MILVUS.getHost(), MILVUS.getMappedPort(19530), DIMENSION, true);
+        }
+        return shared;
+    }
+
+    @Override
+    boolean closeAfterEach() {
+        return false;
+    }
+
+    @AfterAll
+    static void closeShared() {
+        if (shared != null) {
+            shared.close();
+            shared = null;
+        }
+    }
+}
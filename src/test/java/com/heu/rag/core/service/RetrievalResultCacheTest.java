@@ -0,0 +1,50 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.core.domain.RetrievedChunk;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RetrievalResultCacheTest {
+
+    private final RetrievalResultCache cache = new RetrievalResultCache(10, 600);
+
+    @Test
+    void storesHitsWithoutTheirEmbeddings() {
+        RetrievalResultCache.Key key = cache.keyFor(1L, new float[] { 1f, 0f }, 5, 0.5);
+        cache.put(key, List.of(
+                new RetrievedChunk("a", "first", 0.9f, "{\"docId\":\"7\"}", new float[] { 1f, 0f }),
+                new RetrievedChunk("b", "second", 0.8f, "{\"docId\":\"7\"}")));
+
+        List<RetrievedChunk> cached = cache.get(key);
+
+        assertEquals(List.of("a", "b"), cached.stream().map(RetrievedChunk::getId).toList());
+        assertEquals(0.9f, cached.get(0).getScore());
+        assertEquals("first", cached.get(0).getContent());
+        assertNull(cached.get(0).getEmbedding());
+        assertNull(cached.get(1).getEmbedding());
+    }
+
+    @Test
+    void writesToTheKnowledgeBaseInvalidateEarlierKeys() {
+        RetrievalResultCache.Key key = cache.keyFor(1L, new float[] { 1f, 0f }, 5, 0.5);
+        cache.put(key, List.of(new RetrievedChunk("a", "first", 0.9f, null)));
+
+        cache.bumpVersion(1L);
+
+        assertNull(cache.get(cache.keyFor(1L, new float[] { 1f, 0f }, 5, 0.5)));
+    }
+
+    @Test
+    void resultsOfASearchRacingAWriteAreNotCached() {
+        RetrievalResultCache.Key key = cache.keyFor(1L, new float[] { 1f, 0f }, 5, 0.5);
+        cache.bumpVersion(1L);
+
+        cache.put(key, List.of(new RetrievedChunk("a", "first", 0.9f, null)));
+
+        assertNull(cache.get(key));
+    }
+}
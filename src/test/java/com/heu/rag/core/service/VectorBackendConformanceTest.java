@@ -0,0 +1,258 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.core.domain.RetrievedChunk;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Insert/search/query/count/delete cases every vector backend behind
+ * MilvusService must pass identically; subclasses only provide the
+ * backend (see VectorBackendFixture). Each test uses knowledge bases and
+ * documents of its own, so a backend may be shared between tests.
+ */
+abstract class VectorBackendConformanceTest {
+
+    static final int DIMENSION = 8;
+    private static final int CHUNKS_PER_DOC = 5;
+    private static final AtomicLong IDS = new AtomicLong(System.currentTimeMillis());
+
+    private VectorBackendFixture fixture;
+    private MilvusService service;
+
+    abstract VectorBackendFixture createFixture() throws Exception;
+
+    /**
+     * Whether the test owns the fixture (closed after each test)
+     */
+    boolean closeAfterEach() {
+        return true;
+    }
+
+    @BeforeEach
+    void setUpBackend() throws Exception {
+        fixture = createFixture();
+        service = fixture.service();
+    }
+
+    @AfterEach
+    void tearDownBackend() {
+        if (closeAfterEach()) {
+            fixture.close();
+        }
+    }
+
+    @Test
+    void countsAndBrowsesChunksInChunkIndexOrder() {
+        long baseId = IDS.incrementAndGet();
+        long docId = IDS.incrementAndGet();
+        insertDocument(baseId, docId, List.of(3, 0, 4, 1, 2));
+
+        assertEquals(CHUNKS_PER_DOC, service.countChunksByDocId(docId));
+        assertEquals(1, service.countChunksByDocId(docId, "needle-2"));
+        assertEquals(List.of(0, 1, 2, 3, 4), chunkIndexes(service.queryChunkPage(docId, baseId, null, -1, 0, 10)));
+        assertEquals(List.of(3, 4), chunkIndexes(service.queryChunkPage(docId, baseId, null, 2, 0, 2)));
+        assertEquals(List.of(1, 2), chunkIndexes(service.queryChunkPage(docId, baseId, null, -1, 1, 2)));
+    }
+
+    @Test
+    void documentChunkPagesVisitEveryRowOnceInIdOrder() {
+        long baseId = IDS.incrementAndGet();
+        long docId = IDS.incrementAndGet();
+        insertDocument(baseId, docId, List.of(0, 1, 2, 3, 4));
+
+        List<String> ids = new ArrayList<>();
+        String afterId = null;
+        while (true) {
+            List<RetrievedChunk> page = service.queryDocumentChunkPage(docId, afterId, 2);
+            page.forEach(chunk -> ids.add(chunk.getId()));
+            if (page.size() < 2) {
+                break;
+            }
+            afterId = page.get(page.size() - 1).getId();
+        }
+        assertEquals(CHUNKS_PER_DOC, ids.size());
+        assertEquals(CHUNKS_PER_DOC, new HashSet<>(ids).size());
+    }
+
+    @Test
+    void searchReturnsNearestChunksOfTheKnowledgeBaseOnly() {
+        long baseId = IDS.incrementAndGet();
+        long otherBaseId = IDS.incrementAndGet();
+        long docId = IDS.incrementAndGet();
+        insertDocument(baseId, docId, List.of(0, 1, 2, 3, 4));
+        insertDocument(otherBaseId, IDS.incrementAndGet(), List.of(0, 1, 2, 3, 4));
+        fixture.registerQuery("near-3", vector(3));
+
+        List<RetrievedChunk> hits = service.similaritySearchWithBaseId("near-3", baseId, 3, -1.0);
+
+        assertEquals(3, hits.size());
+        assertEquals(content(docId, 3), hits.get(0).getContent());
+        assertEquals(1.0, hits.get(0).getScore(), 1e-4);
+        for (int i = 0; i < hits.size(); i++) {
+            assertEquals(baseId, hits.get(i).metadata().baseId());
+            if (i > 0) {
+                assertTrue(hits.get(i - 1).getScore() >= hits.get(i).getScore());
+            }
+        }
+    }
+
+    @Test
+    void searchSkipsExcludedDocuments() {
+        long baseId = IDS.incrementAndGet();
+        long disabledDocId = IDS.incrementAndGet();
+        long docId = IDS.incrementAndGet();
+        insertDocument(baseId, disabledDocId, List.of(0, 1, 2, 3, 4));
+        insertDocument(baseId, docId, List.of(0, 1, 2, 3, 4));
+        fixture.disable(baseId, Set.of(disabledDocId));
+        fixture.registerQuery("near-1", vector(1));
+
+        List<RetrievedChunk> hits = service.similaritySearchWithBaseId("near-1", baseId, 10, -1.0);
+
+        assertEquals(CHUNKS_PER_DOC, hits.size());
+        assertTrue(hits.stream().allMatch(hit -> hit.metadata().docId() == docId));
+    }
+
+    @Test
+    void deleteByIdsRemovesOnlyThoseRows() {
+        long baseId = IDS.incrementAndGet();
+        long docId = IDS.incrementAndGet();
+        insertDocument(baseId, docId, List.of(0, 1, 2, 3, 4));
+        List<RetrievedChunk> rows = service.queryChunkPage(docId, baseId, null, -1, 0, 10);
+
+        long deleted = service.deleteChunksByIds(docId, List.of(rows.get(0).getId(), rows.get(3).getId()));
+
+        assertEquals(2, deleted);
+        assertEquals(3, service.countChunksByDocId(docId));
+        assertEquals(List.of(1, 2, 4), chunkIndexes(service.queryChunkPage(docId, baseId, null, -1, 0, 10)));
+    }
+
+    @Test
+    void deleteByDocumentAndKnowledgeBase() {
+        long baseId = IDS.incrementAndGet();
+        long docId = IDS.incrementAndGet();
+        long otherDocId = IDS.incrementAndGet();
+        insertDocument(baseId, docId, List.of(0, 1, 2, 3, 4));
+        insertDocument(baseId, otherDocId, List.of(0, 1, 2, 3, 4));
+        fixture.registerQuery("near-0", vector(0));
+
+        service.deleteChunksByDocId(docId);
+
+        assertEquals(0, service.countChunksByDocId(docId));
+        assertEquals(CHUNKS_PER_DOC, service.countChunksByDocId(otherDocId));
+        assertTrue(service.similaritySearchWithBaseId("near-0", baseId, 10, -1.0).stream()
+                .allMatch(hit -> hit.metadata().docId() == otherDocId));
+
+        service.deleteChunksByBaseId(baseId);
+
+        assertEquals(0, service.countChunksByDocId(otherDocId));
+        assertTrue(service.similaritySearchWithBaseId("near-0", baseId, 10, -1.0).isEmpty());
+    }
+
+    @Test
+    void updatedChunkIndexesKeepContentAndVector() {
+        long baseId = IDS.incrementAndGet();
+        long docId = IDS.incrementAndGet();
+        insertDocument(baseId, docId, List.of(0, 1, 2, 3, 4));
+        RetrievedChunk first = service.queryChunkPage(docId, baseId, null, -1, 0, 1).get(0);
+        fixture.registerQuery("near-0", vector(0));
+
+        assertEquals(1, service.updateChunkIndexes(docId, Map.of(first.getId(), 7)));
+
+        List<RetrievedChunk> rows = service.queryChunkPage(docId, baseId, null, -1, 0, 10);
+        assertEquals(List.of(1, 2, 3, 4, 7), chunkIndexes(rows));
+        assertEquals(content(docId, 0), rows.get(4).getContent());
+        RetrievedChunk nearest = service.similaritySearchWithBaseId("near-0", baseId, 1, -1.0).get(0);
+        assertEquals(first.getId(), nearest.getId());
+        assertEquals(7, nearest.metadata().chunkIndex());
+    }
+
+    @Test
+    void hiddenRowsAreNotReturnedBySearch() {
+        long baseId = IDS.incrementAndGet();
+        long docId = IDS.incrementAndGet();
+        insertDocument(baseId, docId, List.of(0, 1, 2, 3, 4));
+        RetrievedChunk first = service.queryChunkPage(docId, baseId, null, -1, 0, 1).get(0);
+        fixture.registerQuery("near-0", vector(0));
+
+        service.hideRows(docId, Set.of(first.getId()));
+        assertFalse(service.similaritySearchWithBaseId("near-0", baseId, 10, -1.0).stream()
+                .anyMatch(hit -> hit.getId().equals(first.getId())));
+
+        service.showOnlyRows(docId, Set.of(first.getId()));
+        assertEquals(List.of(first.getId()), service.similaritySearchWithBaseId("near-0", baseId, 10, -1.0)
+                .stream().map(RetrievedChunk::getId).toList());
+
+        service.clearRowVisibility(docId);
+        assertEquals(CHUNKS_PER_DOC, service.similaritySearchWithBaseId("near-0", baseId, 10, -1.0).size());
+    }
+
+    @Test
+    void rowsOfOtherRetrievalPathsAreFilteredLikeSearchHits() {
+        long baseId = IDS.incrementAndGet();
+        long docId = IDS.incrementAndGet();
+        long disabledDocId = IDS.incrementAndGet();
+        insertDocument(baseId, docId, List.of(0, 1, 2, 3, 4));
+        insertDocument(baseId, disabledDocId, List.of(0, 1));
+        fixture.disable(baseId, Set.of(disabledDocId));
+        List<RetrievedChunk> rows = service.queryChunkPage(docId, baseId, null, -1, 0, 10);
+        List<RetrievedChunk> lexical = new ArrayList<>(rows);
+        lexical.addAll(service.queryChunkPage(disabledDocId, baseId, null, -1, 0, 10));
+
+        assertEquals(rows, service.retrievableRows(baseId, lexical));
+
+        service.showOnlyRows(docId, Set.of(rows.get(1).getId()));
+        assertEquals(List.of(rows.get(1)), service.retrievableRows(baseId, lexical));
+
+        // After the switch the lexical rows of the document are the previous version
+        service.hideRows(docId, Set.of(rows.get(1).getId()));
+        assertTrue(service.retrievableRows(baseId, lexical).isEmpty());
+
+        service.clearRowVisibility(docId);
+        assertEquals(rows, service.retrievableRows(baseId, lexical));
+    }
+
+    private void insertDocument(long baseId, long docId, List<Integer> chunkIndexes) {
+        List<Document> chunks = new ArrayList<>();
+        List<float[]> vectors = new ArrayList<>();
+        for (int chunkIndex : chunkIndexes) {
+            chunks.add(VectorBackendFixture.chunk(baseId, docId, chunkIndex, content(docId, chunkIndex)));
+            vectors.add(vector(chunkIndex));
+        }
+        fixture.insert(chunks, vectors);
+    }
+
+    private static String content(long docId, int chunkIndex) {
+        return "chunk " + chunkIndex + " of document " + docId + " needle-" + chunkIndex;
+    }
+
+    /**
+     * Distinct directions for the chunk indexes of a document: chunk i is
+     * closest to itself, then to its neighbours
+     */
+    static float[] vector(int chunkIndex) {
+        float[] vector = new float[DIMENSION];
+        vector[chunkIndex % DIMENSION] = 1.0f;
+        vector[(chunkIndex + 1) % DIMENSION] = 0.3f;
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] += 0.01f;
+        }
+        return vector;
+    }
+
+    private static List<Integer> chunkIndexes(List<RetrievedChunk> chunks) {
+        return chunks.stream().map(chunk -> chunk.metadata().chunkIndex()).toList();
+    }
+}
@@ -0,0 +1,195 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.config.MilvusClientPool;
+import com.heu.rag.config.MilvusConfig;
+import com.heu.rag.config.MilvusSchema;
+import com.heu.rag.config.SnowflakeIdGenerator;
+import com.heu.rag.config.VectorIndexSettings;
+import io.milvus.param.ConnectParam;
+import io.milvus.param.collection.DropCollectionParam;
+import io.milvus.param.collection.FlushParam;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * MilvusService wired by hand against one vector backend: the embedded
+ * store in a directory, or a Milvus server (v2 collection, recreated
+ * empty). Everything around the vector store is mocked: query texts are
+ * embedded with the vectors given to registerQuery(), the result cache
+ * always misses and no document is disabled unless disable() says so.
+ *
+ * Shared by the backend conformance tests and the latency benchmark.
+ */
+final class VectorBackendFixture implements AutoCloseable {
+
+    private final MilvusService service;
+    private final EmbeddedVectorStore embeddedVectorStore;
+    private final MilvusClientPool milvusClientPool;
+    private final Map<String, float[]> queryVectors = new HashMap<>();
+    private final DisabledDocumentRegistry disabledDocumentRegistry = mock(DisabledDocumentRegistry.class);
+
+    private VectorBackendFixture(EmbeddedVectorStore embeddedVectorStore, MilvusClientPool milvusClientPool,
+            boolean strongReads) {
+        this.embeddedVectorStore = embeddedVectorStore;
+        this.milvusClientPool = milvusClientPool;
+
+        QueryEmbeddingCache queryEmbeddingCache = mock(QueryEmbeddingCache.class);
+        when(queryEmbeddingCache.embed(anyString())).thenAnswer(invocation -> {
+            float[] vector = queryVectors.get(invocation.<String>getArgument(0));
+            if (vector == null) {
+                throw new IllegalArgumentException("No vector registered for query " + invocation.getArgument(0));
+            }
+            return vector;
+        });
+        VectorReductionService vectorReductionService = mock(VectorReductionService.class);
+        when(vectorReductionService.whileRowsStable(any()))
+                .thenAnswer(invocation -> invocation.<Supplier<?>>getArgument(0).get());
+        RetrievalResultCache retrievalResultCache = mock(RetrievalResultCache.class);
+        when(retrievalResultCache.get(any())).thenReturn(null);
+        String level = strongReads ? "STRONG" : "BOUNDED";
+        ConsistencyPolicy consistencyPolicy = new ConsistencyPolicy(level, level, 10000);
+
+        this.service = new MilvusService(
+                queryEmbeddingCache,
+                retrievalResultCache,
+                milvusClientPool,
+                milvusClientPool != null ? new CollectionLoadStateTracker(milvusClientPool) : null,
+                consistencyPolicy,
+                MilvusSchema.V2,
+                indexSettings(),
+                mock(EmbeddingModel.class),
+                new SnowflakeIdGenerator(),
+                vectorReductionService,
+                mock(VectorTombstoneService.class),
+                disabledDocumentRegistry,
+                embeddedVectorStore);
+    }
+
+    /**
+     * Embedded store (rag.vector.backend=embedded) in the given directory
+     */
+    static VectorBackendFixture embedded(Path directory, int dimension, boolean strongReads) throws IOException {
+        EmbeddedVectorStore store = new EmbeddedVectorStore();
+        ReflectionTestUtils.setField(store, "backend", "embedded");
+        ReflectionTestUtils.setField(store, "storePath", directory.toString());
+        ReflectionTestUtils.setField(store, "dimension", dimension);
+        ReflectionTestUtils.setField(store, "m", 16);
+        ReflectionTestUtils.setField(store, "efConstruction", 200);
+        ReflectionTestUtils.setField(store, "ef", 64);
+        ReflectionTestUtils.setField(store, "exactSearchThreshold", 2000);
+        ReflectionTestUtils.setField(store, "snapshotInterval", 5000);
+        ReflectionTestUtils.setField(store, "seed", 42L);
+        store.open();
+        return new VectorBackendFixture(store, null, strongReads);
+    }
+
+    /**
+     * Milvus server at host:port; its v2 collection is dropped and created
+     * again as MilvusConfig does at startup
+     */
+    static VectorBackendFixture milvus(String host, int port, int dimension, boolean strongReads) {
+        MilvusClientPool pool = new MilvusClientPool(
+                ConnectParam.newBuilder().withHost(host).withPort(port).build(), 4, 0, 30000, 60000, 30000, 60000);
+        pool.execute(client -> client.dropCollection(DropCollectionParam.newBuilder()
+                .withCollectionName(MilvusSchema.V2.collectionName())
+                .build()));
+
+        MilvusConfig config = new MilvusConfig(indexSettings());
+        ReflectionTestUtils.setField(config, "milvusHost", host);
+        ReflectionTestUtils.setField(config, "milvusPort", port);
+        ReflectionTestUtils.setField(config, "embeddingDimension", dimension);
+        ReflectionTestUtils.setField(config, "schemaVersion", "v2");
+        ReflectionTestUtils.setField(config, "v2Partitions", 16);
+        ReflectionTestUtils.setField(config, "vectorBackend", "milvus");
+        config.run();
+
+        // Never selected: backend stays "milvus"
+        EmbeddedVectorStore inactive = new EmbeddedVectorStore();
+        return new VectorBackendFixture(inactive, pool, strongReads);
+    }
+
+    private static VectorIndexSettings indexSettings() {
+        return new VectorIndexSettings("IVF_FLAT", 16, 16, 8, 8, 16, 200, 64, false);
+    }
+
+    MilvusService service() {
+        return service;
+    }
+
+    /**
+     * Vector the mocked query embedding returns for the text
+     */
+    void registerQuery(String text, float[] vector) {
+        queryVectors.put(text, vector);
+    }
+
+    /**
+     * Exclude documents of a knowledge base from retrieval, as disabling
+     * them does
+     */
+    void disable(Long baseId, Set<Long> docIds) {
+        when(disabledDocumentRegistry.disabledDocIds(baseId)).thenReturn(docIds);
+    }
+
+    /**
+     * Seal what was inserted so far (Milvus only), so relaxed reads see it
+     */
+    void flush() {
+        if (milvusClientPool == null) {
+            return;
+        }
+        milvusClientPool.execute(client -> client.flush(FlushParam.newBuilder()
+                .addCollectionName(MilvusSchema.V2.collectionName())
+                .withSyncFlush(true)
+                .build()));
+    }
+
+    /**
+     * A chunk with the metadata MilvusDocumentSanitizer writes
+     */
+    static Document chunk(long baseId, long docId, int chunkIndex, String content) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("docId", String.valueOf(docId));
+        metadata.put("baseId", String.valueOf(baseId));
+        metadata.put("fileName", "doc-" + docId + ".txt");
+        metadata.put("chunkIndex", String.valueOf(chunkIndex));
+        metadata.put("isEnabled", "true");
+        return new Document(docId + "-" + chunkIndex, content, metadata);
+    }
+
+    /**
+     * Insert chunks with their vectors (same order) in batches of 256
+     */
+    void insert(List<Document> chunks, List<float[]> vectors) {
+        for (int start = 0; start < chunks.size(); start += 256) {
+            int end = Math.min(start + 256, chunks.size());
+            service.insertEmbedded(new ArrayList<>(chunks.subList(start, end)),
+                    new ArrayList<>(vectors.subList(start, end)));
+        }
+    }
+
+    @Override
+    public void close() {
+        if (embeddedVectorStore.isActive()) {
+            embeddedVectorStore.close();
+        }
+        if (milvusClientPool != null) {
+            milvusClientPool.close();
+        }
+    }
+}
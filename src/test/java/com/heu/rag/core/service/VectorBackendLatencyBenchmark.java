@@ -0,0 +1,148 @@
+package com.heu.rag.core.service;
+
+import com.heu.rag.core.domain.RetrievedChunk;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.document.Document;
+import org.testcontainers.milvus.MilvusContainer;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the retrieval path of MilvusService on the embedded vector
+ * store against Milvus, on the same data: one knowledge base of
+ * {@code chunks} random vectors (documents of 100 chunks), searched with
+ * random query vectors, plus a document chunk page and a count.
+ *
+ * Both backends run with the default BOUNDED consistency after the inserts
+ * are flushed. Milvus is the server at -Dbench.milvus.host (and
+ * -Dbench.milvus.port, default 19530) when set, otherwise a standalone
+ * container started through Testcontainers (Docker required).
+ *
+ * Run from the test classpath:
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.heu.rag.core.service.VectorBackendLatencyBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VectorBackendLatencyBenchmark {
+
+    private static final int DIMENSION = 128;
+    private static final int CHUNKS_PER_DOC = 100;
+    private static final int QUERIES = 256;
+    private static final long BASE_ID = 1L;
+    private static final int TOP_K = 10;
+
+    @Param({ "embedded", "milvus" })
+    private String backend;
+
+    @Param({ "10000" })
+    private int chunks;
+
+    private VectorBackendFixture fixture;
+    private MilvusContainer container;
+    private Path directory;
+    private int nextQuery;
+
+    @Setup
+    public void load() throws Exception {
+        if ("embedded".equals(backend)) {
+            directory = Files.createTempDirectory("vector-bench");
+            fixture = VectorBackendFixture.embedded(directory, DIMENSION, false);
+        } else {
+            String host = System.getProperty("bench.milvus.host");
+            int port = Integer.getInteger("bench.milvus.port", 19530);
+            if (host == null) {
+                container = new MilvusContainer(MilvusVectorBackendTest.MILVUS_IMAGE);
+                container.start();
+                host = container.getHost();
+                port = container.getMappedPort(19530);
+            }
+            fixture = VectorBackendFixture.milvus(host, port, DIMENSION, false);
+        }
+
+        Random random = new Random(42);
+        List<Document> batch = new ArrayList<>();
+        List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            long docId = 1000L + i / CHUNKS_PER_DOC;
+            batch.add(VectorBackendFixture.chunk(BASE_ID, docId, i % CHUNKS_PER_DOC,
+                    "chunk " + i + " of document " + docId));
+            vectors.add(randomVector(random));
+        }
+        fixture.insert(batch, vectors);
+        fixture.flush();
+        for (int i = 0; i < QUERIES; i++) {
+            fixture.registerQuery("q" + i, randomVector(random));
+        }
+    }
+
+    @TearDown
+    public void close() throws Exception {
+        fixture.close();
+        if (container != null) {
+            container.stop();
+        }
+        if (directory != null) {
+            try (var paths = Files.walk(directory)) {
+                for (Path path : paths.sorted(java.util.Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public List<RetrievedChunk> search() {
+        String query = "q" + (nextQuery++ % QUERIES);
+        return fixture.service().similaritySearchWithBaseId(query, BASE_ID, TOP_K, -1.0);
+    }
+
+    @Benchmark
+    public List<RetrievedChunk> chunkPage() {
+        long docId = 1000L + (nextQuery++ % (chunks / CHUNKS_PER_DOC));
+        return fixture.service().queryChunkPage(docId, BASE_ID, null, 19, 0, 20);
+    }
+
+    @Benchmark
+    public long count() {
+        long docId = 1000L + (nextQuery++ % (chunks / CHUNKS_PER_DOC));
+        return fixture.service().countChunksByDocId(docId);
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(VectorBackendLatencyBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,136 @@
+package com.heu.rag.core.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Bm25IndexTest {
+
+    @Test
+    void tokenizesWordsLowerCasedAndSplitsMixedIdentifiers() {
+        assertEquals(List.of("hello", "world"), Bm25Index.tokenize("Hello, WORLD!"));
+        assertEquals(List.of("cs101", "cs", "101", "intro"), Bm25Index.tokenize("CS101 intro"));
+        assertEquals(List.of("a1b2", "a", "1", "b", "2"), Bm25Index.tokenize("a1b2"));
+        assertEquals(List.of("2024"), Bm25Index.tokenize("2024"));
+        assertEquals(List.of(), Bm25Index.tokenize(" ,.;"));
+        assertEquals(List.of(), Bm25Index.tokenize(null));
+    }
+
+    @Test
+    void tokenizesCjkRunsIntoOverlappingBigrams() {
+        assertEquals(List.of("哈尔", "尔滨", "滨工", "工程"), Bm25Index.tokenize("哈尔滨工程"));
+        // A lone CJK character stays a unigram; Latin words around a run are separate tokens
+        assertEquals(List.of("学"), Bm25Index.tokenize("学"));
+        assertEquals(List.of("heu", "大学", "rag"), Bm25Index.tokenize("HEU大学rag"));
+        assertEquals(List.of("计算", "算机", "考试"), Bm25Index.tokenize("计算机，考试"));
+    }
+
+    @Test
+    void ranksChunksByTermRarityAndFrequency() {
+        Bm25Index index = new Bm25Index();
+        index.putDocument(1, List.of(
+                chunk("a", 1, 0, "course schedule for the spring term"),
+                chunk("b", 1, 1, "CS101 course schedule and CS101 exam dates"),
+                chunk("c", 1, 2, "library opening hours")));
+
+        List<Bm25Index.Hit> hits = index.search("cs101 schedule", 10, Set.of());
+
+        assertEquals(List.of("b", "a"), ids(hits));
+        assertTrue(hits.get(0).score() > hits.get(1).score());
+        assertTrue(index.search("unrelated words", 10, Set.of()).isEmpty());
+        assertTrue(index.search("", 10, Set.of()).isEmpty());
+    }
+
+    @Test
+    void matchesChineseQueriesWithoutSegmentation() {
+        Bm25Index index = new Bm25Index();
+        index.putDocument(1, List.of(
+                chunk("a", 1, 0, "哈尔滨工程大学的校训是大勇至诚"),
+                chunk("b", 1, 1, "图书馆开放时间为早八点到晚十点")));
+
+        assertEquals(List.of("a"), ids(index.search("工程大学", 10, Set.of())));
+        assertEquals(List.of("b"), ids(index.search("图书馆几点开放", 10, Set.of())));
+    }
+
+    @Test
+    void cutsAtTopKAndSkipsExcludedDocuments() {
+        Bm25Index index = new Bm25Index();
+        index.putDocument(1, List.of(chunk("a", 1, 0, "exam"), chunk("b", 1, 1, "exam exam")));
+        index.putDocument(2, List.of(chunk("c", 2, 0, "exam exam exam")));
+
+        assertEquals(List.of("c"), ids(index.search("exam", 1, Set.of())));
+        assertEquals(List.of("b", "a"), ids(index.search("exam", 10, Set.of(2L))));
+    }
+
+    @Test
+    void putDocumentReplacesAndAddChunksAppends() {
+        Bm25Index index = new Bm25Index();
+        index.putDocument(1, List.of(chunk("a", 1, 0, "old version")));
+        index.addChunks(1, List.of(chunk("b", 1, 1, "second chunk")));
+
+        assertEquals(2, index.size());
+        assertEquals(List.of("b"), ids(index.search("second", 10, Set.of())));
+
+        index.putDocument(1, List.of(chunk("c", 1, 0, "new version")));
+
+        assertEquals(1, index.size());
+        assertTrue(index.search("old second", 10, Set.of()).isEmpty());
+        assertEquals(List.of("c"), ids(index.search("version", 10, Set.of())));
+    }
+
+    @Test
+    void removedDocumentsAreNotFoundAndAreCompactedAway() {
+        Bm25Index index = new Bm25Index();
+        index.putDocument(1, List.of(chunk("a", 1, 0, "alpha beta gamma delta")));
+        index.putDocument(2, List.of(chunk("b", 2, 0, "alpha")));
+        index.putDocument(3, List.of(chunk("c", 3, 0, "alpha epsilon")));
+
+        // Document 1 holds 4 of the 7 postings: removing it leaves more dead than live ones
+        index.removeDocument(1);
+
+        assertFalse(index.containsDocument(1));
+        assertEquals(2, index.size());
+        assertTrue(index.toString().contains("terms=2"), index.toString());
+        assertEquals(List.of("b", "c"), ids(index.search("alpha", 10, Set.of())));
+        assertTrue(index.search("beta", 10, Set.of()).isEmpty());
+
+        // Renumbered chunks still belong to their documents
+        index.removeDocument(2);
+        assertEquals(List.of("c"), ids(index.search("alpha", 10, Set.of())));
+        index.addChunks(3, List.of(chunk("d", 3, 1, "zeta")));
+        assertEquals(List.of("d"), ids(index.search("zeta", 10, Set.of())));
+        index.removeDocument(3);
+        assertEquals(0, index.size());
+        assertTrue(index.search("alpha zeta", 10, Set.of()).isEmpty());
+    }
+
+    @Test
+    void removedChunksDoNotCountTowardsDocumentFrequency() {
+        Bm25Index fresh = new Bm25Index();
+        fresh.putDocument(2, List.of(chunk("b", 2, 0, "exam rules"), chunk("c", 2, 1, "other text")));
+
+        Bm25Index withRemoved = new Bm25Index();
+        withRemoved.putDocument(1, List.of(chunk("a", 1, 0, "exam")));
+        withRemoved.putDocument(2, List.of(chunk("b", 2, 0, "exam rules"), chunk("c", 2, 1, "other text")));
+        withRemoved.removeDocument(1);
+
+        assertEquals(fresh.search("exam", 10, Set.of()).get(0).score(),
+                withRemoved.search("exam", 10, Set.of()).get(0).score(), 1e-9);
+    }
+
+    private static Bm25Index.Chunk chunk(String id, long docId, int chunkIndex, String content) {
+        return new Bm25Index.Chunk(id, docId, chunkIndex, content, null);
+    }
+
+    private static List<String> ids(List<Bm25Index.Hit> hits) {
+        List<String> ids = new ArrayList<>();
+        hits.forEach(hit -> ids.add(hit.chunk().id()));
+        return ids;
+    }
+}
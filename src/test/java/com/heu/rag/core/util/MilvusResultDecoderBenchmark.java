@@ -0,0 +1,168 @@
+package com.heu.rag.core.util;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.ByteString;
+import com.heu.rag.core.domain.RetrievedChunk;
+import io.milvus.grpc.DataType;
+import io.milvus.grpc.FieldData;
+import io.milvus.grpc.IDs;
+import io.milvus.grpc.JSONArray;
+import io.milvus.grpc.ScalarField;
+import io.milvus.grpc.SearchResultData;
+import io.milvus.grpc.SearchResults;
+import io.milvus.grpc.StringArray;
+import io.milvus.response.SearchResultsWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.document.Document;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding cost of one search response: the reflection + SearchResultsWrapper
+ * path MilvusService used before, against MilvusResultDecoder.
+ *
+ * The response is a typical chat retrieval: topK hits with ~1 KB of content
+ * and the metadata_json written at ingestion, half of them below the
+ * similarity threshold. The legacy path is reproduced as it was (metadata
+ * parsed into a map for every kept hit); "decoder" is what the chat path does
+ * now (content only), "decoderWithMetadata" also decodes ChunkMetadata.
+ *
+ * Run with the GC profiler (allocation per operation) from the test classpath:
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.heu.rag.core.util.MilvusResultDecoderBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MilvusResultDecoderBenchmark {
+
+    private static final String CONTENT_FIELD = "content";
+    private static final String METADATA_FIELD = "metadata_json";
+    private static final double THRESHOLD = 0.5;
+
+    @Param({ "10", "50" })
+    private int topK;
+
+    private SearchResults response;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Setup
+    public void buildResponse() {
+        IDs.Builder ids = IDs.newBuilder();
+        StringArray.Builder ids64 = StringArray.newBuilder();
+        StringArray.Builder contents = StringArray.newBuilder();
+        JSONArray.Builder metadata = JSONArray.newBuilder();
+        List<Float> scores = new ArrayList<>();
+        String text = "The quick brown fox jumps over the lazy dog. ".repeat(23);
+        for (int i = 0; i < topK; i++) {
+            ids64.addData("chunk-" + i);
+            contents.addData(i + " " + text);
+            metadata.addData(ByteString.copyFromUtf8(String.format(
+                    "{\"docId\":\"%d\",\"baseId\":\"42\",\"fileName\":\"manual.pdf\",\"chunkIndex\":\"%d\","
+                            + "\"isEnabled\":\"true\",\"source\":\"manual.pdf\",\"chunkHash\":\"%064d\"}",
+                    1000 + i, i, i)));
+            scores.add(1.0f - (float) i / topK); // half of the hits are below THRESHOLD
+        }
+        ids.setStrId(ids64);
+
+        SearchResultData data = SearchResultData.newBuilder()
+                .setNumQueries(1)
+                .setTopK(topK)
+                .addTopks(topK)
+                .setIds(ids)
+                .addAllScores(scores)
+                .addFieldsData(FieldData.newBuilder()
+                        .setFieldName(CONTENT_FIELD)
+                        .setType(DataType.VarChar)
+                        .setScalars(ScalarField.newBuilder().setStringData(contents)))
+                .addFieldsData(FieldData.newBuilder()
+                        .setFieldName(METADATA_FIELD)
+                        .setType(DataType.JSON)
+                        .setScalars(ScalarField.newBuilder().setJsonData(metadata)))
+                .build();
+        response = SearchResults.newBuilder().setResults(data).build();
+    }
+
+    @Benchmark
+    public void legacyReflection(Blackhole blackhole) throws Exception {
+        Object searchData = response;
+        Method getResultsMethod = searchData.getClass().getMethod("getResults");
+        Object results = getResultsMethod.invoke(searchData);
+        @SuppressWarnings("unchecked")
+        Constructor<SearchResultsWrapper> constructor = (Constructor<SearchResultsWrapper>) SearchResultsWrapper.class
+                .getDeclaredConstructor(results.getClass());
+        SearchResultsWrapper wrapper = constructor.newInstance(results);
+
+        List<Document> documents = new ArrayList<>();
+        List<SearchResultsWrapper.IDScore> idScores = wrapper.getIDScore(0);
+        for (int i = 0; i < idScores.size(); i++) {
+            SearchResultsWrapper.IDScore idScore = idScores.get(i);
+            float score = idScore.getScore();
+            if (score < THRESHOLD) {
+                continue;
+            }
+            String id = idScore.getStrID();
+            Object contentObj = wrapper.getFieldWrapper(CONTENT_FIELD).getFieldData().get(i);
+            String content = contentObj != null ? contentObj.toString() : "";
+            Map<String, Object> metadata = new HashMap<>();
+            Object metadataObj = wrapper.getFieldWrapper(METADATA_FIELD).getFieldData().get(i);
+            if (metadataObj != null) {
+                metadata = objectMapper.readValue(metadataObj.toString(), new TypeReference<Map<String, Object>>() {
+                });
+            }
+            documents.add(new Document(id, content, metadata));
+        }
+        blackhole.consume(documents);
+    }
+
+    @Benchmark
+    public void decoder(Blackhole blackhole) {
+        List<RetrievedChunk> chunks = MilvusResultDecoder.decodeSearch(response.getResults(), 0, THRESHOLD,
+                CONTENT_FIELD, METADATA_FIELD);
+        for (RetrievedChunk chunk : chunks) {
+            blackhole.consume(chunk.getContent());
+        }
+    }
+
+    @Benchmark
+    public void decoderWithMetadata(Blackhole blackhole) {
+        List<RetrievedChunk> chunks = MilvusResultDecoder.decodeSearch(response.getResults(), 0, THRESHOLD,
+                CONTENT_FIELD, METADATA_FIELD);
+        for (RetrievedChunk chunk : chunks) {
+            blackhole.consume(chunk.getContent());
+            blackhole.consume(chunk.metadata());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MilvusResultDecoderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,131 @@
+package com.heu.rag.core.util;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamingTextSplitterTest {
+
+    private static final int CHUNK_SIZE = 32;
+    private static final int MIN_CHUNK_SIZE_CHARS = 40;
+    private static final int MIN_CHUNK_LENGTH_TO_EMBED = 5;
+
+    @Test
+    void matchesTokenTextSplitterOnTheWholeText() {
+        String text = sampleText(200);
+        List<String> expected = new TokenTextSplitter(CHUNK_SIZE, MIN_CHUNK_SIZE_CHARS, MIN_CHUNK_LENGTH_TO_EMBED,
+                10000, true).apply(List.of(new Document(text))).stream().map(Document::getText).toList();
+
+        // Pieces of odd sizes: chunks are cut across window (and piece) boundaries
+        List<String> streamed = new ArrayList<>();
+        StreamingTextSplitter splitter = splitter(streamed);
+        for (int start = 0; start < text.length(); start += 7) {
+            splitter.append(text.substring(start, Math.min(start + 7, text.length())));
+        }
+        splitter.finish();
+
+        assertTrue(expected.size() > 10, "text spans many windows");
+        assertEquals(expected, streamed);
+        assertEquals(expected.size(), splitter.chunkCount());
+    }
+
+    @Test
+    void emitsChunksBeforeTheTextEnds() {
+        List<String> chunks = new ArrayList<>();
+        StreamingTextSplitter splitter = splitter(chunks);
+
+        splitter.append(sampleText(100));
+
+        assertTrue(chunks.size() > 0);
+        int emitted = chunks.size();
+        splitter.finish();
+        assertTrue(chunks.size() > emitted);
+    }
+
+    @Test
+    void cutsChunksBackToTheLastSentenceEnd() {
+        List<String> chunks = new ArrayList<>();
+        StreamingTextSplitter splitter = splitter(chunks);
+
+        splitter.append(sampleText(40));
+        splitter.finish();
+
+        for (String chunk : chunks.subList(0, chunks.size() - 1)) {
+            assertTrue(chunk.endsWith(".") || chunk.endsWith("?"), chunk);
+        }
+    }
+
+    @Test
+    void acceptsCharArrayRanges() {
+        List<String> fromString = new ArrayList<>();
+        StreamingTextSplitter stringSplitter = splitter(fromString);
+        stringSplitter.append(sampleText(50));
+        stringSplitter.finish();
+
+        List<String> fromChars = new ArrayList<>();
+        StreamingTextSplitter charSplitter = splitter(fromChars);
+        char[] buffer = ("xx" + sampleText(50) + "yy").toCharArray();
+        charSplitter.append(buffer, 2, buffer.length - 4);
+        charSplitter.finish();
+
+        assertEquals(fromString, fromChars);
+    }
+
+    @Test
+    void collapsesRunsOfBlankLines() {
+        List<String> chunks = new ArrayList<>();
+        StreamingTextSplitter splitter = splitter(chunks);
+
+        splitter.append("First paragraph.\n\n   \n\n");
+        splitter.append("\nSecond paragraph.");
+        splitter.finish();
+
+        assertEquals(List.of("First paragraph.\n" + System.lineSeparator() + "Second paragraph."), chunks);
+    }
+
+    @Test
+    void dropsChunksNotLongerThanTheMinimumAndBlankText() {
+        List<String> chunks = new ArrayList<>();
+        StreamingTextSplitter splitter = splitter(chunks);
+
+        splitter.append("Hi.");
+        splitter.finish();
+        splitter.append(" \n\t ");
+        splitter.finish();
+
+        assertEquals(List.of(), chunks);
+        assertEquals(0, splitter.chunkCount());
+    }
+
+    private static StreamingTextSplitter splitter(List<String> sink) {
+        // Smallest window (8 chunks of characters): every test text spans several
+        return new StreamingTextSplitter(CHUNK_SIZE, MIN_CHUNK_SIZE_CHARS, MIN_CHUNK_LENGTH_TO_EMBED, 0, sink::add);
+    }
+
+    /**
+     * Sentences of random words (same text for the same count)
+     */
+    private static String sampleText(int sentences) {
+        String[] words = { "course", "exam", "library", "student", "schedule", "the", "of", "campus", "harbin",
+                "engineering", "retrieval", "chunk", "semester", "credit", "lecture", "notes" };
+        Random random = new Random(sentences);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < sentences; i++) {
+            int length = 4 + random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                String word = words[random.nextInt(words.length)];
+                text.append(j == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+                text.append(j == length - 1 ? (random.nextInt(5) == 0 ? "?" : ".") : " ");
+            }
+            text.append(random.nextInt(6) == 0 ? "\n" : " ");
+        }
+        return text.toString();
+    }
+}